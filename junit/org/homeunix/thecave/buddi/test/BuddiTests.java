@@ -4,12 +4,28 @@
 package org.homeunix.thecave.buddi.test;
 
 import org.homeunix.thecave.buddi.test.model.AccountTest;
+import org.homeunix.thecave.buddi.test.model.AutoCompleteDictionaryTest;
+import org.homeunix.thecave.buddi.test.model.BackupStoreTest;
+import org.homeunix.thecave.buddi.test.model.BalanceBenchmarkTest;
+import org.homeunix.thecave.buddi.test.model.BinaryDocumentTest;
 import org.homeunix.thecave.buddi.test.model.BudgetCategoryTest;
 import org.homeunix.thecave.buddi.test.model.CloneTest;
+import org.homeunix.thecave.buddi.test.model.DocumentJournalTest;
+import org.homeunix.thecave.buddi.test.model.DocumentSnapshotTest;
 import org.homeunix.thecave.buddi.test.model.DocumentTest;
+import org.homeunix.thecave.buddi.test.model.FilteredListsTest;
+import org.homeunix.thecave.buddi.test.model.FormatterTest;
+import org.homeunix.thecave.buddi.test.model.ImmutableWrapperTest;
+import org.homeunix.thecave.buddi.test.model.LoadPipelineTest;
+import org.homeunix.thecave.buddi.test.model.MappedDocumentTest;
+import org.homeunix.thecave.buddi.test.model.SavePipelineTest;
 import org.homeunix.thecave.buddi.test.model.ScheduledTransactionTest;
 import org.homeunix.thecave.buddi.test.model.SplitsTest;
+import org.homeunix.thecave.buddi.test.model.TransactionArchiveTest;
+import org.homeunix.thecave.buddi.test.model.TransactionCellRendererTest;
+import org.homeunix.thecave.buddi.test.model.TransactionSearchTest;
 import org.homeunix.thecave.buddi.test.model.TransactionTest;
+import org.homeunix.thecave.buddi.test.model.XMLDocumentReaderTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
@@ -18,9 +34,25 @@ import org.junit.runners.Suite;
 	CloneTest.class,
 	DocumentTest.class,
 	AccountTest.class,
+	BalanceBenchmarkTest.class,
 	BudgetCategoryTest.class,
+	BinaryDocumentTest.class,
 	ScheduledTransactionTest.class,
 	SplitsTest.class,
 	TransactionTest.class,
+	XMLDocumentReaderTest.class,
+	FilteredListsTest.class,
+	TransactionCellRendererTest.class,
+	FormatterTest.class,
+	AutoCompleteDictionaryTest.class,
+	TransactionSearchTest.class,
+	ImmutableWrapperTest.class,
+	TransactionArchiveTest.class,
+	LoadPipelineTest.class,
+	BackupStoreTest.class,
+	DocumentJournalTest.class,
+	SavePipelineTest.class,
+	DocumentSnapshotTest.class,
+	MappedDocumentTest.class,
 })
 public class BuddiTests {}
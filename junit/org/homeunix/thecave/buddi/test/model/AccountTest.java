@@ -69,6 +69,33 @@ public class AccountTest {
 		}
 	}
 	
+	@Test
+	public void testGetBalanceDateAfterEdit() throws Exception {
+		Document d = ModelFactory.createDocument();
+		Account a = ModelFactory.createAccount("Test", d.getAccountType("Cash"));
+		a.setStartingBalance(1000);
+		d.addAccount(a);
+		BudgetCategory bc = d.getBudgetCategory("Groceries");
+		
+		Transaction t1 = ModelFactory.createTransaction(DateUtil.getDate(2007, Calendar.AUGUST, 1), "Test 1", 100, a, bc);
+		Transaction t2 = ModelFactory.createTransaction(DateUtil.getDate(2007, Calendar.AUGUST, 5), "Test 2", 200, a, bc);
+		d.addTransaction(t1);
+		d.addTransaction(t2);
+		d.updateAllBalances();
+		assertEquals(700, a.getBalance(DateUtil.getDate(2007, Calendar.AUGUST, 10)));
+		assertEquals(700, d.getNetWorth(DateUtil.getDate(2007, Calendar.AUGUST, 10)));
+		
+		//The balance at a date must reflect changes, even before updateAllBalances() is called.
+		t1.setAmount(300);
+		assertEquals(700, a.getBalance(DateUtil.getDate(2007, Calendar.AUGUST, 1)));
+		assertEquals(500, a.getBalance(DateUtil.getDate(2007, Calendar.AUGUST, 10)));
+		t2.setDeleted(true);
+		assertEquals(700, a.getBalance(DateUtil.getDate(2007, Calendar.AUGUST, 10)));
+		a.setStartingBalance(0);
+		assertEquals(0, a.getBalance(DateUtil.getDate(2007, Calendar.JULY, 31)));
+		assertEquals(-300, d.getNetWorth(DateUtil.getDate(2007, Calendar.AUGUST, 10)));
+	}
+	
 	@Test
 	public void accountStartDate() throws Exception {
 		Document d = ModelFactory.createDocument();
@@ -0,0 +1,78 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.AutoCompleteDictionary;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.model.swing.AutoCompleteEntryModel;
+import org.homeunix.thecave.buddi.model.swing.DescriptionList;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class AutoCompleteDictionaryTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testAutoCompleteDictionary() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 1), "Gas", 100, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 2), "Groceries", 200, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 3), "Groceries", 300, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 4), "Garage", 400, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 5), "Paycheque", 500, salary, a));
+		
+		AutoCompleteDictionary dictionary = AutoCompleteDictionary.getDictionary(d);
+		assertTrue(dictionary == AutoCompleteDictionary.getDictionary(d));
+		assertEquals(Arrays.asList("Garage", "Gas", "Groceries", "Paycheque"), new DescriptionList(d));
+		
+		//Completions are ranked by frequency, then by the latest use
+		assertEquals(Arrays.asList("Groceries", "Garage", "Gas"), dictionary.getCompletions("g"));
+		assertEquals(Arrays.asList("Garage", "Gas"), dictionary.getCompletions("GA"));
+		assertEquals(Arrays.asList(), dictionary.getCompletions("x"));
+		assertEquals(4, dictionary.getCompletions("").size());
+		
+		//The latest transaction is used to fill in new ones
+		AutoCompleteEntryModel entries = new AutoCompleteEntryModel(d);
+		assertEquals(300, entries.getEntry("Groceries").getAmount());
+		assertEquals(salary, entries.getEntry("Paycheque").getFrom());
+		assertEquals(null, entries.getEntry("Nothing"));
+		
+		//Changes to the transactions are picked up
+		Transaction gas = d.getTransactions().get(0);
+		gas.setDescription("Gas Station");
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 6), "Gas Station", 600, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 0, 7), "Gas Station", 700, a, groceries));
+		assertEquals(Arrays.asList("Gas Station", "Groceries", "Garage"), dictionary.getCompletions("g"));
+		assertEquals(700, entries.getEntry("Gas Station").getAmount());
+		d.removeTransaction(d.getTransactions().get(d.getTransactions().size() - 1));
+		assertEquals(600, entries.getEntry("Gas Station").getAmount());
+		d.getTransactions().get(d.getTransactions().size() - 1).setAmount(650);
+		assertEquals(650, entries.getEntry("Gas Station").getAmount());
+		for (Transaction t : new ArrayList<Transaction>(d.getTransactions())) {
+			if (t.getDescription().equals("Groceries"))
+				d.removeTransaction(t);
+		}
+		assertEquals(Arrays.asList("Garage", "Gas Station", "Paycheque"), new DescriptionList(d));
+		assertEquals(null, entries.getEntry("Groceries"));
+	}
+}
@@ -0,0 +1,198 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.util.BackupCatalog;
+import org.homeunix.thecave.buddi.util.BackupStore;
+import org.homeunix.thecave.buddi.util.FileFunctions;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class BackupStoreTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testBackupStore() throws Exception {
+		File file = File.createTempFile("BackupStoreTest", ".buddi3");
+		String fileBase = file.getAbsolutePath().replaceAll("\\.buddi3$", "");
+		BackupStore store = new BackupStore(fileBase, 3);
+		
+		for (int i = 0; i < 5; i++){
+			FileOutputStream os = new FileOutputStream(file);
+			os.write(("Version " + i).getBytes());
+			os.close();
+			assertEquals(store.getBackupFile(0), store.backup(file));
+		}
+		
+		//The newest backup has the smallest number, and the oldest one falls off the end
+		assertEquals(BackupStore.getHash(file), BackupStore.getHash(store.getBackupFile(0)));
+		assertEquals("Version 2", FileFunctions.readTextStream(new FileInputStream(store.getBackupFile(2))));
+		assertFalse(store.getBackupFile(3).exists());
+		
+		//Backing up an unchanged file must link to the same contents, and unused contents are removed
+		store.backup(file);
+		assertTrue(Files.isSameFile(store.getBackupFile(0).toPath(), store.getBackupFile(1).toPath()));
+		assertEquals("Version 3", FileFunctions.readTextStream(new FileInputStream(store.getBackupFile(2))));
+		if (store.getStoreFolder().exists())
+			assertEquals(2, store.getStoreFolder().list().length);
+		
+		deleteBackups(store, file);
+	}
+
+	@Test
+	public void testBackupCatalog() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 5);
+		
+		File file = File.createTempFile("BackupCatalogTest", ".buddi3");
+		DocumentImpl document = (DocumentImpl) d;
+		document.saveAs(file);
+		document.waitUntilFinishedSaving();
+		BackupStore store = ModelFactory.getBackupStore(file);
+		
+		//Each save backs up the previous version, along with what we knew about it
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 2, 1), "Another", 5, a, d.getBudgetCategory("Groceries")));
+		document.save();
+		document.waitUntilFinishedSaving();
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 2, 2), "Another", 5, a, d.getBudgetCategory("Groceries")));
+		document.save();
+		document.waitUntilFinishedSaving();
+		
+		Map<File, BackupCatalog.Entry> backups = store.getBackups();
+		assertEquals(2, backups.size());
+		BackupCatalog.Entry newest = backups.get(store.getBackupFile(0));
+		assertEquals(6, newest.getTransactionCount());
+		assertEquals(d.getUid(), newest.getDocumentUid());
+		assertEquals(store.getBackupFile(0).length(), newest.getSize());
+		assertEquals(5, backups.get(store.getBackupFile(1)).getTransactionCount());
+		assertTrue(newest.getTimestamp() != null);
+		
+		//Backups which are not in the catalog are still listed, using the file header
+		store.getCatalogFile().delete();
+		backups = store.getBackups();
+		assertEquals(2, backups.size());
+		assertEquals(-1, backups.get(store.getBackupFile(0)).getTransactionCount());
+		assertEquals(newest.getTimestamp(), backups.get(store.getBackupFile(0)).getTimestamp());
+		
+		deleteBackups(store, file);
+	}
+
+	@Test
+	public void testBackupCatalogLocking() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 5);
+		
+		final File file = File.createTempFile("BackupCatalogLockingTest", ".buddi3");
+		DocumentImpl document = (DocumentImpl) d;
+		document.saveAs(file);
+		document.waitUntilFinishedSaving();
+		
+		//Any catalog which could not be saved is logged as a warning
+		final List<LogRecord> warnings = Collections.synchronizedList(new ArrayList<LogRecord>());
+		Handler handler = new Handler(){
+			@Override
+			public void publish(LogRecord record) {
+				if (record.getLevel().intValue() >= Level.WARNING.intValue())
+					warnings.add(record);
+			}
+			@Override
+			public void flush() {}
+			@Override
+			public void close() {}
+		};
+		Logger logger = Logger.getLogger(BackupStore.class.getName());
+		logger.addHandler(handler);
+		
+		//The save thread backs up while the backups are listed, each with its own store
+		final List<Exception> errors = Collections.synchronizedList(new ArrayList<Exception>());
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(new Thread(){
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 50; i++)
+						ModelFactory.getBackupStore(file).backup(file);
+				}
+				catch (Exception e){
+					errors.add(e);
+				}
+			}
+		});
+		for (int i = 0; i < 4; i++){
+			threads.add(new Thread(){
+				@Override
+				public void run() {
+					for (int i = 0; i < 50; i++)
+						ModelFactory.getBackupStore(file).getBackups();
+				}
+			});
+		}
+		try {
+			for (Thread thread : threads)
+				thread.start();
+			for (Thread thread : threads)
+				thread.join();
+		}
+		finally {
+			logger.removeHandler(handler);
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertTrue(warnings.toString(), warnings.isEmpty());
+		
+		//No rotation may be lost, so every backup is still known to be a copy of the saved file
+		BackupStore store = ModelFactory.getBackupStore(file);
+		Map<File, BackupCatalog.Entry> backups = store.getBackups();
+		assertTrue(backups.size() > 0);
+		for (BackupCatalog.Entry entry : backups.values()){
+			assertEquals(5, entry.getTransactionCount());
+			assertEquals(d.getUid(), entry.getDocumentUid());
+		}
+		
+		deleteBackups(store, file);
+	}
+
+	/**
+	 * Removes the data file along with its backups, catalog, store and journal.
+	 */
+	private void deleteBackups(BackupStore store, File file){
+		for (int i = 0; store.getBackupFile(i).exists(); i++)
+			store.getBackupFile(i).delete();
+		if (store.getStoreFolder().exists()){
+			for (File f : store.getStoreFolder().listFiles())
+				f.delete();
+			store.getStoreFolder().delete();
+		}
+		store.getCatalogFile().delete();
+		ModelFactory.getJournalLocation(file).delete();
+		file.delete();
+	}
+}
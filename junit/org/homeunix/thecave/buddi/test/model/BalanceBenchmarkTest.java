@@ -0,0 +1,164 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+/**
+ * Verifies that the incremental balance updates give the same results as a
+ * full recalculation, and logs the per-edit latency.  
+ * 
+ * The document is kept small by default, so that this can run with the other
+ * tests; to measure the latency on a large document, set the
+ * buddi.benchmark.transactions system property (the Gradle benchmark task 
+ * uses 100000).
+ */
+public class BalanceBenchmarkTest {
+
+	private static final int TRANSACTIONS = Integer.getInteger("buddi.benchmark.transactions", 2000);
+	private static final int EDITS = 200;
+
+	private Document d;
+	private Account[] accounts;
+
+	@Before
+	public void setup() throws Exception {
+		d = ModelFactory.createDocument();
+		accounts = new Account[3];
+		for (int i = 0; i < accounts.length; i++){
+			accounts[i] = ModelFactory.createAccount("Account " + i, d.getAccountType("Cash"));
+			accounts[i].setStartingBalance(i * 1000);
+			d.addAccount(accounts[i]);
+		}
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+
+		//About 27 transactions per day (100000 is about 10 years).
+		Date start = DateUtil.getDate(2000, Calendar.JANUARY, 1);
+		for (int i = 0; i < TRANSACTIONS; i++){
+			Account a = accounts[i % accounts.length];
+			Transaction t;
+			if (i % 5 == 0)
+				t = ModelFactory.createTransaction(DateUtil.addDays(start, i / 27), "Pay " + i, 100000, salary, a);
+			else if (i % 7 == 0)
+				t = ModelFactory.createTransaction(DateUtil.addDays(start, i / 27), "Transfer " + i, 2500, a, accounts[(i + 1) % accounts.length]);
+			else
+				t = ModelFactory.createTransaction(DateUtil.addDays(start, i / 27), "Store " + i, 1000 + (i % 100), a, groceries);
+			d.addTransaction(t);
+		}
+		d.updateAllBalances();
+	}
+
+	@Test
+	public void testIncrementalMatchesFull() throws Exception {
+		List<Transaction> transactions = d.getTransactions();
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+
+		//Insert at the start, which invalidates everything
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(1999, Calendar.DECEMBER, 31), "Early", 123, accounts[0], groceries));
+		d.updateAllBalances();
+		assertBalances();
+
+		//Change the amount of a transaction in the middle
+		transactions.get(TRANSACTIONS / 2).setAmount(98765);
+		d.updateAllBalances();
+		assertBalances();
+
+		//Move a transaction from the end of the list to the middle
+		transactions.get(transactions.size() - 1).setDate(transactions.get(TRANSACTIONS / 3).getDate());
+		d.updateAllBalances();
+		assertBalances();
+
+		//Change the account of a transaction
+		Transaction t = transactions.get(TRANSACTIONS / 4);
+		t.setFrom(t.getFrom().equals(accounts[0]) ? accounts[1] : accounts[0]);
+		d.updateAllBalances();
+		assertBalances();
+
+		//Delete, undelete and remove transactions
+		transactions.get(TRANSACTIONS - 100).setDeleted(true);
+		d.updateAllBalances();
+		assertBalances();
+		transactions.get(TRANSACTIONS - 100).setDeleted(false);
+		d.updateAllBalances();
+		assertBalances();
+		d.removeTransaction(transactions.get(10));
+		d.updateAllBalances();
+		assertBalances();
+
+		//Change the starting balance
+		accounts[2].setStartingBalance(-5000);
+		d.updateAllBalances();
+		assertBalances();
+	}
+
+	@Test
+	public void testEditLatency() throws Exception {
+		List<Transaction> transactions = d.getTransactions();
+
+		long start = System.nanoTime();
+		for (int i = 0; i < EDITS; i++){
+			Transaction t = transactions.get(transactions.size() - 1 - (i % 50));
+			t.setAmount(t.getAmount() + 1);
+			d.updateAllBalances();
+		}
+		long recent = (System.nanoTime() - start) / EDITS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < EDITS; i++){
+			Transaction t = transactions.get((int) ((long) i * transactions.size() / EDITS));
+			t.setAmount(t.getAmount() + 1);
+			d.updateAllBalances();
+		}
+		long spread = (System.nanoTime() - start) / EDITS;
+
+		start = System.nanoTime();
+		for (int i = 0; i < EDITS / 10; i++){
+			for (Account a : accounts)
+				a.setStartingBalance(a.getStartingBalance() + 1);
+			d.updateAllBalances();
+		}
+		long full = (System.nanoTime() - start) / (EDITS / 10);
+
+		Logger.getLogger(this.getClass().getName()).info(
+				"Average per-edit balance update time for " + TRANSACTIONS + " transactions: "
+				+ (recent / 1000) + " us for recent transactions, "
+				+ (spread / 1000) + " us for transactions spread across the document, "
+				+ (full / 1000) + " us for a full recalculation.");
+
+		assertBalances();
+	}
+
+	/**
+	 * Recalculates the running balance of each account from scratch, and checks
+	 * it against the values calculated by the document.
+	 */
+	private void assertBalances(){
+		for (Account a : accounts) {
+			long balance = a.getStartingBalance();
+			for (Transaction t : d.getTransactions(a)) {
+				if (t.isDeleted())
+					continue;
+				if (t.getTo().equals(a))
+					balance += t.getAmount();
+				else if (t.getFrom().equals(a))
+					balance -= t.getAmount();
+				assertEquals(balance, t.getBalance(a.getUid()));
+			}
+			assertEquals(balance, a.getBalance());
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.i18n.keys.ScheduleFrequency;
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.BinaryDocumentReader;
+import org.homeunix.thecave.buddi.model.impl.BinaryDocumentWriter;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+public class BinaryDocumentTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+
+		Account a1 = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		a1.setStartingBalance(12345);
+		a1.setNotes("Some notes, with unicode éè");
+		d.addAccount(a1);
+		Account a2 = ModelFactory.createAccount("Savings", d.getAccountType("Cash"));
+		d.addAccount(a2);
+
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+		groceries.setAmount(DateUtil.getDate(2008, 1, 1), 20000);
+
+		Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 5), "Store", 1000, a1, groceries);
+		t.setMemo("Memo");
+		t.setNumber("42");
+		t.setClearedFrom(true);
+		d.addTransaction(t);
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 6), "Pay", 50000, salary, a1));
+
+		Transaction split = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 7), "Split", 3000, a1, groceries);
+		List<TransactionSplit> toSplits = new ArrayList<TransactionSplit>();
+		toSplits.add(ModelFactory.createTransactionSplit(groceries, 1000));
+		toSplits.add(ModelFactory.createTransactionSplit(a2, 2000));
+		split.setToSplits(toSplits);
+		d.addTransaction(split);
+
+		d.addScheduledTransaction(
+				ModelFactory.createScheduledTransaction(
+						"Rent",
+						"Pay the rent",
+						DateUtil.getDate(2008, 1, 1),
+						null,
+						ScheduleFrequency.SCHEDULE_FREQUENCY_MONTHLY_BY_DATE.toString(),
+						1,
+						0,
+						0,
+						"Landlord",
+						80000,
+						a1,
+						groceries));
+
+		d.updateAllBalances();
+	}
+
+	@Test
+	public void testMagic() throws Exception {
+		byte[] bytes = saveBinary(d);
+		assertTrue(BinaryDocumentReader.isBinaryFormat(bytes));
+		assertFalse(BinaryDocumentReader.isBinaryFormat(saveXml(d)));
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		DocumentImpl loaded = new BinaryDocumentReader(new ByteArrayInputStream(saveBinary(d))).read();
+
+		assertEquals(d.getUid(), loaded.getUid());
+		assertEquals(d.getAccounts().size(), loaded.getAccounts().size());
+		assertEquals(d.getTransactions().size(), loaded.getTransactions().size());
+		assertEquals(d.getScheduledTransactions().size(), loaded.getScheduledTransactions().size());
+
+		Transaction split = loaded.getTransactions().get(2);
+		assertEquals("Split", split.getDescription());
+		assertTrue(split.getTo() instanceof Split);
+		assertEquals(2, split.getToSplits().size());
+		assertEquals(2000, split.getToSplits().get(1).getAmount());
+		assertEquals(d.getAccounts().get(1).getUid(), split.getToSplits().get(1).getSource().getUid());
+		assertEquals("Memo", loaded.getTransactions().get(0).getMemo());
+		assertTrue(loaded.getTransactions().get(0).isClearedFrom());
+		assertEquals("Rent", loaded.getScheduledTransactions().get(0).getScheduleName());
+		assertEquals(20000, loaded.getBudgetCategory("Groceries").getAmount(DateUtil.getDate(2008, 1, 1)));
+
+		//Writing the loaded document again should result in exactly the same bytes.
+		assertArrayEquals(saveBinary(d), saveBinary(loaded));
+
+		//The loaded document must also be writable as XML, so that it can be converted back.
+		assertTrue(saveXml(loaded).length > 0);
+	}
+
+	@Test
+	public void testFixedWidthRecords() throws Exception {
+		//Adding a transaction should grow the file by exactly one record, plus its new UID in the string table
+		int before = saveBinary(d).length;
+		Transaction t = d.getTransactions().get(0);
+		Transaction copy = ModelFactory.createTransaction(t.getDate(), t.getDescription(), t.getAmount(), t.getFrom(), t.getTo());
+		d.addTransaction(copy);
+		assertEquals(before + 48 + 4 + copy.getUid().getBytes("UTF-8").length, saveBinary(d).length);
+	}
+
+	private byte[] saveBinary(Document d) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new BinaryDocumentWriter(baos).write((DocumentImpl) d);
+		return baos.toByteArray();
+	}
+
+	private byte[] saveXml(Document d) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		d.setFlag(Document.BINARY_FORMAT, false);
+		d.saveToStream(baos);
+		return baos.toByteArray();
+	}
+}
@@ -6,11 +6,22 @@ package org.homeunix.thecave.buddi.test.model;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.homeunix.thecave.buddi.i18n.keys.BudgetCategoryTypes;
+import org.homeunix.thecave.buddi.model.Account;
 import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.BudgetCategoryType;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.BudgetCategoryImpl;
 import org.homeunix.thecave.buddi.model.impl.ModelFactory;
 import org.junit.Test;
 
@@ -104,4 +115,90 @@ public class BudgetCategoryTest {
 		assertEquals(DateUtil.getDate(2007, Calendar.DECEMBER, 1), bc.getBudgetedDates().get(1));
 	}
 	
+	@Test
+	public void amountKeys() throws Exception {
+		BudgetCategoryType bct = ModelFactory.getBudgetCategoryType(BudgetCategoryTypes.BUDGET_CATEGORY_TYPE_MONTH);
+		BudgetCategoryImpl bc = (BudgetCategoryImpl) ModelFactory.createBudgetCategory("Keys Test", bct, false);
+		
+		//Amounts set through the API must be stored with the same keys as before
+		bc.setAmount(DateUtil.getDate(2007, Calendar.NOVEMBER, 5), 100);
+		assertEquals(Long.valueOf(100), bc.getAmounts().get(bct.getName() + ":2007:10:1"));
+		
+		//... and amounts loaded from the data file must be visible through the API
+		bc.getAmounts().put(bct.getName() + ":2007:11:1", 200l);
+		assertEquals(200l, bc.getAmount(DateUtil.getDate(2007, Calendar.DECEMBER, 12)));
+		
+		//Keys in other formats are kept as is
+		bc.getAmounts().put("Unknown key", 300l);
+		assertEquals(3, bc.getAmounts().size());
+		assertEquals(Long.valueOf(300), bc.getAmounts().get("Unknown key"));
+		
+		Map<String, Long> copy = new HashMap<String, Long>(bc.getAmounts());
+		bc.setAmounts(copy);
+		assertEquals(copy, bc.getAmounts());
+		assertEquals(300l, bc.getAmount(DateUtil.getDate(2007, Calendar.NOVEMBER, 1), DateUtil.getDate(2007, Calendar.DECEMBER, 31)));
+		
+		//Amounts can be removed through the map and its iterator
+		assertEquals(Long.valueOf(200), bc.getAmounts().remove(bct.getName() + ":2007:11:1"));
+		assertEquals(0, bc.getAmount(DateUtil.getDate(2007, Calendar.DECEMBER, 12)));
+		assertEquals(Long.valueOf(300), bc.getAmounts().remove("Unknown key"));
+		assertEquals(null, bc.getAmounts().remove("Unknown key"));
+		assertEquals(1, bc.getAmounts().size());
+		
+		for (int i = 0; i < 240; i++)
+			bc.setAmount(DateUtil.getDate(2000 + i / 12, i % 12, 1), i + 1);
+		bc.getAmounts().put("Unknown key", 300l);
+		for (Iterator<Map.Entry<String, Long>> i = bc.getAmounts().entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<String, Long> entry = i.next();
+			if (entry.getValue() % 2 == 0 || entry.getKey().equals("Unknown key"))
+				i.remove();
+		}
+		assertEquals(120, bc.getAmounts().size());
+		for (int i = 0; i < 240; i++)
+			assertEquals(i % 2 == 0 ? i + 1 : 0, bc.getAmount(DateUtil.getDate(2000 + i / 12, i % 12, 15)));
+		assertEquals(false, bc.getAmounts().containsKey("Unknown key"));
+	}
+	
+	@Test
+	public void actuals() throws Exception {
+		Document d = ModelFactory.createDocument();
+		Account a = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		d.addAccount(a);
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+		BudgetCategoryType bct = groceries.getBudgetPeriodType();
+		Date april = DateUtil.getDate(2007, Calendar.APRIL, 10);
+		Date may = DateUtil.getDate(2007, Calendar.MAY, 10);
+		
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, Calendar.APRIL, 1), "Store", 1000, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, Calendar.APRIL, 30), "Store", 500, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, Calendar.MAY, 1), "Store", 200, a, groceries));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, Calendar.APRIL, 15), "Pay", 5000, salary, a));
+		
+		assertEquals(-1500, groceries.getActual(bct.getStartOfBudgetPeriod(april), bct.getEndOfBudgetPeriod(april)));
+		assertEquals(-200, groceries.getActual(bct.getStartOfBudgetPeriod(may), bct.getEndOfBudgetPeriod(may)));
+		assertEquals(5000, salary.getActual(bct.getStartOfBudgetPeriod(april), bct.getEndOfBudgetPeriod(april)));
+		
+		//Edits must be reflected in the cached actuals
+		Transaction t = d.getTransactions(groceries).get(0);
+		t.setAmount(3000);
+		assertEquals(-3500, groceries.getActual(bct.getStartOfBudgetPeriod(april), bct.getEndOfBudgetPeriod(april)));
+		t.setDate(may);
+		assertEquals(-500, groceries.getActual(bct.getStartOfBudgetPeriod(april), bct.getEndOfBudgetPeriod(april)));
+		assertEquals(-3200, groceries.getActual(bct.getStartOfBudgetPeriod(may), bct.getEndOfBudgetPeriod(may)));
+		t.setDeleted(true);
+		assertEquals(-200, groceries.getActual(bct.getStartOfBudgetPeriod(may), bct.getEndOfBudgetPeriod(may)));
+		
+		//Splits only count the amount which was assigned to the category
+		Transaction split = ModelFactory.createTransaction(may, "Split", 900, a, groceries);
+		List<TransactionSplit> toSplits = new ArrayList<TransactionSplit>();
+		toSplits.add(ModelFactory.createTransactionSplit(groceries, 300));
+		toSplits.add(ModelFactory.createTransactionSplit(d.getBudgetCategory("Auto"), 600));
+		split.setToSplits(toSplits);
+		d.addTransaction(split);
+		assertEquals(-500, groceries.getActual(bct.getStartOfBudgetPeriod(may), bct.getEndOfBudgetPeriod(may)));
+		
+		d.removeTransaction(split);
+		assertEquals(-200, groceries.getActual(bct.getStartOfBudgetPeriod(may), bct.getEndOfBudgetPeriod(may)));
+	}
 }
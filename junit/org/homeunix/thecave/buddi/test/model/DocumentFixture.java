@@ -0,0 +1,107 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.plugin.api.exception.ModelException;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+/**
+ * The document setup and checks which are shared by the model tests.
+ */
+class DocumentFixture {
+	/**
+	 * Creates a new cash account with the given name, and adds it to the document.
+	 */
+	static Account addAccount(Document d, String name) throws ModelException {
+		Account a = ModelFactory.createAccount(name, d.getAccountType("Cash"));
+		d.addAccount(a);
+		return a;
+	}
+
+	/**
+	 * Adds the given number of grocery transactions from the given account, named
+	 * 'Test 0', 'Test 1', etc., in February 2007.
+	 */
+	static void addTransactions(Document d, Account a, int count) throws ModelException {
+		for (int i = 0; i < count; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1 + i % 28), "Test " + i, 100 + i, a, d.getBudgetCategory("Groceries")));
+	}
+
+	/**
+	 * Returns a new, empty data file, which is deleted when the tests finish.
+	 */
+	static File createTempFile() throws IOException {
+		File file = File.createTempFile("buddi", ".buddi3");
+		file.deleteOnExit();
+		return file;
+	}
+
+	/**
+	 * Returns the transactions whose description, memo or source names contain
+	 * the given lower case text, without using the search index.
+	 */
+	static List<Transaction> findTransactions(Document d, String text){
+		List<Transaction> result = new ArrayList<Transaction>();
+		for (Transaction t : d.getTransactions()){
+			if (t.getDescription().toLowerCase().contains(text) 
+					|| (t.getMemo() != null && t.getMemo().toLowerCase().contains(text))
+					|| t.getFrom().getName().toLowerCase().contains(text)
+					|| t.getTo().getName().toLowerCase().contains(text))
+				result.add(t);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for the count to go past the given number of events; events which 
+	 * follow soon after another are delivered later, from a timer.
+	 */
+	static void waitForEvents(int[] events, int count) throws InterruptedException {
+		for (int i = 0; i < 100 && events[0] <= count; i++)
+			Thread.sleep(50);
+		assertTrue(events[0] > count);
+	}
+
+	/**
+	 * Checks that the two documents contain the same sources and transactions,
+	 * in the same order.
+	 */
+	static void assertSameDocument(Document expected, Document actual){
+		assertEquals(expected.getAccountTypes().size(), actual.getAccountTypes().size());
+		assertEquals(expected.getBudgetCategories().size(), actual.getBudgetCategories().size());
+		assertEquals(expected.getScheduledTransactions().size(), actual.getScheduledTransactions().size());
+
+		assertEquals(expected.getAccounts().size(), actual.getAccounts().size());
+		for (int i = 0; i < expected.getAccounts().size(); i++){
+			Account e = expected.getAccounts().get(i);
+			Account a = actual.getAccounts().get(i);
+			assertEquals(e.getName(), a.getName());
+			assertEquals(e.isDeleted(), a.isDeleted());
+			assertEquals(e.getBalance(), a.getBalance());
+		}
+
+		assertEquals(expected.getTransactions().size(), actual.getTransactions().size());
+		for (int i = 0; i < expected.getTransactions().size(); i++){
+			Transaction e = expected.getTransactions().get(i);
+			Transaction a = actual.getTransactions().get(i);
+			assertEquals(e.getDate(), a.getDate());
+			assertEquals(e.getDescription(), a.getDescription());
+			assertEquals(e.getNumber(), a.getNumber());
+			assertEquals(e.getMemo(), a.getMemo());
+			assertEquals(e.getAmount(), a.getAmount());
+			assertEquals(e.getFrom().getName(), a.getFrom().getName());
+			assertEquals(e.getTo().getName(), a.getTo().getName());
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class DocumentJournalTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testJournal() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		DocumentFixture.addTransactions(d, a, 20);
+		
+		File file = DocumentFixture.createTempFile();
+		File autosave = ModelFactory.getAutoSaveLocation(file);
+		File journal = ModelFactory.getJournalLocation(file);
+		DocumentImpl document = (DocumentImpl) d;
+		document.saveAs(file);
+		document.waitUntilFinishedSaving();
+		
+		//Autosaves only append the changes to the journal
+		d.getTransactions().get(0).setAmount(999);
+		d.removeTransaction(d.getTransactions().get(1));
+		Account savings = DocumentFixture.addAccount(d, "Savings");
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 2, 1), "New", 5, d.getBudgetCategory("Salary"), savings));
+		document.saveAuto(autosave);
+		assertTrue(journal.exists());
+		assertFalse(autosave.exists());
+		
+		groceries.setName("Food");
+		d.getTransactions().get(5).setDescription("Changed");
+		document.saveAuto(autosave);
+		assertFalse(autosave.exists());
+		
+		//Loading the autosaved changes replays the journal over the data file
+		Document loaded = ModelFactory.createDocument(file, true);
+		d.updateAllBalances();
+		assertEquals(d.getTransactions().size(), loaded.getTransactions().size());
+		for (int i = 0; i < d.getTransactions().size(); i++){
+			assertEquals(d.getTransactions().get(i).getUid(), loaded.getTransactions().get(i).getUid());
+			assertEquals(d.getTransactions().get(i).getDescription(), loaded.getTransactions().get(i).getDescription());
+			assertEquals(d.getTransactions().get(i).getAmount(), loaded.getTransactions().get(i).getAmount());
+			assertEquals(d.getTransactions().get(i).getFrom().getName(), loaded.getTransactions().get(i).getFrom().getName());
+			assertEquals(d.getTransactions().get(i).getTo().getName(), loaded.getTransactions().get(i).getTo().getName());
+		}
+		assertEquals(d.getAccounts().size(), loaded.getAccounts().size());
+		assertEquals(d.getAccount("Savings").getBalance(), loaded.getAccount("Savings").getBalance());
+		assertEquals(d.getAccount("Chequing").getBalance(), loaded.getAccount("Chequing").getBalance());
+		assertTrue(loaded.getBudgetCategory("Food") != null);
+		assertTrue(loaded.getTransactions(loaded.getBudgetCategory("Food")).size() > 0);
+		
+		//Saving compacts the journal into the data file
+		document.save();
+		document.waitUntilFinishedSaving();
+		assertFalse(journal.exists());
+		assertEquals(d.getTransactions().size(), ModelFactory.createDocument(file, true).getTransactions().size());
+		
+		journal.delete();
+		autosave.delete();
+		file.delete();
+	}
+
+	@Test
+	public void testDateAndMemoEdits() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 20);
+		
+		File file = DocumentFixture.createTempFile();
+		File autosave = ModelFactory.getAutoSaveLocation(file);
+		File journal = ModelFactory.getJournalLocation(file);
+		DocumentImpl document = (DocumentImpl) d;
+		document.saveAs(file);
+		document.waitUntilFinishedSaving();
+		
+		//Changing only the date, or setting a memo or number which was not set 
+		// before, is written to the journal like any other change
+		d.getTransactions().get(3).setDate(DateUtil.getDate(2008, 5, 1));
+		Transaction noted = d.getTransactions().get(7);
+		noted.setMemo("Memo");
+		noted.setNumber("42");
+		document.saveAuto(autosave);
+		assertTrue(journal.exists());
+		assertFalse(autosave.exists());
+		
+		Document loaded = ModelFactory.createDocument(file, true);
+		DocumentFixture.assertSameDocument(d, loaded);
+		
+		journal.delete();
+		autosave.delete();
+		file.delete();
+	}
+
+	@Test
+	public void testDeclinedJournal() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 20);
+		
+		File file = DocumentFixture.createTempFile();
+		File autosave = ModelFactory.getAutoSaveLocation(file);
+		File journal = ModelFactory.getJournalLocation(file);
+		DocumentImpl document = (DocumentImpl) d;
+		document.saveAs(file);
+		document.waitUntilFinishedSaving();
+		d.getTransactions().get(0).setAmount(999);
+		document.saveAuto(autosave);
+		assertTrue(journal.exists());
+		
+		//Declining the changes keeps the journal, and autosaves leave it alone
+		DocumentImpl declined = (DocumentImpl) ModelFactory.createDocument(file, false);
+		assertTrue(journal.exists());
+		assertEquals(100, declined.getTransactions().get(0).getAmount());
+		declined.getTransactions().get(1).setAmount(555);
+		declined.saveAuto(autosave);
+		for (int i = 0; i < 100 && !autosave.exists(); i++)
+			Thread.sleep(10);
+		assertTrue(journal.exists());
+		assertTrue(autosave.exists());
+		
+		//The newer autosave file is recovered instead of the declined journal
+		Document recovered = ModelFactory.createDocument(file, true);
+		assertEquals(100, recovered.getTransactions().get(0).getAmount());
+		assertEquals(555, recovered.getTransactions().get(1).getAmount());
+		
+		//Saving the data file removes the journal
+		declined.save();
+		declined.waitUntilFinishedSaving();
+		assertFalse(journal.exists());
+		
+		journal.delete();
+		autosave.delete();
+		file.delete();
+	}
+
+	@Test
+	public void testReplacedBaseFile() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 20);
+		
+		File file = DocumentFixture.createTempFile();
+		File autosave = ModelFactory.getAutoSaveLocation(file);
+		File journal = ModelFactory.getJournalLocation(file);
+		DocumentImpl document = (DocumentImpl) d;
+		document.saveAs(file);
+		document.waitUntilFinishedSaving();
+		d.getTransactions().get(0).setAmount(999);
+		document.saveAuto(autosave);
+		assertTrue(journal.exists());
+		assertEquals(999, ModelFactory.createDocument(file, true).getTransactions().get(0).getAmount());
+		
+		//Once the data file has been changed, the changes are not applied to it
+		long modified = file.lastModified();
+		assertTrue(file.setLastModified(modified - 60000));
+		assertEquals(100, ModelFactory.createDocument(file, true).getTransactions().get(0).getAmount());
+		assertTrue(journal.exists());
+		assertTrue(file.setLastModified(modified));
+		assertEquals(999, ModelFactory.createDocument(file, true).getTransactions().get(0).getAmount());
+		
+		//Nor to a data file with a different document in it
+		Document other = ModelFactory.createDocument();
+		DocumentFixture.addTransactions(other, DocumentFixture.addAccount(other, "Chequing"), 20);
+		File otherFile = DocumentFixture.createTempFile();
+		((DocumentImpl) other).saveAs(otherFile);
+		((DocumentImpl) other).waitUntilFinishedSaving();
+		assertTrue(file.delete());
+		assertTrue(otherFile.renameTo(file));
+		assertTrue(file.setLastModified(modified));
+		assertEquals(100, ModelFactory.createDocument(file, true).getTransactions().get(0).getAmount());
+		assertTrue(journal.exists());
+		
+		journal.delete();
+		autosave.delete();
+		file.delete();
+		otherFile.delete();
+	}
+}
@@ -0,0 +1,82 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.homeunix.thecave.buddi.i18n.keys.ScheduleFrequency;
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class DocumentSnapshotTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Account a1 = DocumentFixture.addAccount(d, "Account 1");
+		Account a2 = DocumentFixture.addAccount(d, "Account 2");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 0; i < 50; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1 + i % 28), "Test " + i, 100 + i, (i % 2 == 0 ? a1 : a2), groceries));
+		d.addScheduledTransaction(ModelFactory.createScheduledTransaction("Rent", null, DateUtil.getDate(2007, 1, 1), null, ScheduleFrequency.SCHEDULE_FREQUENCY_MONTHLY_BY_DATE.toString(), 1, 0, 0, "Rent", 1000, a1, groceries));
+		
+		DocumentImpl document = (DocumentImpl) d;
+		DocumentImpl snapshot = document.getSnapshot();
+		DocumentFixture.assertSameDocument(d, snapshot);
+		
+		//While the snapshot is being saved, we must get a separate copy
+		DocumentImpl other = document.getSnapshot();
+		assertTrue(other != snapshot);
+		document.releaseSnapshot(other);
+		document.releaseSnapshot(snapshot);
+		
+		//Once it is released, the same snapshot is brought up to date
+		Transaction t = d.getTransactions().get(3);
+		t.setFrom(t.getFrom().equals(a1) ? a2 : a1);
+		t.setDate(DateUtil.getDate(2006, 1, 1));
+		d.getTransactions().get(10).setAmount(12345);
+		d.removeTransaction(d.getTransactions().get(20));
+		Account a3 = DocumentFixture.addAccount(d, "Account 3");
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 15), "New", 5, d.getBudgetCategory("Salary"), a3));
+		a1.setName("Renamed");
+		d.getAccountType("Cash").setExpanded(false);
+		
+		assertTrue(snapshot == document.getSnapshot());
+		DocumentFixture.assertSameDocument(d.clone(), snapshot);
+		assertEquals(false, snapshot.getAccountType("Cash").isExpanded());
+		for (Transaction st : snapshot.getTransactions()){
+			assertTrue(snapshot.getAccounts().contains(st.getFrom()) || snapshot.getBudgetCategories().contains(st.getFrom()));
+			assertTrue(snapshot.getAccounts().contains(st.getTo()) || snapshot.getBudgetCategories().contains(st.getTo()));
+		}
+		document.releaseSnapshot(snapshot);
+		
+		//Changing only the date, or filling in an empty memo or number, is picked up too
+		Transaction dated = d.getTransactions().get(5);
+		dated.setDate(DateUtil.getDate(2008, 5, 1));
+		Transaction noted = d.getTransactions().get(6);
+		assertEquals(null, noted.getMemo());
+		assertEquals(null, noted.getNumber());
+		noted.setMemo("Memo");
+		noted.setNumber("42");
+		
+		assertTrue(snapshot == document.getSnapshot());
+		DocumentFixture.assertSameDocument(d.clone(), snapshot);
+		assertEquals(DateUtil.getDate(2008, 5, 1), snapshot.getTransactions().get(snapshot.getTransactions().size() - 1).getDate());
+		document.releaseSnapshot(snapshot);
+	}
+}
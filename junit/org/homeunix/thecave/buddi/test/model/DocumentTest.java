@@ -10,6 +10,8 @@ import static org.junit.Assert.fail;
 import java.beans.XMLDecoder;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -20,12 +22,15 @@ import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.Document;
 import org.homeunix.thecave.buddi.model.ScheduledTransaction;
 import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
 import org.homeunix.thecave.buddi.model.impl.AccountImpl;
 import org.homeunix.thecave.buddi.model.impl.BudgetCategoryImpl;
 import org.homeunix.thecave.buddi.model.impl.ModelFactory;
 import org.junit.Before;
 import org.junit.Test;
 
+import ca.digitalcave.moss.application.document.DocumentChangeEvent;
+import ca.digitalcave.moss.application.document.DocumentChangeListener;
 import ca.digitalcave.moss.common.DateUtil;
 
 
@@ -164,6 +169,116 @@ public class DocumentTest {
 		checkAssertions(model, clonedModel);
 	}
 
+	@Test
+	public void testTransactionsBySource() throws Exception {
+		Account a1 = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		Account a2 = ModelFactory.createAccount("Savings", d.getAccountType("Cash"));
+		d.addAccount(a1);
+		d.addAccount(a2);
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+
+		Transaction t1 = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 5), "First", 100, a1, groceries);
+		Transaction t2 = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 10), "Second", 200, a1, groceries);
+		d.addTransaction(t1);
+		
+		List<Transaction> a1Transactions = d.getTransactions(a1);
+		List<Transaction> a2Transactions = d.getTransactions(a2);
+		assertEquals(1, a1Transactions.size());
+		
+		//The returned list is live, and kept in date order
+		d.addTransaction(t2);
+		assertEquals(2, a1Transactions.size());
+		t2.setDate(DateUtil.getDate(2008, 1, 1));
+		assertTrue(t2 == a1Transactions.get(0));
+		assertTrue(t2 == d.getTransactions().get(0));
+		
+		//Changing sources moves the transaction between lists
+		t2.setFrom(a2);
+		assertEquals(1, a1Transactions.size());
+		assertEquals(1, a2Transactions.size());
+		
+		//Split participants are included
+		List<TransactionSplit> splits = new ArrayList<TransactionSplit>();
+		splits.add(ModelFactory.createTransactionSplit(a2, 40));
+		splits.add(ModelFactory.createTransactionSplit(groceries, 60));
+		t1.setToSplits(splits);
+		assertEquals(2, a2Transactions.size());
+		assertEquals(2, d.getTransactions(groceries).size());
+		
+		d.removeTransaction(t2);
+		assertEquals(1, a2Transactions.size());
+		assertEquals(t1, a2Transactions.get(0));
+	}
+
+	@Test
+	public void testTransactionChangeKeepsIndex() throws Exception {
+		Account a1 = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		d.addAccount(a1);
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		final Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 5), "First", 100, a1, groceries);
+		d.addTransaction(t);
+		final List<Transaction> a1Transactions = d.getTransactions(a1);
+		
+		//Listeners are told about the change once the transaction is back in the lists
+		final int[] missing = new int[1];
+		DocumentChangeListener listener = new DocumentChangeListener(){
+			public void documentChange(DocumentChangeEvent event) {
+				if (!d.getTransactions().contains(t) || !a1Transactions.contains(t))
+					missing[0]++;
+			}
+		};
+		d.addDocumentChangeListener(listener);
+		t.setDate(DateUtil.getDate(2008, 2, 1));
+		t.setAmount(200);
+		t.setDescription("Changed");
+		t.setTo(d.getBudgetCategory("Salary"));
+		d.removeDocumentChangeListener(listener);
+		assertEquals(0, missing[0]);
+		
+		//If the change fails part way through, the transaction is not lost
+		List<TransactionSplit> failing = new AbstractList<TransactionSplit>(){
+			public TransactionSplit get(int index) {
+				throw new IllegalStateException();
+			}
+			public int size() {
+				return 1;
+			}
+			public Object[] toArray() {
+				throw new IllegalStateException();
+			}
+		};
+		try {
+			t.setToSplits(failing);
+			fail("The splits should not have been set");
+		}
+		catch (IllegalStateException ise){}
+		assertTrue(d.getTransactions().contains(t));
+		assertTrue(a1Transactions.contains(t));
+	}
+
+	@Test
+	public void testTransactionsByDate() throws Exception {
+		Account a1 = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		d.addAccount(a1);
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 1; i <= 20; i++){
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, i), "Transaction " + i, 100, a1, groceries));
+		}
+
+		List<Transaction> range = d.getTransactions(DateUtil.getDate(2008, 1, 5), DateUtil.getDate(2008, 1, 9));
+		assertEquals(5, range.size());
+		assertEquals("Transaction 5", range.get(0).getDescription());
+		assertEquals("Transaction 9", range.get(4).getDescription());
+		assertEquals(1, d.getTransactions(a1, DateUtil.getDate(2008, 1, 20), DateUtil.getDate(2008, 2, 1)).size());
+		assertEquals(0, d.getTransactions(DateUtil.getDate(2007, 1, 1), DateUtil.getDate(2007, 12, 31)).size());
+		
+		//The range is live
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 7), "Another", 100, a1, groceries));
+		assertEquals(6, range.size());
+		d.getTransactions().get(0).setDate(DateUtil.getDate(2008, 1, 6));
+		assertEquals(7, range.size());
+	}
+
 	private byte[] saveToBytes(Document d) throws Exception {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		Document d2 = d.clone();
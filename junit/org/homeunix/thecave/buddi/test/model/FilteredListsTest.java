@@ -0,0 +1,141 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.AccountType;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.FilteredLists;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class FilteredListsTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testFilteredListListeners() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Test");
+		int before = FilteredLists.getLiveListenerCount(d);
+
+		//Disposed lists must be unregistered right away
+		List<FilteredLists.AccountListFilteredByDeleted> lists = new ArrayList<FilteredLists.AccountListFilteredByDeleted>();
+		for (int i = 0; i < 100; i++)
+			lists.add(new FilteredLists.AccountListFilteredByDeleted(d, d.getAccounts()));
+		assertEquals(before + 100, FilteredLists.getLiveListenerCount(d));
+		for (FilteredLists.AccountListFilteredByDeleted list : lists)
+			list.dispose();
+		assertEquals(before, FilteredLists.getLiveListenerCount(d));
+
+		//Lists which are not referenced any more must not be kept alive by the document.
+		// We can only see this once the GC has collected the list, which it does not 
+		// have to do; if it has not done so after a few tries, we skip the check.
+		ReferenceQueue<Object> collected = new ReferenceQueue<Object>();
+		WeakReference<Object> ref = new WeakReference<Object>(new FilteredLists.AccountListFilteredByDeleted(d, d.getAccounts()), collected);
+		assertEquals(before + 1, FilteredLists.getLiveListenerCount(d));
+		Reference<?> collectedRef = null;
+		for (int i = 0; i < 50 && collectedRef == null; i++){
+			System.gc();
+			collectedRef = collected.remove(100);
+		}
+		if (collectedRef == ref){
+			//The list's listener is queued for removal at the same time as our reference
+			for (int i = 0; i < 100 && FilteredLists.getLiveListenerCount(d) > before; i++)
+				Thread.sleep(10);
+			assertEquals(before, FilteredLists.getLiveListenerCount(d));
+		}
+		else {
+			Logger.getLogger(this.getClass().getName()).warning("The list was not garbage collected; skipping the check that its listener is released.");
+		}
+
+		//The search list for a source is shared, even after the transactions change
+		List<Transaction> search = FilteredLists.getTransactionsBySearch(d, a, d.getTransactions(a));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1), "Test", 100, a, d.getBudgetCategory("Groceries")));
+		assertTrue(search == FilteredLists.getTransactionsBySearch(d, a, d.getTransactions(a)));
+	}
+
+	@Test
+	public void testFilteredListUpdates() throws Exception {
+		Account a1 = DocumentFixture.addAccount(d, "Account 1");
+		Account a2 = DocumentFixture.addAccount(d, "Account 2");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 0; i < 50; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1 + i % 28), "Test " + i, 100 + i, (i % 2 == 0 ? a1 : a2), groceries));
+		
+		List<Transaction> bySource = new FilteredLists.TransactionListFilteredBySource(d, d.getTransactions(), a1);
+		List<Account> cash = new FilteredLists.AccountListFilteredByType(d, d.getAccounts(), d.getAccountType("Cash"));
+		List<AccountType> types = new FilteredLists.TypeListFilteredByAccounts(d);
+		assertEquals(25, bySource.size());
+		
+		//Changes to the included objects are applied without waiting for a change event
+		Transaction t = d.getTransactions().get(3);
+		t.setFrom(t.getFrom().equals(a1) ? a2 : a1);
+		t.setDate(DateUtil.getDate(2006, 1, 1));
+		d.getTransactions().get(10).setDescription("Changed");
+		d.removeTransaction(d.getTransactions().get(20));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 15), "New", 5, d.getBudgetCategory("Salary"), a1));
+		assertEquals(new ArrayList<Transaction>(new FilteredLists.TransactionListFilteredBySource(d, d.getTransactions(), a1)), new ArrayList<Transaction>(bySource));
+		
+		//Editing a transaction (and the balance updates which follow) only updates 
+		// the changed transaction
+		FilteredLists.TransactionListFilteredBySource list = (FilteredLists.TransactionListFilteredBySource) bySource;
+		long refilters = list.getRefilterCount();
+		bySource.get(0).setAmount(12345);
+		d.updateAllBalances();
+		assertEquals(12345, bySource.get(0).getAmount());
+		assertEquals(refilters, list.getRefilterCount());
+		
+		//Lists which depend on other objects are re-filtered
+		assertEquals(1, types.size());
+		AccountType other = ModelFactory.createAccountType("Other", false);
+		d.addAccountType(other);
+		a2.setAccountType(other);
+		assertEquals(1, cash.size());
+		assertEquals(2, types.size());
+		a1.setName("ZZZ");
+		assertEquals(new ArrayList<Account>(new FilteredLists.AccountListFilteredByType(d, d.getAccounts(), d.getAccountType("Cash"))), new ArrayList<Account>(cash));
+		assertEquals(null, cash.get(cash.size()));
+	}
+
+	@Test
+	public void testDateOnlyEdit() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Account 1");
+		for (int i = 0; i < 20; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1 + i), "Test " + i, 100 + i, a, d.getBudgetCategory("Groceries")));
+		
+		List<Transaction> january = new FilteredLists.TransactionListFilteredByDate(d, d.getTransactions(), DateUtil.getDate(2007, 1, 1), DateUtil.getDate(2007, 1, 31));
+		List<Transaction> bySource = new FilteredLists.TransactionListFilteredBySource(d, d.getTransactions(), a);
+		assertEquals(20, january.size());
+		
+		//Changing only the date moves the transaction out of the date range, and 
+		// changes its position in the sorted lists
+		Transaction t = d.getTransactions().get(5);
+		t.setDate(DateUtil.getDate(2006, 12, 1));
+		assertEquals(19, january.size());
+		assertFalse(january.contains(t));
+		assertEquals(new ArrayList<Transaction>(new FilteredLists.TransactionListFilteredByDate(d, d.getTransactions(), DateUtil.getDate(2007, 1, 1), DateUtil.getDate(2007, 1, 31))), new ArrayList<Transaction>(january));
+		assertEquals(new ArrayList<Transaction>(new FilteredLists.TransactionListFilteredBySource(d, d.getTransactions(), a)), new ArrayList<Transaction>(bySource));
+		assertTrue(t == bySource.get(0));
+	}
+}
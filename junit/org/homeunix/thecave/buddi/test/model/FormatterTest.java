@@ -0,0 +1,74 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.NumberFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
+import org.homeunix.thecave.buddi.util.Formatter;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class FormatterTest {
+
+	@Test
+	public void testFormatters() throws Exception {
+		//Each caller gets its own format, which it is free to change
+		assertTrue(Formatter.getDecimalFormat() != Formatter.getDecimalFormat());
+		assertTrue(Formatter.getDateFormat("yyyy/MM/dd") != Formatter.getDateFormat("yyyy/MM/dd"));
+		Formatter.getDecimalFormat().setMaximumFractionDigits(0);
+		
+		//Formatting through the helpers gives the same as a new format, on any thread
+		Date date = DateUtil.getDate(2008, 1, 2);
+		assertEquals(Formatter.getDecimalFormat().format(1234.5), Formatter.formatDecimal(1234.5, 2));
+		assertEquals(Formatter.getDecimalFormat(0).format(1234.5), Formatter.formatDecimal(1234.5, 0));
+		assertEquals(Formatter.getDateFormat("yyyy/MM/dd").format(date), Formatter.formatDate(date, "yyyy/MM/dd"));
+		assertEquals(Formatter.getDateFormat("MM/dd/yyyy").format(date), Formatter.formatDate(date, "MM/dd/yyyy"));
+		assertEquals(TextFormatter.getDateFormat().format(date), TextFormatter.getFormattedDate(date));
+		final String[] other = new String[1];
+		final Date otherDate = date;
+		Thread thread = new Thread(){
+			@Override
+			public void run() {
+				other[0] = Formatter.formatDate(otherDate, "yyyy/MM/dd");
+			}
+		};
+		thread.start();
+		thread.join();
+		assertEquals(Formatter.formatDate(date, "yyyy/MM/dd"), other[0]);
+		
+		//Amounts in cents come out the same as from a new number format, in every locale
+		long[] values = {0, 1, -1, 5, -5, 99, 100, -100, 1234, 100000, -123456, 12345678, 99999999, 100000000000l, 
+				-123456789012345l, 999999999999999l, 1000000000000000l, Long.MAX_VALUE, Long.MIN_VALUE};
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		try {
+			for (Locale l : Locale.getAvailableLocales()) {
+				Locale.setDefault(Locale.Category.FORMAT, l);
+				NumberFormat f = NumberFormat.getInstance(l);
+				f.setMinimumFractionDigits(2);
+				f.setMaximumFractionDigits(2);
+				for (long value : values) {
+					StringBuilder sb = new StringBuilder();
+					Formatter.appendCents(sb, value);
+					assertEquals(l + ": " + value, f.format((double) value / 100.0), sb.toString());
+				}
+				assertEquals(l.toString(), f.format(12.34), Formatter.formatDecimal(12.34, 2));
+			}
+		}
+		finally {
+			Locale.setDefault(Locale.Category.FORMAT, locale);
+		}
+		
+		assertEquals(TextFormatter.getFormattedCurrency(-123456, false, false).replaceAll("[^\\d]", ""), "123456");
+		assertTrue(TextFormatter.getFormattedCurrency(-100, true, true).startsWith("<font color='red'>"));
+		StringBuilder sb = new StringBuilder();
+		TextFormatter.appendFormattedCurrency(sb, 12345, false, false);
+		assertEquals(TextFormatter.getFormattedCurrency(12345, false, false), sb.toString());
+	}
+}
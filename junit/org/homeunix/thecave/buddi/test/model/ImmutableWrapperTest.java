@@ -0,0 +1,105 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.FilteredLists;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableDocument;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableTransaction;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.ImmutableDocumentImpl;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.ImmutableSplitImpl;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.ImmutableTransactionImpl;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.collections.exception.UnmodifiableObjectException;
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class ImmutableWrapperTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testImmutableWrappers() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 1; i <= 10; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, i), "Test " + i, 100, a, groceries));
+		
+		ImmutableDocument document = new ImmutableDocumentImpl(d);
+		int before = FilteredLists.getLiveListenerCount(d);
+		List<ImmutableTransaction> transactions = document.getImmutableTransactions();
+		List<ImmutableTransaction> bySource = document.getImmutableTransactions(document.getAccount("Chequing"));
+		assertEquals(before, FilteredLists.getLiveListenerCount(d));
+		
+		//Each raw object has a single wrapper, which is shared between lists
+		assertEquals(10, transactions.size());
+		assertTrue(transactions.get(0) == transactions.get(0));
+		assertTrue(transactions.get(0) == bySource.get(0));
+		assertTrue(transactions.get(0) == document.getImmutableTransactions().iterator().next());
+		assertTrue(transactions.get(0).getFrom() == document.getAccount("Chequing"));
+		assertTrue(transactions.get(0).getTo() == document.getBudgetCategory("Groceries"));
+		assertTrue(transactions.get(0).getRaw() == d.getTransactions().get(0));
+		assertTrue(transactions.contains(transactions.get(5)));
+		assertEquals(5, transactions.indexOf(transactions.get(5)));
+		
+		//The lists are views, and follow the document without a listener
+		Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1), "First", 100, a, groceries);
+		d.addTransaction(t);
+		assertEquals(11, transactions.size());
+		assertEquals(11, bySource.size());
+		assertTrue(t == transactions.get(0).getRaw());
+		
+		//Splits are wrapped the same way
+		List<TransactionSplit> splits = new ArrayList<TransactionSplit>();
+		splits.add(ModelFactory.createTransactionSplit(groceries, 60));
+		splits.add(ModelFactory.createTransactionSplit(d.getBudgetCategory("Salary"), 40));
+		t.setToSplits(splits);
+		ImmutableTransaction wrapper = transactions.get(0);
+		assertEquals(2, wrapper.getImmutableToSplits().size());
+		assertTrue(wrapper.getImmutableToSplits().get(0) == wrapper.getImmutableToSplits().get(0));
+		assertTrue(wrapper.getTo() == wrapper.getTo());
+		
+		//... but in their natural order, as before, and with read only split sources
+		List<TransactionSplit> sorted = new ArrayList<TransactionSplit>(t.getToSplits());
+		Collections.sort(sorted);
+		for (int i = 0; i < sorted.size(); i++)
+			assertTrue(sorted.get(i) == wrapper.getImmutableToSplits().get(i).getRaw());
+		Collections.reverse(splits);
+		t.setToSplits(splits);
+		for (int i = 0; i < sorted.size(); i++)
+			assertTrue(sorted.get(i) == wrapper.getImmutableToSplits().get(i).getRaw());
+		assertTrue(t.getTo() instanceof Split);
+		assertTrue(new ImmutableTransactionImpl(t).getTo() instanceof ImmutableSplitImpl);
+		
+		//The views cannot be changed
+		try {
+			Iterator<ImmutableTransaction> i = transactions.iterator();
+			i.next();
+			i.remove();
+			fail("Removed from a wrapper list");
+		}
+		catch (UnmodifiableObjectException uoe){}
+		assertEquals(11, d.getTransactions().size());
+	}
+}
@@ -0,0 +1,74 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.util.BuddiCryptoFactory;
+import org.homeunix.thecave.buddi.util.LoadPipeline;
+import org.homeunix.thecave.buddi.util.SavePipeline;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.crypto.IncorrectPasswordException;
+
+
+
+public class LoadPipelineTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testLoadPipeline() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 2000);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		((DocumentImpl) d).saveToStream(expected);
+
+		File file = DocumentFixture.createTempFile();
+		SavePipeline savePipeline = new SavePipeline(file, "secret".toCharArray());
+		((DocumentImpl) d).saveToStream(savePipeline.getOutputStream());
+		savePipeline.commit();
+
+		//A wrong password is rejected before the body is read
+		try {
+			new LoadPipeline(file, "wrong".toCharArray(), new BuddiCryptoFactory());
+			fail("Expected an IncorrectPasswordException");
+		}
+		catch (IncorrectPasswordException ipe){}
+
+		//The document comes out of the pipeline intact, in several chunks
+		LoadPipeline pipeline = new LoadPipeline(file, "secret".toCharArray(), new BuddiCryptoFactory());
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int read;
+		while ((read = pipeline.getInputStream().read(buffer)) > -1)
+			actual.write(buffer, 0, read);
+		pipeline.close();
+		assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+		assertEquals(expected.size(), pipeline.getDocumentBytes());
+		assertEquals(file.length(), pipeline.getFileBytes());
+		Logger.getLogger(this.getClass().getName()).info(pipeline.toString());
+
+		//Closing the pipeline before the parser is done stops the producer
+		pipeline = new LoadPipeline(file, "secret".toCharArray(), new BuddiCryptoFactory());
+		assertTrue(pipeline.getInputStream().read(buffer) > 0);
+		pipeline.close();
+		assertTrue(pipeline.getDocumentBytes() < expected.size());
+		file.delete();
+	}
+}
@@ -0,0 +1,219 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.i18n.keys.ScheduleFrequency;
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.ColumnarDocument;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableAccount;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableDocument;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableTransaction;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableTransactionSplit;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.ImmutableDocumentImpl;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.MappedDocumentImpl;
+import org.homeunix.thecave.buddi.plugin.builtin.exports.ExportBuddiLiveData;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+public class MappedDocumentTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+
+		Account a1 = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		a1.setStartingBalance(12345);
+		d.addAccount(a1);
+		Account a2 = ModelFactory.createAccount("Savings", d.getAccountType("Cash"));
+		d.addAccount(a2);
+
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+		groceries.setAmount(DateUtil.getDate(2008, 1, 1), 20000);
+
+		Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 5), "Store", 1000, a1, groceries);
+		t.setMemo("Memo");
+		t.setNumber("42");
+		t.setClearedFrom(true);
+		d.addTransaction(t);
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 6), "Pay", 50000, salary, a1));
+
+		Transaction split = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 7), "Split", 3000, a1, groceries);
+		List<TransactionSplit> toSplits = new ArrayList<TransactionSplit>();
+		toSplits.add(ModelFactory.createTransactionSplit(groceries, 1000));
+		toSplits.add(ModelFactory.createTransactionSplit(a2, 2000));
+		split.setToSplits(toSplits);
+		d.addTransaction(split);
+
+		d.addScheduledTransaction(
+				ModelFactory.createScheduledTransaction(
+						"Rent",
+						"Pay the rent",
+						DateUtil.getDate(2008, 1, 1),
+						null,
+						ScheduleFrequency.SCHEDULE_FREQUENCY_MONTHLY_BY_DATE.toString(),
+						1,
+						0,
+						0,
+						"Landlord",
+						80000,
+						a1,
+						groceries));
+
+		d.updateAllBalances();
+		d.setFlag(Document.BINARY_FORMAT, true);
+	}
+
+	@Test
+	public void testMappedDocument() throws Exception {
+		File file = save(d);
+		File columnsFile = ModelFactory.getColumnsLocation(file);
+		columnsFile.deleteOnExit();
+		assertFalse(columnsFile.exists());
+
+		//The first time, the data file is loaded to write the columns
+		ImmutableDocument mapped = ModelFactory.createMappedDocument(file);
+		assertTrue(columnsFile.exists());
+		assertTrue(ColumnarDocument.isCopyOf(columnsFile, file));
+		ImmutableDocument expected = new ImmutableDocumentImpl(d);
+		assertEquals(0, mapped.getModel().getTransactions().size());
+		assertEquals(expected.getImmutableAccounts().size(), mapped.getImmutableAccounts().size());
+		assertEquals(1, mapped.getModel().getScheduledTransactions().size());
+
+		List<ImmutableTransaction> transactions = mapped.getImmutableTransactions();
+		assertEquals(d.getTransactions().size(), transactions.size());
+		for (int i = 0; i < transactions.size(); i++){
+			ImmutableTransaction e = expected.getImmutableTransactions().get(i);
+			ImmutableTransaction t = transactions.get(i);
+			assertEquals(e, t);
+			assertEquals(e.getDate(), t.getDate());
+			assertEquals(e.getDescription(), t.getDescription());
+			assertEquals(e.getMemo(), t.getMemo());
+			assertEquals(e.getNumber(), t.getNumber());
+			assertEquals(e.getAmount(), t.getAmount());
+			assertEquals(e.getFrom().getUid(), t.getFrom().getUid());
+			assertEquals(e.getTo().getUid(), t.getTo().getUid());
+			assertEquals(e.isClearedFrom(), t.isClearedFrom());
+			assertEquals(e.isInflow(), t.isInflow());
+			assertEquals(e.getImmutableToSplits().size(), t.getImmutableToSplits().size());
+			assertEquals(e.getBalance(e.getFrom()), t.getBalance(t.getFrom()));
+		}
+		long splitTotal = 0;
+		for (ImmutableTransactionSplit split : transactions.get(2).getImmutableToSplits())
+			splitTotal += split.getAmount();
+		assertEquals(3000, splitTotal);
+
+		//Balances and transactions by source come from the postings
+		ImmutableAccount chequing = mapped.getAccount("Chequing");
+		ImmutableAccount savings = mapped.getAccount("Savings");
+		assertEquals(d.getAccount("Chequing").getBalance(), chequing.getBalance());
+		assertEquals(2000, savings.getBalance());
+		assertEquals(12345 - 1000, chequing.getBalance(DateUtil.getDate(2008, 1, 5)));
+		assertEquals(12345, chequing.getBalance(DateUtil.getDate(2008, 1, 4)));
+		assertEquals(DateUtil.getDate(2008, 1, 5), chequing.getStartDate());
+		assertEquals(expected.getNetWorth(null), mapped.getNetWorth(null));
+		assertEquals(expected.getNetWorth(DateUtil.getDate(2008, 1, 6)), mapped.getNetWorth(DateUtil.getDate(2008, 1, 6)));
+		assertEquals(3, mapped.getImmutableTransactions(chequing).size());
+		assertEquals(1, mapped.getImmutableTransactions(savings).size());
+		assertEquals(2, mapped.getImmutableTransactions(mapped.getBudgetCategory("Groceries")).size());
+		assertEquals(2, mapped.getImmutableTransactions(chequing, DateUtil.getDate(2008, 1, 6), DateUtil.getDate(2008, 1, 7)).size());
+		assertEquals(2, mapped.getImmutableTransactions(DateUtil.getDate(2008, 1, 5), DateUtil.getDate(2008, 1, 6)).size());
+
+		//Saving leaves the columns alone; they are written again the next time they are needed
+		long written = columnsFile.lastModified();
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 8), "Later", 100, d.getAccount("Chequing"), d.getBudgetCategory("Groceries")));
+		((DocumentImpl) d).save();
+		((DocumentImpl) d).waitUntilFinishedSaving();
+		assertEquals(written, columnsFile.lastModified());
+		assertFalse(ColumnarDocument.isCopyOf(columnsFile, file));
+		assertEquals(4, ModelFactory.createMappedDocument(file).getImmutableTransactions().size());
+		assertTrue(ColumnarDocument.isCopyOf(columnsFile, file));
+
+		//The copy is not encrypted, so it is removed when the file is saved with a password
+		((DocumentImpl) d).setPassword("password".toCharArray());
+		((DocumentImpl) d).save();
+		((DocumentImpl) d).waitUntilFinishedSaving();
+		assertFalse(columnsFile.exists());
+		file.delete();
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		//The export does not handle scheduled transactions without splits
+		d.removeScheduledTransaction(d.getScheduledTransactions().get(0));
+		File file = save(d);
+		ModelFactory.getColumnsLocation(file).deleteOnExit();
+
+		//The export plugins write the same thing from the mapped copy as from the loaded file
+		File expected = DocumentFixture.createTempFile();
+		File actual = DocumentFixture.createTempFile();
+		new ExportBuddiLiveData().exportData(new ImmutableDocumentImpl(ModelFactory.createDocument(file, false)), null, expected);
+		new ExportBuddiLiveData().exportData(ModelFactory.createMappedDocument(file), null, actual);
+		assertArrayEquals(read(expected), read(actual));
+		file.delete();
+	}
+
+	@Test
+	public void testReadOnlyDocument() throws Exception {
+		//Small documents are passed to the plugins as they are
+		File file = save(d);
+		File columnsFile = ModelFactory.getColumnsLocation(file);
+		columnsFile.deleteOnExit();
+		assertFalse(ModelFactory.getReadOnlyDocument(d) instanceof MappedDocumentImpl);
+		assertFalse(columnsFile.exists());
+
+		//Large ones are mapped, as long as they are saved
+		DocumentFixture.addTransactions(d, d.getAccount("Chequing"), 50000);
+		assertFalse(ModelFactory.getReadOnlyDocument(d) instanceof MappedDocumentImpl);
+		((DocumentImpl) d).save();
+		ImmutableDocument mapped = ModelFactory.getReadOnlyDocument(d);
+		assertTrue(mapped instanceof MappedDocumentImpl);
+		assertEquals(d.getTransactions().size(), mapped.getImmutableTransactions().size());
+		assertEquals(d.getAccount("Chequing").getBalance(), mapped.getAccount("Chequing").getBalance());
+
+		d.getTransactions().get(0).setAmount(1);
+		assertFalse(ModelFactory.getReadOnlyDocument(d) instanceof MappedDocumentImpl);
+		file.delete();
+	}
+
+	private File save(Document d) throws Exception {
+		File file = DocumentFixture.createTempFile();
+		((DocumentImpl) d).saveAs(file);
+		((DocumentImpl) d).waitUntilFinishedSaving();
+		return file;
+	}
+
+	private byte[] read(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		InputStream is = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < bytes.length)
+				read += is.read(bytes, read, bytes.length - read);
+		}
+		finally {
+			is.close();
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,74 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.util.SavePipeline;
+import org.junit.Before;
+import org.junit.Test;
+
+
+
+public class SavePipelineTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testSavePipeline() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		DocumentFixture.addTransactions(d, a, 50);
+		
+		File file = DocumentFixture.createTempFile();
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("Old data".getBytes());
+		fos.close();
+		
+		//An aborted save must leave the data file as it was
+		SavePipeline pipeline = new SavePipeline(file, null);
+		pipeline.getOutputStream().write("Partial data".getBytes());
+		assertEquals(1, getTempFiles(file).length);
+		pipeline.abort();
+		assertEquals(0, getTempFiles(file).length);
+		assertEquals(8, file.length());
+		
+		//A committed save replaces the data file, even if another save of the 
+		// same file was started and abandoned in the meantime
+		pipeline = new SavePipeline(file, null);
+		SavePipeline other = new SavePipeline(file, null);
+		assertEquals(2, getTempFiles(file).length);
+		((DocumentImpl) d).saveToStream(pipeline.getOutputStream());
+		other.abort();
+		pipeline.commit();
+		pipeline.abort();
+		assertEquals(0, getTempFiles(file).length);
+		assertEquals(pipeline.getFileBytes(), file.length());
+		assertTrue(pipeline.getDocumentBytes() > pipeline.getFileBytes());
+		
+		Document loaded = ModelFactory.createDocument(file);
+		assertEquals(d.getTransactions().size(), loaded.getTransactions().size());
+		d.updateAllBalances();
+		assertEquals(d.getAccount("Chequing").getBalance(), loaded.getAccount("Chequing").getBalance());
+		file.delete();
+	}
+
+	private File[] getTempFiles(final File file){
+		return file.getAbsoluteFile().getParentFile().listFiles(new FileFilter(){
+			public boolean accept(File f) {
+				return f.getName().startsWith(file.getName() + ".") && f.getName().endsWith(".temp");
+			}
+		});
+	}
+}
@@ -0,0 +1,135 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.beans.XMLDecoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.plugin.api.exception.ModelException;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.application.document.DocumentChangeEvent;
+import ca.digitalcave.moss.application.document.DocumentChangeListener;
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class TransactionArchiveTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testArchiveTransactions() throws Exception {
+		DocumentImpl document = (DocumentImpl) d;
+		Account a1 = DocumentFixture.addAccount(d, "Chequing");
+		Account a2 = DocumentFixture.addAccount(d, "Savings");
+		a1.setStartingBalance(1000);
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+		for (int year = 2004; year <= 2007; year++){
+			for (int i = 0; i < 12; i++){
+				d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(year, i, 1 + i), "Groceries " + year + " " + i, 100 + i, a1, groceries));
+				d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(year, i, 15), "Salary " + year + " " + i, 1000, salary, a1));
+			}
+		}
+		Transaction split = ModelFactory.createTransaction(DateUtil.getDate(2005, 5, 20), "Split", 300, a1, groceries);
+		List<TransactionSplit> splits = new ArrayList<TransactionSplit>();
+		splits.add(ModelFactory.createTransactionSplit(a2, 100));
+		splits.add(ModelFactory.createTransactionSplit(groceries, 200));
+		split.setToSplits(splits);
+		d.addTransaction(split);
+		d.getTransactions().get(0).setDeleted(true);
+
+		d.updateAllBalances();
+		int total = d.getTransactions().size();
+		Date endOf2005 = DateUtil.getDate(2005, 11, 31);
+		long balance = a1.getBalance();
+		long savings = a2.getBalance();
+		long balance2005 = a1.getBalance(endOf2005);
+		long actual2005 = groceries.getActual(DateUtil.getDate(2005, 0, 1), endOf2005);
+		long actual2007 = groceries.getActual(DateUtil.getDate(2007, 0, 1), DateUtil.getDate(2007, 11, 31));
+		long modified = document.getModifiedDate().getTime();
+		
+		//Lists taken before archiving follow along, and listeners are told
+		List<Transaction> all = d.getTransactions();
+		List<Transaction> in2007 = d.getTransactions(DateUtil.getDate(2007, 0, 1), DateUtil.getDate(2007, 11, 31));
+		final int[] events = new int[1];
+		DocumentChangeListener listener = new DocumentChangeListener(){
+			public void documentChange(DocumentChangeEvent event) {
+				events[0]++;
+			}
+		};
+		d.addDocumentChangeListener(listener);
+		d.resetChanged();
+
+		//Whole years before the given one are moved out of memory, without changing anything
+		assertEquals(73, document.archiveTransactions(2007));
+		assertEquals(total - 73, d.getTransactions().size());
+		assertEquals(total - 73, all.size());
+		assertEquals(24, in2007.size());
+		DocumentFixture.waitForEvents(events, 0);
+		assertFalse(d.isChanged());
+		assertEquals(modified, document.getModifiedDate().getTime());
+		d.updateAllBalances();
+		assertEquals(balance, a1.getBalance());
+		assertEquals(savings, a2.getBalance());
+		assertEquals(actual2007, groceries.getActual(DateUtil.getDate(2007, 0, 1), DateUtil.getDate(2007, 11, 31)));
+
+		//Year boundaries are answered from the summaries
+		assertEquals(balance2005, a1.getBalance(endOf2005));
+		assertEquals(actual2005, groceries.getActual(DateUtil.getDate(2005, 0, 1), endOf2005));
+		assertEquals(total - 73, d.getTransactions().size());
+
+		//Sources with archived transactions cannot be removed
+		try {
+			d.removeAccount(a2);
+			fail("Account with archived transactions removed");
+		}
+		catch (ModelException me){}
+
+		//Clones (and so saves) include the archived transactions, but saving does not
+		// read them back into the document
+		assertEquals(total, d.clone().getTransactions().size());
+		ByteArrayOutputStream saved = new ByteArrayOutputStream();
+		d.saveToStream(saved);
+		assertEquals(total - 73, d.getTransactions().size());
+		Document reloaded = (Document) new XMLDecoder(new ByteArrayInputStream(saved.toByteArray())).readObject();
+		assertEquals(total, reloaded.getTransactions().size());
+
+		//Anything part way through a year reads that year and all later ones back in
+		assertEquals(balance2005 - 1000, a1.getBalance(DateUtil.getDate(2005, 11, 14)));
+		assertEquals(total - 24, d.getTransactions().size());
+		assertTrue(d.getTransactions(a2).contains(split));
+
+		int eventsBefore = events[0];
+		document.materializeTransactions(null);
+		assertEquals(total, d.getTransactions().size());
+		assertEquals(total, all.size());
+		assertEquals(24, in2007.size());
+		DocumentFixture.waitForEvents(events, eventsBefore);
+		d.removeDocumentChangeListener(listener);
+		d.updateAllBalances();
+		assertEquals(balance, a1.getBalance());
+		assertEquals(modified, document.getModifiedDate().getTime());
+	}
+}
@@ -0,0 +1,132 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+
+import javax.swing.JList;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.plugin.api.BuddiTransactionCellRendererPlugin;
+import org.homeunix.thecave.buddi.plugin.builtin.cellrenderer.ChequeTransactionCellRenderer;
+import org.homeunix.thecave.buddi.plugin.builtin.cellrenderer.ConciseTransactionCellRenderer;
+import org.homeunix.thecave.buddi.plugin.builtin.cellrenderer.DefaultTransactionCellRenderer;
+import org.homeunix.thecave.buddi.plugin.builtin.cellrenderer.SimpleTransactionCellRenderer;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class TransactionCellRendererTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testTransactionCellRenderers() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 1), "Test", 1234, a, groceries);
+		t.setNumber("101");
+		d.addTransaction(t);
+		
+		JList list = new JList();
+		list.setSize(600, 400);
+		BufferedImage image = new BufferedImage(600, 40, BufferedImage.TYPE_INT_ARGB);
+		BuddiTransactionCellRendererPlugin[] renderers = {new DefaultTransactionCellRenderer(), new SimpleTransactionCellRenderer(), 
+				new ChequeTransactionCellRenderer(), new ConciseTransactionCellRenderer()};
+		for (int i = 0; i < renderers.length; i++) {
+			BuddiTransactionCellRendererPlugin renderer = renderers[i];
+			renderer.setAccount(a);
+			
+			//Painting the same transaction again reuses its row
+			paint(renderer, list, t, image);
+			paint(renderer, list, t, image);
+			assertEquals(1, getRowsCreated(renderer));
+			
+			//Editing the transaction rebuilds its row
+			t.setDescription("Changed " + i);
+			paint(renderer, list, t, image);
+			paint(renderer, list, t, image);
+			assertEquals(2, getRowsCreated(renderer));
+			
+			//So does a change to anything else in the document
+			groceries.setName("Groceries " + i);
+			paint(renderer, list, t, image);
+			assertEquals(3, getRowsCreated(renderer));
+			
+			//And a change of font
+			list.setFont(new Font(list.getFont().getName(), Font.PLAIN, list.getFont().getSize() + 1));
+			paint(renderer, list, t, image);
+			paint(renderer, list, t, image);
+			assertEquals(4, getRowsCreated(renderer));
+			
+			//Deleted transactions, without an account
+			renderer.setAccount(null);
+			t.setDeleted(!t.isDeleted());
+			paint(renderer, list, t, image);
+			assertEquals(5, getRowsCreated(renderer));
+		}
+	}
+
+	@Test
+	public void testDateAndMemoEdits() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 1), "Test", 1234, a, d.getBudgetCategory("Groceries"));
+		d.addTransaction(t);
+		
+		JList list = new JList();
+		list.setSize(600, 400);
+		BufferedImage image = new BufferedImage(600, 40, BufferedImage.TYPE_INT_ARGB);
+		BuddiTransactionCellRendererPlugin[] renderers = {new DefaultTransactionCellRenderer(), new SimpleTransactionCellRenderer(), 
+				new ChequeTransactionCellRenderer(), new ConciseTransactionCellRenderer()};
+		for (int i = 0; i < renderers.length; i++) {
+			BuddiTransactionCellRendererPlugin renderer = renderers[i];
+			renderer.setAccount(a);
+			paint(renderer, list, t, image);
+			assertEquals(1, getRowsCreated(renderer));
+			
+			//Changing only the date rebuilds the row
+			t.setDate(DateUtil.getDate(2008, 1, 2 + i));
+			paint(renderer, list, t, image);
+			paint(renderer, list, t, image);
+			assertEquals(2, getRowsCreated(renderer));
+			
+			//So does setting a memo or number which was not set before
+			t.setMemo("Memo");
+			paint(renderer, list, t, image);
+			assertEquals(3, getRowsCreated(renderer));
+			t.setNumber("101");
+			paint(renderer, list, t, image);
+			assertEquals(4, getRowsCreated(renderer));
+			t.setMemo(null);
+			t.setNumber(null);
+		}
+	}
+
+	private void paint(BuddiTransactionCellRendererPlugin renderer, JList list, Transaction t, BufferedImage image){
+		renderer.getListCellRendererComponent(list, t, 0, false, false);
+		renderer.setSize(600, 40);
+		Graphics g = image.getGraphics();
+		renderer.paint(g);
+		g.dispose();
+	}
+
+	private long getRowsCreated(BuddiTransactionCellRendererPlugin renderer){
+		if (renderer instanceof DefaultTransactionCellRenderer)
+			return ((DefaultTransactionCellRenderer) renderer).getRowsCreated();
+		return ((ConciseTransactionCellRenderer) renderer).getRowsCreated();
+	}
+}
@@ -0,0 +1,157 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.FilteredLists;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
+import org.homeunix.thecave.buddi.util.Formatter;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+
+
+public class TransactionSearchTest {
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+	}
+
+	@Test
+	public void testTransactionSearch() throws Exception {
+		Account a1 = DocumentFixture.addAccount(d, "Chequing");
+		Account a2 = DocumentFixture.addAccount(d, "Visa");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 0; i < 200; i++){
+			Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2007, i % 12, 1 + i % 28), (i % 2 == 0 ? "Corner Store " : "Gas Station ") + i, 1000 + i, (i % 4 == 0 ? a2 : a1), groceries);
+			if (i % 10 == 0)
+				t.setMemo("Receipt in drawer");
+			d.addTransaction(t);
+		}
+		
+		FilteredLists.TransactionListFilteredBySearch search = (FilteredLists.TransactionListFilteredBySearch) FilteredLists.getTransactionsBySearch(d, null, d.getTransactions());
+		assertEquals(200, search.size());
+		
+		//Each field is searched, ignoring case, and a query may start part way through a word
+		assertEquals(100, search(search, "corner").size());
+		assertEquals(100, search(search, "tion").size());
+		assertEquals(20, search(search, "RECEIPT").size());
+		assertEquals(50, search(search, "visa").size());
+		assertEquals(1, search(search, "store 42").size());
+		assertEquals(1, search(search, Formatter.getDecimalFormat().format(10.42)).size());
+		assertEquals(20, search(search, "dr").size());
+		assertEquals(0, search(search, "store gas").size());
+		assertEquals(0, search(search, "nothing matches this").size());
+		Date date = d.getTransactions().get(10).getDate();
+		int onDate = 0;
+		for (Transaction t : d.getTransactions()){
+			if (DateUtil.isSameDay(date, t.getDate()))
+				onDate++;
+		}
+		assertTrue(search(search, TextFormatter.getFormattedDate(date)).size() >= onDate);
+		
+		//The results follow changes to the transactions and their sources
+		search(search, "corner");
+		Transaction t = d.getTransactions().get(0);
+		boolean corner = t.getDescription().startsWith("Corner");
+		t.setDescription(corner ? "Gas Station" : "Corner Store");
+		assertEquals(corner ? 99 : 101, search.size());
+		d.removeTransaction(d.getTransactions().get(1));
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 1), "New corner store", 5, a1, groceries));
+		assertEquals(new ArrayList<Transaction>(DocumentFixture.findTransactions(d, "corner")), new ArrayList<Transaction>(search));
+		a2.setName("Mastercard");
+		assertEquals(0, search(search, "visa").size());
+		assertEquals(50, search(search, "mastercard").size());
+	}
+
+	@Test
+	public void testBackgroundSearch() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 0; i < 100; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 0, 1 + i % 28), (i % 2 == 0 ? "Corner Store " : "Gas Station ") + i, 1000 + i, a, groceries));
+		
+		FilteredLists.TransactionListFilteredBySearch search = (FilteredLists.TransactionListFilteredBySearch) FilteredLists.getTransactionsBySearch(d, a, d.getTransactions(a));
+		assertEquals(100, search.size());
+		
+		//The list does not change until the results are applied
+		FilteredLists.TransactionListFilteredBySearch.Search s = search.createSearch("corner");
+		List<Transaction> results = s.run();
+		assertEquals(50, results.size());
+		assertEquals(100, search.size());
+		
+		//The search only looks at the index as it was when the search was created, 
+		// not at the transactions or accounts themselves
+		s = search.createSearch("corner");
+		d.getTransactions(a).get(0).setDescription("Renamed");
+		a.setName("Corner Account");
+		results = s.run();
+		assertEquals(50, results.size());
+		a.setName("Chequing");
+		
+		//Changes made while the search runs are picked up afterwards
+		Transaction added = ModelFactory.createTransaction(DateUtil.getDate(2007, 1, 1), "Corner Store again", 5, a, groceries);
+		d.addTransaction(added);
+		assertTrue(search.applySearch(s, results));
+		assertEquals(new ArrayList<Transaction>(DocumentFixture.findTransactions(d, "corner")), new ArrayList<Transaction>(search));
+		
+		//Cancelled searches return nothing
+		s = search.createSearch("gas");
+		s.cancel();
+		assertEquals(null, s.run());
+		
+		//If the filters change while the search runs, the results are not used, 
+		// but the list still ends up with the new search text
+		s = search.createSearch("gas");
+		results = s.run();
+		search.updateFilteredList();
+		assertFalse(search.applySearch(s, results));
+		assertEquals(new ArrayList<Transaction>(DocumentFixture.findTransactions(d, "gas")), new ArrayList<Transaction>(search));
+	}
+
+	@Test
+	public void testDateAndMemoEdits() throws Exception {
+		Account a = DocumentFixture.addAccount(d, "Chequing");
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		for (int i = 0; i < 50; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2007, 0, 1 + i % 28), "Corner Store " + i, 1000 + i, a, groceries));
+		
+		FilteredLists.TransactionListFilteredBySearch search = (FilteredLists.TransactionListFilteredBySearch) FilteredLists.getTransactionsBySearch(d, a, d.getTransactions(a));
+		Date date = DateUtil.getDate(2009, 5, 17);
+		assertEquals(0, search(search, "receipt").size());
+		assertEquals(0, search(search, "cheque 7781").size());
+		assertEquals(0, search(search, TextFormatter.getFormattedDate(date)).size());
+		
+		//Setting a memo or number which was not set before, or changing only the 
+		// date, is picked up by the index
+		Transaction t = d.getTransactions().get(10);
+		t.setMemo("Receipt in drawer");
+		t.setNumber("Cheque 7781");
+		assertEquals(1, search(search, "receipt").size());
+		assertEquals(1, search(search, "cheque 7781").size());
+		d.getTransactions().get(20).setDate(date);
+		assertEquals(1, search(search, TextFormatter.getFormattedDate(date)).size());
+		assertTrue(d.getTransactions().get(d.getTransactions().size() - 1) == search.get(0));
+	}
+
+	private List<Transaction> search(FilteredLists.TransactionListFilteredBySearch search, String text){
+		search.setSearchText(text);
+		search.updateFilteredList();
+		return new ArrayList<Transaction>(search);
+	}
+}
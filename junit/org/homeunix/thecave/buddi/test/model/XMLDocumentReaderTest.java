@@ -0,0 +1,180 @@
+package org.homeunix.thecave.buddi.test.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.beans.XMLDecoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.i18n.keys.ScheduleFrequency;
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.DocumentImpl;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
+import org.homeunix.thecave.buddi.model.impl.XMLDocumentReader;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.digitalcave.moss.common.DateUtil;
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+
+/**
+ * Verifies that the streaming XML reader loads the same document as the
+ * XMLDecoder did, and logs the load time of both on a large document.
+ */
+public class XMLDocumentReaderTest {
+
+	private static final int TRANSACTIONS = 10000;
+
+	private Document d;
+
+	@Before
+	public void setup() throws Exception{
+		d = ModelFactory.createDocument();
+
+		Account a1 = ModelFactory.createAccount("Chequing", d.getAccountType("Cash"));
+		a1.setStartingBalance(12345);
+		a1.setNotes("Some notes, with unicode éè & <markup>");
+		d.addAccount(a1);
+		Account a2 = ModelFactory.createAccount("Savings", d.getAccountType("Cash"));
+		d.addAccount(a2);
+
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		BudgetCategory salary = d.getBudgetCategory("Salary");
+		groceries.setAmount(DateUtil.getDate(2008, 1, 1), 20000);
+
+		Transaction t = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 5), "Store", 1000, a1, groceries);
+		t.setMemo("Memo");
+		t.setNumber("42");
+		t.setClearedFrom(true);
+		d.addTransaction(t);
+		d.addTransaction(ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 6), "Pay", 50000, salary, a1));
+
+		Transaction split = ModelFactory.createTransaction(DateUtil.getDate(2008, 1, 7), "Split", 3000, a1, groceries);
+		List<TransactionSplit> toSplits = new ArrayList<TransactionSplit>();
+		toSplits.add(ModelFactory.createTransactionSplit(groceries, 1000));
+		toSplits.add(ModelFactory.createTransactionSplit(a2, 2000));
+		split.setToSplits(toSplits);
+		d.addTransaction(split);
+
+		d.addScheduledTransaction(
+				ModelFactory.createScheduledTransaction(
+						"Rent",
+						"Pay the rent",
+						DateUtil.getDate(2008, 1, 1),
+						null,
+						ScheduleFrequency.SCHEDULE_FREQUENCY_MONTHLY_BY_DATE.toString(),
+						1,
+						0,
+						0,
+						"Landlord",
+						80000,
+						a1,
+						groceries));
+
+		d.updateAllBalances();
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] xml = saveXml(d);
+		DocumentImpl loaded = new XMLDocumentReader(new ByteArrayInputStream(xml)).read();
+		loaded.refreshUidMap();
+		loaded.updateAllBalances();
+
+		assertEquals(d.getUid(), loaded.getUid());
+		assertEquals(d.getAccounts().size(), loaded.getAccounts().size());
+		assertEquals(d.getTransactions().size(), loaded.getTransactions().size());
+		assertEquals("Some notes, with unicode éè & <markup>", loaded.getAccounts().get(0).getNotes());
+		assertEquals(d.getAccounts().get(0).getBalance(), loaded.getAccounts().get(0).getBalance());
+
+		Transaction split = loaded.getTransactions().get(2);
+		assertTrue(split.getTo() instanceof Split);
+		assertEquals(2, split.getToSplits().size());
+		assertEquals(d.getAccounts().get(1).getUid(), split.getToSplits().get(1).getSource().getUid());
+		assertEquals("Rent", loaded.getScheduledTransactions().get(0).getScheduleName());
+		assertEquals(20000, loaded.getBudgetCategory("Groceries").getAmount(DateUtil.getDate(2008, 1, 1)));
+
+		//The loaded document should match the one loaded by the XMLDecoder.  (We cannot
+		// compare the saved bytes, as both include the modified times set while loading.)
+		DocumentImpl decoded = (DocumentImpl) new XMLDecoder(new ByteArrayInputStream(xml)).readObject();
+		decoded.refreshUidMap();
+		decoded.updateAllBalances();
+		for (int i = 0; i < decoded.getAccounts().size(); i++){
+			assertEquals(decoded.getAccounts().get(i).getFullName(), loaded.getAccounts().get(i).getFullName());
+			assertEquals(decoded.getAccounts().get(i).getBalance(), loaded.getAccounts().get(i).getBalance());
+		}
+		for (int i = 0; i < decoded.getBudgetCategories().size(); i++){
+			assertEquals(decoded.getBudgetCategories().get(i).getFullName(), loaded.getBudgetCategories().get(i).getFullName());
+			assertEquals(decoded.getBudgetCategories().get(i).getBudgetPeriodType().getName(), loaded.getBudgetCategories().get(i).getBudgetPeriodType().getName());
+		}
+		for (int i = 0; i < decoded.getTransactions().size(); i++){
+			Transaction expected = decoded.getTransactions().get(i);
+			Transaction actual = loaded.getTransactions().get(i);
+			assertEquals(expected.getUid(), actual.getUid());
+			assertEquals(expected.getDate(), actual.getDate());
+			assertEquals(expected.getDescription(), actual.getDescription());
+			assertEquals(expected.getAmount(), actual.getAmount());
+			assertEquals(expected.getFrom().getUid(), actual.getFrom().getUid());
+			assertEquals(expected.getTo().getUid(), actual.getTo().getUid());
+		}
+	}
+
+	@Test
+	public void testNotADocument() throws Exception {
+		try {
+			new XMLDocumentReader(new ByteArrayInputStream("<java><string>foo</string></java>".getBytes("UTF-8"))).read();
+			fail("Expected an IncorrectDocumentFormatException");
+		}
+		catch (IncorrectDocumentFormatException idfe){}
+	}
+
+	@Test
+	public void testLoadBenchmark() throws Exception {
+		BudgetCategory groceries = d.getBudgetCategory("Groceries");
+		Account a = d.getAccounts().get(0);
+		Date start = DateUtil.getDate(2000, Calendar.JANUARY, 1);
+		for (int i = 0; i < TRANSACTIONS; i++)
+			d.addTransaction(ModelFactory.createTransaction(DateUtil.addDays(start, i / 27), "Store " + i, 1000 + (i % 100), a, groceries));
+		d.updateAllBalances();
+		byte[] xml = saveXml(d);
+
+		long decoderStart = System.currentTimeMillis();
+		XMLDecoder decoder = new XMLDecoder(new ByteArrayInputStream(xml));
+		DocumentImpl decoded = (DocumentImpl) decoder.readObject();
+		decoded.refreshUidMap();
+		decoded.updateAllBalances();
+		long decoderTime = System.currentTimeMillis() - decoderStart;
+
+		long readerStart = System.currentTimeMillis();
+		DocumentImpl read = new XMLDocumentReader(new ByteArrayInputStream(xml)).read();
+		read.refreshUidMap();
+		read.updateAllBalances();
+		long readerTime = System.currentTimeMillis() - readerStart;
+
+		assertEquals(decoded.getTransactions().size(), read.getTransactions().size());
+		assertEquals(decoded.getAccounts().get(0).getBalance(), read.getAccounts().get(0).getBalance());
+
+		Logger.getLogger(this.getClass().getName()).info(
+				"Loaded " + xml.length + " bytes of XML with " + read.getTransactions().size() + " transactions: "
+				+ "XMLDecoder " + decoderTime + " ms, XMLDocumentReader " + readerTime + " ms");
+	}
+
+	private byte[] saveXml(Document d) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		d.setFlag(Document.BINARY_FORMAT, false);
+		d.saveToStream(baos);
+		return baos.toByteArray();
+	}
+}
@@ -59,7 +59,11 @@ public class Const {
 	public final static String DATA_FILE_EXTENSION = ".buddi3";
 	public final static String EXTRACTED_DATA_FILE_EXTENSION = ".xml";
 	public final static String BACKUP_FILE_EXTENSION = ".buddi3bak";
+	public final static String BACKUP_STORE_EXTENSION = ".buddi3store";
+	public final static String BACKUP_CATALOG_EXTENSION = ".buddi3catalog";
 	public final static String AUTOSAVE_FILE_EXTENSION = ".buddi3autosave";
+	public final static String JOURNAL_FILE_EXTENSION = ".journal";
+	public final static String COLUMNS_FILE_EXTENSION = ".buddi3columns";
 	
 	//Preference file constants
 	public static final String PREFERENCE_FILE_NAME = "Buddi3_Prefs.xml"; 
@@ -199,6 +199,8 @@ public enum BuddiKeys {
 	MEMO,
 	MESSAGE_ASK_FOR_DATA_FILE_ENCRYPTION,
 	MESSAGE_ASK_FOR_DATA_FILE_ENCRYPTION_TITLE,
+	MESSAGE_ASK_FOR_BINARY_DATA_FILE_FORMAT,
+	MESSAGE_ASK_FOR_BINARY_DATA_FILE_FORMAT_TITLE,
 	MESSAGE_ASK_FOR_DONATION,
 	MESSAGE_ASK_FOR_DONATION_TITLE,
 	MESSAGE_AUTOSAVE_FILE_FOUND,
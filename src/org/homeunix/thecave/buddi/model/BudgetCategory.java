@@ -41,6 +41,16 @@ public interface BudgetCategory extends Source, Expandable {
 	 * @return
 	 */
 	public long getAmount(Date startDate, Date endDate);
+
+	/**
+	 * Returns the actual amount which was spent (or earned, for income categories)
+	 * in this budget category between the given dates (inclusive), not including
+	 * any child categories.  Deleted transactions are not included.
+	 * @param startDate
+	 * @param endDate
+	 * @return
+	 */
+	public long getActual(Date startDate, Date endDate);
 		
 	/**
 	 * Returns the Budget Period type.  One of the values in Enum BudgePeriodKeys.
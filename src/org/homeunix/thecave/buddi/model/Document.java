@@ -17,6 +17,7 @@ public interface Document extends ModelObject, StandardDocument {
 
 	public static final int RESET_PASSWORD = 1;  //Should we change the current password?
 	public static final int CHANGE_PASSWORD = 2; //Should we prompt for a password?
+	public static final int BINARY_FORMAT = 4;   //Should we save using the compact binary format instead of XML?
 	
 	public void addAccount(Account account) throws ModelException;
 	public void addAccountType(AccountType type) throws ModelException;
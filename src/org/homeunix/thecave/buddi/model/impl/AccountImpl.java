@@ -31,13 +31,22 @@ public class AccountImpl extends SourceImpl implements Account {
 	private long interestRate;
 	private Day startDate;
 	private AccountType type;
+	
+	//The running balance after each transaction in getDocument().getTransactions(this),
+	// and the index of the first entry which needs to be re-calculated.  The document
+	// moves balanceDirtyFrom back as transactions are inserted, edited and deleted,
+	// so that updateBalance() only has to recalculate from the earliest change onward.
+	private long[] runningBalances = new long[0];
+	private int balanceDirtyFrom = 0;
 
 	public long getStartingBalance() {
 		return startingBalance;
 	}
 	public void setStartingBalance(long startingBalance) {
-		if (this.startingBalance != startingBalance)
+		if (this.startingBalance != startingBalance){
 			setChanged();
+			invalidateBalance(0);
+		}
 		this.startingBalance = startingBalance;
 	}
 	public Date getStartDate() {
@@ -63,7 +72,7 @@ public class AccountImpl extends SourceImpl implements Account {
 	}
 	public void setBalance(long balance) {
 		if (this.balance != balance)
-			setChanged();
+			setDerivedChanged();
 		this.balance = balance;
 	}
 	public AccountType getAccountType() {
@@ -86,11 +95,28 @@ public class AccountImpl extends SourceImpl implements Account {
 	public void updateBalance(){		
 		if (getDocument() == null)			
 			return;
-		long balance = this.getStartingBalance();
-
+		setBalance(updateRunningBalances());	
+	}
+	
+	/**
+	 * Recalculates the running balances from the first out of date entry onwards,
+	 * and returns the balance after the last transaction.  Unlike updateBalance(),
+	 * this does not fire any change events, so it is safe to call from getters.
+	 */
+	private long updateRunningBalances(){
 		List<Transaction> transactions = getDocument().getTransactions(this);
+		int size = transactions.size();
+		int start = Math.min(balanceDirtyFrom, size);
+		if (runningBalances.length < size){
+			long[] newRunningBalances = new long[Math.max(size, runningBalances.length + (runningBalances.length >> 1))];
+			System.arraycopy(runningBalances, 0, newRunningBalances, 0, start);
+			runningBalances = newRunningBalances;
+		}
+		
+		long balance = (start == 0 ? this.getStartingBalance() + getArchivedTotal(Long.MAX_VALUE) : runningBalances[start - 1]);
 
-		for (Transaction transaction : transactions) {			
+		for (int i = start; i < size; i++) {
+			Transaction transaction = transactions.get(i);
 			try {
 				if (!transaction.isDeleted()){					
 					//We are moving money *to* this account					
@@ -117,38 +143,68 @@ public class AccountImpl extends SourceImpl implements Account {
 			}			
 			catch (InvalidValueException ive){				
 				Logger.getLogger(AccountImpl.class.getName()).log(Level.WARNING, "Incorrect value", ive);			
-			}		
+			}
+			runningBalances[i] = balance;
 		}
-		setBalance(balance);	
+		balanceDirtyFrom = Integer.MAX_VALUE;
+		return balance;
+	}
+	
+	/**
+	 * Marks the running balances from the given index (into the list returned by
+	 * getDocument().getTransactions(this)) onwards as needing to be recalculated
+	 * on the next call to updateBalance().
+	 */
+	@Override
+	void invalidateBalance(int fromIndex){
+		if (fromIndex < balanceDirtyFrom)
+			balanceDirtyFrom = Math.max(0, fromIndex);
 	}
 
 	public String getFullName() {
 		return this.getName() + " (" + getAccountType().getName() + ")";
 	}
+	/**
+	 * Returns the balance of this account as of the given date.  The running
+	 * balances are kept in the same order as getDocument().getTransactions(this), 
+	 * which is sorted by date, so we find the last transaction on or before the
+	 * given date with a binary search.
+	 */
 	public long getBalance(Date d) {
 		if (getDocument() == null)
 			return 0; //Document not set; not valid.  Possibly throw exception?
-		if (d.before(getStartDate()))
-			//This used to be defined to return starting balance... I think that it makes more
-			// sense to return 0, though - if the account has not been defined, there is by
-			// definition, no balance.
-			//Update (Dec 5 2010): I reverted back to using getStartingBalance, as after
-			// re-thinking I think this makes more sense.
-			return getStartingBalance();
-		//			return 0;
-		List<Transaction> ts = getDocument().getTransactions(this, getStartDate(), d);
-		if (ts.size() > 0){
-			Transaction t = ts.get(ts.size() - 1);
-			if (t.getFrom().equals(this) || t.getTo().equals(this))
-				return t.getBalance(this.getUid());
-		}
-		else {
-			//If there are no transactions, just return the starting balance.
-			return getStartingBalance();
+		
+		//If some transactions are archived, we can use their totals up to the end
+		// of a year; otherwise, we need the transactions in the year of the date.
+		Long archived = getArchivedTotal(d.getTime());
+		if (archived == null && getDocument() instanceof DocumentImpl){
+			((DocumentImpl) getDocument()).materializeTransactions(d);
+			archived = getArchivedTotal(d.getTime());
 		}
+		
+		List<Transaction> transactions = getDocument().getTransactions(this);
+		if (balanceDirtyFrom < transactions.size())
+			updateRunningBalances();
 
-		//		Logger.getLogger().error("AccountImpl.getBalance(Date) - Something is wrong... we should not be here.");
-		return 0;
+		//Find the number of transactions which are on or before the given date.
+		int low = TransactionDateRangeList.firstIndexAfter(transactions, d.getTime());
+		
+		//If the date is before the start of the account, or there are no transactions
+		// yet, we return the starting balance.  (This used to be defined to return 0 
+		// before the start date; see the Dec 5 2010 change.)
+		if (low == 0)
+			return getStartingBalance() + (archived == null ? 0 : archived);
+		return runningBalances[low - 1];
+	}
+	
+	/**
+	 * Returns the change in balance from the archived transactions on or before
+	 * the given time, or null if they are not known.  See DocumentImpl.archiveTransactions().
+	 */
+	private Long getArchivedTotal(long time){
+		if (getDocument() instanceof DocumentImpl)
+			return ((DocumentImpl) getDocument()).getArchivedTotal(this, time);
+		return 0l;
 	}
 	@Override
 	public int compareTo(ModelObject arg0) {
@@ -182,24 +238,32 @@ public class AccountImpl extends SourceImpl implements Account {
 			return (Account) originalToCloneMap.get(this);
 
 		AccountImpl a = new AccountImpl();
+		copyTo(a, originalToCloneMap);
+
+		originalToCloneMap.put(this, a);
 
+		return a;
+	}
+	
+	/**
+	 * Copies the values of this account into an existing clone.  The account
+	 * type must already have been cloned into the map.
+	 * @param a
+	 * @param originalToCloneMap
+	 */
+	void copyTo(AccountImpl a, Map<ModelObject, ModelObject> originalToCloneMap) {
 		a.document = (Document) originalToCloneMap.get(document);
 		a.type = (AccountType) originalToCloneMap.get(getAccountType());
 		a.balance = balance;
 		a.deleted = isDeleted();
-		if (modifiedTime != null)
-			a.modifiedTime = new Time(modifiedTime);
+		a.modifiedTime = (modifiedTime == null ? null : new Time(modifiedTime));
 		a.name = name;
 		a.notes = notes;
 		a.overdraftCreditLimit = overdraftCreditLimit;
 		a.interestRate = interestRate;
-		if (startDate != null)
-			a.startDate = new Day(startDate);
+		a.startDate = (startDate == null ? null : new Day(startDate));
 		a.startingBalance = startingBalance;
-
-		originalToCloneMap.put(this, a);
-
-		return a;
+		a.invalidateBalance(0);
 	}
 
 	public long getInterestRate() {
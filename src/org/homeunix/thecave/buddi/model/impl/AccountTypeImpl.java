@@ -19,7 +19,7 @@ import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
  *
  */
 public class AccountTypeImpl extends ModelObjectImpl implements AccountType {
-	private String name;
+	protected String name;
 	private boolean credit;
 	private boolean isExpanded;
 
@@ -71,13 +71,22 @@ public class AccountTypeImpl extends ModelObjectImpl implements AccountType {
 			return (AccountType) originalToCloneMap.get(this);
 		
 		AccountTypeImpl a = new AccountTypeImpl();
-		a.document = (Document) originalToCloneMap.get(document);
-		a.name = name;
-		a.credit = credit;
-		a.isExpanded = isExpanded;
+		copyTo(a, originalToCloneMap);
 		
 		originalToCloneMap.put(this, a);
 		
 		return a;
 	}
+	
+	/**
+	 * Copies the values of this account type into an existing clone.
+	 * @param a
+	 * @param originalToCloneMap
+	 */
+	void copyTo(AccountTypeImpl a, Map<ModelObject, ModelObject> originalToCloneMap) {
+		a.document = (Document) originalToCloneMap.get(document);
+		a.name = name;
+		a.credit = credit;
+		a.isExpanded = isExpanded;
+	}
 }
@@ -0,0 +1,237 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Transaction;
+
+/**
+ * The descriptions of the transactions in a document, used to auto complete the
+ * description field in the transaction editor.  There is one dictionary per
+ * document (see getDictionary()), which is shared by all the editors.
+ *
+ * The descriptions are kept in a map sorted by their lower case text, so the
+ * descriptions starting with some text can be found without looking at the
+ * others.  Completions are ranked by how many transactions use the description,
+ * and then by how recent the latest of them is.
+ *
+ * The dictionary is kept up to date from the document's change log; only the
+ * transactions which have changed are looked at again, the next time the
+ * dictionary is used.  If the changes are not known, it is rebuilt from scratch.
+ */
+public class AutoCompleteDictionary {
+	//If more than this many objects have changed, we rebuild the dictionary.
+	private static final int MAX_INCREMENTAL_CHANGES = 512;
+
+	private final Document document;
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final TreeMap<String, Entry> sortedEntries = new TreeMap<String, Entry>();
+	private final Map<Transaction, Entry> transactions = new IdentityHashMap<Transaction, Entry>();
+	private long appliedChangeCount = -1;
+
+	//All descriptions in sorted order; null when descriptions are added or removed.
+	private List<String> descriptions;
+
+	/**
+	 * Returns the dictionary for the given document.
+	 * @param document
+	 * @return
+	 */
+	public static AutoCompleteDictionary getDictionary(Document document){
+		if (document instanceof DocumentImpl)
+			return ((DocumentImpl) document).getAutoCompleteDictionary();
+		return new AutoCompleteDictionary(document);
+	}
+
+	AutoCompleteDictionary(Document document) {
+		this.document = document;
+	}
+
+	/**
+	 * Returns all the descriptions, sorted alphabetically (ignoring case).  The
+	 * returned list must not be modified.
+	 * @return
+	 */
+	public synchronized List<String> getDescriptions(){
+		refresh();
+		if (descriptions == null){
+			List<String> descriptions = new ArrayList<String>(sortedEntries.size());
+			for (Entry entry : sortedEntries.values()) {
+				descriptions.add(entry.description);
+			}
+			this.descriptions = Collections.unmodifiableList(descriptions);
+		}
+		return descriptions;
+	}
+
+	/**
+	 * Returns the descriptions which start with the given text (ignoring case),
+	 * with the most frequently used first.  Descriptions which are used equally
+	 * often are ordered with the most recently used first.
+	 * @param prefix
+	 * @return
+	 */
+	public synchronized List<String> getCompletions(String prefix){
+		refresh();
+
+		Collection<Entry> matches;
+		if (prefix == null || prefix.length() == 0)
+			matches = sortedEntries.values();
+		else {
+			String key = prefix.toLowerCase();
+			matches = sortedEntries.subMap(key, key + Character.MAX_VALUE).values();
+		}
+
+		List<Entry> ranked = new ArrayList<Entry>(matches);
+		Collections.sort(ranked, new Comparator<Entry>(){
+			public int compare(Entry o1, Entry o2) {
+				if (o1.transactions.size() != o2.transactions.size())
+					return o2.transactions.size() - o1.transactions.size();
+				int c = getLatestTransaction(o2).getDate().compareTo(getLatestTransaction(o1).getDate());
+				if (c != 0)
+					return c;
+				return o1.key.compareTo(o2.key);
+			}
+		});
+
+		List<String> completions = new ArrayList<String>(ranked.size());
+		for (Entry entry : ranked) {
+			completions.add(entry.description);
+		}
+		return completions;
+	}
+
+	/**
+	 * Returns the latest transaction (i.e., the last one in the document's
+	 * transaction list) with the given description, or null if there is none.
+	 * @param description
+	 * @return
+	 */
+	public synchronized Transaction getLatestTransaction(String description){
+		refresh();
+		Entry entry = entries.get(description);
+		if (entry == null)
+			return null;
+		return getLatestTransaction(entry);
+	}
+
+	private Transaction getLatestTransaction(Entry entry){
+		if (entry.latest == null){
+			for (Transaction t : entry.transactions) {
+				if (entry.latest == null || t.compareTo(entry.latest) > 0)
+					entry.latest = t;
+			}
+		}
+		return entry.latest;
+	}
+
+	/**
+	 * Brings the dictionary up to date with the document.
+	 */
+	private void refresh(){
+		if (!(document instanceof DocumentImpl)){
+			//We have no way of knowing what has changed
+			rebuild();
+			return;
+		}
+
+		DocumentImpl d = (DocumentImpl) document;
+		if (d.getChangeCount() == appliedChangeCount)
+			return;
+
+		List<ModelObject> changes = d.getChangesSince(appliedChangeCount);
+		if (changes == null || changes.size() > MAX_INCREMENTAL_CHANGES){
+			rebuild();
+			return;
+		}
+
+		Map<Transaction, Transaction> changed = new IdentityHashMap<Transaction, Transaction>();
+		for (ModelObject object : changes) {
+			if (object instanceof Transaction && !(object instanceof ScheduledTransaction))
+				changed.put((Transaction) object, (Transaction) object);
+		}
+		List<Transaction> documentTransactions = d.getTransactions();
+		for (Transaction t : changed.keySet()) {
+			remove(t);
+			if (documentTransactions.contains(t))
+				add(t);
+		}
+		appliedChangeCount += changes.size();
+	}
+
+	private void rebuild(){
+		entries.clear();
+		sortedEntries.clear();
+		transactions.clear();
+		descriptions = null;
+
+		if (document instanceof DocumentImpl)
+			appliedChangeCount = ((DocumentImpl) document).getChangeCount();
+		for (Transaction t : document.getTransactions()) {
+			add(t);
+		}
+	}
+
+	private void add(Transaction t){
+		String description = t.getDescription();
+		if (description == null || description.length() == 0)
+			return;
+
+		Entry entry = entries.get(description);
+		if (entry == null){
+			entry = new Entry(description);
+			entries.put(description, entry);
+			sortedEntries.put(entry.key, entry);
+			descriptions = null;
+		}
+		entry.transactions.add(t);
+		if (entry.latest != null && t.compareTo(entry.latest) > 0)
+			entry.latest = t;
+		transactions.put(t, entry);
+	}
+
+	private void remove(Transaction t){
+		Entry entry = transactions.remove(t);
+		if (entry == null)
+			return;
+
+		for (int i = 0; i < entry.transactions.size(); i++){
+			if (entry.transactions.get(i) == t){
+				entry.transactions.remove(i);
+				break;
+			}
+		}
+		if (entry.latest == t)
+			entry.latest = null;
+		if (entry.transactions.isEmpty()){
+			entries.remove(entry.description);
+			sortedEntries.remove(entry.key);
+			descriptions = null;
+		}
+	}
+
+	private static class Entry {
+		private final String description;
+		//The sort key; descriptions which only differ in case are kept apart.
+		private final String key;
+		private final List<Transaction> transactions = new ArrayList<Transaction>(1);
+		//The latest transaction, or null if it needs to be worked out again
+		private Transaction latest;
+
+		public Entry(String description) {
+			this.description = description;
+			this.key = description.toLowerCase() + '\u0000' + description;
+		}
+	}
+}
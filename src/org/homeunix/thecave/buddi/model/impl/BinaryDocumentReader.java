@@ -0,0 +1,368 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.AccountType;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
+
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+
+/**
+ * Reads a Document which was written by BinaryDocumentWriter.  The returned
+ * document is in the same state as one which was just read by the XMLDecoder;
+ * it is up to the calling code (normally ModelFactory) to refresh the UID map,
+ * update balances, etc.
+ */
+public class BinaryDocumentReader {
+
+	private final DataInputStream in;
+
+	private String[] strings = new String[0];
+	private final Map<String, ModelObject> objects = new HashMap<String, ModelObject>();
+	private final List<TransactionImpl> allTransactions = new ArrayList<TransactionImpl>();
+	private final List<String> deletedUids = new ArrayList<String>();
+	//Calling setters changes the modified time of objects; we restore these at the end.
+	private final Map<ModelObject, Time> modifiedTimes = new HashMap<ModelObject, Time>();
+
+	public BinaryDocumentReader(InputStream is) {
+		this.in = new DataInputStream(is);
+	}
+
+	/**
+	 * Returns true if the given header bytes match the binary format magic.
+	 * @param header
+	 * @return
+	 */
+	public static boolean isBinaryFormat(byte[] header){
+		if (header == null || header.length < BinaryDocumentWriter.MAGIC.length)
+			return false;
+		for (int i = 0; i < BinaryDocumentWriter.MAGIC.length; i++){
+			if (header[i] != BinaryDocumentWriter.MAGIC[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the document from the input stream.  The stream is not closed.
+	 * @return
+	 * @throws IOException
+	 * @throws IncorrectDocumentFormatException If the stream does not contain
+	 * a binary document, or contains a newer version than we understand.
+	 */
+	public DocumentImpl read() throws IOException, IncorrectDocumentFormatException {
+		byte[] magic = new byte[BinaryDocumentWriter.MAGIC.length];
+		in.readFully(magic);
+		if (!isBinaryFormat(magic))
+			throw new IncorrectDocumentFormatException("Data file is not in the binary document format");
+		int version = in.readInt();
+		if (version > BinaryDocumentWriter.VERSION)
+			throw new IncorrectDocumentFormatException("Binary document version " + version + " is newer than the supported version " + BinaryDocumentWriter.VERSION);
+
+		DocumentImpl document = new DocumentImpl();
+		List<AccountType> accountTypes = new ArrayList<AccountType>();
+		List<Account> accounts = new ArrayList<Account>();
+		List<BudgetCategory> budgetCategories = new ArrayList<BudgetCategory>();
+		List<Transaction> transactions = new ArrayList<Transaction>();
+		List<ScheduledTransaction> scheduledTransactions = new ArrayList<ScheduledTransaction>();
+
+		try {
+			while (true){
+				byte type = in.readByte();
+				if (type == BinaryDocumentWriter.SECTION_END)
+					break;
+				int length = in.readInt();
+
+				switch (type){
+				case BinaryDocumentWriter.SECTION_STRINGS:
+					readStrings(); break;
+				case BinaryDocumentWriter.SECTION_DOCUMENT:
+					readDocument(document); break;
+				case BinaryDocumentWriter.SECTION_ACCOUNT_TYPES:
+					readAccountTypes(document, accountTypes); break;
+				case BinaryDocumentWriter.SECTION_ACCOUNTS:
+					readAccounts(document, accounts); break;
+				case BinaryDocumentWriter.SECTION_BUDGET_CATEGORIES:
+					readBudgetCategories(document, budgetCategories); break;
+				case BinaryDocumentWriter.SECTION_TRANSACTIONS:
+					readTransactions(document, transactions); break;
+				case BinaryDocumentWriter.SECTION_SCHEDULED_TRANSACTIONS:
+					readScheduledTransactions(document, scheduledTransactions); break;
+				case BinaryDocumentWriter.SECTION_TRANSACTION_SPLITS:
+					readTransactionSplits(); break;
+				case BinaryDocumentWriter.SECTION_DELETED:
+					readDeleted(); break;
+				default:
+					//Unknown section from a newer minor revision; skip it.
+					in.skipBytes(length);
+				}
+			}
+		}
+		catch (InvalidValueException ive){
+			throw new IncorrectDocumentFormatException("Invalid value in binary document: " + ive.getMessage());
+		}
+
+		document.setAccountTypes(accountTypes);
+		document.setAccounts(accounts);
+		document.setBudgetCategories(budgetCategories);
+		document.setTransactions(transactions);
+		document.setScheduledTransactions(scheduledTransactions);
+
+		document.setModified(modifiedTimes.get(document));
+		for (Map.Entry<ModelObject, Time> entry : modifiedTimes.entrySet()) {
+			if (entry.getKey() instanceof ModelObjectImpl)
+				((ModelObjectImpl) entry.getKey()).setModified(entry.getValue());
+		}
+
+		return document;
+	}
+
+	/**
+	 * Returns the UIDs of the objects which were listed as deleted in the stream.  This
+	 * is only written by BinaryDocumentWriter.writeChanges(); for a full document, the
+	 * list is empty.
+	 * @return
+	 */
+	List<String> getDeletedUids() {
+		return deletedUids;
+	}
+
+	private void readStrings() throws IOException {
+		int count = in.readInt();
+		strings = new String[count];
+		for (int i = 0; i < count; i++){
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			strings[i] = new String(bytes, BinaryDocumentWriter.UTF8);
+		}
+	}
+
+	private void readDocument(DocumentImpl document) throws IOException {
+		document.setUid(string(in.readInt()));
+		modifiedTimes.put(document, time(in.readLong()));
+	}
+
+	private void readAccountTypes(DocumentImpl document, List<AccountType> accountTypes) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++){
+			AccountTypeImpl type = new AccountTypeImpl();
+			type.setDocument(document);
+			type.setUid(string(in.readInt()));
+			type.name = string(in.readInt());
+			type.setCredit(in.readBoolean());
+			type.setExpanded(in.readBoolean());
+			modifiedTimes.put(type, time(in.readLong()));
+			register(type);
+			accountTypes.add(type);
+		}
+	}
+
+	private void readAccounts(DocumentImpl document, List<Account> accounts) throws IOException, InvalidValueException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++){
+			AccountImpl account = new AccountImpl();
+			account.setDocument(document);
+			account.setUid(string(in.readInt()));
+			account.name = string(in.readInt());
+			account.notes = string(in.readInt());
+			account.deleted = in.readBoolean();
+			account.setAccountType((AccountType) object(in.readInt()));
+			account.setStartingBalance(in.readLong());
+			account.setBalance(in.readLong());
+			account.setOverdraftCreditLimit(in.readLong());
+			account.setInterestRate(in.readLong());
+			account.setStartDate(day(in.readInt()));
+			modifiedTimes.put(account, time(in.readLong()));
+			register(account);
+			accounts.add(account);
+		}
+	}
+
+	private void readBudgetCategories(DocumentImpl document, List<BudgetCategory> budgetCategories) throws IOException, InvalidValueException {
+		int count = in.readInt();
+		Map<BudgetCategoryImpl, String> parents = new HashMap<BudgetCategoryImpl, String>();
+		for (int i = 0; i < count; i++){
+			BudgetCategoryImpl category = new BudgetCategoryImpl();
+			category.setDocument(document);
+			category.setUid(string(in.readInt()));
+			category.name = string(in.readInt());
+			category.notes = string(in.readInt());
+			category.deleted = in.readBoolean();
+			category.setIncome(in.readBoolean());
+			category.setExpanded(in.readBoolean());
+			String periodType = string(in.readInt());
+			if (periodType != null)
+				category.setPeriodType(ModelFactory.getBudgetCategoryType(periodType));
+			String parent = string(in.readInt());
+			if (parent != null)
+				parents.put(category, parent);
+			int amountCount = in.readInt();
+			Map<String, Long> amounts = new HashMap<String, Long>();
+			for (int j = 0; j < amountCount; j++){
+				String key = string(in.readInt());
+				amounts.put(key, in.readLong());
+			}
+			category.setAmounts(amounts);
+			modifiedTimes.put(category, time(in.readLong()));
+			register(category);
+			budgetCategories.add(category);
+		}
+
+		//Parents may be listed after their children, so we resolve them after all categories are read.
+		for (Map.Entry<BudgetCategoryImpl, String> entry : parents.entrySet()) {
+			entry.getKey().setParent((BudgetCategory) objects.get(entry.getValue()));
+		}
+	}
+
+	private void readTransactions(DocumentImpl document, List<Transaction> transactions) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++){
+			TransactionImpl t = new TransactionImpl();
+			readTransactionRecord(document, t);
+			transactions.add(t);
+		}
+	}
+
+	private void readScheduledTransactions(DocumentImpl document, List<ScheduledTransaction> scheduledTransactions) throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++){
+			ScheduledTransactionImpl st = new ScheduledTransactionImpl();
+			readTransactionRecord(document, st);
+			st.setScheduleName(string(in.readInt()));
+			st.setMessage(string(in.readInt()));
+			st.setFrequencyType(string(in.readInt()));
+			st.setScheduleDay(in.readInt());
+			st.setScheduleWeek(in.readInt());
+			st.setScheduleMonth(in.readInt());
+			Day startDate = day(in.readInt());
+			if (startDate != null)
+				st.setStartDate(startDate);
+			Day endDate = day(in.readInt());
+			if (endDate != null)
+				st.setEndDate(endDate);
+			Day lastDayCreated = day(in.readInt());
+			if (lastDayCreated != null)
+				st.setLastDayCreated(lastDayCreated);
+			scheduledTransactions.add(st);
+		}
+	}
+
+	/**
+	 * Reads a single fixed width transaction record into the given transaction.
+	 */
+	private void readTransactionRecord(DocumentImpl document, TransactionImpl t) throws IOException {
+		t.setDocument(document);
+		t.setUid(string(in.readInt()));
+		t.date = day(in.readInt());
+		t.description = string(in.readInt());
+		t.number = string(in.readInt());
+		t.memo = string(in.readInt());
+		t.amount = in.readLong();
+		int from = in.readInt();
+		int to = in.readInt();
+		int flags = in.readInt();
+		Time modified = time(in.readLong());
+		modifiedTimes.put(t, modified);
+
+		t.deleted = (flags & BinaryDocumentWriter.FLAG_DELETED) != 0;
+		t.clearedFrom = (flags & BinaryDocumentWriter.FLAG_CLEARED_FROM) != 0;
+		t.clearedTo = (flags & BinaryDocumentWriter.FLAG_CLEARED_TO) != 0;
+		t.reconciledFrom = (flags & BinaryDocumentWriter.FLAG_RECONCILED_FROM) != 0;
+		t.reconciledTo = (flags & BinaryDocumentWriter.FLAG_RECONCILED_TO) != 0;
+		t.scheduled = (flags & BinaryDocumentWriter.FLAG_SCHEDULED) != 0;
+		t.from = (flags & BinaryDocumentWriter.FLAG_FROM_SPLIT) != 0 ? split(from, modified) : (Source) object(from);
+		t.to = (flags & BinaryDocumentWriter.FLAG_TO_SPLIT) != 0 ? split(to, modified) : (Source) object(to);
+		if ((flags & BinaryDocumentWriter.FLAG_HAS_FROM_SPLITS) != 0)
+			t.fromSplits = new ArrayList<TransactionSplit>();
+		if ((flags & BinaryDocumentWriter.FLAG_HAS_TO_SPLITS) != 0)
+			t.toSplits = new ArrayList<TransactionSplit>();
+
+		allTransactions.add(t);
+	}
+
+	private void readTransactionSplits() throws IOException, InvalidValueException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++){
+			TransactionImpl t = allTransactions.get(in.readInt());
+			int flags = in.readInt();
+			TransactionSplitImpl split = new TransactionSplitImpl();
+			split.setUid(string(in.readInt()));
+			split.setSource((Source) object(in.readInt()));
+			split.setAmount(in.readLong());
+			modifiedTimes.put(split, time(in.readLong()));
+
+			if ((flags & BinaryDocumentWriter.SPLIT_TO) != 0){
+				if (t.toSplits == null)
+					t.toSplits = new ArrayList<TransactionSplit>();
+				t.toSplits.add(split);
+			}
+			else {
+				if (t.fromSplits == null)
+					t.fromSplits = new ArrayList<TransactionSplit>();
+				t.fromSplits.add(split);
+			}
+		}
+	}
+
+	private void readDeleted() throws IOException {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++){
+			deletedUids.add(string(in.readInt()));
+		}
+	}
+
+	/**
+	 * Creates the split marker for a transaction.  As with the XML format, split
+	 * markers and transaction splits do not have their document set; the marker
+	 * takes the modified time of its transaction.
+	 */
+	private SplitImpl split(int uidIndex, Time modified){
+		SplitImpl split = new SplitImpl();
+		if (uidIndex != BinaryDocumentWriter.NULL_STRING)
+			split.setUid(string(uidIndex));
+		modifiedTimes.put(split, modified);
+		return split;
+	}
+
+	private void register(ModelObject object){
+		objects.put(object.getUid(), object);
+	}
+
+	private ModelObject object(int uidIndex){
+		String uid = string(uidIndex);
+		if (uid == null)
+			return null;
+		return objects.get(uid);
+	}
+
+	private String string(int index) {
+		if (index == BinaryDocumentWriter.NULL_STRING)
+			return null;
+		return strings[index];
+	}
+
+	private static Day day(int packed){
+		if (packed == BinaryDocumentWriter.NULL_DATE)
+			return null;
+		return new Day(packed / 10000, (packed / 100) % 100, packed % 100);
+	}
+
+	private static Time time(long time){
+		if (time == BinaryDocumentWriter.NULL_TIME)
+			return null;
+		return new Time(time);
+	}
+}
@@ -0,0 +1,396 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.AccountType;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+/**
+ * Writes a Document using the compact binary format.  This is an alternative to
+ * the XMLEncoder output, which is very slow and memory hungry for large data files.
+ *
+ * The file starts with the MAGIC bytes and a format version, followed by a series of
+ * sections.  Each section consists of a one byte section type, an int length, and
+ * then length bytes of payload; readers skip any section type they do not know about.
+ * All strings (UIDs, names, descriptions, etc) are stored once in the string table
+ * section, and referred to by index everywhere else.  Transactions and transaction splits
+ * are stored as fixed width records, so that a reader can walk them without any parsing.
+ *
+ * See BinaryDocumentReader for the matching reader.
+ */
+public class BinaryDocumentWriter {
+	public static final byte[] MAGIC = "BUDDIBIN".getBytes(Charset.forName("US-ASCII"));
+	public static final int VERSION = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	//Section types
+	static final byte SECTION_END = 0;
+	static final byte SECTION_STRINGS = 1;
+	static final byte SECTION_DOCUMENT = 2;
+	static final byte SECTION_ACCOUNT_TYPES = 3;
+	static final byte SECTION_ACCOUNTS = 4;
+	static final byte SECTION_BUDGET_CATEGORIES = 5;
+	static final byte SECTION_TRANSACTIONS = 6;
+	static final byte SECTION_SCHEDULED_TRANSACTIONS = 7;
+	static final byte SECTION_TRANSACTION_SPLITS = 8;
+	static final byte SECTION_DELETED = 9;
+
+	//Fixed record sizes, in bytes
+	static final int TRANSACTION_RECORD_SIZE = 48;
+	static final int SPLIT_RECORD_SIZE = 32;
+
+	//Transaction flags
+	static final int FLAG_DELETED = 1;
+	static final int FLAG_CLEARED_FROM = 2;
+	static final int FLAG_CLEARED_TO = 4;
+	static final int FLAG_RECONCILED_FROM = 8;
+	static final int FLAG_RECONCILED_TO = 16;
+	static final int FLAG_SCHEDULED = 32;
+	static final int FLAG_FROM_SPLIT = 64;
+	static final int FLAG_TO_SPLIT = 128;
+	static final int FLAG_HAS_FROM_SPLITS = 256;
+	static final int FLAG_HAS_TO_SPLITS = 512;
+
+	//Split record flags
+	static final int SPLIT_TO = 1;
+
+	//Marker values for null references
+	static final int NULL_STRING = -1;
+	static final int NULL_DATE = 0;
+	static final long NULL_TIME = Long.MIN_VALUE;
+
+	private final OutputStream os;
+
+	private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+
+	public BinaryDocumentWriter(OutputStream os) {
+		this.os = os;
+	}
+
+	/**
+	 * Writes the given document to the output stream.  The stream is flushed, but not
+	 * closed; it is up to the calling code to close it.
+	 * @param document
+	 * @throws IOException
+	 */
+	public void write(DocumentImpl document) throws IOException {
+		write(document, document.getTransactions(), null);
+	}
+
+	/**
+	 * Writes the given document to the output stream, but with only the given 
+	 * transactions, followed by the UIDs of any objects which were deleted.  All
+	 * other sections are written in full.  This is used by DocumentJournal to 
+	 * record the changes to a document.
+	 * @param document
+	 * @param transactions
+	 * @param deletedUids
+	 * @throws IOException
+	 */
+	void writeChanges(DocumentImpl document, List<Transaction> transactions, List<String> deletedUids) throws IOException {
+		write(document, transactions, deletedUids);
+	}
+
+	private void write(DocumentImpl document, List<Transaction> transactions, List<String> deletedUids) throws IOException {
+		//We build all the sections first, since the string table must be
+		// written before any of the sections which refer to it.
+		byte[] documentSection = writeDocumentSection(document);
+		byte[] accountTypesSection = writeAccountTypesSection(document.getAccountTypes());
+		byte[] accountsSection = writeAccountsSection(document.getAccounts());
+		byte[] budgetCategoriesSection = writeBudgetCategoriesSection(document.getBudgetCategories());
+		byte[] transactionsSection = writeTransactionsSection(transactions);
+		byte[] scheduledSection = writeScheduledTransactionsSection(document.getScheduledTransactions());
+		byte[] splitsSection = writeTransactionSplitsSection(transactions, document.getScheduledTransactions());
+		byte[] deletedSection = (deletedUids == null ? null : writeDeletedSection(deletedUids));
+
+		DataOutputStream out = new DataOutputStream(os);
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		writeSection(out, SECTION_STRINGS, writeStringsSection());
+		writeSection(out, SECTION_DOCUMENT, documentSection);
+		writeSection(out, SECTION_ACCOUNT_TYPES, accountTypesSection);
+		writeSection(out, SECTION_ACCOUNTS, accountsSection);
+		writeSection(out, SECTION_BUDGET_CATEGORIES, budgetCategoriesSection);
+		writeSection(out, SECTION_TRANSACTIONS, transactionsSection);
+		writeSection(out, SECTION_SCHEDULED_TRANSACTIONS, scheduledSection);
+		writeSection(out, SECTION_TRANSACTION_SPLITS, splitsSection);
+		if (deletedSection != null)
+			writeSection(out, SECTION_DELETED, deletedSection);
+		out.writeByte(SECTION_END);
+		out.flush();
+	}
+
+	private void writeSection(DataOutputStream out, byte type, byte[] payload) throws IOException {
+		out.writeByte(type);
+		out.writeInt(payload.length);
+		out.write(payload);
+	}
+
+	private byte[] writeStringsSection() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(strings.size());
+		for (String s : strings) {
+			byte[] bytes = s.getBytes(UTF8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private byte[] writeDeletedSection(List<String> deletedUids) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(deletedUids.size());
+		for (String uid : deletedUids) {
+			out.writeInt(string(uid));
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private byte[] writeDocumentSection(DocumentImpl document) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(string(document.getUid()));
+		out.writeLong(time(document.getModifiedDate()));
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private byte[] writeAccountTypesSection(List<AccountType> accountTypes) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(accountTypes.size());
+		for (AccountType at : accountTypes) {
+			AccountTypeImpl type = (AccountTypeImpl) at;
+			out.writeInt(string(type.getUid()));
+			out.writeInt(string(type.name));
+			out.writeBoolean(type.isCredit());
+			out.writeBoolean(type.isExpanded());
+			out.writeLong(time(type.getModified()));
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private byte[] writeAccountsSection(List<Account> accounts) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(accounts.size());
+		for (Account a : accounts) {
+			AccountImpl account = (AccountImpl) a;
+			out.writeInt(string(account.getUid()));
+			out.writeInt(string(account.name));
+			out.writeInt(string(account.notes));
+			out.writeBoolean(account.deleted);
+			out.writeInt(uid(account.getAccountType()));
+			out.writeLong(account.getStartingBalance());
+			out.writeLong(account.getBalance());
+			out.writeLong(account.getOverdraftCreditLimit());
+			out.writeLong(account.getInterestRate());
+			out.writeInt(date(account.getStartDate()));
+			out.writeLong(time(account.getModified()));
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private byte[] writeBudgetCategoriesSection(List<BudgetCategory> budgetCategories) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(budgetCategories.size());
+		for (BudgetCategory bc : budgetCategories) {
+			BudgetCategoryImpl category = (BudgetCategoryImpl) bc;
+			out.writeInt(string(category.getUid()));
+			out.writeInt(string(category.name));
+			out.writeInt(string(category.notes));
+			out.writeBoolean(category.deleted);
+			out.writeBoolean(category.isIncome());
+			out.writeBoolean(category.isExpanded());
+			out.writeInt(string(category.getPeriodType() == null ? null : category.getPeriodType().getName()));
+			out.writeInt(uid(category.getParent()));
+			Map<String, Long> amounts = category.getAmounts();
+			out.writeInt(amounts.size());
+			for (Map.Entry<String, Long> entry : amounts.entrySet()) {
+				out.writeInt(string(entry.getKey()));
+				out.writeLong(entry.getValue() == null ? 0 : entry.getValue());
+			}
+			out.writeLong(time(category.getModified()));
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	private byte[] writeTransactionsSection(List<Transaction> transactions) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(4 + transactions.size() * TRANSACTION_RECORD_SIZE);
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(transactions.size());
+		for (Transaction t : transactions) {
+			writeTransactionRecord(out, (TransactionImpl) t);
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Writes the split records for all transactions, followed by all scheduled
+	 * transactions.  The transaction index in each record counts through the
+	 * transactions first, and then continues through the scheduled transactions.
+	 */
+	private byte[] writeTransactionSplitsSection(List<Transaction> transactions, List<ScheduledTransaction> scheduledTransactions) throws IOException {
+		List<Transaction> all = new ArrayList<Transaction>(transactions.size() + scheduledTransactions.size());
+		all.addAll(transactions);
+		all.addAll(scheduledTransactions);
+
+		int count = 0;
+		for (Transaction t : all) {
+			if (t.getFromSplits() != null)
+				count += t.getFromSplits().size();
+			if (t.getToSplits() != null)
+				count += t.getToSplits().size();
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(4 + count * SPLIT_RECORD_SIZE);
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(count);
+		int index = 0;
+		for (Transaction t : all) {
+			if (t.getFromSplits() != null){
+				for (TransactionSplit split : t.getFromSplits()) {
+					writeSplitRecord(out, index, 0, split);
+				}
+			}
+			if (t.getToSplits() != null){
+				for (TransactionSplit split : t.getToSplits()) {
+					writeSplitRecord(out, index, SPLIT_TO, split);
+				}
+			}
+			index++;
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Writes a single fixed width (TRANSACTION_RECORD_SIZE bytes) transaction record.
+	 */
+	private void writeTransactionRecord(DataOutputStream out, TransactionImpl t) throws IOException {
+		int flags = 0;
+		if (t.deleted) flags |= FLAG_DELETED;
+		if (t.clearedFrom) flags |= FLAG_CLEARED_FROM;
+		if (t.clearedTo) flags |= FLAG_CLEARED_TO;
+		if (t.reconciledFrom) flags |= FLAG_RECONCILED_FROM;
+		if (t.reconciledTo) flags |= FLAG_RECONCILED_TO;
+		if (t.scheduled) flags |= FLAG_SCHEDULED;
+		if (t.from instanceof Split) flags |= FLAG_FROM_SPLIT;
+		if (t.to instanceof Split) flags |= FLAG_TO_SPLIT;
+		if (t.fromSplits != null) flags |= FLAG_HAS_FROM_SPLITS;
+		if (t.toSplits != null) flags |= FLAG_HAS_TO_SPLITS;
+
+		out.writeInt(string(t.getUid()));
+		out.writeInt(date(t.date));
+		out.writeInt(string(t.description));
+		out.writeInt(string(t.number));
+		out.writeInt(string(t.memo));
+		out.writeLong(t.amount);
+		out.writeInt(uid(t.from));
+		out.writeInt(uid(t.to));
+		out.writeInt(flags);
+		out.writeLong(time(t.getModified()));
+	}
+
+	/**
+	 * Writes a single fixed width (SPLIT_RECORD_SIZE bytes) transaction split record.
+	 */
+	private void writeSplitRecord(DataOutputStream out, int transactionIndex, int flags, TransactionSplit split) throws IOException {
+		out.writeInt(transactionIndex);
+		out.writeInt(flags);
+		out.writeInt(string(split.getUid()));
+		out.writeInt(uid(split.getSource()));
+		out.writeLong(split.getAmount());
+		out.writeLong(time(split.getModified()));
+	}
+
+	private byte[] writeScheduledTransactionsSection(List<ScheduledTransaction> scheduledTransactions) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(baos);
+		out.writeInt(scheduledTransactions.size());
+		for (ScheduledTransaction s : scheduledTransactions) {
+			ScheduledTransactionImpl st = (ScheduledTransactionImpl) s;
+			//The common transaction fields use the same fixed record as a normal transaction
+			writeTransactionRecord(out, st);
+			out.writeInt(string(st.getScheduleName()));
+			out.writeInt(string(st.getMessage()));
+			out.writeInt(string(st.getFrequencyType()));
+			out.writeInt(st.getScheduleDay());
+			out.writeInt(st.getScheduleWeek());
+			out.writeInt(st.getScheduleMonth());
+			out.writeInt(date(st.getStartDate()));
+			out.writeInt(date(st.getEndDate()));
+			out.writeInt(date(st.getLastDayCreated()));
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Returns the index of the given string in the string table, adding it if needed.
+	 */
+	private int string(String s){
+		if (s == null)
+			return NULL_STRING;
+		Integer index = stringIndex.get(s);
+		if (index == null){
+			index = strings.size();
+			strings.add(s);
+			stringIndex.put(s, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the string table index of the UID of the given object.
+	 */
+	private int uid(ModelObject object){
+		if (object == null)
+			return NULL_STRING;
+		return string(object.getUid());
+	}
+
+	/**
+	 * Packs a date as yyyyMMdd (with months starting at 0, as DateUtil uses).  This
+	 * matches the day resolution which the XML persistence delegate stores.
+	 */
+	static int date(Date date){
+		if (date == null)
+			return NULL_DATE;
+		return DateUtil.getYear(date) * 10000 + DateUtil.getMonth(date) * 100 + DateUtil.getDay(date);
+	}
+
+	static long time(Date time){
+		if (time == null)
+			return NULL_TIME;
+		return time.getTime();
+	}
+}
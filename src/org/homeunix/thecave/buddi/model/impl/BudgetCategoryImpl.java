@@ -4,7 +4,6 @@
 package org.homeunix.thecave.buddi.model.impl;
 
 import java.util.Date;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -14,7 +13,8 @@ import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.BudgetCategoryType;
 import org.homeunix.thecave.buddi.model.Document;
 import org.homeunix.thecave.buddi.model.ModelObject;
-import org.homeunix.thecave.buddi.plugin.api.exception.DataModelProblemException;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
 import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
 
 import ca.digitalcave.moss.collections.SortedArrayList;
@@ -32,17 +32,39 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 	private boolean expanded;
 	private BudgetCategoryType periodType;
 	private BudgetCategory parent;
-	private Map<String, Long> amounts;
+	private BudgetPeriodAmounts amounts;
 	private List<BudgetCategory> children;
 	private List<BudgetCategory> allChildren;
 	
+	//The running total of the actual amounts after each transaction in 
+	// getDocument().getTransactions(this), and the index of the first entry which 
+	// needs to be re-calculated.  This works the same way as the running balances
+	// in AccountImpl: the document moves actualsDirtyFrom back as transactions are
+	// inserted, edited and deleted, and the actual amount for any date range is
+	// the difference between two entries, found with a binary search.
+	private long[] runningActuals = new long[0];
+	private int actualsDirtyFrom = 0;
+	
+	/**
+	 * Returns the budgeted amounts, keyed by the string form of the budget period 
+	 * (see getPeriodKey()).  This is the form which is stored in the data file;
+	 * the map converts to and from the compact keys which we use internally,
+	 * and changes to it are reflected in this budget category. 
+	 * @return
+	 */
 	public Map<String, Long> getAmounts() {
-		if (amounts == null)
-			amounts = new HashMap<String, Long>();
-		return amounts;
+		return getPeriodAmounts();
 	}
 	public void setAmounts(Map<String, Long> amounts) {
-		this.amounts = amounts;
+		BudgetPeriodAmounts periodAmounts = new BudgetPeriodAmounts();
+		if (amounts != null)
+			periodAmounts.putAll(amounts);
+		this.amounts = periodAmounts;
+	}
+	private BudgetPeriodAmounts getPeriodAmounts(){
+		if (amounts == null)
+			amounts = new BudgetPeriodAmounts();
+		return amounts;
 	}
 	/**
 	 * Returns the budgeted amount associated with the given budget category, for 
@@ -51,10 +73,7 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 	 * @return
 	 */
 	public long getAmount(Date periodDate){
-		Long l = getAmounts().get(getPeriodKey(periodDate));
-		if (l == null)
-			return 0;
-		return l;
+		return getPeriodAmounts().getAmount(getPeriodAmountKey(periodDate));
 	}
 	
 	@Override
@@ -139,11 +158,13 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 //			Logger.getLogger().info("Total in Start Period = " + totalStartPeriod);
 			
 			double totalInMiddle = 0;
-			for (String periodKey : getBudgetPeriods(
-					getBudgetPeriodType().getBudgetPeriodOffset(startDate, 1),
-					getBudgetPeriodType().getBudgetPeriodOffset(endDate, -1))) {
-				totalInMiddle += getAmount(getPeriodDate(periodKey));
-				Logger.getLogger(this.getClass().getName()).info("Added " + getAmount(getPeriodDate(periodKey)) + " to total for one period in between; current value is " + totalInMiddle);
+			Date period = getBudgetPeriodType().getBudgetPeriodOffset(startDate, 1);
+			Date endOfMiddle = getBudgetPeriodType().getEndOfBudgetPeriod(getBudgetPeriodType().getBudgetPeriodOffset(endDate, -1));
+			while (period.before(endOfMiddle)){
+				long amount = getAmount(period);
+				totalInMiddle += amount;
+				Logger.getLogger(this.getClass().getName()).info("Added " + amount + " to total for one period in between; current value is " + totalInMiddle);
+				period = getBudgetPeriodType().getBudgetPeriodOffset(period, 1);
 			}
 //			Logger.getLogger().info("Total in Middle = " + totalInMiddle);
 			
@@ -164,6 +185,77 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 		throw new RuntimeException("You should not be here.  We have returned all legitimate numbers from getAmount(Date, Date) in BudgetCategoryImpl.  Please contact Wyatt Olson with details on how you got here (what steps did you perform in Buddi to get this error message).");
 	}
 	
+	public long getActual(Date startDate, Date endDate){
+		if (getDocument() == null)
+			return 0;
+		
+		//If some transactions are archived, we can use their totals for whole years;
+		// otherwise, we need the transactions from the year of the start date on.
+		long archived = 0;
+		if (getDocument() instanceof DocumentImpl){
+			DocumentImpl document = (DocumentImpl) getDocument();
+			Long before = document.getArchivedTotal(this, startDate.getTime() - 1);
+			Long through = document.getArchivedTotal(this, endDate.getTime());
+			if (before == null || through == null){
+				document.materializeTransactions(startDate);
+				before = document.getArchivedTotal(this, startDate.getTime() - 1);
+				through = document.getArchivedTotal(this, endDate.getTime());
+			}
+			if (before != null && through != null && endDate.getTime() >= startDate.getTime())
+				archived = before - through;
+		}
+		
+		List<Transaction> transactions = getDocument().getTransactions(this);
+		if (actualsDirtyFrom < transactions.size())
+			updateRunningActuals(transactions);
+		
+		int from = TransactionDateRangeList.firstIndexAfter(transactions, startDate.getTime() - 1);
+		int to = TransactionDateRangeList.firstIndexAfter(transactions, endDate.getTime());
+		if (to <= from)
+			return archived;
+		return archived + runningActuals[to - 1] - (from == 0 ? 0 : runningActuals[from - 1]);
+	}
+	
+	/**
+	 * Recalculates the running actuals from the first out of date entry onwards.
+	 */
+	private void updateRunningActuals(List<Transaction> transactions){
+		int size = transactions.size();
+		int start = Math.min(actualsDirtyFrom, size);
+		if (runningActuals.length < size){
+			long[] newRunningActuals = new long[Math.max(size, runningActuals.length + (runningActuals.length >> 1))];
+			System.arraycopy(runningActuals, 0, newRunningActuals, 0, start);
+			runningActuals = newRunningActuals;
+		}
+		
+		long actual = (start == 0 ? 0 : runningActuals[start - 1]);
+		for (int i = start; i < size; i++) {
+			Transaction transaction = transactions.get(i);
+			if (!transaction.isDeleted()){
+				if (transaction.getTo() instanceof BudgetCategory)
+					actual -= transaction.getAmount();
+				else if (transaction.getFrom() instanceof BudgetCategory)
+					actual += transaction.getAmount();
+				for (TransactionSplit split : transaction.getToSplits()) {
+					if (split.getSource().equals(this))
+						actual -= split.getAmount();
+				}
+				for (TransactionSplit split : transaction.getFromSplits()) {
+					if (split.getSource().equals(this))
+						actual += split.getAmount();
+				}
+			}
+			runningActuals[i] = actual;
+		}
+		actualsDirtyFrom = Integer.MAX_VALUE;
+	}
+	
+	@Override
+	void invalidateBalance(int fromIndex){
+		if (fromIndex < actualsDirtyFrom)
+			actualsDirtyFrom = Math.max(0, fromIndex);
+	}
+	
 	/**
 	 * Returns a list of BudgetPeriods, covering the entire range of periods
 	 * occupied by startDate to endDate.
@@ -190,9 +282,10 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 	 * @param amount
 	 */
 	public void setAmount(Date periodDate, long amount){
-		if (getAmount(periodDate) != amount)
+		long key = getPeriodAmountKey(periodDate);
+		if (getPeriodAmounts().getAmount(key) != amount)
 			setChanged();
-		getAmounts().put(getPeriodKey(periodDate), amount);
+		getPeriodAmounts().setAmount(key, amount);
 	}
 	public BudgetCategoryType getPeriodType() {
 		return periodType;
@@ -268,20 +361,14 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 		return getBudgetPeriodType().getName() + ":" + DateUtil.getYear(d) + ":" + DateUtil.getMonth(d) + ":" + DateUtil.getDay(d);
 	}
 	/**
-	 * Parses a periodKey to get the date 
-	 * @param periodKey
+	 * Returns the compact form of the key which is associated with the date 
+	 * contained within the current budget period.  This is equivalent to 
+	 * getPeriodKey(), but does not need to build a string.
+	 * @param periodDate
 	 * @return
 	 */
-	private Date getPeriodDate(String periodKey){
-		String[] splitKey = periodKey.split(":");
-		if (splitKey.length == 4){
-			int year = Integer.parseInt(splitKey[1]);
-			int month = Integer.parseInt(splitKey[2]);
-			int day = Integer.parseInt(splitKey[3]);
-			return getBudgetPeriodType().getStartOfBudgetPeriod(DateUtil.getDate(year, month, day));
-		}
-
-		throw new DataModelProblemException("Cannot parse date from key " + periodKey);
+	private long getPeriodAmountKey(Date periodDate){
+		return BudgetPeriodAmounts.getKey(getBudgetPeriodType(), getBudgetPeriodType().getStartOfBudgetPeriod(periodDate));
 	}
 	public String getFullName(){
 		if (getDocument() != null && getParent() != null && !getParent().equals(this)){
@@ -316,10 +403,8 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 	public List<Date> getBudgetedDates() {
 		List<Date> budgetedDates = new SortedArrayList<Date>();
 		
-		Map<String, Long> amounts = getAmounts();
-		for (String key : amounts.keySet()){
-			if (amounts.get(key) != null && amounts.get(key) != 0)
-				budgetedDates.add(getPeriodDate(key));
+		for (Date date : getPeriodAmounts().getBudgetedDates()){
+			budgetedDates.add(getBudgetPeriodType().getStartOfBudgetPeriod(date));
 		}
 		
 		return budgetedDates;
@@ -332,7 +417,19 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 		
 		BudgetCategoryImpl b = new BudgetCategoryImpl();
 		originalToCloneMap.put(this, b);
-
+		copyTo(b, originalToCloneMap);
+		
+		return b;
+	}
+	
+	/**
+	 * Copies the values of this budget category into an existing clone, cloning
+	 * the parent if it is not already in the map.
+	 * @param b
+	 * @param originalToCloneMap
+	 * @throws CloneNotSupportedException
+	 */
+	void copyTo(BudgetCategoryImpl b, Map<ModelObject, ModelObject> originalToCloneMap) throws CloneNotSupportedException {
 		b.document = (Document) originalToCloneMap.get(document);
 		b.expanded = expanded;
 		b.income = income;
@@ -341,15 +438,7 @@ public class BudgetCategoryImpl extends SourceImpl implements BudgetCategory {
 		b.modifiedTime = new Time(modifiedTime);
 		b.name = name;
 		b.notes = notes;
-		if (parent != null)
-			b.parent = (BudgetCategory) ((BudgetCategoryImpl) parent).clone(originalToCloneMap);
-		b.amounts = new HashMap<String, Long>();
-		if (amounts != null){
-			for (String s : amounts.keySet()) {
-				b.amounts.put(s, amounts.get(s).longValue());
-			}
-		}
-		
-		return b;
+		b.parent = (parent == null ? null : (BudgetCategory) ((BudgetCategoryImpl) parent).clone(originalToCloneMap));
+		b.amounts = (amounts == null ? new BudgetPeriodAmounts() : new BudgetPeriodAmounts(amounts));
 	}
 }
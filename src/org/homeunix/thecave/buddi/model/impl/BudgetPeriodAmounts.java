@@ -0,0 +1,358 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.homeunix.thecave.buddi.model.BudgetCategoryType;
+
+import ca.digitalcave.moss.common.DateUtil;
+
+/**
+ * The budgeted amounts for a single budget category, keyed by budget period.
+ *
+ * The data file stores these amounts as a map of String keys to Long values,
+ * where each key is of the form "&lt;period type name&gt;:&lt;year&gt;:&lt;month&gt;:&lt;day&gt;"
+ * and the date is the start of the budget period.  Building and parsing those
+ * strings for every lookup is expensive when the budget views and reports ask
+ * for hundreds of amounts at a time, so internally we pack the same information
+ * into a single long: the interned period type name in the upper 32 bits, and
+ * the year, month and day in the lower 32 bits.  The amounts are kept in an open
+ * addressing hash table of primitive longs, so lookups do not allocate.
+ *
+ * To keep the data file format the same, this class is also a Map&lt;String, Long&gt;,
+ * which converts to and from the string keys.  This is the map which the XMLEncoder
+ * persists through BudgetCategoryImpl.getAmounts(), and which the XMLDecoder fills
+ * in with put() calls.  Keys which are not in the format above (such as the ones
+ * from before 2.9.11.0, which ModelFactory converts after loading) are kept as-is
+ * in a separate map, so that the conversion is always lossless.
+ */
+final class BudgetPeriodAmounts extends AbstractMap<String, Long> {
+	//Period type names are interned to small integers, starting at 1, so that a
+	// packed key is never 0 (which marks an empty slot in the table).
+	private static final List<String> typeNames = new ArrayList<String>();
+	private static final Map<String, Integer> typeIds = new HashMap<String, Integer>();
+
+	//Creating a calendar is expensive, so each thread keeps one for getKey().
+	private static final ThreadLocal<Calendar> calendar = new ThreadLocal<Calendar>(){
+		@Override
+		protected Calendar initialValue() {
+			return Calendar.getInstance();
+		}
+	};
+
+	private long[] keys = new long[8];
+	private long[] values = new long[8];
+	private int size;
+
+	private Map<String, Long> otherAmounts;
+
+	public BudgetPeriodAmounts() {
+	}
+
+	/**
+	 * Creates a copy of the given amounts.
+	 */
+	BudgetPeriodAmounts(BudgetPeriodAmounts amounts) {
+		this.keys = amounts.keys.clone();
+		this.values = amounts.values.clone();
+		this.size = amounts.size;
+		if (amounts.otherAmounts != null)
+			this.otherAmounts = new LinkedHashMap<String, Long>(amounts.otherAmounts);
+	}
+
+	/**
+	 * Returns the packed key for the budget period of the given type which
+	 * starts on the given date.
+	 */
+	static long getKey(BudgetCategoryType type, Date periodStart){
+		Calendar c = calendar.get();
+		TimeZone timeZone = TimeZone.getDefault();
+		if (!timeZone.equals(c.getTimeZone()))
+			c.setTimeZone(timeZone);
+		c.setTime(periodStart);
+		return getKey(type.getName(), c.get(Calendar.YEAR), c.get(Calendar.MONTH), c.get(Calendar.DAY_OF_MONTH));
+	}
+
+	private static long getKey(String typeName, int year, int month, int day){
+		return ((long) getTypeId(typeName) << 32) | ((year & 0x7FFFFF) << 9) | ((month & 0xF) << 5) | (day & 0x1F);
+	}
+
+	private static synchronized int getTypeId(String typeName){
+		Integer id = typeIds.get(typeName);
+		if (id == null){
+			typeNames.add(typeName);
+			id = typeNames.size();
+			typeIds.put(typeName, id);
+		}
+		return id;
+	}
+
+	private static synchronized String getTypeName(long key){
+		return typeNames.get((int) (key >>> 32) - 1);
+	}
+
+	private static int getYear(long key){
+		return (int) (key >> 9) & 0x7FFFFF;
+	}
+
+	private static int getMonth(long key){
+		return (int) (key >> 5) & 0xF;
+	}
+
+	private static int getDay(long key){
+		return (int) key & 0x1F;
+	}
+
+	/**
+	 * Returns the string form of the given packed key, as stored in the data file.
+	 */
+	private static String toString(long key){
+		return getTypeName(key) + ":" + getYear(key) + ":" + getMonth(key) + ":" + getDay(key);
+	}
+
+	/**
+	 * Returns the packed key for the given string key, or 0 if the string is not
+	 * in the expected format (including if it would not convert back to exactly
+	 * the same string).
+	 */
+	private static long parseKey(String key){
+		String[] splitKey = key.split(":");
+		if (splitKey.length != 4)
+			return 0;
+		try {
+			long packed = getKey(splitKey[0], Integer.parseInt(splitKey[1]), Integer.parseInt(splitKey[2]), Integer.parseInt(splitKey[3]));
+			return (toString(packed).equals(key) ? packed : 0);
+		}
+		catch (NumberFormatException nfe){
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the amount for the given packed key, or 0 if there is none.
+	 */
+	long getAmount(long key){
+		int i = indexOf(key);
+		return (keys[i] == key ? values[i] : 0);
+	}
+
+	/**
+	 * Sets the amount for the given packed key, and returns the old amount, or
+	 * null if there was none.
+	 */
+	Long setAmount(long key, long amount){
+		int i = indexOf(key);
+		if (keys[i] == key){
+			long old = values[i];
+			values[i] = amount;
+			return old;
+		}
+		keys[i] = key;
+		values[i] = amount;
+		size++;
+		if (size * 2 > keys.length)
+			resize();
+		return null;
+	}
+
+	/**
+	 * Removes the amount for the given packed key, and returns the old amount, or
+	 * null if there was none.
+	 */
+	Long removeAmount(long key){
+		int i = indexOf(key);
+		if (keys[i] != key)
+			return null;
+		long old = values[i];
+		
+		//Move any following entries in the same run back into the gap, so that 
+		// lookups never stop at an empty slot before the key they want.
+		int mask = keys.length - 1;
+		int gap = i;
+		for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask){
+			int home = hash(keys[j]) & mask;
+			//The entry at j can be moved to the gap if its home slot is not 
+			// cyclically between the gap and j.
+			if (gap <= j ? (home <= gap || home > j) : (home <= gap && home > j)){
+				keys[gap] = keys[j];
+				values[gap] = values[j];
+				gap = j;
+			}
+		}
+		keys[gap] = 0;
+		values[gap] = 0;
+		size--;
+		return old;
+	}
+
+	/**
+	 * Returns the start dates of all budget periods with a non zero amount,
+	 * regardless of the period type they were set with.  Amounts with keys
+	 * in any other format are not included.
+	 */
+	List<Date> getBudgetedDates(){
+		List<Date> dates = new ArrayList<Date>();
+		for (int i = 0; i < keys.length; i++){
+			if (keys[i] != 0 && values[i] != 0)
+				dates.add(DateUtil.getDate(getYear(keys[i]), getMonth(keys[i]), getDay(keys[i])));
+		}
+		return dates;
+	}
+
+	/**
+	 * Returns the slot which contains the given key, or the empty slot where it
+	 * should be inserted.
+	 */
+	private int indexOf(long key){
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != 0 && keys[i] != key)
+			i = (i + 1) & mask;
+		return i;
+	}
+
+	private static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private void resize(){
+		long[] oldKeys = keys;
+		long[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new long[oldValues.length * 2];
+		for (int i = 0; i < oldKeys.length; i++){
+			if (oldKeys[i] != 0){
+				int j = indexOf(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+			}
+		}
+	}
+
+	@Override
+	public Long get(Object key) {
+		if (!(key instanceof String))
+			return null;
+		long packed = parseKey((String) key);
+		if (packed == 0)
+			return (otherAmounts == null ? null : otherAmounts.get(key));
+		int i = indexOf(packed);
+		return (keys[i] == packed ? Long.valueOf(values[i]) : null);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Long put(String key, Long value) {
+		long packed = parseKey(key);
+		if (packed == 0 || value == null){
+			if (otherAmounts == null)
+				otherAmounts = new LinkedHashMap<String, Long>();
+			return otherAmounts.put(key, value);
+		}
+		return setAmount(packed, value);
+	}
+
+	@Override
+	public Long remove(Object key) {
+		if (!(key instanceof String))
+			return null;
+		long packed = parseKey((String) key);
+		if (packed == 0)
+			return (otherAmounts == null ? null : otherAmounts.remove(key));
+		return removeAmount(packed);
+	}
+
+	@Override
+	public void clear() {
+		keys = new long[8];
+		values = new long[8];
+		size = 0;
+		otherAmounts = null;
+	}
+
+	@Override
+	public int size() {
+		return size + (otherAmounts == null ? 0 : otherAmounts.size());
+	}
+
+	@Override
+	public Set<Map.Entry<String, Long>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Long>>(){
+			@Override
+			public Iterator<Map.Entry<String, Long>> iterator() {
+				return new EntryIterator();
+			}
+			@Override
+			public int size() {
+				return BudgetPeriodAmounts.this.size();
+			}
+		};
+	}
+
+	/**
+	 * Iterates over a copy of the packed keys, so that removing an entry (which
+	 * may move other entries around in the table) does not affect the iteration.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<String, Long>> {
+		private final long[] iteratorKeys = keys.clone();
+		private final long[] iteratorValues = values.clone();
+		private int slot = nextSlot(0);
+		private final Iterator<Map.Entry<String, Long>> others = (otherAmounts == null ? null : otherAmounts.entrySet().iterator());
+		//The packed key of the last entry returned, or 0 if it came from others
+		private long lastKey;
+		private boolean canRemove;
+
+		private int nextSlot(int from){
+			while (from < iteratorKeys.length && iteratorKeys[from] == 0)
+				from++;
+			return from;
+		}
+
+		public boolean hasNext() {
+			return slot < iteratorKeys.length || (others != null && others.hasNext());
+		}
+
+		public Map.Entry<String, Long> next() {
+			if (slot < iteratorKeys.length){
+				lastKey = iteratorKeys[slot];
+				Map.Entry<String, Long> entry = new AbstractMap.SimpleImmutableEntry<String, Long>(BudgetPeriodAmounts.toString(lastKey), iteratorValues[slot]);
+				slot = nextSlot(slot + 1);
+				canRemove = true;
+				return entry;
+			}
+			if (others != null){
+				Map.Entry<String, Long> entry = others.next();
+				lastKey = 0;
+				canRemove = true;
+				return entry;
+			}
+			throw new NoSuchElementException();
+		}
+
+		public void remove() {
+			if (!canRemove)
+				throw new IllegalStateException();
+			canRemove = false;
+			if (lastKey != 0)
+				removeAmount(lastKey);
+			else
+				others.remove();
+		}
+	}
+}
@@ -0,0 +1,833 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
+
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+
+/**
+ * A read only, memory mapped copy of a document, for reports and exports which
+ * only need to scan transactions.  The transactions are stored as columns of
+ * primitives (one array of dates, one of amounts, one of source ordinals, etc)
+ * which are read straight out of the mapped file, so that scanning even millions
+ * of transactions takes almost no heap.
+ *
+ * Everything other than the transactions (account types, accounts, budget
+ * categories and scheduled transactions) is small, and is stored at the start
+ * of the file using BinaryDocumentWriter; it is loaded into a DocumentImpl which
+ * has no transactions, available from getSourceDocument().  Accounts and budget
+ * categories are referred to from the columns by ordinal: the accounts in
+ * document order, followed by the budget categories.
+ *
+ * For each source we also store its postings: the indexes of the transactions
+ * which refer to it (directly or through a split), and the net amount which those
+ * transactions have moved into it so far.  This gives the transactions for a
+ * source, and the balance of an account at any date, with a binary search.
+ *
+ * The file starts with the MAGIC bytes, a format version, the counts of
+ * transactions, sources, splits, postings and strings, the length of the
+ * source document, and the length and modified time of the data file which
+ * the copy was made from; the offsets of all the columns follow from these.  Strings
+ * are stored once, and referred to by index, as in BinaryDocumentWriter.  The
+ * transactions are written in the same (date) order as Document.getTransactions().
+ *
+ * Files are written by write(), and are plain (not encrypted); it is up to the
+ * caller to decide where that is appropriate.  A file is never rewritten in 
+ * place, since it may be mapped by a report which is still running; write()
+ * replaces it with a new file, and isCopyOf() tells whether that is needed
+ * without mapping the old one.
+ */
+public class ColumnarDocument {
+	public static final byte[] MAGIC = "BUDDICOL".getBytes(Charset.forName("US-ASCII"));
+	public static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = MAGIC.length + 7 * 4 + 2 * 8;
+
+	//Marker value for a null source; other negative values refer to split markers.
+	private static final int NULL_SOURCE = -1;
+
+	//Marks a from split in the split source column, which otherwise holds the
+	// ordinal of the split's source (or UNKNOWN_SOURCE)
+	private static final int FROM_SPLIT = Integer.MIN_VALUE;
+	private static final int UNKNOWN_SOURCE = Integer.MAX_VALUE;
+
+	private final ByteBuffer buffer;
+	private final DocumentImpl sourceDocument;
+	private final Source[] sources;
+	private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+
+	private final int transactionCount;
+	private final int splitCount;
+	private final int stringCount;
+
+	//Column offsets into the buffer
+	private final int dates;
+	private final int amounts;
+	private final int froms;
+	private final int tos;
+	private final int flags;
+	private final int modifiedTimes;
+	private final int uids;
+	private final int descriptions;
+	private final int numbers;
+	private final int memos;
+	private final int splitStarts;
+	private final int splitSources;
+	private final int splitAmounts;
+	private final int splitUids;
+	private final int postingStarts;
+	private final int postingTransactions;
+	private final int postingTotals;
+	private final int stringOffsets;
+	private final int stringBytes;
+
+	private ColumnarDocument(ByteBuffer buffer) throws IOException, IncorrectDocumentFormatException {
+		this.buffer = buffer;
+
+		byte[] magic = new byte[MAGIC.length];
+		buffer.get(magic);
+		if (!Arrays.equals(MAGIC, magic) || buffer.getInt() != VERSION)
+			throw new IncorrectDocumentFormatException("Not a columnar document");
+		transactionCount = buffer.getInt();
+		int sourceCount = buffer.getInt();
+		splitCount = buffer.getInt();
+		int postingCount = buffer.getInt();
+		stringCount = buffer.getInt();
+		int sourceDocumentLength = buffer.getInt();
+		buffer.getLong();	//The data file length and modified time; see isCopyOf()
+		buffer.getLong();
+
+		byte[] sourceDocumentBytes = new byte[sourceDocumentLength];
+		buffer.get(sourceDocumentBytes);
+		sourceDocument = new BinaryDocumentReader(new BufferedInputStream(new ByteArrayInputStream(sourceDocumentBytes))).read();
+
+		//The offsets of each column follow from the counts, in the order they were written.
+		int offset = HEADER_SIZE + sourceDocumentLength;
+		int sourceUids = offset; offset += sourceCount * 4;
+		dates = offset; offset += transactionCount * 8;
+		amounts = offset; offset += transactionCount * 8;
+		froms = offset; offset += transactionCount * 4;
+		tos = offset; offset += transactionCount * 4;
+		flags = offset; offset += transactionCount * 4;
+		modifiedTimes = offset; offset += transactionCount * 8;
+		uids = offset; offset += transactionCount * 4;
+		descriptions = offset; offset += transactionCount * 4;
+		numbers = offset; offset += transactionCount * 4;
+		memos = offset; offset += transactionCount * 4;
+		splitStarts = offset; offset += (transactionCount + 1) * 4;
+		splitSources = offset; offset += splitCount * 4;
+		splitAmounts = offset; offset += splitCount * 8;
+		splitUids = offset; offset += splitCount * 4;
+		postingStarts = offset; offset += (sourceCount + 1) * 4;
+		postingTransactions = offset; offset += postingCount * 4;
+		postingTotals = offset; offset += postingCount * 8;
+		stringOffsets = offset; offset += (stringCount + 1) * 4;
+		stringBytes = offset;
+		if (stringBytes + buffer.getInt(stringOffsets + stringCount * 4) != buffer.limit())
+			throw new IncorrectDocumentFormatException("Columnar document is truncated");
+
+		Map<String, Source> sourcesByUid = new HashMap<String, Source>();
+		for (Account a : sourceDocument.getAccounts())
+			sourcesByUid.put(a.getUid(), a);
+		for (BudgetCategory bc : sourceDocument.getBudgetCategories())
+			sourcesByUid.put(bc.getUid(), bc);
+		sources = new Source[sourceCount];
+		for (int i = 0; i < sourceCount; i++){
+			String uid = string(buffer.getInt(sourceUids + i * 4));
+			sources[i] = sourcesByUid.get(uid);
+			ordinals.put(uid, i);
+		}
+	}
+
+	/**
+	 * Maps the given columnar file into memory.  The file is closed once it has
+	 * been mapped; the mapping stays valid until this object is garbage collected.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 * @throws IncorrectDocumentFormatException
+	 */
+	public static ColumnarDocument open(File file) throws IOException, IncorrectDocumentFormatException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() > Integer.MAX_VALUE)
+				throw new IOException("Columnar document " + file + " is too large to map");
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			return new ColumnarDocument(buffer);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Returns true if the given columnar file exists, and was made from the given
+	 * data file as it is now (i.e. the data file has the same length and modified
+	 * time as it did then).  Only the header is read.
+	 * @param file
+	 * @param dataFile
+	 * @return
+	 */
+	public static boolean isCopyOf(File file, File dataFile) {
+		if (!file.exists())
+			return false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), HEADER_SIZE));
+			try {
+				byte[] magic = new byte[MAGIC.length];
+				in.readFully(magic);
+				if (!Arrays.equals(MAGIC, magic) || in.readInt() != VERSION)
+					return false;
+				for (int i = 0; i < 6; i++)
+					in.readInt();
+				return in.readLong() == dataFile.length() && in.readLong() == dataFile.lastModified();
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException ioe){
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the given document, which has just been loaded from the given data 
+	 * file, to the given file in the columnar format.  The document is written to
+	 * a temporary file first, and moved over the given file once complete, so that
+	 * nobody can map a partially written file.  If the given file is still mapped,
+	 * some platforms (i.e. Windows) will not let us replace it, and this throws an
+	 * IOException.
+	 * @param document
+	 * @param dataFile
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(DocumentImpl document, File dataFile, File file) throws IOException {
+		List<Transaction> transactions = document.getTransactions();
+		List<Source> sourceList = new ArrayList<Source>();
+		sourceList.addAll(document.getAccounts());
+		sourceList.addAll(document.getBudgetCategories());
+		Map<String, Integer> ordinals = new HashMap<String, Integer>();
+		for (int i = 0; i < sourceList.size(); i++)
+			ordinals.put(sourceList.get(i).getUid(), i);
+
+		//Everything other than the transactions is written with the binary writer.
+		ByteArrayOutputStream sourceDocument = new ByteArrayOutputStream();
+		new BinaryDocumentWriter(sourceDocument).writeChanges(document, Collections.<Transaction>emptyList(), null);
+
+		//First pass: collect the strings, and count the splits and postings.
+		Strings strings = new Strings();
+		for (Source source : sourceList)
+			strings.index(source.getUid());
+		int splitCount = 0;
+		int[] postingCounts = new int[sourceList.size()];
+		for (Transaction t : transactions) {
+			strings.index(t.getUid());
+			strings.index(t.getDescription());
+			strings.index(t.getNumber());
+			strings.index(t.getMemo());
+			if (t.getFrom() instanceof Split)
+				strings.index(t.getFrom().getUid());
+			if (t.getTo() instanceof Split)
+				strings.index(t.getTo().getUid());
+			for (TransactionSplit split : getSplits(t)){
+				strings.index(split.getUid());
+				splitCount++;
+			}
+			for (int ordinal : getOrdinals(t, ordinals))
+				postingCounts[ordinal]++;
+		}
+
+		//Work out the postings for each source, in transaction order.
+		int[] postingStarts = new int[sourceList.size() + 1];
+		for (int i = 0; i < postingCounts.length; i++)
+			postingStarts[i + 1] = postingStarts[i] + postingCounts[i];
+		int[] postingTransactions = new int[postingStarts[postingStarts.length - 1]];
+		long[] postingTotals = new long[postingTransactions.length];
+		int[] next = Arrays.copyOf(postingStarts, postingCounts.length);
+		long[] totals = new long[sourceList.size()];
+		for (int i = 0; i < transactions.size(); i++){
+			Transaction t = transactions.get(i);
+			if (!t.isDeleted()){
+				addTotal(totals, ordinals, t.getTo(), t.getAmount());
+				addTotal(totals, ordinals, t.getFrom(), -t.getAmount());
+				if (t.getToSplits() != null)
+					for (TransactionSplit split : t.getToSplits())
+						addTotal(totals, ordinals, split.getSource(), split.getAmount());
+				if (t.getFromSplits() != null)
+					for (TransactionSplit split : t.getFromSplits())
+						addTotal(totals, ordinals, split.getSource(), -split.getAmount());
+			}
+			for (int ordinal : getOrdinals(t, ordinals)){
+				postingTransactions[next[ordinal]] = i;
+				postingTotals[next[ordinal]] = totals[ordinal];
+				next[ordinal]++;
+			}
+		}
+
+		File temp = new File(file.getAbsolutePath() + ".temp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+		try {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(transactions.size());
+			out.writeInt(sourceList.size());
+			out.writeInt(splitCount);
+			out.writeInt(postingTransactions.length);
+			out.writeInt(strings.size());
+			out.writeInt(sourceDocument.size());
+			out.writeLong(dataFile.length());
+			out.writeLong(dataFile.lastModified());
+			sourceDocument.writeTo(out);
+
+			for (Source source : sourceList)
+				out.writeInt(strings.index(source.getUid()));
+			for (Transaction t : transactions)
+				out.writeLong(t.getDate().getTime());
+			for (Transaction t : transactions)
+				out.writeLong(t.getAmount());
+			for (Transaction t : transactions)
+				out.writeInt(source(t.getFrom(), ordinals, strings));
+			for (Transaction t : transactions)
+				out.writeInt(source(t.getTo(), ordinals, strings));
+			for (Transaction t : transactions)
+				out.writeInt(flags((TransactionImpl) t));
+			for (Transaction t : transactions)
+				out.writeLong(t.getModified() == null ? BinaryDocumentWriter.NULL_TIME : t.getModified().getTime());
+			for (Transaction t : transactions)
+				out.writeInt(strings.index(t.getUid()));
+			for (Transaction t : transactions)
+				out.writeInt(strings.index(t.getDescription()));
+			for (Transaction t : transactions)
+				out.writeInt(strings.index(t.getNumber()));
+			for (Transaction t : transactions)
+				out.writeInt(strings.index(t.getMemo()));
+
+			int splitStart = 0;
+			for (Transaction t : transactions){
+				out.writeInt(splitStart);
+				splitStart += getSplits(t).size();
+			}
+			out.writeInt(splitStart);
+			for (Transaction t : transactions){
+				if (t.getFromSplits() != null)
+					for (TransactionSplit split : t.getFromSplits())
+						out.writeInt(FROM_SPLIT | splitSource(split, ordinals));
+				if (t.getToSplits() != null)
+					for (TransactionSplit split : t.getToSplits())
+						out.writeInt(splitSource(split, ordinals));
+			}
+			for (Transaction t : transactions)
+				for (TransactionSplit split : getSplits(t))
+					out.writeLong(split.getAmount());
+			for (Transaction t : transactions)
+				for (TransactionSplit split : getSplits(t))
+					out.writeInt(strings.index(split.getUid()));
+
+			for (int start : postingStarts)
+				out.writeInt(start);
+			for (int index : postingTransactions)
+				out.writeInt(index);
+			for (long total : postingTotals)
+				out.writeLong(total);
+
+			strings.write(out);
+			out.flush();
+		}
+		finally {
+			out.close();
+		}
+
+		if (temp.length() > Integer.MAX_VALUE){
+			temp.delete();
+			throw new IOException("Document is too large for the columnar format");
+		}
+		try {
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException amnse){
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		catch (IOException ioe){
+			temp.delete();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Returns a document containing everything except the transactions.
+	 * @return
+	 */
+	public Document getSourceDocument() {
+		return sourceDocument;
+	}
+
+	public int getTransactionCount() {
+		return transactionCount;
+	}
+
+	public int getSourceCount() {
+		return sources.length;
+	}
+
+	/**
+	 * Returns the source (from getSourceDocument()) with the given ordinal.
+	 * @param ordinal
+	 * @return
+	 */
+	public Source getSource(int ordinal) {
+		return sources[ordinal];
+	}
+
+	/**
+	 * Returns the ordinal of the source with the given UID, or -1 if there is
+	 * no such source.
+	 * @param uid
+	 * @return
+	 */
+	public int getOrdinal(String uid) {
+		Integer ordinal = ordinals.get(uid);
+		return (ordinal == null ? NULL_SOURCE : ordinal);
+	}
+
+	public long getDate(int index) {
+		return buffer.getLong(dates + index * 8);
+	}
+
+	public long getAmount(int index) {
+		return buffer.getLong(amounts + index * 8);
+	}
+
+	/**
+	 * Returns the ordinal of the source which the given transaction moves money
+	 * from, or -1 if that is a split (or not set).
+	 * @param index
+	 * @return
+	 */
+	public int getFrom(int index) {
+		return Math.max(NULL_SOURCE, buffer.getInt(froms + index * 4));
+	}
+
+	/**
+	 * Returns the ordinal of the source which the given transaction moves money
+	 * to, or -1 if that is a split (or not set).
+	 * @param index
+	 * @return
+	 */
+	public int getTo(int index) {
+		return Math.max(NULL_SOURCE, buffer.getInt(tos + index * 4));
+	}
+
+	public boolean isFromSplit(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_FROM_SPLIT);
+	}
+
+	public boolean isToSplit(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_TO_SPLIT);
+	}
+
+	public boolean isDeleted(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_DELETED);
+	}
+
+	public boolean isClearedFrom(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_CLEARED_FROM);
+	}
+
+	public boolean isClearedTo(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_CLEARED_TO);
+	}
+
+	public boolean isReconciledFrom(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_RECONCILED_FROM);
+	}
+
+	public boolean isReconciledTo(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_RECONCILED_TO);
+	}
+
+	public boolean isScheduled(int index) {
+		return isFlagSet(index, BinaryDocumentWriter.FLAG_SCHEDULED);
+	}
+
+	public boolean hasSplits(int index) {
+		return buffer.getInt(splitStarts + (index + 1) * 4) > buffer.getInt(splitStarts + index * 4);
+	}
+
+	public long getModified(int index) {
+		return buffer.getLong(modifiedTimes + index * 8);
+	}
+
+	public String getUid(int index) {
+		return string(buffer.getInt(uids + index * 4));
+	}
+
+	public String getDescription(int index) {
+		return string(buffer.getInt(descriptions + index * 4));
+	}
+
+	public String getNumber(int index) {
+		return string(buffer.getInt(numbers + index * 4));
+	}
+
+	public String getMemo(int index) {
+		return string(buffer.getInt(memos + index * 4));
+	}
+
+	/**
+	 * Returns the number of transactions dated on or before the given time; i.e.
+	 * the index of the first transaction after it.
+	 * @param time
+	 * @return
+	 */
+	public int firstIndexAfter(long time) {
+		int low = 0;
+		int high = transactionCount;
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (getDate(mid) <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the number of transactions which refer to the given source.
+	 * @param ordinal
+	 * @return
+	 */
+	public int getPostingCount(int ordinal) {
+		return postingStart(ordinal + 1) - postingStart(ordinal);
+	}
+
+	/**
+	 * Returns the index of the given transaction (counting only those which refer
+	 * to the given source).
+	 * @param ordinal
+	 * @param posting
+	 * @return
+	 */
+	public int getPostingTransaction(int ordinal, int posting) {
+		return buffer.getInt(postingTransactions + (postingStart(ordinal) + posting) * 4);
+	}
+
+	/**
+	 * Returns the net amount which the transactions referring to the given source
+	 * have moved into it, up to and including the given one.  For an account, this
+	 * plus the starting balance is the balance after the transaction.
+	 * @param ordinal
+	 * @param posting
+	 * @return
+	 */
+	public long getPostingTotal(int ordinal, int posting) {
+		return buffer.getLong(postingTotals + (postingStart(ordinal) + posting) * 8);
+	}
+
+	/**
+	 * Returns the number of transactions referring to the given source which are
+	 * dated on or before the given time.
+	 * @param ordinal
+	 * @param time
+	 * @return
+	 */
+	public int firstPostingAfter(int ordinal, long time) {
+		int low = 0;
+		int high = getPostingCount(ordinal);
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (getDate(getPostingTransaction(ordinal, mid)) <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the net amount which the transactions dated on or before the given
+	 * time have moved into the given source.
+	 * @param ordinal
+	 * @param time
+	 * @return
+	 */
+	public long getTotal(int ordinal, long time) {
+		int posting = firstPostingAfter(ordinal, time);
+		return (posting == 0 ? 0 : getPostingTotal(ordinal, posting - 1));
+	}
+
+	/**
+	 * Returns the net amount which the transactions referring to the given source
+	 * have moved into it, up to and including the given transaction; or null if
+	 * the transaction does not refer to the source.
+	 * @param ordinal
+	 * @param index
+	 * @return
+	 */
+	public Long getTotalAt(int ordinal, int index) {
+		int low = 0;
+		int high = getPostingCount(ordinal);
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			int transaction = getPostingTransaction(ordinal, mid);
+			if (transaction == index)
+				return getPostingTotal(ordinal, mid);
+			if (transaction < index)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a Transaction object for the transaction at the given index, for
+	 * code which needs the full model object (including splits).  The transaction
+	 * refers to the sources in getSourceDocument(), but is not part of it.
+	 * @param index
+	 * @return
+	 */
+	public Transaction getTransaction(int index) {
+		TransactionImpl t = new TransactionImpl();
+		t.setUid(getUid(index));
+		t.date = new Day(new Date(getDate(index)));
+		t.description = getDescription(index);
+		t.number = getNumber(index);
+		t.memo = getMemo(index);
+		t.amount = getAmount(index);
+		int flags = buffer.getInt(this.flags + index * 4);
+		t.deleted = (flags & BinaryDocumentWriter.FLAG_DELETED) != 0;
+		t.clearedFrom = (flags & BinaryDocumentWriter.FLAG_CLEARED_FROM) != 0;
+		t.clearedTo = (flags & BinaryDocumentWriter.FLAG_CLEARED_TO) != 0;
+		t.reconciledFrom = (flags & BinaryDocumentWriter.FLAG_RECONCILED_FROM) != 0;
+		t.reconciledTo = (flags & BinaryDocumentWriter.FLAG_RECONCILED_TO) != 0;
+		t.scheduled = (flags & BinaryDocumentWriter.FLAG_SCHEDULED) != 0;
+		t.from = source(buffer.getInt(froms + index * 4));
+		t.to = source(buffer.getInt(tos + index * 4));
+
+		int start = buffer.getInt(splitStarts + index * 4);
+		int end = buffer.getInt(splitStarts + (index + 1) * 4);
+		if ((flags & BinaryDocumentWriter.FLAG_HAS_FROM_SPLITS) != 0)
+			t.fromSplits = new ArrayList<TransactionSplit>();
+		if ((flags & BinaryDocumentWriter.FLAG_HAS_TO_SPLITS) != 0)
+			t.toSplits = new ArrayList<TransactionSplit>();
+		for (int i = start; i < end; i++){
+			int source = buffer.getInt(splitSources + i * 4);
+			TransactionSplitImpl split = new TransactionSplitImpl();
+			split.setUid(string(buffer.getInt(splitUids + i * 4)));
+			int ordinal = source & ~FROM_SPLIT;
+			try {
+				split.setSource(ordinal < sources.length ? sources[ordinal] : null);
+			}
+			catch (InvalidValueException ive){
+				Logger.getLogger(ColumnarDocument.class.getName()).log(Level.WARNING, "Incorrect value", ive);
+			}
+			split.setAmount(buffer.getLong(splitAmounts + i * 8));
+			split.setModified(new Time(getModified(index)));
+			if ((source & FROM_SPLIT) != 0)
+				t.fromSplits.add(split);
+			else
+				t.toSplits.add(split);
+		}
+
+		t.document = sourceDocument;
+		long modified = getModified(index);
+		t.setModified(modified == BinaryDocumentWriter.NULL_TIME ? null : new Time(modified));
+		return t;
+	}
+
+	private Source source(int value){
+		if (value >= 0)
+			return sources[value];
+		if (value == NULL_SOURCE)
+			return null;
+		SplitImpl split = new SplitImpl();
+		String uid = string(-(value + 2));
+		if (uid != null)
+			split.setUid(uid);
+		return split;
+	}
+
+	private boolean isFlagSet(int index, int flag) {
+		return (buffer.getInt(flags + index * 4) & flag) != 0;
+	}
+
+	private int postingStart(int ordinal) {
+		return buffer.getInt(postingStarts + ordinal * 4);
+	}
+
+	private String string(int index) {
+		if (index == BinaryDocumentWriter.NULL_STRING)
+			return null;
+		int start = buffer.getInt(stringOffsets + index * 4);
+		int end = buffer.getInt(stringOffsets + (index + 1) * 4);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buffer.get(stringBytes + start + i);
+		return new String(bytes, BinaryDocumentWriter.UTF8);
+	}
+
+	private static int flags(TransactionImpl t){
+		int flags = 0;
+		if (t.deleted) flags |= BinaryDocumentWriter.FLAG_DELETED;
+		if (t.clearedFrom) flags |= BinaryDocumentWriter.FLAG_CLEARED_FROM;
+		if (t.clearedTo) flags |= BinaryDocumentWriter.FLAG_CLEARED_TO;
+		if (t.reconciledFrom) flags |= BinaryDocumentWriter.FLAG_RECONCILED_FROM;
+		if (t.reconciledTo) flags |= BinaryDocumentWriter.FLAG_RECONCILED_TO;
+		if (t.scheduled) flags |= BinaryDocumentWriter.FLAG_SCHEDULED;
+		if (t.from instanceof Split) flags |= BinaryDocumentWriter.FLAG_FROM_SPLIT;
+		if (t.to instanceof Split) flags |= BinaryDocumentWriter.FLAG_TO_SPLIT;
+		if (t.fromSplits != null) flags |= BinaryDocumentWriter.FLAG_HAS_FROM_SPLITS;
+		if (t.toSplits != null) flags |= BinaryDocumentWriter.FLAG_HAS_TO_SPLITS;
+		return flags;
+	}
+
+	/**
+	 * Returns the value to store in the from / to columns for the given source:
+	 * its ordinal, NULL_SOURCE, or for split markers, -2 minus the index of its UID.
+	 */
+	private static int source(Source source, Map<String, Integer> ordinals, Strings strings){
+		if (source == null)
+			return NULL_SOURCE;
+		if (source instanceof Split)
+			return -2 - strings.index(source.getUid());
+		return ordinal(source, ordinals);
+	}
+
+	private static int ordinal(ModelObject source, Map<String, Integer> ordinals){
+		Integer ordinal = ordinals.get(source.getUid());
+		return (ordinal == null ? NULL_SOURCE : ordinal);
+	}
+
+	private static int splitSource(TransactionSplit split, Map<String, Integer> ordinals){
+		if (split.getSource() == null)
+			return UNKNOWN_SOURCE;
+		int ordinal = ordinal(split.getSource(), ordinals);
+		return (ordinal == NULL_SOURCE ? UNKNOWN_SOURCE : ordinal);
+	}
+
+	private static void addTotal(long[] totals, Map<String, Integer> ordinals, Source source, long amount){
+		if (source == null || source instanceof Split)
+			return;
+		int ordinal = ordinal(source, ordinals);
+		if (ordinal != NULL_SOURCE)
+			totals[ordinal] += amount;
+	}
+
+	/**
+	 * Returns the from splits followed by the to splits of the given transaction.
+	 */
+	private static List<TransactionSplit> getSplits(Transaction t){
+		if (t.getFromSplits() == null && t.getToSplits() == null)
+			return Collections.emptyList();
+		List<TransactionSplit> splits = new ArrayList<TransactionSplit>();
+		if (t.getFromSplits() != null)
+			splits.addAll(t.getFromSplits());
+		if (t.getToSplits() != null)
+			splits.addAll(t.getToSplits());
+		return splits;
+	}
+
+	/**
+	 * Returns the distinct ordinals of the sources which the given transaction
+	 * refers to, directly or through a split.
+	 */
+	private static int[] getOrdinals(Transaction t, Map<String, Integer> ordinals){
+		int[] result = new int[2 + getSplits(t).size()];
+		int count = 0;
+		List<ModelObject> sources = new ArrayList<ModelObject>(result.length);
+		sources.add(t.getFrom());
+		sources.add(t.getTo());
+		for (TransactionSplit split : getSplits(t))
+			sources.add(split.getSource());
+		outer: for (ModelObject source : sources){
+			if (source == null || source instanceof Split)
+				continue;
+			int ordinal = ordinal(source, ordinals);
+			if (ordinal == NULL_SOURCE)
+				continue;
+			for (int i = 0; i < count; i++)
+				if (result[i] == ordinal)
+					continue outer;
+			result[count++] = ordinal;
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * The string table, built while writing.
+	 */
+	private static class Strings {
+		private final Map<String, Integer> index = new HashMap<String, Integer>();
+		private final List<String> strings = new ArrayList<String>();
+
+		public int index(String string){
+			if (string == null)
+				return BinaryDocumentWriter.NULL_STRING;
+			Integer i = index.get(string);
+			if (i == null){
+				i = strings.size();
+				index.put(string, i);
+				strings.add(string);
+			}
+			return i;
+		}
+
+		public int size(){
+			return strings.size();
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			List<byte[]> bytes = new ArrayList<byte[]>(strings.size());
+			int offset = 0;
+			for (String s : strings) {
+				byte[] b = s.getBytes(BinaryDocumentWriter.UTF8);
+				bytes.add(b);
+				out.writeInt(offset);
+				offset += b.length;
+			}
+			out.writeInt(offset);
+			for (byte[] b : bytes)
+				out.write(b);
+		}
+	}
+}
@@ -9,17 +9,22 @@ import java.beans.Expression;
 import java.beans.PersistenceDelegate;
 import java.beans.XMLEncoder;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -45,8 +50,7 @@ import org.homeunix.thecave.buddi.plugin.api.exception.DataModelProblemException
 import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
 import org.homeunix.thecave.buddi.plugin.api.exception.ModelException;
 import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
-import org.homeunix.thecave.buddi.util.BuddiCryptoFactory;
-import org.homeunix.thecave.buddi.util.FileFunctions;
+import org.homeunix.thecave.buddi.util.SavePipeline;
 import org.homeunix.thecave.buddi.view.dialogs.BuddiPasswordDialog;
 
 import ca.digitalcave.moss.application.document.AbstractDocument;
@@ -91,6 +95,39 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	private List<AccountType> accountTypes = new SortedArrayList<AccountType>();
 	private List<Transaction> transactions = new SortedArrayList<Transaction>();
 	private List<ScheduledTransaction> scheduledTransactions = new SortedArrayList<ScheduledTransaction>();
+	
+	//Index of source UID to transactions; see getTransactions(Source)
+	private Map<String, List<Transaction>> transactionsBySource;
+	//The views returned from getTransactions(Source).  We always return the same view
+	// for a given source, so that callers can cache things based on list identity.
+	private final Map<String, List<Transaction>> transactionsBySourceViews = new HashMap<String, List<Transaction>>();
+	//The full text index for the transaction search box; see getSearchIndex()
+	private TransactionSearchIndex searchIndex;
+	//The transaction descriptions for auto completion; see getAutoCompleteDictionary()
+	private AutoCompleteDictionary autoCompleteDictionary;
+	
+	//The objects which have changed since changeLogStart.  Entry i is change number
+	// changeLogStart + i + 1.  See getChangesSince().
+	private static final int MAX_CHANGE_LOG_SIZE = 1024;
+	private final List<ModelObject> changeLog = new ArrayList<ModelObject>();
+	private long changeLogStart;
+	private long changeCount;
+	private long transactionsVersion;
+	
+	//The copy of this document which the save threads write, and the copies of
+	// our objects in it, as of change number snapshotChangeCount.  See getSnapshot().
+	private DocumentImpl snapshot;
+	private Map<ModelObject, ModelObject> snapshotSources;
+	private Map<Transaction, Transaction> snapshotTransactions;
+	private long snapshotChangeCount;
+	private final Semaphore snapshotMutex = new Semaphore(1);
+	
+	//The journal which autosaves append changes to.  See DocumentJournal.
+	private final DocumentJournal journal = new DocumentJournal();
+	
+	//The transactions of the years which are kept on disk instead of in memory,
+	// if any.  See archiveTransactions().
+	private TransactionSegmentStore segments;
 
 	//Model object data
 	private Time modifiedTime;
@@ -118,28 +155,10 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		//Backup the file, now that we know it is good...
 		try{
 			if (getFile() != null){
-				//Use a rotating backup file, of form 'Data.X.buddi'  
+				//Use a rotating backup file, of form 'Data_X.buddi3bak'.  
 				// The one with the smallest number X is the most recent.
-				final String fileBase;
-				if (PrefsModel.getInstance().getBackupLocation() == null || PrefsModel.getInstance().getBackupLocation().trim().length() == 0){
-					fileBase = getFile().getAbsolutePath().replaceAll(Const.DATA_FILE_EXTENSION + "$", "");
-				}
-				else {
-					fileBase = new File(PrefsModel.getInstance().getBackupLocation() + "/" + getFile().getName().replaceAll(Const.DATA_FILE_EXTENSION + "$", "")).getAbsolutePath();
-				}
-				for (int i = PrefsModel.getInstance().getNumberOfBackups() - 2; i >= 0; i--){
-					File tempBackupDest = new File(fileBase + "_" + (i + 1) + Const.BACKUP_FILE_EXTENSION);
-					File tempBackupSource = new File(fileBase + "_" + i + Const.BACKUP_FILE_EXTENSION);
-					if (tempBackupSource.exists()){
-						FileFunctions.copyFile(tempBackupSource, tempBackupDest);
-						logger.finest("Moving " + tempBackupSource + " to " + tempBackupDest);
-					}
-				}
-				if (PrefsModel.getInstance().getNumberOfBackups() > 0){
-					File tempBackupDest = new File(fileBase + "_0" + Const.BACKUP_FILE_EXTENSION);
-					FileFunctions.copyFile(getFile(), tempBackupDest);
-					if (Const.DEVEL) logger.finest("Backing up file to " + tempBackupDest);
-				}
+				File backup = ModelFactory.getBackupStore(getFile()).backup(getFile());
+				if (Const.DEVEL && backup != null) logger.finest("Backing up file to " + backup);
 			}
 		}
 		catch (Throwable e){
@@ -181,8 +200,17 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		return transactions;
 	}
 	public void setTransactions(List<Transaction> transactions) {
-		this.transactions = new SortedArrayList<Transaction>();
+		//The list is changed in place, as the views returned from getTransactions()
+		// (and the lists built on them) keep a reference to it.
+		if (this.transactions == null)
+			this.transactions = new SortedArrayList<Transaction>();
+		if (transactions == this.transactions)
+			transactions = new ArrayList<Transaction>(transactions);
+		this.transactions.clear();
 		this.transactions.addAll(transactions);
+		transactionsVersion++;
+		if (transactionsBySource != null)
+			rebuildTransactionsBySource();
 	}
 	public List<AccountType> getAccountTypes() {
 		checkLists();
@@ -205,35 +233,39 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		checkValid(account, true, false);
 		accounts.add(account);
 //		Collections.sort(accounts);
-		setChanged();
+		setChanged(account);
 	}
 	public void addAccountType(AccountType type) throws ModelException {
 		type.setDocument(this);
 		checkValid(type, true, false);
 		accountTypes.add(type);
 //		Collections.sort(budgetCategories);
-		setChanged();
+		setChanged(type);
 	}
 	public void addBudgetCategory(BudgetCategory budgetCategory) throws ModelException {
 		budgetCategory.setDocument(this);
 		checkValid(budgetCategory, true, false);
 		budgetCategories.add(budgetCategory);
 //		Collections.sort(budgetCategories);
-		setChanged();
+		setChanged(budgetCategory);
 	}
 	public void addScheduledTransaction(ScheduledTransaction scheduledTransaction) throws ModelException {
 		scheduledTransaction.setDocument(this);
 		checkValid(scheduledTransaction, true, false);
 		scheduledTransactions.add(scheduledTransaction);
 //		Collections.sort(scheduledTransactions);
-		setChanged();
+		setChanged(scheduledTransaction);
 	}
 	public void addTransaction(Transaction transaction) throws ModelException {
+		materializeTransactions(transaction.getDate());
 		transaction.setDocument(this);
 		checkValid(transaction, true, false);
 		transactions.add(transaction);
 //		Collections.sort(transactions);
-		setChanged();
+		transactionsVersion++;
+		if (transactionsBySource != null)
+			indexTransaction(transaction);
+		setChanged(transaction);
 	}
 	public Account getAccount(String name) {
 		for (Account a : getAccounts()) { //Try strict matching first
@@ -285,26 +317,369 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		return sources;
 	}
 	public List<Transaction> getTransactions(Date startDate, Date endDate) {
-		return new FilteredLists.TransactionListFilteredByDate(this, getTransactions(), startDate, endDate);
+		materializeTransactions(startDate);
+		return new TransactionDateRangeList(this, getTransactions(), startDate, endDate);
 	}
 	public List<Transaction> getTransactions(Source source, Date startDate, Date endDate) {
-		return new FilteredLists.TransactionListFilteredBySource(
-				this,
-				new FilteredLists.TransactionListFilteredByDate(this, getTransactions(), startDate, endDate),
-				source);
+		materializeTransactions(startDate);
+		return new TransactionDateRangeList(this, getTransactions(source), startDate, endDate);
+	}
+	
+	/**
+	 * Returns a counter which is incremented each time a transaction is added, removed,
+	 * or moved within the transaction list.  Used by views such as TransactionDateRangeList
+	 * to know when they need to refresh.
+	 */
+	long getTransactionsVersion(){
+		return transactionsVersion;
+	}
+	/**
+	 * Returns the full text index of this document's transactions, which is used
+	 * to search them.  The index is created the first time this is called, and 
+	 * brings itself up to date on each query.
+	 */
+	synchronized TransactionSearchIndex getSearchIndex(){
+		if (searchIndex == null)
+			searchIndex = new TransactionSearchIndex(this);
+		return searchIndex;
 	}
+	
+	/**
+	 * Returns the dictionary of transaction descriptions for this document.  Use
+	 * AutoCompleteDictionary.getDictionary() instead of calling this directly.
+	 */
+	synchronized AutoCompleteDictionary getAutoCompleteDictionary(){
+		if (autoCompleteDictionary == null)
+			autoCompleteDictionary = new AutoCompleteDictionary(this);
+		return autoCompleteDictionary;
+	}
+	/**
+	 * Returns all transactions which are associated with the given source, either
+	 * directly or as part of a split.  The returned list is a live, unmodifiable view 
+	 * of the source index, and is sorted in the same order as getTransactions().
+	 */
 	public List<Transaction> getTransactions(Source source) {
-		return new FilteredLists.TransactionListFilteredBySource(this, getTransactions(), source);
+		if (source == null)
+			return Collections.emptyList();
+		Map<String, List<Transaction>> index = getTransactionsBySource();
+		List<Transaction> view = transactionsBySourceViews.get(source.getUid());
+		if (view == null){
+			List<Transaction> sourceTransactions = index.get(source.getUid());
+			if (sourceTransactions == null){
+				sourceTransactions = new SortedArrayList<Transaction>();
+				index.put(source.getUid(), sourceTransactions);
+			}
+			view = Collections.unmodifiableList(sourceTransactions);
+			transactionsBySourceViews.put(source.getUid(), view);
+		}
+		return view;
+	}
+	
+	/**
+	 * Returns the index of source UID to transactions, building it if needed.
+	 */
+	private Map<String, List<Transaction>> getTransactionsBySource(){
+		if (transactionsBySource == null){
+			transactionsBySource = new HashMap<String, List<Transaction>>();
+			rebuildTransactionsBySource();
+		}
+		return transactionsBySource;
+	}
+	
+	/**
+	 * Rebuilds the source index from the transactions list.  We re-use the existing 
+	 * lists, so that any views previously returned from getTransactions(Source) 
+	 * remain valid.
+	 */
+	private void rebuildTransactionsBySource(){
+		for (List<Transaction> sourceTransactions : transactionsBySource.values()) {
+			for (Transaction t : sourceTransactions) {
+				if (t instanceof TransactionImpl)
+					((TransactionImpl) t).indexed = false;
+			}
+			sourceTransactions.clear();
+		}
+		for (Transaction t : getTransactions()) {
+			indexTransaction(t);
+		}
+		for (Account a : getAccounts()) {
+			if (a instanceof AccountImpl)
+				((AccountImpl) a).invalidateBalance(0);
+		}
+		for (BudgetCategory bc : getBudgetCategories()) {
+			if (bc instanceof BudgetCategoryImpl)
+				((BudgetCategoryImpl) bc).invalidateBalance(0);
+		}
+	}
+	
+	private void indexTransaction(Transaction t){
+		for (Source source : getSources(t)) {
+			List<Transaction> sourceTransactions = transactionsBySource.get(source.getUid());
+			if (sourceTransactions == null){
+				sourceTransactions = new SortedArrayList<Transaction>();
+				transactionsBySource.put(source.getUid(), sourceTransactions);
+			}
+			sourceTransactions.add(t);
+			if (source instanceof SourceImpl)
+				((SourceImpl) source).invalidateBalance(sourceTransactions.indexOf(t));
+		}
+		if (t instanceof TransactionImpl)
+			((TransactionImpl) t).indexed = true;
+	}
+	
+	private void unindexTransaction(Transaction t){
+		for (Source source : getSources(t)) {
+			List<Transaction> sourceTransactions = transactionsBySource.get(source.getUid());
+			int index = (sourceTransactions == null ? -1 : sourceTransactions.indexOf(t));
+			if (index >= 0)
+				sourceTransactions.remove(index);
+			if (source instanceof SourceImpl)
+				((SourceImpl) source).invalidateBalance(Math.max(0, index));
+		}
+		if (t instanceof TransactionImpl)
+			((TransactionImpl) t).indexed = false;
+	}
+	
+	/**
+	 * Returns all sources which the given transaction is associated with,
+	 * including the sources of any splits.  Each source is only included once.
+	 */
+	private static Collection<Source> getSources(Transaction t){
+		Map<String, Source> sources = new LinkedHashMap<String, Source>(4);
+		if (t.getFrom() instanceof Split){
+			if (t.getFromSplits() != null){
+				for (TransactionSplit split : t.getFromSplits()) {
+					if (split.getSource() != null)
+						sources.put(split.getSource().getUid(), split.getSource());
+				}
+			}
+		}
+		else if (t.getFrom() != null)
+			sources.put(t.getFrom().getUid(), t.getFrom());
+		
+		if (t.getTo() instanceof Split){
+			if (t.getToSplits() != null){
+				for (TransactionSplit split : t.getToSplits()) {
+					if (split.getSource() != null)
+						sources.put(split.getSource().getUid(), split.getSource());
+				}
+			}
+		}
+		else if (t.getTo() != null)
+			sources.put(t.getTo().getUid(), t.getTo());
+		
+		return sources.values();
+	}
+	
+	/**
+	 * Called by TransactionImpl when a change does not affect its position in
+	 * the transaction lists, but does affect the balances of its accounts (for 
+	 * instance, when it is deleted or undeleted).  We mark the running balances
+	 * of the affected accounts (and running actuals of budget categories) as needing to be recalculated from this transaction
+	 * onwards.
+	 */
+	void invalidateBalances(TransactionImpl t){
+		if (!t.indexed || transactionsBySource == null)
+			return;
+		for (Source source : getSources(t)) {
+			if (source instanceof SourceImpl){
+				List<Transaction> sourceTransactions = transactionsBySource.get(source.getUid());
+				int index = (sourceTransactions == null ? -1 : sourceTransactions.indexOf(t));
+				((SourceImpl) source).invalidateBalance(Math.max(0, index));
+			}
+		}
+	}
+	
+	/**
+	 * Called by TransactionImpl before changing any field which affects the sort
+	 * order or the sources of the transaction.  We remove the transaction from the 
+	 * transaction list and source index, while the old values are still in place to 
+	 * find it.  Returns true if the transaction was removed, in which case 
+	 * finishTransactionChange() must be called once the change is complete.
+	 */
+	boolean startTransactionChange(TransactionImpl t){
+		if (!t.indexed || transactionsBySource == null)
+			return false;
+		unindexTransaction(t);
+		List<Transaction> transactions = getTransactions();
+		int index = transactions.indexOf(t);
+		if (index < 0 || transactions.get(index) != t){
+			//The list is not in order (perhaps it was changed before the index was
+			// built), so we fall back to a linear search.
+			index = -1;
+			for (int i = 0; i < transactions.size(); i++){
+				if (transactions.get(i) == t){
+					index = i;
+					break;
+				}
+			}
+		}
+		if (index >= 0)
+			transactions.remove(index);
+		transactionsVersion++;
+		return true;
+	}
+	
+	/**
+	 * Re-inserts the transaction in the correct position of the transaction list
+	 * and source index, after a call to startTransactionChange().
+	 */
+	void finishTransactionChange(TransactionImpl t){
+		//The transaction goes back into the same list it was removed from; if it
+		// has moved into an archived year, that year is read back in afterwards.
+		getTransactions().add(t);
+		transactionsVersion++;
+		indexTransaction(t);
+		materializeTransactions(t.getDate());
+	}
+	/**
+	 * Moves all transactions dated before the start of the given year out of 
+	 * memory, into a TransactionSegmentStore.  This is meant for documents with 
+	 * many years of history, most of which is rarely looked at.
+	 * 
+	 * Once archived, getTransactions() and getTransactions(Source) only return the 
+	 * transactions which are still in memory.  The archived transactions are read
+	 * back in (along with those of all later years) as soon as a transaction is 
+	 * added in one of their years, or something asks for transactions, balances or
+	 * actuals in the middle of one of those years.  Balances and actuals up to the
+	 * end of an archived year come from the summaries in the store, and do not need 
+	 * the transactions themselves.  Saving always writes all transactions.
+	 * 
+	 * Returns the number of transactions which were moved to disk.
+	 * @param year
+	 * @return
+	 * @throws ModelException
+	 */
+	public int archiveTransactions(int year) throws ModelException {
+		Map<Integer, List<Transaction>> archived = new TreeMap<Integer, List<Transaction>>();
+		List<Transaction> remaining = new ArrayList<Transaction>();
+		for (Transaction t : getTransactions()) {
+			int transactionYear = DateUtil.getYear(t.getDate());
+			if (transactionYear < year){
+				if (archived.get(transactionYear) == null)
+					archived.put(transactionYear, new ArrayList<Transaction>());
+				archived.get(transactionYear).add(t);
+			}
+			else {
+				remaining.add(t);
+			}
+		}
+		if (archived.isEmpty())
+			return 0;
+		
+		int firstYear = archived.keySet().iterator().next();
+		try {
+			if (segments == null)
+				segments = new TransactionSegmentStore();
+			for (Map.Entry<Integer, List<Transaction>> entry : archived.entrySet())
+				segments.write(this, entry.getKey(), entry.getValue());
+		}
+		catch (IOException ioe){
+			if (segments != null)
+				segments.delete(firstYear);
+			throw new ModelException("Unable to archive transactions", ioe);
+		}
+		
+		setTransactions(remaining);
+		archiveChanged();
+		
+		int count = 0;
+		for (List<Transaction> transactions : archived.values())
+			count += transactions.size();
+		logger.info("Archived " + count + " transactions before " + year + "; " + remaining.size() + " remain in memory");
+		return count;
 	}
+	
+	/**
+	 * Reads the archived transactions of the year of the given date, and all 
+	 * later years, back into memory.  If date is null, all archived transactions 
+	 * are read.  Does nothing if the year is not archived.
+	 * @param date
+	 */
+	public void materializeTransactions(Date date){
+		if (segments == null || segments.isEmpty())
+			return;
+		int year = (date == null ? Integer.MIN_VALUE : DateUtil.getYear(date));
+		if (year >= segments.getEndYear())
+			return;
+		
+		try {
+			List<Transaction> transactions = segments.remove(year, this, getSourcesByUid());
+			logger.finest("Read " + transactions.size() + " archived transactions from " + year + " onwards");
+			transactions.addAll(getTransactions());
+			setTransactions(transactions);
+			archiveChanged();
+		}
+		catch (IOException ioe){
+			//The transactions are still in the store, and will be saved from there.
+			logger.log(Level.WARNING, "Unable to read archived transactions", ioe);
+		}
+	}
+	
+	/**
+	 * Returns the net amount which the archived transactions dated on or before
+	 * the given time move into the given source (i.e. the change in an account's
+	 * balance, or the negative of a budget category's actual).  Returns null if the
+	 * time falls part way through an archived year, in which case the transactions
+	 * of that year must be read back in first.
+	 * @param source
+	 * @param time
+	 * @return
+	 */
+	Long getArchivedTotal(Source source, long time){
+		if (segments == null || segments.isEmpty())
+			return 0l;
+		int year = DateUtil.getYear(new Date(time));
+		if (year >= segments.getEndYear())
+			return segments.getTotal(source, year);
+		if (segments.contains(year) && time < DateUtil.getDate(year, Calendar.DECEMBER, 31).getTime())
+			return null;
+		return segments.getTotal(source, year);
+	}
+	
+	/**
+	 * Called when transactions have been moved to or from the archive.  The 
+	 * transaction lists changed without any of the transactions changing, so 
+	 * we don't mark the document as modified; but anything which keeps track of
+	 * individual changes (the filtered lists, the save snapshot and the autosave
+	 * journal) must start over.
+	 */
+	private void archiveChanged(){
+		for (Account a : getAccounts()) {
+			if (a instanceof AccountImpl)
+				((AccountImpl) a).invalidateBalance(0);
+		}
+		for (BudgetCategory bc : getBudgetCategories()) {
+			if (bc instanceof BudgetCategoryImpl)
+				((BudgetCategoryImpl) bc).invalidateBalance(0);
+		}
+		logChange(null);
+		
+		//Nothing which is saved has changed, so we don't mark the document as 
+		// changed; but the lists on screen need to show the rows which have come
+		// or gone.
+		if (!isBatchChange())
+			fireDocumentChangeEvent();
+	}
+	
+	private Map<String, ModelObject> getSourcesByUid(){
+		Map<String, ModelObject> sources = new HashMap<String, ModelObject>();
+		for (Account a : getAccounts())
+			sources.put(a.getUid(), a);
+		for (BudgetCategory bc : getBudgetCategories())
+			sources.put(bc.getUid(), bc);
+		return sources;
+	}
+	
 	public void removeAccount(Account account) throws ModelException {
-		if (getTransactions(account).size() > 0)
+		if (getTransactions(account).size() > 0 || (segments != null && segments.getCount(account) > 0))
 			throw new ModelException("Cannot remove account " + account + "; it contains transactions");
 		for (ScheduledTransaction st : getScheduledTransactions())
 			if (st.getFrom().equals(account)
 					|| st.getTo().equals(account))
 				throw new ModelException("Cannot remove account " + account + "; it contains scheduled transactions");		
 		accounts.remove(account);
-		setChanged();
+		setChanged(account);
 	}
 	public void removeAccountType(AccountType type) throws ModelException {
 		for (Account a : getAccounts()) {
@@ -312,7 +687,7 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 				throw new ModelException("Cannot remove account type " + type + "; it is referred to by " + a);
 		}
 		accountTypes.remove(type);
-		setChanged();
+		setChanged(type);
 	}
 
 	public void removeBudgetCategory(BudgetCategory budgetCategory) throws ModelException {
@@ -321,11 +696,11 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		recursiveCheckRemoveBudgetCategory(budgetCategory);
 		
 		budgetCategories.remove(budgetCategory);
-		setChanged();
+		setChanged(budgetCategory);
 	}
 	
 	private void recursiveCheckRemoveBudgetCategory(BudgetCategory budgetCategory) throws ModelException {
-		if (getTransactions(budgetCategory).size() > 0)
+		if (getTransactions(budgetCategory).size() > 0 || (segments != null && segments.getCount(budgetCategory) > 0))
 			throw new ModelException("Cannot remove budget category " + budgetCategory + "; it is referenced by at least one transaction");
 		for (ScheduledTransaction st : getScheduledTransactions())
 			if (st.getFrom().equals(budgetCategory)
@@ -339,11 +714,14 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	
 	public void removeScheduledTransaction(ScheduledTransaction scheduledTransaction) throws ModelException {
 		scheduledTransactions.remove(scheduledTransaction);
-		setChanged();
+		setChanged(scheduledTransaction);
 	}
 	public void removeTransaction(Transaction transaction) throws ModelException {
 		transactions.remove(transaction);
-		setChanged();
+		transactionsVersion++;
+		if (transactionsBySource != null)
+			unindexTransaction(transaction);
+		setChanged(transaction);
 	}
 	/**
 	 * Saves the data file to the current file.  If the file has not yet been set,
@@ -375,26 +753,63 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		//Save the file
 		try {
 			if (!isBatchChange()){
-				BuddiCryptoFactory factory = new BuddiCryptoFactory();
+				//If we know what has changed since the last autosave, we just append 
+				// that to the journal, rather than writing the whole document again.
+				final File journalFile = (getFile() != null && file.equals(ModelFactory.getAutoSaveLocation(getFile())) ? ModelFactory.getJournalLocation(getFile()) : null);
+				if (journalFile != null){
+					try {
+						if (journal.append(this, password))
+							return;
+					}
+					catch (IOException ioe){
+						//The journal may now end with a partial entry; don't add anything
+						// more to it until the full autosave below replaces it.
+						journal.stop();
+						logger.log(Level.WARNING, "Unable to append to the autosave journal; saving the full document instead.", ioe);
+					}
+				}
 				
-				final OutputStream os = factory.getEncryptedStream(new FileOutputStream(file), password);
+				//Open the temp file here, so that any problems with it are reported to the caller.
+				final SavePipeline pipeline = new SavePipeline(file, password);
 
-				//Clone the file.  This is to decrease the time needed to save large files.
-				final Document clone = clone();
+				//Take a snapshot of the document.  This is to decrease the time needed to save large files.
+				final DocumentImpl snapshot;
+				try {
+					snapshot = getSnapshot();
+				}
+				catch (CloneNotSupportedException cnse){
+					pipeline.abort();
+					throw cnse;
+				}
+				final long changeCount = getChangeCount();
 				
 				new Thread(new Runnable(){
 					public void run() {
-						if (autosaveMutex.tryAcquire()){
-							try {
-								clone.saveToStream(os);
-							} catch (DocumentSaveException e) {
-								logger.log(Level.WARNING, "There was an error when autosaving the file.", e);
+						try {
+							if (autosaveMutex.tryAcquire()){
+								try {
+									snapshot.saveToStream(pipeline.getOutputStream());
+									pipeline.commit();
+									logger.fine(pipeline.toString());
+									
+									//Future changes are journalled against the new autosave file
+									if (journalFile != null)
+										journal.reset(journalFile, file, DocumentJournal.BASE_AUTOSAVE_FILE, changeCount);
+								} catch (DocumentSaveException e) {
+									logger.log(Level.WARNING, "There was an error when autosaving the file.", e);
+								} catch (IOException ioe) {
+									logger.log(Level.WARNING, "There was an error when autosaving the file.", ioe);
+								}
+								
+								autosaveMutex.release();
+							}
+							else {
+								logger.warning("Did not autosave, as there is another process already waiting.");
 							}
-							
-							autosaveMutex.release();
 						}
-						else {
-							logger.warning("Did not autosave, as there is another process already waiting.");
+						finally {
+							pipeline.abort();
+							releaseSnapshot(snapshot);
 						}
 					}
 				}).start();
@@ -413,7 +828,7 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 			throw new DocumentSaveException(ioe);
 		}
 		catch (CloneNotSupportedException cnse){
-			logger.warning("There was a problem cloning the data model, prior to auto saving.");
+			logger.warning("There was a problem taking a snapshot of the data model, prior to auto saving.");
 			throw new DocumentSaveException(cnse);
 		}
 	}
@@ -468,34 +883,46 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 			setFlag(CHANGE_PASSWORD, false);
 		}
 		
+		//Take a snapshot of the document, so that the save thread writes the document as
+		// it is now, even if the user keeps editing.  This is to decrease the time needed
+		// to save large files.
+		final DocumentImpl snapshot;
+		try {
+			snapshot = getSnapshot();
+		}
+		catch (CloneNotSupportedException cnse){
+			saveMutex.release();
+			throw new DocumentSaveException(cnse);
+		}
+		final long changeCount = getChangeCount();
+		final String documentUid = getUid();
+		final int transactionCount = getTransactions().size();
+		
 		Thread saveThread = new Thread(new Runnable(){
 			public void run() {
-				OutputStream os = null;
+				SavePipeline pipeline = null;
 				try {
-					//Clone the file.  This is to decrease the time needed to save large files.
-					Document clone = DocumentImpl.this.clone();
-					
-					//Save the file
-					BuddiCryptoFactory factory = new BuddiCryptoFactory();
-//					File tempFile = new File(file.getAbsolutePath() + ".temp");
-					os = factory.getEncryptedStream(new FileOutputStream(file), password);
-
-					clone.saveToStream(os);
-
-//					//Windows does not support renameTo'ing a file to an existing file.  Thus, we need
-//					// to rename the existing file to a '.old' file, rename the temp file to the
-//					// data file, and remove the .old file if all goes well.  While it would be simpler
-//					// to just remove the data file initially, by renaming it first, we have at least
-//					// some assurance that we are able to recover data if needed.
-//					File oldFile = new File(file.getAbsolutePath() + ".old");
-//					if (oldFile.exists() && !oldFile.delete())
-//						throw new IOException("Unable to delete existing file '" + oldFile + "' in preparation for moving temp file.");
-//					if (file.exists() && !file.renameTo(oldFile))
-//						throw new IOException("Unable to rename existing data file '" + file + "' to '" + oldFile + "'.");
-//					if (!tempFile.renameTo(file))
-//						throw new IOException("Unable to rename temp file '" + tempFile + "' to data file '" + file + "'.");
-//					if (oldFile.exists() && !oldFile.delete())
-//						logger.error("Unable to delete old data file '" + oldFile + "'.  This may cause problems the next time we try to save.");
+					//Save the file.  The pipeline writes to a temp file, and only replaces
+					// the data file once everything has been written and synced to disk.
+					pipeline = new SavePipeline(file, password);
+
+					snapshot.saveToStream(pipeline.getOutputStream());
+					pipeline.commit();
+					logger.info(pipeline.toString());
+
+					//Remember what is in the file, so that the Backup Manager can show it
+					// once the file is backed up, without decrypting it.
+					ModelFactory.getBackupStore(file).setDataFile(file, documentUid, transactionCount);
+
+					//The journal has now been compacted into the data file; future 
+					// autosaves start a new one against it.
+					journal.reset(ModelFactory.getJournalLocation(file), file, DocumentJournal.BASE_DATA_FILE, changeCount);
+
+					//The read only copy used by reports is not encrypted, so it must not 
+					// outlive a save with a password.  Otherwise it is only rewritten
+					// when a report next needs it; see ModelFactory.getReadOnlyDocument().
+					if (password != null && ModelFactory.getColumnsLocation(file).exists())
+						ModelFactory.getColumnsLocation(file).delete();
 				}
 				catch (CipherException ce){
 					//This means that there is something seriously wrong with the encryption methods.
@@ -512,18 +939,10 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 				catch (DocumentSaveException dse){
 					logger.log(Level.WARNING, "There was a problem saving the document.", dse);
 				}
-				catch (CloneNotSupportedException cnse){
-					logger.log(Level.WARNING, "There was a problem cloning the data model, prior to saving.", cnse);
-				}
 				finally {
-					if (os != null) {
-						try {
-							os.close();
-						}
-						catch (IOException ioe) {
-							logger.log(Level.SEVERE, "Problem encountered while trying to close Output Stream", ioe);
-						}
-					}
+					releaseSnapshot(snapshot);
+					if (pipeline != null)
+						pipeline.abort();
 				}
 				
 				saveMutex.release();
@@ -551,15 +970,44 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	/**
 	 * Very simple save method.  Streams the document to XML using the 
 	 * XMLEncoder, optionally using an encrypted output stream if the password is set.
+	 * If the BINARY_FORMAT flag is set, the document is instead written using 
+	 * the BinaryDocumentWriter.
 	 * 
 	 * @param file
 	 * @param flags
 	 * @throws DocumentSaveException
 	 */
 	public void saveToStream(OutputStream os) throws DocumentSaveException {
+		//Saves normally write a snapshot, which includes any archived transactions.
+		// If this document has some, we write a copy with them read back in, 
+		// rather than reading them into this document.
+		if (segments != null && !segments.isEmpty()){
+			try {
+				((DocumentImpl) clone()).saveToStream(os);
+			}
+			catch (CloneNotSupportedException cnse){
+				throw new DocumentSaveException(cnse);
+			}
+			return;
+		}
+		
 		//We don't want to be firing change events in the middle of a save
 		startBatchChange();
 
+		if ((flags & BINARY_FORMAT) != 0){
+			try {
+				new BinaryDocumentWriter(os).write(this);
+				os.close();
+			}
+			catch (IOException ioe){
+				throw new DocumentSaveException(ioe);
+			}
+			finally {
+				finishBatchChange();
+			}
+			return;
+		}
+
 		XMLEncoder encoder = new XMLEncoder(os);
 		encoder.setExceptionListener(new ExceptionListener(){
 			public void exceptionThrown(Exception e) {
@@ -616,7 +1064,9 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	}
 	/**
 	 * Updates the balances of all accounts.  Iterates through all accounts, and
-	 * calls the updateBalance() method for each. 
+	 * calls the updateBalance() method for each.  Each account only recalculates
+	 * its running balances from the earliest transaction which has been inserted,
+	 * changed or removed since the last update, so this is cheap after a single edit. 
 	 */
 	public void updateAllBalances(){
 		this.startBatchChange();
@@ -636,9 +1086,76 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		this.modifiedTime = modifiedTime;
 	}
 	public void setChanged(){
+		setChanged(null);
+	}
+	/**
+	 * Indicates that the given object in this document has changed (or that 
+	 * something else has changed, if the object is null).  The object is recorded
+	 * in the change log, so that filtered lists can update incrementally.
+	 */
+	void setChanged(ModelObject changed){
+		logChange(changed);
 		setModified(new Date());
 		super.setChanged();
 	}
+	
+	/**
+	 * Indicates that a value which is worked out from the rest of the document
+	 * (such as an account balance) has changed.  This is not recorded in the 
+	 * change log; the change which caused it already has been, and anything 
+	 * which depends on these values reads them from the sources again anyway.
+	 */
+	void setDerivedChanged(){
+		setModified(new Date());
+		super.setChanged();
+	}
+	
+	private void logChange(ModelObject changed){
+		synchronized (changeLog) {
+			changeCount++;
+			if (changed == null || changeLog.size() >= MAX_CHANGE_LOG_SIZE){
+				//We don't know what changed, or the log is full; anyone who has not
+				// seen all changes up to now will need to start over.
+				changeLog.clear();
+				changeLogStart = changeCount;
+			}
+			else {
+				changeLog.add(changed);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the journal which autosaves are appended to.
+	 */
+	DocumentJournal getJournal(){
+		return journal;
+	}
+	
+	/**
+	 * Returns a counter which is incremented every time something in the document
+	 * changes.
+	 */
+	long getChangeCount(){
+		synchronized (changeLog) {
+			return changeCount;
+		}
+	}
+	
+	/**
+	 * Returns the objects which have changed since getChangeCount() returned the 
+	 * given value, in the order in which they changed; the change count after these 
+	 * changes is count plus the size of the returned list.  If the changes since then
+	 * are not known (for instance because something other than a model object changed,
+	 * or because too many changes have happened since), returns null.
+	 */
+	List<ModelObject> getChangesSince(long count){
+		synchronized (changeLog) {
+			if (count < changeLogStart || count > changeCount)
+				return null;
+			return new ArrayList<ModelObject>(changeLog.subList((int) (count - changeLogStart), changeLog.size()));
+		}
+	}
 	public String getUid() {
 		if (uid == null || uid.length() == 0){
 			setUid(getGeneratedUid(this));
@@ -985,7 +1502,8 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		// it to be cleaner later on...
 		final GregorianCalendar tempCal = new GregorianCalendar();
 
-		for (ScheduledTransaction s : new FilteredLists.ScheduledTransactionListFilteredByBeforeToday(this, getScheduledTransactions())) {
+		FilteredLists.ScheduledTransactionListFilteredByBeforeToday scheduledTransactionsBeforeToday = new FilteredLists.ScheduledTransactionListFilteredByBeforeToday(this, getScheduledTransactions());
+		for (ScheduledTransaction s : scheduledTransactionsBeforeToday) {
 			if (Const.DEVEL) logger.info("Looking at scheduled transaction " + s.getScheduleName());
 
 			Date tempDate = s.getLastDayCreated();
@@ -1238,6 +1756,7 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 				tempDate = DateUtil.addDays(tempDate, 1);
 			}
 		}
+		scheduledTransactionsBeforeToday.dispose();
 
 		finishBatchChange();
 		updateAllBalances();
@@ -1246,7 +1765,21 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	public void setPassword(char[] password) {
 		this.password = password;
 	}
+
+	/**
+	 * Returns true if the document is saved with a password.
+	 * @return
+	 */
+	boolean isEncrypted() {
+		return password != null;
+	}
 	
+	/**
+	 * Returns the sum of the balances of all non-deleted accounts as of the given 
+	 * date, or the current balances if date is null.  Each account looks up its
+	 * balance at the date with a binary search over its running balances, so
+	 * this is cheap enough to call for many dates (e.g. in reports).
+	 */
 	public long getNetWorth(Date date) {
 		List<Account> accounts = getAccounts();
 		long total = 0; 
@@ -1264,6 +1797,233 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	}
 	
 
+	/**
+	 * Returns a copy of this document as it is now, for a save thread to write
+	 * while the user keeps working with the original.  Once the copy has been
+	 * written, the save thread must pass it to releaseSnapshot().
+	 * 
+	 * Rather than cloning the whole document for every save (which, for large data
+	 * files, is most of the cost of saving), we keep the copy from the last save and
+	 * bring it up to date.  Account types, accounts, budget categories and scheduled 
+	 * transactions are few, so we update all of them.  Transactions are only cloned
+	 * again if they appear in the change log since the last save, so the cost of 
+	 * a save grows with the number of changed transactions rather than with the size
+	 * of the document.  If the change log does not cover everything which changed
+	 * since then, we start over with a full clone.
+	 * 
+	 * The copy is only updated when no save thread is still writing it; otherwise, 
+	 * we return a separate full clone.
+	 * @return
+	 * @throws CloneNotSupportedException
+	 */
+	public DocumentImpl getSnapshot() throws CloneNotSupportedException {
+		if (!snapshotMutex.tryAcquire())
+			return cloneForSave(new IdentityHashMap<ModelObject, ModelObject>());
+		
+		try {
+			updateAllBalances();
+			long count = getChangeCount();
+			List<ModelObject> changes = (snapshot == null ? null : getChangesSince(snapshotChangeCount));
+			if (changes == null || !updateSnapshot(changes))
+				createSnapshot();
+			snapshotChangeCount = count;
+			return snapshot;
+		}
+		catch (CloneNotSupportedException cnse){
+			snapshot = null;
+			snapshotMutex.release();
+			throw cnse;
+		}
+		catch (RuntimeException re){
+			snapshot = null;
+			snapshotMutex.release();
+			throw re;
+		}
+	}
+	
+	/**
+	 * Indicates that a save thread has finished writing a document returned 
+	 * from getSnapshot().
+	 * @param document
+	 */
+	public void releaseSnapshot(DocumentImpl document){
+		if (document == snapshot){
+			//The snapshot includes the transactions which are kept on disk; we
+			// don't want to keep those in memory until the next save.
+			if (segments != null && !segments.isEmpty())
+				snapshot = null;
+			snapshotMutex.release();
+		}
+	}
+	
+	private void createSnapshot() throws CloneNotSupportedException {
+		Map<ModelObject, ModelObject> originalToClonedObjectMap = new IdentityHashMap<ModelObject, ModelObject>();
+		snapshot = cloneForSave(originalToClonedObjectMap);
+		
+		snapshotSources = new IdentityHashMap<ModelObject, ModelObject>();
+		for (AccountType type : getAccountTypes())
+			snapshotSources.put(type, originalToClonedObjectMap.get(type));
+		for (Account account : getAccounts())
+			snapshotSources.put(account, originalToClonedObjectMap.get(account));
+		for (BudgetCategory budgetCategory : getBudgetCategories())
+			snapshotSources.put(budgetCategory, originalToClonedObjectMap.get(budgetCategory));
+		
+		snapshotTransactions = new IdentityHashMap<Transaction, Transaction>();
+		for (Transaction t : getTransactions())
+			snapshotTransactions.put(t, (Transaction) originalToClonedObjectMap.get(t));
+	}
+	
+	/**
+	 * Brings the snapshot up to date with the given changes.  Returns false if
+	 * the changes include something which we cannot update incrementally, in which
+	 * case a new snapshot must be created.
+	 * @param changes
+	 * @return
+	 * @throws CloneNotSupportedException
+	 */
+	private boolean updateSnapshot(List<ModelObject> changes) throws CloneNotSupportedException {
+		Set<Transaction> changedTransactions = Collections.newSetFromMap(new IdentityHashMap<Transaction, Boolean>());
+		for (ModelObject changed : changes) {
+			if (changed instanceof ScheduledTransactionImpl || changed instanceof SourceImpl || changed instanceof AccountTypeImpl)
+				continue;	//We update all of these anyway
+			else if (changed instanceof TransactionImpl)
+				changedTransactions.add((Transaction) changed);
+			else
+				return false;	//Splits and anything else cannot be mapped back to a transaction
+		}
+		
+		snapshot.setFile(getFile());
+		snapshot.flags = flags;
+		snapshot.modifiedTime = (modifiedTime == null ? null : new Time(modifiedTime));
+		snapshot.password = (password == null ? null : new String(password).toCharArray());
+		
+		//Sources are updated in place, so that the copies of unchanged transactions 
+		// still refer to the right objects.
+		Map<ModelObject, ModelObject> originalToClonedObjectMap = new IdentityHashMap<ModelObject, ModelObject>();
+		originalToClonedObjectMap.put(this, snapshot);
+		List<ModelObject> sources = new ArrayList<ModelObject>();
+		sources.addAll(getAccountTypes());
+		sources.addAll(getAccounts());
+		sources.addAll(getBudgetCategories());
+		for (ModelObject source : sources) {
+			ModelObject copy = snapshotSources.get(source);
+			if (copy != null)
+				originalToClonedObjectMap.put(source, copy);
+		}
+		
+		List<AccountType> types = new ArrayList<AccountType>();
+		for (AccountType type : getAccountTypes()) {
+			AccountTypeImpl copy = (AccountTypeImpl) originalToClonedObjectMap.get(type);
+			if (copy == null)
+				copy = (AccountTypeImpl) ((AccountTypeImpl) type).clone(originalToClonedObjectMap);
+			else
+				((AccountTypeImpl) type).copyTo(copy, originalToClonedObjectMap);
+			types.add(copy);
+		}
+		List<Account> accounts = new ArrayList<Account>();
+		for (Account account : getAccounts()) {
+			AccountImpl copy = (AccountImpl) originalToClonedObjectMap.get(account);
+			if (copy == null)
+				copy = (AccountImpl) ((AccountImpl) account).clone(originalToClonedObjectMap);
+			else
+				((AccountImpl) account).copyTo(copy, originalToClonedObjectMap);
+			accounts.add(copy);
+		}
+		List<BudgetCategory> budgetCategories = new ArrayList<BudgetCategory>();
+		for (BudgetCategory budgetCategory : getBudgetCategories()) {
+			BudgetCategoryImpl copy = (BudgetCategoryImpl) originalToClonedObjectMap.get(budgetCategory);
+			if (copy == null)
+				copy = (BudgetCategoryImpl) ((BudgetCategoryImpl) budgetCategory).clone(originalToClonedObjectMap);
+			else
+				((BudgetCategoryImpl) budgetCategory).copyTo(copy, originalToClonedObjectMap);
+			budgetCategories.add(copy);
+		}
+		copyUids(originalToClonedObjectMap);
+		snapshot.setAccountTypes(types);
+		snapshot.setAccounts(accounts);
+		snapshot.setBudgetCategories(budgetCategories);
+		
+		snapshotSources = new IdentityHashMap<ModelObject, ModelObject>();
+		for (ModelObject source : sources)
+			snapshotSources.put(source, originalToClonedObjectMap.get(source));
+		
+		List<ScheduledTransaction> scheduledTransactions = new ArrayList<ScheduledTransaction>();
+		for (ScheduledTransaction st : getScheduledTransactions())
+			scheduledTransactions.add(((ScheduledTransactionImpl) st).clone(originalToClonedObjectMap));
+		copyUids(originalToClonedObjectMap);
+		snapshot.setScheduledTransactions(scheduledTransactions);
+		
+		//Transactions are not referred to by anything else, so we replace the copies
+		// of the ones which changed.  The copies themselves are never modified.
+		if (changedTransactions.size() > 0){
+			List<Transaction> snapshotList = snapshot.getTransactions();
+			for (Transaction t : changedTransactions) {
+				Transaction copy = snapshotTransactions.remove(t);
+				if (copy != null){
+					int index = snapshotList.indexOf(copy);
+					if (index < 0 || snapshotList.get(index) != copy)
+						return false;
+					snapshotList.remove(index);
+				}
+				int index = getTransactions().indexOf(t);
+				if (index >= 0 && getTransactions().get(index) == t){
+					copy = ((TransactionImpl) t).clone(originalToClonedObjectMap);
+					((TransactionImpl) copy).setUid(t.getUid());
+					snapshotList.add(copy);
+					snapshotTransactions.put(t, copy);
+				}
+			}
+			copyUids(originalToClonedObjectMap);	//For the splits of the new copies
+			snapshot.transactionsVersion++;
+			if (snapshot.transactionsBySource != null)
+				snapshot.rebuildTransactionsBySource();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Performs a deep clone of the document for saving.  Unlike clone(), the copies 
+	 * keep the UIDs of the original objects, so that the saved file refers to objects
+	 * by the same UIDs as this document does (which DocumentJournal depends on).
+	 * @param originalToClonedObjectMap
+	 * @return
+	 * @throws CloneNotSupportedException
+	 */
+	private DocumentImpl cloneForSave(Map<ModelObject, ModelObject> originalToClonedObjectMap) throws CloneNotSupportedException {
+		DocumentImpl clone = clone(originalToClonedObjectMap);
+		copyUids(originalToClonedObjectMap);
+		
+		//The UID is the last thing which objects are sorted on, so the lists must be sorted again.
+		Collections.sort(clone.getAccounts());
+		Collections.sort(clone.getAccountTypes());
+		Collections.sort(clone.getBudgetCategories());
+		Collections.sort(clone.getTransactions());
+		Collections.sort(clone.getScheduledTransactions());
+		clone.transactionsVersion++;
+		if (clone.transactionsBySource != null)
+			clone.rebuildTransactionsBySource();
+		try {
+			clone.refreshUidMap();
+		}
+		catch (ModelException me){
+			throw new CloneNotSupportedException(me.getMessage());
+		}
+		return clone;
+	}
+	
+	/**
+	 * Gives each clone in the map the UID of its original.
+	 */
+	private static void copyUids(Map<ModelObject, ModelObject> originalToClonedObjectMap){
+		for (Map.Entry<ModelObject, ModelObject> entry : originalToClonedObjectMap.entrySet()) {
+			if (entry.getValue() instanceof ModelObjectImpl)
+				((ModelObjectImpl) entry.getValue()).setUid(entry.getKey().getUid());
+			else if (entry.getValue() instanceof DocumentImpl)
+				((DocumentImpl) entry.getValue()).setUid(entry.getKey().getUid());
+		}
+	}
+	
 	/**
 	 * Performs a deep clone of the Document model.  This will result in a completely
 	 * different object, with all component objects different, but with all the same
@@ -1275,9 +2035,18 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 	public Document clone() throws CloneNotSupportedException {
 		updateAllBalances();	//We want to be sure that out original object is in the correct state before cloning.
 		
+		return clone(new HashMap<ModelObject, ModelObject>());
+	}
+	
+	/**
+	 * Performs a deep clone of the Document model, using the given map to record
+	 * the clone of each object.
+	 * @param originalToClonedObjectMap
+	 * @return
+	 * @throws CloneNotSupportedException
+	 */
+	private DocumentImpl clone(Map<ModelObject, ModelObject> originalToClonedObjectMap) throws CloneNotSupportedException {
 		try {
-			Map<ModelObject, ModelObject> originalToClonedObjectMap = new HashMap<ModelObject, ModelObject>();
-
 			DocumentImpl clone = new DocumentImpl();
 			clone.startBatchChange();
 			clone.setFile(this.getFile());
@@ -1304,6 +2073,16 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 			for (Transaction old : this.getTransactions()) {
 				clone.addTransaction((Transaction) ((TransactionImpl) old).clone(originalToClonedObjectMap));
 			}
+			
+			//The transactions kept on disk are read straight into the clone.
+			if (segments != null && !segments.isEmpty()){
+				Map<String, ModelObject> clonedSources = new HashMap<String, ModelObject>();
+				for (Map.Entry<String, ModelObject> entry : getSourcesByUid().entrySet())
+					clonedSources.put(entry.getKey(), originalToClonedObjectMap.get(entry.getValue()));
+				List<Transaction> transactions = segments.readAll(clone, clonedSources);
+				transactions.addAll(clone.getTransactions());
+				clone.setTransactions(transactions);
+			}
 
 			clone.refreshUidMap();
 			clone.finishBatchChange();
@@ -1313,5 +2092,8 @@ public class DocumentImpl extends AbstractDocument implements ModelObject, Docum
 		catch (ModelException me){
 			throw new CloneNotSupportedException(me.getMessage());
 		}
+		catch (IOException ioe){
+			throw new CloneNotSupportedException(ioe.getMessage());
+		}
 	}
 }
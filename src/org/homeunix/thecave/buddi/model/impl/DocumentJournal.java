@@ -0,0 +1,474 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.AccountType;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
+import org.homeunix.thecave.buddi.util.BuddiCryptoFactory;
+
+import ca.digitalcave.moss.crypto.CipherException;
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+import ca.digitalcave.moss.crypto.IncorrectPasswordException;
+
+/**
+ * An append only journal of the changes made to a document since it was last
+ * written in full.  Autosaving used to clone and write the entire document every
+ * time, even if only a single transaction had changed; now, each autosave appends
+ * just the changes since the previous one to the journal, and the full autosave file
+ * is only written when the changes are not known (see DocumentImpl.getChangesSince()),
+ * or when the journal has grown larger than the file it applies to.
+ *
+ * The journal applies to a base file, which is either the data file itself or its
+ * autosave file.  It starts with the MAGIC bytes, a version, the type of base file,
+ * and the document UID, length and modified time of the base file when the journal
+ * was started.  A journal is only replayed over the base file which it was started
+ * against; if the base file has since been replaced (for instance by restoring a
+ * backup, or by copying in a data file from another computer), the journal is ignored.
+ * This is followed by a series of entries, each of which is an int length and then
+ * that many bytes, encrypted with the document password using BuddiCryptoFactory.
+ * Each entry contains a partial document in the binary format, as written by
+ * BinaryDocumentWriter.writeChanges(): all account types, accounts, budget categories
+ * and scheduled transactions (there are few of these, and this means that removed
+ * ones are handled for free), but only the transactions which were added or changed,
+ * and the UIDs of the transactions which were removed.
+ *
+ * When the document is saved in full (either to the data file, or to the autosave
+ * file), the journal is deleted and started again against the new base file.  When
+ * a document is loaded after a crash, ModelFactory loads the base file and replays
+ * the journal on top of it.  If the last entry was only partially written, it is
+ * ignored.  If the user chooses not to recover the changes, the journal is left
+ * alone until the document is next saved to the data file (see retain()).
+ */
+final class DocumentJournal {
+	static final byte[] MAGIC = "BUDDIJNL".getBytes(Charset.forName("US-ASCII"));
+	static final int VERSION = 2;
+
+	//The types of base file
+	static final byte BASE_DATA_FILE = 0;
+	static final byte BASE_AUTOSAVE_FILE = 1;
+
+	//We always allow the journal to grow to this size before compacting it, even if
+	// the base file is smaller.
+	private static final long MIN_COMPACT_SIZE = 1024 * 1024;
+
+	private static final Logger logger = Logger.getLogger(DocumentJournal.class.getName());
+
+	private File file;
+	private File baseFile;
+	private byte baseType;
+	//The change count of the document as of the last entry, or -1 if we do not
+	// have a base file to append changes to.
+	private long changeCount = -1;
+	//True if the file is an old journal which the user chose not to recover; it
+	// is kept until the document is next saved to the data file.
+	private boolean retained;
+
+	/**
+	 * Starts the journal again, against a base file which contains the document
+	 * as of the given change count.  Any existing journal is deleted.
+	 * @param file
+	 * @param baseFile
+	 * @param baseType
+	 * @param changeCount
+	 */
+	synchronized void reset(File file, File baseFile, byte baseType, long changeCount){
+		//A retained journal may only be replaced by a save to the data file
+		if (retained && baseType != BASE_DATA_FILE)
+			return;
+		if (this.file != null && !this.file.equals(file))
+			delete(this.file);
+		delete(file);
+		start(file, baseFile, baseType, changeCount);
+	}
+
+	/**
+	 * Continues the given existing journal (if any), which together with its
+	 * base file contains the document as of the given change count.
+	 * @param file
+	 * @param baseFile
+	 * @param baseType
+	 * @param changeCount
+	 */
+	synchronized void start(File file, File baseFile, byte baseType, long changeCount){
+		this.file = file;
+		this.baseFile = baseFile;
+		this.baseType = baseType;
+		this.changeCount = changeCount;
+		this.retained = false;
+	}
+
+	/**
+	 * Keeps the given existing journal, whose changes the user chose not to
+	 * recover, until the document is next saved to its data file.  Until then
+	 * nothing is appended to it, and autosaves write the full autosave file.
+	 * @param file
+	 */
+	synchronized void retain(File file){
+		this.file = file;
+		this.baseFile = null;
+		this.changeCount = -1;
+		this.retained = true;
+	}
+
+	/**
+	 * Stops journalling until the next call to reset(); the next autosave will
+	 * write the full document.
+	 */
+	synchronized void stop(){
+		changeCount = -1;
+	}
+
+	private static void delete(File file){
+		if (file.exists() && !file.delete())
+			logger.warning("Unable to delete journal file " + file);
+	}
+
+	/**
+	 * Appends the changes to the document since the last entry.  Returns false
+	 * if the changes cannot be written to the journal, in which case the document
+	 * must be saved in full.
+	 * @param document
+	 * @param password
+	 * @return
+	 * @throws IOException
+	 * @throws CipherException
+	 */
+	synchronized boolean append(DocumentImpl document, char[] password) throws IOException, CipherException {
+		if (changeCount < 0 || !baseFile.exists())
+			return false;
+
+		long count = document.getChangeCount();
+		List<ModelObject> changes = document.getChangesSince(changeCount);
+		if (changes == null)
+			return false;
+		if (changes.size() == 0)
+			return true;
+
+		//Compact the journal into a full save once it is bigger than the base file.
+		if (file.length() > Math.max(MIN_COMPACT_SIZE, baseFile.length()))
+			return false;
+
+		Set<Transaction> changedTransactions = Collections.newSetFromMap(new IdentityHashMap<Transaction, Boolean>());
+		for (ModelObject changed : changes) {
+			if (changed instanceof ScheduledTransactionImpl || changed instanceof SourceImpl || changed instanceof AccountTypeImpl)
+				continue;	//All of these are written anyway
+			else if (changed instanceof TransactionImpl)
+				changedTransactions.add((Transaction) changed);
+			else
+				return false;	//Splits and anything else cannot be mapped back to a transaction
+		}
+
+		List<Transaction> transactions = new ArrayList<Transaction>();
+		List<String> deletedUids = new ArrayList<String>();
+		for (Transaction t : changedTransactions) {
+			if (contains(document.getTransactions(), t))
+				transactions.add(t);
+			else
+				deletedUids.add(t.getUid());
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new BinaryDocumentWriter(baos).writeChanges(document, transactions, deletedUids);
+		byte[] entry = new BuddiCryptoFactory().getEncryptedBytes(baos.toByteArray(), password);
+
+		boolean newFile = file.length() == 0;
+		FileOutputStream fos = new FileOutputStream(file, true);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			if (newFile){
+				out.write(MAGIC);
+				out.writeInt(VERSION);
+				out.writeByte(baseType);
+				out.writeUTF(document.getUid());
+				out.writeLong(baseFile.length());
+				out.writeLong(baseFile.lastModified());
+			}
+			out.writeInt(entry.length);
+			out.write(entry);
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+
+		logger.finest("Appended " + transactions.size() + " changed and " + deletedUids.size() + " deleted transactions to journal " + file);
+		changeCount = count;
+		return true;
+	}
+
+	/**
+	 * Returns true if the given transaction (and not just one which is equal to it)
+	 * is in the list.  The binary search finds it right away unless it has not been
+	 * sorted into place yet, in which case we look through the whole list.
+	 */
+	private static boolean contains(List<Transaction> transactions, Transaction t){
+		int index = transactions.indexOf(t);
+		if (index >= 0 && transactions.get(index) == t)
+			return true;
+		for (Transaction other : transactions) {
+			if (other == t)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the type of base file which the given journal applies to, or -1
+	 * if the file does not exist or is not a journal.
+	 * @param file
+	 * @return
+	 */
+	static byte getBaseType(File file){
+		if (!file.exists())
+			return -1;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				Header header = readHeader(in);
+				return (header == null ? -1 : header.baseType);
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException ioe){
+			return -1;
+		}
+	}
+
+	/**
+	 * Reads the journal header, or returns null if this is not a journal which 
+	 * we can read.  Journals written before the base file was recorded are not 
+	 * read, since we cannot tell which file they apply to.
+	 */
+	private static Header readHeader(DataInputStream in) throws IOException {
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		for (int i = 0; i < MAGIC.length; i++){
+			if (magic[i] != MAGIC[i])
+				return null;
+		}
+		if (in.readInt() != VERSION)
+			return null;
+		Header header = new Header();
+		header.baseType = in.readByte();
+		header.baseUid = in.readUTF();
+		header.baseLength = in.readLong();
+		header.baseModified = in.readLong();
+		return header;
+	}
+
+	/**
+	 * The base file which a journal was started against.
+	 */
+	private static class Header {
+		private byte baseType;
+		private String baseUid;
+		private long baseLength;
+		private long baseModified;
+	}
+
+	/**
+	 * Applies all entries in the given journal to the document, which must have just
+	 * been loaded from the given base file.  Returns the number of entries which
+	 * were applied, or -1 if the journal was not started against this base file, in
+	 * which case nothing is applied.  If an entry cannot be read (for instance if 
+	 * Buddi crashed while writing it), it and all later entries are skipped.
+	 * @param document
+	 * @param file
+	 * @param baseFile
+	 * @param password
+	 * @return
+	 * @throws IOException
+	 * @throws CipherException
+	 */
+	static int replay(DocumentImpl document, File file, File baseFile, char[] password) throws IOException, CipherException {
+		int entries = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			Header header = readHeader(in);
+			if (header == null)
+				throw new IOException("File " + file + " is not a journal");
+			if (!header.baseUid.equals(document.getUid())
+					|| header.baseLength != baseFile.length()
+					|| header.baseModified != baseFile.lastModified()){
+				logger.warning("Journal " + file + " was not started against " + baseFile + " as it is now; ignoring the journal.");
+				return -1;
+			}
+
+			BuddiCryptoFactory factory = new BuddiCryptoFactory();
+			while (true){
+				byte[] entry;
+				try {
+					int length = in.readInt();
+					if (length < 0)
+						throw new EOFException();
+					entry = new byte[length];
+					in.readFully(entry);
+				}
+				catch (EOFException eofe){
+					break;
+				}
+
+				try {
+					BinaryDocumentReader reader = new BinaryDocumentReader(factory.getDecryptedStream(new ByteArrayInputStream(entry), password));
+					apply(document, reader.read(), reader.getDeletedUids());
+					entries++;
+				}
+				catch (CipherException ce){
+					logger.log(Level.WARNING, "Unable to read journal entry " + entries + "; skipping the rest of the journal.", ce);
+					break;
+				}
+				catch (IncorrectPasswordException ipe){
+					logger.log(Level.WARNING, "Unable to read journal entry " + entries + "; skipping the rest of the journal.", ipe);
+					break;
+				}
+				catch (IncorrectDocumentFormatException idfe){
+					logger.log(Level.WARNING, "Unable to read journal entry " + entries + "; skipping the rest of the journal.", idfe);
+					break;
+				}
+				catch (IOException ioe){
+					logger.log(Level.WARNING, "Unable to read journal entry " + entries + "; skipping the rest of the journal.", ioe);
+					break;
+				}
+			}
+		}
+		finally {
+			in.close();
+		}
+		return entries;
+	}
+
+	/**
+	 * Applies a single journal entry to the document.  Sources which are already in
+	 * the document are updated in place, so that the transactions which refer to them
+	 * stay valid; new sources, and all transactions, are moved over from the entry.
+	 */
+	private static void apply(DocumentImpl document, DocumentImpl changes, List<String> deletedUids) throws IOException {
+		Map<String, ModelObject> existing = new HashMap<String, ModelObject>();
+		for (AccountType type : document.getAccountTypes())
+			existing.put(type.getUid(), type);
+		for (Account account : document.getAccounts())
+			existing.put(account.getUid(), account);
+		for (BudgetCategory budgetCategory : document.getBudgetCategories())
+			existing.put(budgetCategory.getUid(), budgetCategory);
+
+		//Map each source in the entry to the object which will hold it in the document
+		Map<ModelObject, ModelObject> changesToDocumentMap = new IdentityHashMap<ModelObject, ModelObject>();
+		changesToDocumentMap.put(changes, document);
+		List<ModelObject> sources = new ArrayList<ModelObject>();
+		sources.addAll(changes.getAccountTypes());
+		sources.addAll(changes.getAccounts());
+		sources.addAll(changes.getBudgetCategories());
+		for (ModelObject source : sources) {
+			ModelObject target = existing.get(source.getUid());
+			changesToDocumentMap.put(source, (target != null && target.getClass() == source.getClass() ? target : source));
+		}
+
+		try {
+			List<AccountType> types = new ArrayList<AccountType>();
+			for (AccountType type : changes.getAccountTypes()) {
+				AccountTypeImpl target = (AccountTypeImpl) changesToDocumentMap.get(type);
+				((AccountTypeImpl) type).copyTo(target, changesToDocumentMap);
+				types.add(target);
+			}
+			List<Account> accounts = new ArrayList<Account>();
+			for (Account account : changes.getAccounts()) {
+				AccountImpl target = (AccountImpl) changesToDocumentMap.get(account);
+				((AccountImpl) account).copyTo(target, changesToDocumentMap);
+				accounts.add(target);
+			}
+			List<BudgetCategory> budgetCategories = new ArrayList<BudgetCategory>();
+			for (BudgetCategory budgetCategory : changes.getBudgetCategories()) {
+				BudgetCategoryImpl target = (BudgetCategoryImpl) changesToDocumentMap.get(budgetCategory);
+				((BudgetCategoryImpl) budgetCategory).copyTo(target, changesToDocumentMap);
+				budgetCategories.add(target);
+			}
+			document.setAccountTypes(types);
+			document.setAccounts(accounts);
+			document.setBudgetCategories(budgetCategories);
+
+			List<ScheduledTransaction> scheduledTransactions = new ArrayList<ScheduledTransaction>();
+			for (ScheduledTransaction st : changes.getScheduledTransactions()) {
+				moveTransaction(document, (TransactionImpl) st, changesToDocumentMap);
+				scheduledTransactions.add(st);
+			}
+			document.setScheduledTransactions(scheduledTransactions);
+
+			//Replace the changed transactions, and remove the deleted ones
+			Set<String> replacedUids = new HashSet<String>(deletedUids);
+			for (Transaction t : changes.getTransactions())
+				replacedUids.add(t.getUid());
+			List<Transaction> transactions = new ArrayList<Transaction>(document.getTransactions().size() + changes.getTransactions().size());
+			for (Transaction t : document.getTransactions()) {
+				if (!replacedUids.contains(t.getUid()))
+					transactions.add(t);
+			}
+			for (Transaction t : changes.getTransactions()) {
+				moveTransaction(document, (TransactionImpl) t, changesToDocumentMap);
+				transactions.add(t);
+			}
+			document.setTransactions(transactions);
+		}
+		catch (CloneNotSupportedException cnse){
+			throw new IOException(cnse);
+		}
+		catch (InvalidValueException ive){
+			throw new IOException(ive);
+		}
+
+		if (changes.getModifiedDate() != null)
+			document.setModified(changes.getModifiedDate());
+	}
+
+	/**
+	 * Moves a transaction from a journal entry to the document, pointing it to the
+	 * document's sources.
+	 */
+	private static void moveTransaction(DocumentImpl document, TransactionImpl t, Map<ModelObject, ModelObject> changesToDocumentMap) throws InvalidValueException {
+		t.setDocument(document);
+		if (!(t.from instanceof Split))
+			t.from = (Source) changesToDocumentMap.get(t.from);
+		if (!(t.to instanceof Split))
+			t.to = (Source) changesToDocumentMap.get(t.to);
+		List<TransactionSplit> splits = new ArrayList<TransactionSplit>();
+		if (t.fromSplits != null)
+			splits.addAll(t.fromSplits);
+		if (t.toSplits != null)
+			splits.addAll(t.toSplits);
+		for (TransactionSplit split : splits) {
+			if (split.getSource() != null)
+				split.setSource((Source) changesToDocumentMap.get(split.getSource()));
+		}
+	}
+}
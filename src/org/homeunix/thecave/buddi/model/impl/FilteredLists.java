@@ -3,9 +3,17 @@
  */
 package org.homeunix.thecave.buddi.model.impl;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -17,6 +25,7 @@ import org.homeunix.thecave.buddi.model.AccountType;
 import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.BudgetCategoryType;
 import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.ModelObject;
 import org.homeunix.thecave.buddi.model.ScheduledTransaction;
 import org.homeunix.thecave.buddi.model.Source;
 import org.homeunix.thecave.buddi.model.Split;
@@ -26,8 +35,6 @@ import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
 import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
 import org.homeunix.thecave.buddi.util.Formatter;
 
-import ca.digitalcave.moss.application.document.DocumentChangeEvent;
-import ca.digitalcave.moss.application.document.DocumentChangeListener;
 import ca.digitalcave.moss.collections.FilteredList;
 import ca.digitalcave.moss.common.DateUtil;
 
@@ -36,31 +43,302 @@ public class FilteredLists {
 
 	/**
 	 * Abstract class used as a base for Buddi filtered lists.  Registers the data
-	 * model for change events, and updates the filtered list accordingly. 
+	 * model for change events, and updates the filtered list accordingly.  The
+	 * registration is weak, so lists which are no longer referenced can be garbage
+	 * collected; lists which are only used briefly should call dispose() when done.
+	 * 
+	 * The list is only recalculated when it is accessed, and only if something has 
+	 * changed.  If the document can tell us which objects changed since the last
+	 * access (and there are not too many of them), we just remove and re-insert
+	 * those objects, instead of filtering and sorting the entire source list again.
 	 * @author wyatt
 	 *
 	 */
 	private static abstract class BuddiFilteredList<T> extends FilteredList<T> {
-		private final DocumentChangeListener listener;
+		//If more than this many objects have changed, we just re-filter the whole list.
+		private static final int MAX_INCREMENTAL_CHANGES = 64;
+		
+		private final FilteredListListener listener;
+		private final Document model;
+		private final Class<T> type;
 		
-		public BuddiFilteredList(Document model, List<T> source) {
+		private List<T> items;					//The current filtered list; replaced (not modified) on each update
+		private boolean refilter = true;		//Do we need to re-filter the entire source list?
+		private long appliedChangeCount;		//The document change count which items reflects
+		private long replayChangeCount;			//The document change count at the last change event, less one
+		private long updateCount;				//The number of calls to updateFilteredList()
+		private long refilterCount;				//The number of times the entire source list was filtered
+		
+		public BuddiFilteredList(Document model, List<T> source, Class<T> type) {
 			super(source);
-			listener = new DocumentChangeListener(){
-				public void documentChange(DocumentChangeEvent event) {
-					updateFilteredList();
-				}
-			};
-			model.addDocumentChangeListener(listener);
+			this.model = model;
+			this.type = type;
+			listener = new FilteredListListener(model, this);
 		}
 		
-		@SuppressWarnings("unchecked")
+		/**
+		 * Forces the list to be re-filtered the next time it is accessed.  This is needed 
+		 * when something other than the document changes the results of isIncluded(),
+		 * such as the search text or preferences.  Source lists are updated as well.
+		 */
 		@Override
-		public void updateFilteredList() {
+		public synchronized void updateFilteredList() {
 			if (super.filteredListSource instanceof FilteredList)
 				((FilteredList<?>) super.filteredListSource).updateFilteredList();
-			super.updateFilteredList();
+			refilter = true;
+			updateCount++;
+		}
+		
+		synchronized long getUpdateCount(){
+			return updateCount;
+		}
+		
+		/**
+		 * Returns the number of times the entire source list has been filtered, 
+		 * rather than updated from the changed objects.  This is a diagnostic, for 
+		 * the unit tests.
+		 */
+		public synchronized long getRefilterCount(){
+			return refilterCount;
+		}
+		
+		/**
+		 * Replaces the filtered list with one which was worked out elsewhere (for
+		 * instance on a background thread), from the source list as of the given
+		 * document change count.  Changes since then are applied as usual the next 
+		 * time the list is accessed.  If updateFilteredList() has been called since
+		 * getUpdateCount() returned the given value, the new items may be out of date; 
+		 * they are not used, and this returns false.
+		 */
+		synchronized boolean setItems(List<T> newItems, long changeCount, long updateCount){
+			if (updateCount != this.updateCount || !(model instanceof DocumentImpl))
+				return false;
+			items = newItems;
+			refilter = false;
+			appliedChangeCount = changeCount;
+			return true;
+		}
+		
+		/**
+		 * Called when the document fires a change event.  Events are delayed and merged
+		 * by the document, and objects are sometimes marked as changed just before they
+		 * are actually modified; to be safe, we replay all the changes since the last 
+		 * event when we are next accessed.
+		 */
+		synchronized void documentChanged(){
+			if (model instanceof DocumentImpl){
+				appliedChangeCount = Math.min(appliedChangeCount, replayChangeCount);
+				replayChangeCount = Math.max(0, ((DocumentImpl) model).getChangeCount() - 1);
+			}
+			else {
+				refilter = true;
+			}
+		}
+		
+		/**
+		 * Returns true if isIncluded() only depends on the object passed to it, and
+		 * the list can be updated by re-checking each changed object on its own.  Lists
+		 * which look at other objects (parents, accounts, etc) should return false.
+		 */
+		protected boolean isIncrementalUpdateSupported(){
+			return true;
+		}
+		
+		private synchronized List<T> getItems(){
+			if (items == null || refilter){
+				refilter();
+			}
+			else if (model instanceof DocumentImpl){
+				List<ModelObject> changes = ((DocumentImpl) model).getChangesSince(appliedChangeCount);
+				if (changes == null)
+					refilter();
+				else if (changes.size() > 0){
+					if (!applyChanges(changes))
+						refilter();
+					else
+						appliedChangeCount += changes.size();
+				}
+			}
+			return items;
+		}
+		
+		private void refilter(){
+			if (model instanceof DocumentImpl)
+				appliedChangeCount = ((DocumentImpl) model).getChangeCount();
+			refilter = false;
+			refilterCount++;
+			
+			List<T> newItems = new ArrayList<T>();
+			for (T t : filteredListSource) {
+				if (isIncluded(t))
+					newItems.add(t);
+			}
+			Collections.sort(newItems, comparator);
+			items = newItems;
+		}
+		
+		/**
+		 * Removes each of the changed objects, and re-inserts those which are still in
+		 * the source list and are included.  Returns false if this is not possible, in 
+		 * which case the list needs to be re-filtered.
+		 */
+		private boolean applyChanges(List<ModelObject> changes){
+			if (!isIncrementalUpdateSupported() || changes.size() > MAX_INCREMENTAL_CHANGES)
+				return false;
+			
+			Map<Object, Boolean> changed = new IdentityHashMap<Object, Boolean>();
+			for (ModelObject object : changes) {
+				//A change to any other type of object may affect the sort order or
+				// inclusion of our objects, so we cannot update incrementally.
+				if (!type.isInstance(object))
+					return false;
+				changed.put(object, Boolean.FALSE);
+			}
+			
+			//Find which of the changed objects are still in the source list
+			for (T t : filteredListSource) {
+				if (changed.containsKey(t))
+					changed.put(t, Boolean.TRUE);
+			}
+			
+			List<T> newItems = new ArrayList<T>(items.size() + changed.size());
+			for (T t : items) {
+				if (!changed.containsKey(t))
+					newItems.add(t);
+			}
+			for (Map.Entry<Object, Boolean> entry : changed.entrySet()) {
+				T t = type.cast(entry.getKey());
+				if (entry.getValue() && isIncluded(t)){
+					int index = Collections.binarySearch(newItems, t, comparator);
+					newItems.add(index < 0 ? -(index + 1) : index, t);
+				}
+			}
+			items = newItems;
+			return true;
+		}
+		
+		/**
+		 * Stops listening for changes to the document.  The list will not be updated
+		 * after this; it should be called once the list is no longer needed.  Source
+		 * lists passed to the constructor are not disposed, as they may be shared.
+		 */
+		public void dispose(){
+			listener.dispose();
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			return getItems().contains(o);
+		}
+		@Override
+		public boolean containsAll(Collection<?> c) {
+			return getItems().containsAll(c);
+		}
+		@Override
+		public T get(int index) {
+			List<T> items = getItems();
+			if (index < items.size())
+				return items.get(index);
+			return null;
+		}
+		@Override
+		public int indexOf(Object o) {
+			return getItems().indexOf(o);
+		}
+		@Override
+		public boolean isEmpty() {
+			return getItems().isEmpty();
+		}
+		@Override
+		public Iterator<T> iterator() {
+			return Collections.unmodifiableList(getItems()).iterator();
+		}
+		@Override
+		public int lastIndexOf(Object o) {
+			return getItems().lastIndexOf(o);
+		}
+		@Override
+		public ListIterator<T> listIterator() {
+			return Collections.unmodifiableList(getItems()).listIterator();
+		}
+		@Override
+		public ListIterator<T> listIterator(int index) {
+			return Collections.unmodifiableList(getItems()).listIterator(index);
+		}
+		@Override
+		public int size() {
+			return getItems().size();
+		}
+		@Override
+		public List<T> subList(int fromIndex, int toIndex) {
+			return Collections.unmodifiableList(getItems()).subList(fromIndex, toIndex);
+		}
+		@Override
+		public Object[] toArray() {
+			return getItems().toArray();
+		}
+		@SuppressWarnings("hiding")
+		@Override
+		public <T> T[] toArray(T[] a) {
+			return getItems().toArray(a);
+		}
+		@Override
+		public String toString() {
+			return getItems().toString();
+		}
+	}
+	
+	/**
+	 * The same ordering as FilteredList uses: natural order where possible, and 
+	 * string order otherwise.
+	 */
+	private static final Comparator<Object> comparator = new Comparator<Object>(){
+		@SuppressWarnings("unchecked")
+		public int compare(Object o1, Object o2) {
+			if (o1 == null && o2 == null)
+				return 0;
+			if (o1 == null && o2 != null)
+				return -1;
+			if (o1 != null && o2 == null)
+				return 1;
+			if (o1 instanceof Comparable && o2 instanceof Comparable)
+				return ((Comparable<Object>) o1).compareTo(o2);
+			return o1.toString().compareTo(o2.toString());
+		}
+	};
+	
+	/**
+	 * The listener for BuddiFilteredList.  This must not be an inner class, as it
+	 * must only hold a weak reference to the list.
+	 */
+	private static class FilteredListListener extends WeakListListener<BuddiFilteredList<?>> {
+		public FilteredListListener(Document model, BuddiFilteredList<?> list) {
+			super(model, list);
+		}
+		
+		@Override
+		protected void update(BuddiFilteredList<?> list) {
+			list.documentChanged();
 		}
 	}
+	
+	/**
+	 * Returns the number of filtered and wrapper lists which are currently listening
+	 * for document changes.  This is a diagnostic, to help verify that lists are 
+	 * being released, and that the number of listeners does not grow over time.
+	 */
+	public static int getLiveListenerCount(){
+		return WeakListListener.getLiveCount();
+	}
+
+	/**
+	 * Returns the number of filtered and wrapper lists which are currently listening
+	 * for changes to the given document.  This is a diagnostic, for the unit tests,
+	 * which are not affected by lists that other documents have not released yet.
+	 */
+	public static int getLiveListenerCount(Document model){
+		return WeakListListener.getLiveCount(model);
+	}
 
 	/**
 	 * Returns a list of all transactions which are associated with a given source
@@ -71,7 +349,7 @@ public class FilteredLists {
 		private final Source source;
 
 		public TransactionListFilteredBySource(Document model, List<Transaction> transactions, Source source){
-			super(model, transactions);
+			super(model, transactions, Transaction.class);
 			this.source = source;
 		}
 
@@ -116,7 +394,7 @@ public class FilteredLists {
 		private Date today = DateUtil.getStartOfDay(new Date());
 		
 		public ScheduledTransactionListFilteredByBeforeToday(Document model, List<ScheduledTransaction> transactions){
-			super(model, transactions);
+			super(model, transactions, ScheduledTransaction.class);
 		}
 
 		@Override
@@ -145,7 +423,7 @@ public class FilteredLists {
 		private final Date endDate;
 
 		public TransactionListFilteredByDate(Document model, List<Transaction> transactions, Date startDate, Date endDate){
-			super(model, transactions);
+			super(model, transactions, Transaction.class);
 			this.startDate = startDate;
 			this.endDate = endDate;
 		}
@@ -167,17 +445,30 @@ public class FilteredLists {
 	 * @author wyatt
 	 *
 	 */
-	private final static Map<String, List<Transaction>> transactionsBySearchMap = new HashMap<String, List<Transaction>>();
+	private final static Map<String, WeakReference<TransactionListFilteredBySearch>> transactionsBySearchMap = new HashMap<String, WeakReference<TransactionListFilteredBySearch>>();
 	public static List<Transaction> getTransactionsBySearch(Document model, Source associatedSource, List<Transaction> transactions) {
-		String key = model.getUid() + transactions.hashCode() + (associatedSource == null ? associatedSource : associatedSource.getUid());
-		if (transactionsBySearchMap.get(key) == null){
-			transactionsBySearchMap.put(key, new TransactionListFilteredBySearch(model, associatedSource, transactions));
+		//We key on the identity of the transactions list, not its contents; the list
+		// contents (and thus its hashCode) change every time a transaction is edited.
+		String key = model.getUid() + System.identityHashCode(transactions) + (associatedSource == null ? associatedSource : associatedSource.getUid());
+		synchronized (transactionsBySearchMap) {
+			//Remove any lists which are no longer in use, so that the map does not grow
+			for (Iterator<WeakReference<TransactionListFilteredBySearch>> i = transactionsBySearchMap.values().iterator(); i.hasNext(); ) {
+				if (i.next().get() == null)
+					i.remove();
+			}
+			
+			WeakReference<TransactionListFilteredBySearch> ref = transactionsBySearchMap.get(key);
+			TransactionListFilteredBySearch list = (ref == null ? null : ref.get());
+			if (list == null || list.transactions != transactions){
+				list = new TransactionListFilteredBySearch(model, associatedSource, transactions);
+				transactionsBySearchMap.put(key, new WeakReference<TransactionListFilteredBySearch>(list));
+			}
+			return list;
 		}
-		
-		return transactionsBySearchMap.get(key);
 	}
 	public static class TransactionListFilteredBySearch extends BuddiFilteredList<Transaction> {
 		private final Document model;
+		private final List<Transaction> transactions;
 		private String searchText;
 		private TransactionDateFilterKeys dateFilter;
 		private TransactionClearedFilterKeys clearedFilter;
@@ -185,8 +476,9 @@ public class FilteredLists {
 		private final Source associatedSource;
 
 		private TransactionListFilteredBySearch(Document model, Source associatedSource, List<Transaction> transactions){
-			super(model, transactions);
+			super(model, transactions, Transaction.class);
 			this.model = model;
+			this.transactions = transactions;
 			this.associatedSource = associatedSource;
 		}
 		public void setDateFilter(TransactionDateFilterKeys dateFilter) {
@@ -202,6 +494,105 @@ public class FilteredLists {
 			this.searchText = searchText;
 		}
 		
+		/**
+		 * Returns a search for the given text, which can be run on a background thread
+		 * and then given to applySearch().  This must be called on the same thread as
+		 * changes are made to the document (i.e., the event dispatch thread).  Returns
+		 * null if the search cannot be run in the background, in which case you must
+		 * call setSearchText() instead.
+		 * @param searchText
+		 * @return
+		 */
+		public Search createSearch(String searchText){
+			if (!(model instanceof DocumentImpl))
+				return null;
+			
+			//We bring the index up to date here, as the document may change while the 
+			// search is running.  Anything which changes after this is picked up when 
+			// the list next replays the change log.  The transactions themselves are 
+			// only read here; the search just looks them up in the index.
+			long changeCount = ((DocumentImpl) model).getChangeCount();
+			TransactionSearchIndex index = ((DocumentImpl) model).getSearchIndex();
+			index.update();
+			List<Transaction> candidates = new ArrayList<Transaction>();
+			for (Transaction t : filteredListSource) {
+				if (isIncluded(t, null, false))
+					candidates.add(t);
+			}
+			Collections.sort(candidates, comparator);
+			return new Search(searchText, candidates, index, changeCount, getUpdateCount());
+		}
+		
+		/**
+		 * Sets the search text, and uses the results of the given search for the 
+		 * list contents.  Returns false if the filters have changed since the search 
+		 * was created, in which case the list is filtered again when it is next accessed.
+		 * @param search
+		 * @param results The value returned from search.run()
+		 * @return
+		 */
+		public synchronized boolean applySearch(Search search, List<Transaction> results){
+			this.searchText = search.getSearchText();
+			if (results == null)
+				return false;
+			return setItems(results, search.changeCount, search.updateCount);
+		}
+		
+		/**
+		 * A search of a copy of the transactions list; see createSearch().  The 
+		 * candidates have already been checked against the other filters, and are
+		 * in order.
+		 */
+		public class Search {
+			private final String searchText;
+			private final List<Transaction> candidates;
+			private final TransactionSearchIndex index;
+			private final long changeCount;
+			private final long updateCount;
+			private volatile boolean cancelled;
+			
+			private Search(String searchText, List<Transaction> candidates, TransactionSearchIndex index, long changeCount, long updateCount) {
+				this.searchText = searchText;
+				this.candidates = candidates;
+				this.index = index;
+				this.changeCount = changeCount;
+				this.updateCount = updateCount;
+			}
+			
+			public String getSearchText() {
+				return searchText;
+			}
+			
+			/**
+			 * Stops the search, if it is running.  run() will return null.
+			 */
+			public void cancel(){
+				cancelled = true;
+			}
+			
+			public boolean isCancelled() {
+				return cancelled;
+			}
+			
+			/**
+			 * Returns the transactions which match the search text and the current 
+			 * filters, or null if the search was cancelled.  This does not read or change
+			 * the transactions or the list, and can be called from any thread.
+			 * @return
+			 */
+			public List<Transaction> run(){
+				List<Transaction> results = new ArrayList<Transaction>();
+				for (int i = 0; i < candidates.size(); i++) {
+					if (i % 1024 == 0 && cancelled)
+						return null;
+					Transaction t = candidates.get(i);
+					if (searchText == null || index.matches(t, searchText, false))
+						results.add(t);
+				}
+				return (cancelled ? null : results);
+			}
+		}
+		
 		/**
 		 * Is the current list filtered?  This is a relatively expensive operation, as
 		 * we need to get the list of transactions associated with the given source
@@ -227,11 +618,15 @@ public class FilteredLists {
 		
 		@Override
 		public boolean isIncluded(Transaction t) {
+			return isIncluded(t, searchText, true);
+		}
+		
+		private boolean isIncluded(Transaction t, String searchText, boolean updateIndex) {
 			if (t == null || t.getTo() == null | t.getFrom() == null){
 				return false;		
 			}
 
-			return acceptDate(t) && acceptText(t) && acceptCleared(t) && acceptReconciled(t);
+			return acceptDate(t) && acceptText(t, searchText, updateIndex) && acceptCleared(t) && acceptReconciled(t);
 		}
 		
 		private boolean acceptCleared(Transaction t){
@@ -352,11 +747,14 @@ public class FilteredLists {
 			}
 		}
 
-		private boolean acceptText(Transaction t) {
+		private boolean acceptText(Transaction t, String searchText, boolean updateIndex) {
 			if (searchText == null || searchText.length() == 0) {
 				return true;
 			}
-			String decimal = Formatter.getDecimalFormat().format(100).replaceAll("\\d", "");
+			if (model instanceof DocumentImpl)
+				return ((DocumentImpl) model).getSearchIndex().matches(t, searchText, updateIndex);
+			
+			String decimal = Formatter.formatDecimal(100, 2).replaceAll("\\d", "");
 			return (searchText == null
 					|| searchText.length() == 0
 					|| t == null 
@@ -366,7 +764,7 @@ public class FilteredLists {
 					|| (t.getFrom() != null && t.getFrom().getName() != null && t.getFrom().getName().toLowerCase().contains(searchText.toLowerCase()))
 					|| (t.getTo() != null && t.getTo().getName() != null && t.getTo().getName().toLowerCase().contains(searchText.toLowerCase()))
 					|| TextFormatter.getFormattedCurrency(t.getAmount()).replaceAll("[^\\d" + decimal + "]", "").contains(searchText.toLowerCase()))
-					|| TextFormatter.getDateFormat().format(t.getDate()).toLowerCase().contains(searchText.toLowerCase());
+					|| TextFormatter.getFormattedDate(t.getDate()).toLowerCase().contains(searchText.toLowerCase());
 
 		}	
 	}
@@ -379,7 +777,7 @@ public class FilteredLists {
 		private final AccountType type;
 
 		public AccountListFilteredByType(Document model, List<Account> accounts, AccountType type) {
-			super(model, accounts);
+			super(model, accounts, Account.class);
 			this.type = type;
 		}
 
@@ -400,7 +798,7 @@ public class FilteredLists {
 	 */
 	public static class AccountListFilteredByDeleted extends BuddiFilteredList<Account> {
 		public AccountListFilteredByDeleted(Document model, List<Account> accounts) {
-			super(model, accounts);
+			super(model, accounts, Account.class);
 		}
 
 		@Override
@@ -420,9 +818,14 @@ public class FilteredLists {
 		private final Document model;
 
 		public TypeListFilteredByAccounts(Document model) {
-			super(model, model.getAccountTypes());
+			super(model, model.getAccountTypes(), AccountType.class);
 			this.model = model;
 		}
+		
+		@Override
+		protected boolean isIncrementalUpdateSupported() {
+			return false;
+		}
 
 		@Override
 		public boolean isIncluded(AccountType object) {
@@ -442,9 +845,15 @@ public class FilteredLists {
 		private final BudgetCategory parent;
 
 		public BudgetCategoryListFilteredByChildren(Document model, List<BudgetCategory> budgetCategories, BudgetCategory parent) {
-			super(model, budgetCategories);
+			super(model, budgetCategories, BudgetCategory.class);
 			this.parent = parent;
 		}
+		
+		@Override
+		protected boolean isIncrementalUpdateSupported() {
+			//Changing the parent of one category changes the inclusion of its descendants
+			return false;
+		}
 
 		@Override
 		public boolean isIncluded(BudgetCategory object) {
@@ -468,7 +877,7 @@ public class FilteredLists {
 		private final BudgetCategory parent;
 
 		public BudgetCategoryListFilteredByParent(Document model, List<BudgetCategory> budgetCategories, BudgetCategory parent) {
-			super(model, budgetCategories);
+			super(model, budgetCategories, BudgetCategory.class);
 			this.parent = parent;
 		}
 
@@ -490,7 +899,7 @@ public class FilteredLists {
 	 */
 	public static class BudgetCategoryListFilteredByDeleted extends BuddiFilteredList<BudgetCategory> {
 		public BudgetCategoryListFilteredByDeleted(Document model, List<BudgetCategory> budgetCategories) {
-			super(model, budgetCategories);
+			super(model, budgetCategories, BudgetCategory.class);
 		}
 
 		@Override
@@ -510,7 +919,7 @@ public class FilteredLists {
 		private final BudgetCategoryType type;
 
 		public BudgetCategoryListFilteredByPeriodType(Document model, BudgetCategoryType type) {
-			super(model, model.getBudgetCategories());
+			super(model, model.getBudgetCategories(), BudgetCategory.class);
 			this.type = type;
 		}
 
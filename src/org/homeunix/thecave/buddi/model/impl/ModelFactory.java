@@ -3,7 +3,7 @@
  */
 package org.homeunix.thecave.buddi.model.impl;
 
-import java.beans.XMLDecoder;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -12,6 +12,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.swing.JOptionPane;
@@ -34,10 +35,16 @@ import org.homeunix.thecave.buddi.model.Source;
 import org.homeunix.thecave.buddi.model.Split;
 import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
 import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
 import org.homeunix.thecave.buddi.plugin.api.exception.ModelException;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableDocument;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.ImmutableDocumentImpl;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.MappedDocumentImpl;
 import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
+import org.homeunix.thecave.buddi.util.BackupStore;
 import org.homeunix.thecave.buddi.util.BuddiCryptoFactory;
+import org.homeunix.thecave.buddi.util.LoadPipeline;
 import org.homeunix.thecave.buddi.util.OperationCancelledException;
 import org.homeunix.thecave.buddi.view.dialogs.BuddiPasswordDialog;
 
@@ -59,6 +66,10 @@ public class ModelFactory {
 
 	public static Map<String, BudgetCategoryType> budgetPeriodTypes;
 
+	//Reports and exports read documents with at least this many transactions from
+	// a memory mapped copy; see getReadOnlyDocument().
+	private static final int MIN_MAPPED_TRANSACTIONS = 50000;
+
 	/**
 	 * Returns the budget category type of the given type, or null if it 
 	 * does not exist.
@@ -178,6 +189,7 @@ public class ModelFactory {
 				try {
 					document = createDocument(getAutoSaveLocation(null));
 					document.setFile(null);
+					((DocumentImpl) document).getJournal().stop();
 					document.setChanged();
 					Logger.getLogger(ModelFactory.class.getName()).info("User decided to load AutoSave file");
 					return document;
@@ -244,28 +256,16 @@ public class ModelFactory {
 	/**
 	 * Attempts to load a data model from file.  Works with Buddi 3 format.  To load a
 	 * legacy format, use ModelConverter to get a Bean object, and call the constructor which
-	 * takes a DataModelBean.
+	 * takes a DataModelBean.  If there are autosaved changes for the file, the user is
+	 * asked if they should be loaded.
 	 * @param file File to load
 	 * @throws DocumentLoadException
 	 */
 	public static Document createDocument(File file) throws DocumentLoadException, OperationCancelledException {
-		DocumentImpl document;
-
-		//Which file to actually load from.  Initially set to the given file, but
-		// this may be changed if we find an autosave document and the user wants 
-		// to load it.
-		File fileToLoad = file;
-
-		if (file == null)
-			throw new DocumentLoadException("Error loading model: specfied file is null.");
-
-		if (!file.exists())
-			throw new DocumentLoadException("File " + file + " does not exist.");
-
-		if (!file.canRead())
-			throw new DocumentLoadException("File " + file + " cannot be opened for reading.");
-
-		if (getAutoSaveLocation(file).exists() && getAutoSaveLocation(file).canRead()){
+		boolean useAutoSave = false;
+		if (file != null 
+				&& ((getAutoSaveLocation(file).exists() && getAutoSaveLocation(file).canRead()) 
+						|| DocumentJournal.getBaseType(getJournalLocation(file)) >= 0)){
 			Logger.getLogger(ModelFactory.class.getName()).info("Autosave file found; prompting user if we should use it or not");
 
 			String[] options = new String[2];
@@ -282,37 +282,104 @@ public class ModelFactory {
 					options,
 					options[0]
 			) == 0) {  //The index of the Yes button.
-				fileToLoad = getAutoSaveLocation(file);
+				useAutoSave = true;
 				Logger.getLogger(ModelFactory.class.getName()).info("User decided to load AutoSave file");
 			}
 			else {
 				Logger.getLogger(ModelFactory.class.getName()).info("User decided not to load AutoSave file.  It will be removed the next time this file is saved.");
 			}
 		}
+		
+		return createDocument(file, useAutoSave);
+	}
+
+	/**
+	 * Attempts to load a data model from file, without prompting about autosaved changes.
+	 * If useAutoSave is true, and there is an autosave file and / or autosave journal
+	 * for the file, the autosaved version of the document is loaded instead.
+	 * @param file File to load
+	 * @param useAutoSave Whether to load the autosaved changes, if any
+	 * @throws DocumentLoadException
+	 */
+	public static Document createDocument(File file, boolean useAutoSave) throws DocumentLoadException, OperationCancelledException {
+		DocumentImpl document;
+
+		if (file == null)
+			throw new DocumentLoadException("Error loading model: specfied file is null.");
+
+		if (!file.exists())
+			throw new DocumentLoadException("File " + file + " does not exist.");
+
+		if (!file.canRead())
+			throw new DocumentLoadException("File " + file + " cannot be opened for reading.");
+
+		//Which file to actually load from.  Initially set to the given file, but
+		// this may be changed if we find an autosave document and the user wants 
+		// to load it.
+		File fileToLoad = file;
+
+		//The journal of changes since the last full save, if any, and the type of file
+		// it applies to.  See DocumentJournal.
+		File journal = null;
+		byte journalBaseType = DocumentJournal.BASE_DATA_FILE;
+		//True if there is an old journal which the user chose not to recover, or which
+		// does not apply to the file we load
+		boolean retainJournal = false;
+
+		if (useAutoSave){
+			//If there is a journal, it says which file it applies to; otherwise, we 
+			// just load the autosave file (if there is one).  An autosave file which 
+			// was written after the journal replaces it; this happens when the user
+			// chose not to recover the journal, and then made more changes.
+			byte existingJournalBaseType = DocumentJournal.getBaseType(getJournalLocation(file));
+			if (existingJournalBaseType >= 0 
+					&& !(getAutoSaveLocation(file).exists() && getAutoSaveLocation(file).lastModified() > getJournalLocation(file).lastModified())){
+				journal = getJournalLocation(file);
+				journalBaseType = existingJournalBaseType;
+			}
+			else if (getAutoSaveLocation(file).exists() && getAutoSaveLocation(file).canRead()){
+				journalBaseType = DocumentJournal.BASE_AUTOSAVE_FILE;
+			}
+			if (journalBaseType == DocumentJournal.BASE_AUTOSAVE_FILE)
+				fileToLoad = getAutoSaveLocation(file);
+		}
+		else {
+			//Any old journal is kept until the file is next saved, so that the changes
+			// in it are not lost before then.
+			retainJournal = getJournalLocation(file).exists();
+		}
 
 		Logger.getLogger(ModelFactory.class.getName()).finest("Trying to load file " + fileToLoad);
 
 		try {
-			InputStream is;
 			BuddiCryptoFactory factory = new BuddiCryptoFactory();
 			char[] password = null;
 
 			//Loop until the user gets the password correct, hits cancel, 
-			// or some other error occurs.
+			// or some other error occurs.  Only the header of the file is read
+			// before the password is verified, so retrying is cheap.
 			while (true) {
 				try {
-					is = factory.getDecryptedStream(new FileInputStream(fileToLoad), password);
+					LoadPipeline pipeline = new LoadPipeline(fileToLoad, password, factory);
 
-					//Attempt to decode the XML within the (now hopefully un-encrypted) data file. 
-					XMLDecoder decoder = new XMLDecoder(is);
-					Object o = decoder.readObject();
-					if (o instanceof DocumentImpl){
-						document = (DocumentImpl) o;
+					//Attempt to decode the data file, while it is being decrypted
+					// and decompressed in the background.
+					try {
+						document = readDocument(pipeline.getInputStream());
+					}
+					finally {
+						pipeline.close();
 					}
-					else {
-						throw new IncorrectDocumentFormatException("Could not find a DataModelBean object in the data file!");
+					Logger.getLogger(ModelFactory.class.getName()).info(pipeline.toString());
+
+					//Apply any changes which were autosaved to the journal
+					if (journal != null){
+						int entries = DocumentJournal.replay(document, journal, fileToLoad, password);
+						if (entries >= 0)
+							Logger.getLogger(ModelFactory.class.getName()).info("Applied " + entries + " autosaved changes from " + journal);
+						else
+							retainJournal = true;	//It does not apply here; don't add to it either
 					}
-					is.close();
 
 					//Refresh the UID Map...
 					document.refreshUidMap();
@@ -402,6 +469,28 @@ public class ModelFactory {
 					document.setChanged();
 					document.resetChanged();
 
+					//Keep the older years of transactions on disk, if the user asked us to.
+					int archiveYears = PrefsModel.getInstance().getArchiveTransactionYears();
+					if (archiveYears > 0){
+						try {
+							document.archiveTransactions(DateUtil.getYear(new Date()) - archiveYears);
+						}
+						catch (ModelException me){
+							Logger.getLogger(ModelFactory.class.getName()).log(Level.WARNING, "Unable to archive old transactions; keeping them in memory", me);
+						}
+					}
+
+					//Autosaves from now on are appended to the journal, which (along with 
+					// the file it applies to) already contains what we just loaded.
+					if (retainJournal)
+						document.getJournal().retain(getJournalLocation(file));
+					else
+						document.getJournal().start(
+								getJournalLocation(file), 
+								(journalBaseType == DocumentJournal.BASE_AUTOSAVE_FILE ? getAutoSaveLocation(file) : file),
+								journalBaseType, 
+								document.getChangeCount());
+
 					//Return to calling code... the model is correctly loaded.
 					return document;
 				}
@@ -436,6 +525,40 @@ public class ModelFactory {
 		}
 	}
 
+	/**
+	 * Reads a document from the given (already decrypted) stream.  The format is
+	 * detected from the first few bytes: documents written by BinaryDocumentWriter
+	 * start with its magic header, and everything else is read as the XMLEncoder
+	 * format by the XMLDocumentReader.
+	 * Binary documents will have the BINARY_FORMAT flag set, so that they are saved
+	 * in the same format they were loaded in.
+	 * @param is
+	 * @return
+	 * @throws IOException
+	 * @throws IncorrectDocumentFormatException
+	 */
+	private static DocumentImpl readDocument(InputStream is) throws IOException, IncorrectDocumentFormatException {
+		BufferedInputStream bis = new BufferedInputStream(is);
+		byte[] header = new byte[BinaryDocumentWriter.MAGIC.length];
+		bis.mark(header.length);
+		int read = 0;
+		while (read < header.length){
+			int count = bis.read(header, read, header.length - read);
+			if (count < 0)
+				break;
+			read += count;
+		}
+		bis.reset();
+
+		if (BinaryDocumentReader.isBinaryFormat(header)){
+			DocumentImpl document = new BinaryDocumentReader(bis).read();
+			document.setFlag(Document.BINARY_FORMAT, true);
+			return document;
+		}
+
+		return new XMLDocumentReader(bis).read();
+	}
+
 	/**
 	 * Attempts to import a data model from extracted XML file.  Works with Buddi 3 extracted format.
 	 * @param file File to load
@@ -453,15 +576,8 @@ public class ModelFactory {
 		try {
 			InputStream is = new FileInputStream(file);
 			
-			//Attempt to decode the XML within the (now hopefully un-encrypted) data file. 
-			XMLDecoder decoder = new XMLDecoder(is);
-			Object o = decoder.readObject();
-			if (o instanceof DocumentImpl){
-				document = (DocumentImpl) o;
-			}
-			else {
-				throw new IncorrectDocumentFormatException("Could not find a DataModelBean object in the data file!");
-			}
+			//Attempt to decode the (now hopefully un-encrypted) data file. 
+			document = readDocument(is);
 			is.close();
 
 			//Refresh the UID Map...
@@ -565,4 +681,126 @@ public class ModelFactory {
 			return new File(autoSaveLocationString);
 		}
 	}
+
+	/**
+	 * Returns the location of the autosave journal for the given base file.  This
+	 * is the auto save file location, with .journal appended.
+	 * @param baseFile
+	 * @return
+	 */
+	public static File getJournalLocation(File baseFile){
+		return new File(getAutoSaveLocation(baseFile).getAbsolutePath() + Const.JOURNAL_FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns the location of the read only columnar copy of the given data file,
+	 * used by createMappedDocument().  This is the data file with the extension
+	 * changed from .buddi3 to .buddi3columns.
+	 * @param baseFile
+	 * @return
+	 */
+	public static File getColumnsLocation(File baseFile){
+		return new File(baseFile.getAbsolutePath().replaceAll(Const.DATA_FILE_EXTENSION + "$", "") + Const.COLUMNS_FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns a read only view of the given data file, for running reports and 
+	 * exports against large files.  The transactions are read from a memory mapped 
+	 * columnar copy of the file (see ColumnarDocument), so they take almost no heap.
+	 * 
+	 * If the columnar copy is missing, or was made from an earlier version of the 
+	 * data file, the data file is loaded once to write it again.  The view shows 
+	 * the data file as it was last saved, without any autosaved changes.
+	 * 
+	 * The columnar copy is not encrypted, so this is not available for encrypted 
+	 * data files.
+	 * @param file
+	 * @return
+	 * @throws DocumentLoadException If the file cannot be read, or is encrypted.
+	 */
+	public static ImmutableDocument createMappedDocument(File file) throws DocumentLoadException {
+		if (file == null || !file.exists() || !file.canRead())
+			throw new DocumentLoadException("File " + file + " cannot be opened for reading.");
+
+		File columnsFile = getColumnsLocation(file);
+		try {
+			if (!ColumnarDocument.isCopyOf(columnsFile, file)){
+				DocumentImpl document;
+				LoadPipeline pipeline = new LoadPipeline(file, null, new BuddiCryptoFactory());
+				try {
+					document = readDocument(pipeline.getInputStream());
+				}
+				finally {
+					pipeline.close();
+				}
+				ColumnarDocument.write(document, file, columnsFile);
+				Logger.getLogger(ModelFactory.class.getName()).info("Wrote read only copy of " + file + " to " + columnsFile);
+			}
+			return new MappedDocumentImpl(ColumnarDocument.open(columnsFile));
+		}
+		catch (IncorrectPasswordException ipe){
+			throw new DocumentLoadException("File " + file + " is encrypted, and cannot be opened read only.", ipe);
+		}
+		catch (IncorrectDocumentFormatException idfe){
+			throw new DocumentLoadException(idfe);
+		}
+		catch (CipherException ce){
+			throw new DocumentLoadException(ce);
+		}
+		catch (IOException ioe){
+			throw new DocumentLoadException(ioe);
+		}
+	}
+
+	/**
+	 * Returns the document to pass to report and export plugins.  Large documents
+	 * which are saved without a password, and have not changed since, are read 
+	 * from the memory mapped copy of the data file (see createMappedDocument()),
+	 * so that the plugin does not have to go through the document itself.  All
+	 * other documents, or any which cannot be mapped, are wrapped as they are.
+	 * 
+	 * The first report after each save writes the columnar copy, which takes 
+	 * about as long as loading the file.
+	 * @param document
+	 * @return
+	 */
+	public static ImmutableDocument getReadOnlyDocument(Document document){
+		if (document instanceof DocumentImpl 
+				&& document.getFile() != null 
+				&& !document.isChanged() 
+				&& !((DocumentImpl) document).isEncrypted()
+				&& document.getTransactions().size() >= MIN_MAPPED_TRANSACTIONS){
+			try {
+				//Make sure that the data file has everything which is in the document
+				((DocumentImpl) document).waitUntilFinishedSaving();
+				if (!document.isChanged())
+					return createMappedDocument(document.getFile());
+			}
+			catch (InterruptedException ie){
+				Thread.currentThread().interrupt();
+			}
+			catch (DocumentLoadException dle){
+				Logger.getLogger(ModelFactory.class.getName()).log(Level.WARNING, "Unable to map " + document.getFile() + "; using the open document instead", dle);
+			}
+		}
+		return new ImmutableDocumentImpl(document);
+	}
+
+	/**
+	 * Returns the rotating backups for the given data file.  These are kept in the
+	 * same folder as the data file, unless the backup location has been set in
+	 * the preferences.
+	 * @param dataFile
+	 * @return
+	 */
+	public static BackupStore getBackupStore(File dataFile){
+		final String fileBase;
+		if (PrefsModel.getInstance().getBackupLocation() == null || PrefsModel.getInstance().getBackupLocation().trim().length() == 0){
+			fileBase = dataFile.getAbsolutePath().replaceAll(Const.DATA_FILE_EXTENSION + "$", "");
+		}
+		else {
+			fileBase = new File(PrefsModel.getInstance().getBackupLocation() + "/" + dataFile.getName().replaceAll(Const.DATA_FILE_EXTENSION + "$", "")).getAbsolutePath();
+		}
+		return new BackupStore(fileBase, PrefsModel.getInstance().getNumberOfBackups());
+	}
 }
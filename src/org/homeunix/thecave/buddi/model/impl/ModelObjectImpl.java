@@ -9,6 +9,7 @@ import java.util.UUID;
 
 import org.homeunix.thecave.buddi.model.Document;
 import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableModelObject;
 
 /**
  * The class from which most other model objects descend from.  You should not 
@@ -22,10 +23,27 @@ public abstract class ModelObjectImpl implements ModelObject {
 	protected Time modifiedTime;
 	protected String uid;
 	protected Document document;
+	
+	//The plugin API wrapper for this object; see WrapperLists.getWrapper().
+	// This is not part of the bean, so it is not saved or cloned.
+	private ImmutableModelObject wrapper;
 		
 	public void setChanged(){
 		setModified(new Time());
-		if (document != null)
+		if (document instanceof DocumentImpl)
+			((DocumentImpl) document).setChanged(this);
+		else if (document != null)
+			document.setChanged();
+	}
+	/**
+	 * Like setChanged(), but for values which are worked out from the rest of 
+	 * the document, such as balances; see DocumentImpl.setDerivedChanged().
+	 */
+	void setDerivedChanged(){
+		setModified(new Time());
+		if (document instanceof DocumentImpl)
+			((DocumentImpl) document).setDerivedChanged();
+		else if (document != null)
 			document.setChanged();
 	}
 	public Time getModified() {
@@ -55,6 +73,13 @@ public abstract class ModelObjectImpl implements ModelObject {
 		setChanged();
 	}
 	
+	ImmutableModelObject getWrapper() {
+		return wrapper;
+	}
+	void setWrapper(ImmutableModelObject wrapper) {
+		this.wrapper = wrapper;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof ModelObjectImpl)
@@ -41,6 +41,14 @@ public abstract class SourceImpl extends ModelObjectImpl implements Source {
 		this.notes = notes;
 		setChanged();
 	}
+	/**
+	 * Called by the document when the transactions for this source change, from
+	 * the given index (into the list returned by getDocument().getTransactions(this))
+	 * onwards.  Sources which cache running totals should override this to mark 
+	 * them as needing to be recalculated.
+	 */
+	void invalidateBalance(int fromIndex){
+	}
 	@Override
 	public String toString() {
 		return getName() + " (" + getUid() + ")";
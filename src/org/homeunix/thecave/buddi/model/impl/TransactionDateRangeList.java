@@ -0,0 +1,80 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.util.AbstractList;
+import java.util.Date;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.Transaction;
+
+/**
+ * A read only view of the transactions in a sorted transaction list which fall
+ * between startDate and endDate (inclusive).  Since transaction lists are sorted
+ * by date first, we find the start and end of the range using a binary search,
+ * instead of filtering the entire list as TransactionListFilteredByDate does.
+ *
+ * The view is live: the bounds are re-calculated whenever the document reports
+ * that its transactions have changed.
+ */
+class TransactionDateRangeList extends AbstractList<Transaction> {
+	private final DocumentImpl document;
+	private final List<Transaction> transactions;
+	private final long startTime;
+	private final long endTime;
+
+	private long version = -1;
+	private int size = -1;
+	private int fromIndex;
+	private int toIndex;
+
+	public TransactionDateRangeList(DocumentImpl document, List<Transaction> transactions, Date startDate, Date endDate) {
+		this.document = document;
+		this.transactions = transactions;
+		this.startTime = startDate.getTime();
+		this.endTime = endDate.getTime();
+	}
+
+	@Override
+	public Transaction get(int index) {
+		checkBounds();
+		if (index < 0 || index >= toIndex - fromIndex)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (toIndex - fromIndex));
+		return transactions.get(fromIndex + index);
+	}
+
+	@Override
+	public int size() {
+		checkBounds();
+		return toIndex - fromIndex;
+	}
+
+	/**
+	 * Re-calculates the bounds of the range, if the underlying list has changed
+	 * since we last calculated them.
+	 */
+	private void checkBounds(){
+		if (version == document.getTransactionsVersion() && size == transactions.size())
+			return;
+		version = document.getTransactionsVersion();
+		size = transactions.size();
+		fromIndex = firstIndexAfter(transactions, startTime - 1);
+		toIndex = firstIndexAfter(transactions, endTime);
+	}
+
+	/**
+	 * Returns the index of the first transaction whose date is strictly after the
+	 * given time, or the size of the list if there is no such transaction.  The
+	 * list must be sorted by date.
+	 */
+	static int firstIndexAfter(List<Transaction> transactions, long time){
+		int low = 0;
+		int high = transactions.size();
+		while (low < high){
+			int mid = (low + high) >>> 1;
+			if (transactions.get(mid).getDate().getTime() <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
@@ -5,7 +5,6 @@ package org.homeunix.thecave.buddi.model.impl;
 
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -47,11 +46,18 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 
 	protected boolean scheduled;
 
-	protected final Map<String, Long> balances = new HashMap<String, Long>();
+	//The running balances of the from and to sources after this transaction.
+	// These are set by AccountImpl.updateBalance(); since a transaction can only
+	// be associated with at most two accounts directly, we do not need a map.
+	protected long fromBalance;
+	protected long toBalance;
 
 	protected List<TransactionSplit> fromSplits;// = new ArrayList<TransactionSplit>();
 	protected List<TransactionSplit> toSplits;// = new ArrayList<TransactionSplit>();
 
+	//Set by DocumentImpl while this transaction is in the document's source index
+	boolean indexed;
+
 
 	@Override
 	public int compareTo(ModelObject arg0) {
@@ -89,8 +95,10 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 		return amount;
 	}
 	public long getBalance(String sourceUid) {
-		if (balances.containsKey(sourceUid))
-			return balances.get(sourceUid);
+		if (isSource(to, sourceUid))
+			return toBalance;
+		if (isSource(from, sourceUid))
+			return fromBalance;
 		return 0;
 	}
 	public Date getDate(){
@@ -138,12 +146,28 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 		return scheduled;
 	}
 	public void setAmount(long amount) {
-		if (this.amount != amount)
+		boolean changed = this.amount != amount;
+		boolean reindex = startIndexChange();
+		try {
+			this.amount = amount;
+		}
+		finally {
+			finishIndexChange(reindex);
+		}
+		if (changed)
 			setChanged();
-		this.amount = amount;
 	}
 	public void setBalance(String sourceUid, long balance) {
-		this.balances.put(sourceUid, balance);
+		if (isSource(to, sourceUid))
+			this.toBalance = balance;
+		else if (isSource(from, sourceUid))
+			this.fromBalance = balance;
+	}
+	private static boolean isEqual(Object o1, Object o2){
+		return (o1 == null ? o2 == null : o1.equals(o2));
+	}
+	private static boolean isSource(Source source, String sourceUid){
+		return source != null && !(source instanceof Split) && source.getUid().equals(sourceUid);
 	}
 	public void setClearedFrom(boolean cleared) {
 		if (this.clearedFrom != cleared)
@@ -184,31 +208,59 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 		}
 	}
 	public void setDate(Date date) {
-		if (this.date != null && this.date.equals(date))
+		boolean changed = this.date == null || !this.date.equals(date);
+		boolean reindex = startIndexChange();
+		try {
+			this.date = new Day(date);
+		}
+		finally {
+			finishIndexChange(reindex);
+		}
+		if (changed)
 			setChanged();
-		this.date = new Day(date);
 	}
 	public void setDescription(String description) {
-		if (this.description != null && !this.description.equals(description))
+		boolean changed = !isEqual(this.description, description);
+		boolean reindex = startIndexChange();
+		try {
+			this.description = description;
+		}
+		finally {
+			finishIndexChange(reindex);
+		}
+		if (changed)
 			setChanged();
-		this.description = description;
 	}
 	public void setFrom(Source from) {
+		boolean reindex = startIndexChange();
+		try {
+			this.from = from;
+			if (this.fromSplits == null)
+				this.fromSplits = new ArrayList<TransactionSplit>();
+			this.fromSplits.clear();
+		}
+		finally {
+			finishIndexChange(reindex);
+		}
 		setChanged();
-		this.from = from;
-		if (this.fromSplits == null)
-			this.fromSplits = new ArrayList<TransactionSplit>();
-		this.fromSplits.clear();
 	}
 	public void setMemo(String memo) {
-		if (this.memo != null && !this.memo.equals(memo))
-			setChanged();
+		boolean changed = !isEqual(this.memo, memo);
 		this.memo = memo;
+		if (changed)
+			setChanged();
 	}
 	public void setNumber(String number) {
-		if (this.number != null && !this.number.equals(number))
+		boolean changed = !isEqual(this.number, number);
+		boolean reindex = startIndexChange();
+		try {
+			this.number = number;
+		}
+		finally {
+			finishIndexChange(reindex);
+		}
+		if (changed)
 			setChanged();
-		this.number = number;
 	}
 	public void setReconciledFrom(boolean reconciled) {
 		if (this.reconciledFrom != reconciled)
@@ -250,11 +302,17 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 		this.scheduled = scheduled;
 	}
 	public void setTo(Source to) {
+		boolean reindex = startIndexChange();
+		try {
+			this.to = to;
+			if (this.toSplits == null)
+				this.toSplits = new ArrayList<TransactionSplit>();
+			this.toSplits.clear();
+		}
+		finally {
+			finishIndexChange(reindex);
+		}
 		setChanged();
-		this.to = to;
-		if (this.toSplits == null)
-			this.toSplits = new ArrayList<TransactionSplit>();
-		this.toSplits.clear();
 	}
 	public boolean isDeleted() {
 		return deleted;
@@ -262,6 +320,8 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 
 	public void setDeleted(boolean deleted) {
 		setChanged();
+		if (this.deleted != deleted && indexed && document instanceof DocumentImpl)
+			((DocumentImpl) document).invalidateBalances(this);
 		this.deleted = deleted;
 	}
 
@@ -270,17 +330,26 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 	}
 
 	public void setToSplits(List<TransactionSplit> splits) throws InvalidValueException {
-		setChanged();
-		if (splits == this.toSplits) return;
-		if (this.toSplits == null)
-			this.toSplits = new ArrayList<TransactionSplit>();
-		
-		this.toSplits.clear();
-		
-		if (splits != null) {
-			this.to = new SplitImpl();
-			this.toSplits.addAll(splits);			
+		if (splits == this.toSplits) {
+			setChanged();
+			return;
+		}
+		boolean reindex = startIndexChange();
+		try {
+			if (this.toSplits == null)
+				this.toSplits = new ArrayList<TransactionSplit>();
+
+			this.toSplits.clear();
+
+			if (splits != null) {
+				this.to = new SplitImpl();
+				this.toSplits.addAll(splits);			
+			}
+		}
+		finally {
+			finishIndexChange(reindex);
 		}
+		setChanged();
 	}
 	
 	public List<TransactionSplit> getFromSplits() {
@@ -288,16 +357,46 @@ public class TransactionImpl extends ModelObjectImpl implements Transaction {
 	}
 
 	public void setFromSplits(List<TransactionSplit> splits) throws InvalidValueException {
-		setChanged();
-		if (splits == this.toSplits) return;
-		if (this.fromSplits == null)
-			this.fromSplits = new ArrayList<TransactionSplit>();
-		this.fromSplits.clear();
-		
-		if (splits != null){
-			this.from = new SplitImpl();
-			this.fromSplits.addAll(splits);			
+		if (splits == this.toSplits) {
+			setChanged();
+			return;
+		}
+		boolean reindex = startIndexChange();
+		try {
+			if (this.fromSplits == null)
+				this.fromSplits = new ArrayList<TransactionSplit>();
+			this.fromSplits.clear();
+
+			if (splits != null){
+				this.from = new SplitImpl();
+				this.fromSplits.addAll(splits);			
+			}
+		}
+		finally {
+			finishIndexChange(reindex);
 		}
+		setChanged();
+	}
+	
+	/**
+	 * Notifies the document that a field which affects sort order or source 
+	 * membership is about to change, so that it can update its indexes.
+	 * Returns true if finishIndexChange() needs to re-insert this transaction.
+	 * 
+	 * The transaction is missing from the document's lists in between, so 
+	 * finishIndexChange() must always be called (from a finally block), and 
+	 * setChanged() must not be called until afterwards; it notifies listeners,
+	 * which expect to find the transaction in the lists.
+	 */
+	private boolean startIndexChange(){
+		if (indexed && document instanceof DocumentImpl)
+			return ((DocumentImpl) document).startTransactionChange(this);
+		return false;
+	}
+	
+	private void finishIndexChange(boolean reindex){
+		if (reindex)
+			((DocumentImpl) document).finishTransactionChange(this);
 	}
 
 	Transaction clone(Map<ModelObject, ModelObject> originalToCloneMap) throws CloneNotSupportedException {
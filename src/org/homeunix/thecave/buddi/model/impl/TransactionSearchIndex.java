@@ -0,0 +1,362 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
+import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
+import org.homeunix.thecave.buddi.util.Formatter;
+
+/**
+ * A full text index of the transactions in a document, used by the search box in
+ * the transaction window (see FilteredLists.TransactionListFilteredBySearch).  A
+ * transaction matches a query if its description, number, memo, formatted date,
+ * the digits of its amount, or the name of its to or from source contain the
+ * query, ignoring case.
+ *
+ * The text fields of each transaction are lower cased and formatted once, and
+ * every three character sequence in them is indexed; a query only needs to check
+ * the transactions which contain the rarest sequence of the query.  Queries which
+ * are shorter than that just check the stored text of each transaction.  Source
+ * names are checked when the query is run, so renaming an account does not need
+ * the transactions to be indexed again; the index keeps a copy of each name, so
+ * that queries do not need to read the sources.
+ *
+ * The index is kept up to date from the document's change log; transactions
+ * which have changed are indexed again the next time a query is run.  If the
+ * changes are not known (or the date format preference changes), the index is
+ * rebuilt from scratch.
+ */
+final class TransactionSearchIndex {
+	//The length of the indexed character sequences
+	private static final int GRAM_LENGTH = 3;
+	//If more than this many transactions have changed, we rebuild the index.
+	private static final int MAX_INCREMENTAL_CHANGES = 512;
+	//Separates the fields in the stored text.  A query cannot contain this, so it
+	// can never match across two fields.
+	private static final char FIELD_SEPARATOR = '\u0000';
+
+	private final DocumentImpl document;
+
+	private final Map<Transaction, Entry> entries = new IdentityHashMap<Transaction, Entry>();
+	//Entries by id; the id of an entry which has been replaced or removed is null.
+	private final List<Entry> entriesById = new ArrayList<Entry>();
+	private final Map<Long, IntList> grams = new HashMap<Long, IntList>();
+	private final Map<Source, IntList> sources = new IdentityHashMap<Source, IntList>();
+	//The lower cased source names, as of the last refresh
+	private final Map<Source, String> sourceNames = new IdentityHashMap<Source, String>();
+
+	private String formatKey;
+	//Our own date format, which is only used while holding the lock on the index.
+	private DateFormat dateFormat;
+	private String decimal;
+	private long appliedChangeCount = -1;
+	private long version;
+
+	//The results of the last query, as entry ids
+	private String lastQuery;
+	private long lastQueryVersion;
+	private BitSet lastMatches;
+
+	TransactionSearchIndex(DocumentImpl document) {
+		this.document = document;
+	}
+
+	/**
+	 * Returns true if the transaction matches the given query.  The first call for
+	 * each query finds all the matching transactions at once, so this is meant to be
+	 * called for each transaction in a list in turn.
+	 * 
+	 * The transactions are read when the index is brought up to date, so this must
+	 * only be called with update set on the thread which changes the document.  
+	 * Other threads should pass false, after calling update() on that thread; the
+	 * transaction is then not read at all, and transactions which are not in the 
+	 * index do not match.
+	 * @param t
+	 * @param query
+	 * @param update Bring the index up to date with the document first
+	 * @return
+	 */
+	synchronized boolean matches(Transaction t, String query, boolean update){
+		if (query == null || query.length() == 0)
+			return true;
+
+		//Checking the preferences for each transaction would be slow, so we only 
+		// look for changes when the query or the document changes.
+		if (lastMatches == null || !query.equals(lastQuery) || (update && document.getChangeCount() != appliedChangeCount)){
+			if (update)
+				refresh();
+			if (lastMatches == null || lastQueryVersion != version || !query.equals(lastQuery)){
+				lastMatches = search(query.toLowerCase());
+				lastQuery = query;
+				lastQueryVersion = version;
+			}
+		}
+
+		Entry entry = entries.get(t);
+		if (entry == null){
+			//This transaction is not in the document (yet); check it directly, if
+			// we are allowed to read it.
+			return update && matches(createEntry(t, -1), query.toLowerCase());
+		}
+		return lastMatches.get(entry.id);
+	}
+
+	/**
+	 * Brings the index up to date with the document.  See matches().
+	 */
+	synchronized void update(){
+		refresh();
+	}
+
+	/**
+	 * Returns the number of transactions in the index.  This is a diagnostic, for
+	 * the unit tests.
+	 */
+	synchronized int size(){
+		refresh();
+		return entries.size();
+	}
+
+	/**
+	 * Brings the index up to date with the document.
+	 */
+	private void refresh(){
+		String key = PrefsModel.getInstance().getDateFormat() + "|" + Locale.getDefault();
+		if (!key.equals(formatKey)){
+			formatKey = key;
+			rebuild();
+			return;
+		}
+
+		long count = document.getChangeCount();
+		if (count == appliedChangeCount)
+			return;
+
+		List<ModelObject> changes = document.getChangesSince(appliedChangeCount);
+		if (changes == null || changes.size() > MAX_INCREMENTAL_CHANGES){
+			rebuild();
+			return;
+		}
+
+		//Transactions may change more than once; we only need to look at each one once.
+		Set<Transaction> changed = new HashSet<Transaction>();
+		for (ModelObject object : changes) {
+			if (object instanceof Transaction && !(object instanceof ScheduledTransaction))
+				changed.add((Transaction) object);
+		}
+		List<Transaction> transactions = document.getTransactions();
+		for (Transaction t : changed) {
+			remove(t);
+			if (transactions.contains(t))
+				add(t);
+		}
+		appliedChangeCount += changes.size();
+		updateSourceNames();
+		version++;
+
+		//Replaced entries leave their ids behind in the posting lists; once there
+		// are too many of them, it is quicker to start over.
+		if (entriesById.size() > entries.size() * 2 + 1024)
+			rebuild();
+	}
+
+	private void rebuild(){
+		entries.clear();
+		entriesById.clear();
+		grams.clear();
+		sources.clear();
+
+		dateFormat = TextFormatter.getDateFormat();
+		StringBuilder sb = new StringBuilder();
+		Formatter.appendCents(sb, 100);
+		decimal = sb.toString().replaceAll("\\d", "");
+
+		//We get the change count first, so that anything which changes while we
+		// are building is picked up the next time around.
+		appliedChangeCount = document.getChangeCount();
+		for (Transaction t : document.getTransactions()) {
+			add(t);
+		}
+		updateSourceNames();
+		version++;
+	}
+
+	private void updateSourceNames(){
+		sourceNames.clear();
+		for (Source source : sources.keySet()) {
+			if (source.getName() != null)
+				sourceNames.put(source, source.getName().toLowerCase());
+		}
+	}
+
+	private void add(Transaction t){
+		Entry entry = createEntry(t, entriesById.size());
+		entriesById.add(entry);
+		entries.put(t, entry);
+
+		Set<Long> added = new HashSet<Long>();
+		String text = entry.text;
+		for (int i = 0; i + GRAM_LENGTH <= text.length(); i++){
+			long gram = getGram(text, i);
+			if (gram >= 0 && added.add(gram))
+				getList(grams, gram).add(entry.id);
+		}
+		if (entry.from != null)
+			getList(sources, entry.from).add(entry.id);
+		if (entry.to != null && entry.to != entry.from)
+			getList(sources, entry.to).add(entry.id);
+	}
+
+	private void remove(Transaction t){
+		Entry entry = entries.remove(t);
+		if (entry != null)
+			entriesById.set(entry.id, null);
+	}
+
+	private BitSet search(String q){
+		BitSet result = new BitSet(entriesById.size());
+
+		if (q.length() >= GRAM_LENGTH){
+			//Every match must contain each sequence of the query, so we only need
+			// to check the entries which contain the rarest one.
+			IntList candidates = null;
+			for (int i = 0; i + GRAM_LENGTH <= q.length(); i++){
+				long gram = getGram(q, i);
+				IntList list = (gram < 0 ? null : grams.get(gram));
+				if (list == null){
+					candidates = new IntList();
+					break;
+				}
+				if (candidates == null || list.size < candidates.size)
+					candidates = list;
+			}
+			for (int i = 0; i < candidates.size; i++){
+				Entry entry = entriesById.get(candidates.values[i]);
+				if (entry != null && entry.text.contains(q))
+					result.set(entry.id);
+			}
+		}
+		else {
+			for (Entry entry : entriesById) {
+				if (entry != null && entry.text.contains(q))
+					result.set(entry.id);
+			}
+		}
+
+		for (Map.Entry<Source, IntList> sourceEntry : sources.entrySet()) {
+			Source source = sourceEntry.getKey();
+			String name = sourceNames.get(source);
+			if (name == null || !name.contains(q))
+				continue;
+			IntList list = sourceEntry.getValue();
+			for (int i = 0; i < list.size; i++){
+				Entry entry = entriesById.get(list.values[i]);
+				if (entry != null && (entry.from == source || entry.to == source))
+					result.set(entry.id);
+			}
+		}
+
+		return result;
+	}
+
+	private boolean matches(Entry entry, String q){
+		return entry.text.contains(q)
+				|| (entry.from != null && entry.from.getName() != null && entry.from.getName().toLowerCase().contains(q))
+				|| (entry.to != null && entry.to.getName() != null && entry.to.getName().toLowerCase().contains(q));
+	}
+
+	private Entry createEntry(Transaction t, int id){
+		StringBuilder sb = new StringBuilder();
+		if (t.getDescription() != null)
+			sb.append(t.getDescription().toLowerCase());
+		sb.append(FIELD_SEPARATOR);
+		if (t.getNumber() != null)
+			sb.append(t.getNumber().toLowerCase());
+		sb.append(FIELD_SEPARATOR);
+		if (t.getMemo() != null)
+			sb.append(t.getMemo().toLowerCase());
+		sb.append(FIELD_SEPARATOR);
+		if (t.getDate() != null)
+			sb.append(dateFormat.format(t.getDate()).toLowerCase());
+		sb.append(FIELD_SEPARATOR);
+		int start = sb.length();
+		Formatter.appendCents(sb, t.getAmount());
+		int end = start;
+		for (int i = start; i < sb.length(); i++){
+			char c = sb.charAt(i);
+			if (Character.isDigit(c) || decimal.indexOf(c) >= 0)
+				sb.setCharAt(end++, c);
+		}
+		sb.setLength(end);
+
+		return new Entry(id, sb.toString(), t.getFrom(), t.getTo());
+	}
+
+	/**
+	 * Returns the key for the sequence starting at the given index, or -1 if it
+	 * crosses a field boundary.
+	 */
+	private static long getGram(String text, int index){
+		long gram = 0;
+		for (int i = index; i < index + GRAM_LENGTH; i++){
+			char c = text.charAt(i);
+			if (c == FIELD_SEPARATOR)
+				return -1;
+			gram = (gram << 16) | c;
+		}
+		return gram;
+	}
+
+	private static <K> IntList getList(Map<K, IntList> map, K key){
+		IntList list = map.get(key);
+		if (list == null){
+			list = new IntList();
+			map.put(key, list);
+		}
+		return list;
+	}
+
+	private static class Entry {
+		private final int id;
+		private final String text;
+		private final Source from;
+		private final Source to;
+
+		public Entry(int id, String text, Source from, Source to) {
+			this.id = id;
+			this.text = text;
+			this.from = from;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * A growable list of ints, to keep the posting lists small.
+	 */
+	private static class IntList {
+		private int[] values = new int[2];
+		private int size;
+
+		public void add(int value){
+			if (size == values.length){
+				int[] newValues = new int[values.length * 2];
+				System.arraycopy(values, 0, newValues, 0, size);
+				values = newValues;
+			}
+			values[size++] = value;
+		}
+	}
+}
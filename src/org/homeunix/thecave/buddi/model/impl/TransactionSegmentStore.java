@@ -0,0 +1,315 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
+import org.homeunix.thecave.buddi.util.BuddiCryptoFactory;
+
+import ca.digitalcave.moss.crypto.CipherException;
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+import ca.digitalcave.moss.crypto.IncorrectPasswordException;
+
+/**
+ * Holds the transactions of a document which are not needed in memory, one
+ * segment file per calendar year.  Only whole years are stored, and the stored
+ * years are always all the years before a given one, so that every stored
+ * transaction comes before every transaction still in memory.
+ *
+ * For each year we keep a summary in memory: the number of transactions which
+ * refer to each source, and the net amount moved into each source (i.e. the
+ * change in an account's balance, or the negative of a budget category's
+ * actual amount).  This is enough to get the opening balances of the
+ * transactions in memory, and the balances and actuals at year boundaries,
+ * without reading the segments back.
+ *
+ * Each segment is written using BinaryDocumentWriter, encrypted with a random
+ * password which only lives as long as this store, in a temporary folder.  The
+ * segments are a cache of what is in the data file, and are deleted when the
+ * store is closed (or when Buddi exits).
+ *
+ * See DocumentImpl.archiveTransactions() for how this is used.
+ */
+class TransactionSegmentStore {
+	private static final String SEGMENT_EXTENSION = ".buddi3segment";
+
+	private final File folder;
+	private final char[] password = UUID.randomUUID().toString().toCharArray();
+	private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+	public TransactionSegmentStore() throws IOException {
+		folder = Files.createTempDirectory("buddi").toFile();
+		folder.deleteOnExit();
+	}
+
+	public boolean isEmpty(){
+		return segments.isEmpty();
+	}
+
+	/**
+	 * Returns the first year which is not stored; all transactions in memory are
+	 * in this year or later.  Only valid if the store is not empty.
+	 * @return
+	 */
+	public int getEndYear(){
+		return segments.lastKey() + 1;
+	}
+
+	/**
+	 * Returns true if the given year is stored.
+	 * @param year
+	 * @return
+	 */
+	public boolean contains(int year){
+		return segments.containsKey(year);
+	}
+
+	/**
+	 * Returns the number of stored transactions which refer to the given source.
+	 * @param source
+	 * @return
+	 */
+	public int getCount(Source source){
+		int count = 0;
+		for (Segment segment : segments.values()) {
+			Integer sourceCount = segment.counts.get(source.getUid());
+			if (sourceCount != null)
+				count += sourceCount;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the net amount which the stored (non deleted) transactions in the
+	 * given year and all years before it move into the given source.
+	 * @param source
+	 * @param year
+	 * @return
+	 */
+	public long getTotal(Source source, int year){
+		long total = 0;
+		for (Segment segment : segments.headMap(year, true).values()) {
+			Long sourceTotal = segment.totals.get(source.getUid());
+			if (sourceTotal != null)
+				total += sourceTotal;
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the given transactions, which must all be dated in the given year, to
+	 * a new segment.  The year must be after any which are already stored.
+	 * @param document
+	 * @param year
+	 * @param transactions
+	 * @throws IOException
+	 */
+	public void write(DocumentImpl document, int year, List<Transaction> transactions) throws IOException {
+		if (segments.size() > 0 && year <= segments.lastKey())
+			throw new IOException("Year " + year + " must come after the stored years");
+
+		Segment segment = new Segment(new File(folder, year + SEGMENT_EXTENSION));
+		segment.file.deleteOnExit();
+		try {
+			OutputStream os = new BuddiCryptoFactory().getEncryptedStream(new FileOutputStream(segment.file), password);
+			try {
+				new BinaryDocumentWriter(os).writeChanges(document, transactions, null);
+			}
+			finally {
+				os.close();
+			}
+		}
+		catch (CipherException ce){
+			segment.file.delete();
+			throw new IOException(ce);
+		}
+		catch (IOException ioe){
+			segment.file.delete();
+			throw ioe;
+		}
+
+		for (Transaction t : transactions) {
+			segment.add(t);
+		}
+		segments.put(year, segment);
+	}
+
+	/**
+	 * Reads the stored transactions of the given year and all later years, and
+	 * removes them from the store.  The transactions refer to the sources in the
+	 * given map of UIDs to sources, and belong to the given document.
+	 * @param year
+	 * @param document
+	 * @param sources
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Transaction> remove(int year, DocumentImpl document, Map<String, ModelObject> sources) throws IOException {
+		Map<Integer, Segment> removed = segments.tailMap(year, true);
+		List<Transaction> transactions = new ArrayList<Transaction>();
+		for (Segment segment : removed.values()) {
+			transactions.addAll(segment.read(document, sources));
+		}
+		for (Segment segment : removed.values()) {
+			segment.file.delete();
+		}
+		removed.clear();
+		return transactions;
+	}
+
+	/**
+	 * Reads all stored transactions, without removing them from the store.
+	 * @param document
+	 * @param sources
+	 * @return
+	 * @throws IOException
+	 */
+	public List<Transaction> readAll(DocumentImpl document, Map<String, ModelObject> sources) throws IOException {
+		List<Transaction> transactions = new ArrayList<Transaction>();
+		for (Segment segment : segments.values()) {
+			transactions.addAll(segment.read(document, sources));
+		}
+		return transactions;
+	}
+
+	/**
+	 * Deletes the segments of the given year and all later years, without reading
+	 * them.  This is used when archiving fails part way through, while the
+	 * transactions are still in memory.
+	 * @param year
+	 */
+	public void delete(int year){
+		Map<Integer, Segment> removed = segments.tailMap(year, true);
+		for (Segment segment : removed.values()) {
+			segment.file.delete();
+		}
+		removed.clear();
+	}
+
+	/**
+	 * Deletes all segments.
+	 */
+	public void close(){
+		for (Segment segment : segments.values()) {
+			segment.file.delete();
+		}
+		segments.clear();
+		folder.delete();
+	}
+
+	/**
+	 * A single year of transactions, and its summary.
+	 */
+	private class Segment {
+		private final File file;
+		private final Map<String, Integer> counts = new HashMap<String, Integer>();
+		private final Map<String, Long> totals = new HashMap<String, Long>();
+
+		public Segment(File file) {
+			this.file = file;
+		}
+
+		private void add(Transaction t){
+			Set<String> sources = new HashSet<String>(4);
+			if (!(t.getTo() instanceof Split)){
+				sources.add(t.getTo().getUid());
+				addTotal(t.getTo(), t, t.getAmount());
+			}
+			if (!(t.getFrom() instanceof Split)){
+				sources.add(t.getFrom().getUid());
+				addTotal(t.getFrom(), t, -t.getAmount());
+			}
+			if (t.getToSplits() != null){
+				for (TransactionSplit split : t.getToSplits()) {
+					sources.add(split.getSource().getUid());
+					addTotal(split.getSource(), t, split.getAmount());
+				}
+			}
+			if (t.getFromSplits() != null){
+				for (TransactionSplit split : t.getFromSplits()) {
+					sources.add(split.getSource().getUid());
+					addTotal(split.getSource(), t, -split.getAmount());
+				}
+			}
+			for (String uid : sources) {
+				Integer count = counts.get(uid);
+				counts.put(uid, (count == null ? 0 : count) + 1);
+			}
+		}
+
+		private void addTotal(Source source, Transaction t, long amount){
+			if (t.isDeleted())
+				return;
+			Long total = totals.get(source.getUid());
+			totals.put(source.getUid(), (total == null ? 0 : total) + amount);
+		}
+
+		private List<Transaction> read(DocumentImpl document, Map<String, ModelObject> sources) throws IOException {
+			try {
+				InputStream is = new BuddiCryptoFactory().getDecryptedStream(new BufferedInputStream(new FileInputStream(file)), password);
+				DocumentImpl segment;
+				try {
+					segment = new BinaryDocumentReader(is).read();
+				}
+				finally {
+					is.close();
+				}
+
+				//Point the transactions to the sources with the same UIDs in the document.
+				// This is not a change to the transactions, so we set the fields directly
+				// rather than through the setters, which would update the modified times.
+				List<Transaction> transactions = segment.getTransactions();
+				for (Transaction t : transactions) {
+					TransactionImpl transaction = (TransactionImpl) t;
+					transaction.document = document;
+					if (!(transaction.from instanceof Split))
+						transaction.from = (Source) sources.get(transaction.from.getUid());
+					if (!(transaction.to instanceof Split))
+						transaction.to = (Source) sources.get(transaction.to.getUid());
+					List<TransactionSplit> splits = new ArrayList<TransactionSplit>();
+					if (transaction.fromSplits != null)
+						splits.addAll(transaction.fromSplits);
+					if (transaction.toSplits != null)
+						splits.addAll(transaction.toSplits);
+					for (TransactionSplit split : splits) {
+						Time modified = ((TransactionSplitImpl) split).getModified();
+						split.setSource((Source) sources.get(split.getSource().getUid()));
+						((TransactionSplitImpl) split).setModified(modified);
+					}
+				}
+				return transactions;
+			}
+			catch (CipherException ce){
+				throw new IOException(ce);
+			}
+			catch (IncorrectPasswordException ipe){
+				throw new IOException(ipe);
+			}
+			catch (IncorrectDocumentFormatException idfe){
+				throw new IOException(idfe);
+			}
+			catch (InvalidValueException ive){
+				throw new IOException(ive);
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.homeunix.thecave.buddi.model.Document;
+
+import ca.digitalcave.moss.application.document.DocumentChangeEvent;
+import ca.digitalcave.moss.application.document.DocumentChangeListener;
+
+/**
+ * A DocumentChangeListener which refreshes a filtered or wrapper list when the
+ * document changes.
+ *
+ * The document only keeps weak references to its listeners, and this listener
+ * only keeps a weak reference to its list; the list itself must hold the only
+ * strong reference to the listener.  This means that nothing the document
+ * references can keep a list alive, and once the list is no longer used, both
+ * it and its listener can be garbage collected.  Lists which are only needed
+ * for a short time should call dispose() when they are done, so that the document
+ * stops notifying them right away, rather than whenever the GC gets around to it.
+ *
+ * We also keep track of how many listeners are currently registered, which is
+ * useful to make sure that the number of listeners stays bounded.
+ */
+abstract class WeakListListener<L> implements DocumentChangeListener {
+	private static final ReferenceQueue<Object> collectedLists = new ReferenceQueue<Object>();
+	private static final Map<Reference<?>, Document> liveLists = new HashMap<Reference<?>, Document>();
+
+	private final Document model;
+	private final WeakReference<L> list;
+
+	public WeakListListener(Document model, L list) {
+		this.model = model;
+		this.list = new WeakReference<L>(list, collectedLists);
+
+		if (model != null){
+			model.addDocumentChangeListener(this);
+			synchronized (liveLists) {
+				expungeCollectedLists();
+				liveLists.put(this.list, model);
+			}
+		}
+	}
+
+	public void documentChange(DocumentChangeEvent event) {
+		L l = list.get();
+		if (l == null)
+			dispose();
+		else
+			update(l);
+	}
+
+	/**
+	 * Called when the document changes, with the list which this listener was
+	 * created for.
+	 */
+	protected abstract void update(L list);
+
+	/**
+	 * Unregisters this listener from the document.  After this, the list will
+	 * no longer be updated when the document changes.
+	 */
+	public void dispose(){
+		if (model != null)
+			model.removeDocumentChangeListener(this);
+		synchronized (liveLists) {
+			liveLists.remove(list);
+		}
+	}
+
+	/**
+	 * Returns the number of list listeners which are currently registered with
+	 * a document, and whose list has not been disposed or garbage collected.
+	 */
+	public static int getLiveCount(){
+		synchronized (liveLists) {
+			expungeCollectedLists();
+			return liveLists.size();
+		}
+	}
+
+	/**
+	 * Returns the number of list listeners which are currently registered with
+	 * the given document, and whose list has not been disposed or garbage collected.
+	 */
+	public static int getLiveCount(Document model){
+		synchronized (liveLists) {
+			expungeCollectedLists();
+			int count = 0;
+			for (Document d : liveLists.values()) {
+				if (d == model)
+					count++;
+			}
+			return count;
+		}
+	}
+
+	private static void expungeCollectedLists(){
+		Reference<?> ref;
+		while ((ref = collectedLists.poll()) != null)
+			liveLists.remove(ref);
+	}
+}
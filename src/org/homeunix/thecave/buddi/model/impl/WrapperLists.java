@@ -3,7 +3,12 @@
  */
 package org.homeunix.thecave.buddi.model.impl;
 
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.homeunix.thecave.buddi.model.Account;
 import org.homeunix.thecave.buddi.model.AccountType;
@@ -11,6 +16,7 @@ import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.Document;
 import org.homeunix.thecave.buddi.model.ModelObject;
 import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Split;
 import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.TransactionSplit;
 import org.homeunix.thecave.buddi.plugin.api.model.ImmutableAccount;
@@ -20,37 +26,63 @@ import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableAccountImpl;
 import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableAccountTypeImpl;
 import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableBudgetCategoryImpl;
 import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableScheduledTransactionImpl;
+import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableSplitImpl;
 import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableTransactionImpl;
 import org.homeunix.thecave.buddi.plugin.api.model.impl.MutableTransactionSplitImpl;
 
-import ca.digitalcave.moss.application.document.DocumentChangeEvent;
-import ca.digitalcave.moss.application.document.DocumentChangeListener;
-import ca.digitalcave.moss.collections.WrapperList;
+import ca.digitalcave.moss.collections.exception.UnmodifiableObjectException;
 
 public class WrapperLists {
 
 	private WrapperLists() {}
 
-	private abstract static class BuddiWrapperList<T, W> extends WrapperList<T, W> {
-		private final Document model;
-		private final DocumentChangeListener listener;
-		
-		public BuddiWrapperList(Document model, List<W> wrappedList, boolean sorted) {
-			super(wrappedList, sorted);
-			this.model = model;
-			
-			listener = new DocumentChangeListener(){
-				public void documentChange(DocumentChangeEvent event) {
-					updateWrapperList();
-				}
-			};
-			
-			model.addDocumentChangeListener(listener);
-		}
+	/**
+	 * Returns the plugin API wrapper for the given model object.  The wrappers
+	 * only hold a reference to the raw object, so the first one created for each
+	 * object is kept on the object and handed out every time after that; a report
+	 * which walks the same transactions and sources over and over does not
+	 * create a new wrapper on each access.
+	 * 
+	 * Two threads asking at the same time may each get a different wrapper for
+	 * the same object; this is harmless, as equals() compares the raw objects.
+	 * @param object
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends ImmutableModelObject> T getWrapper(ModelObject object) {
+		if (object == null)
+			return null;
+		if (!(object instanceof ModelObjectImpl))
+			return (T) createWrapper(object);
 
-		public Document getDataModel(){
-			return model;
+		ModelObjectImpl impl = (ModelObjectImpl) object;
+		ImmutableModelObject wrapper = impl.getWrapper();
+		if (wrapper == null){
+			wrapper = createWrapper(object);
+			impl.setWrapper(wrapper);
 		}
+		return (T) wrapper;
+	}
+
+	private static ImmutableModelObject createWrapper(ModelObject object) {
+		if (object instanceof Account)
+			return new MutableAccountImpl((Account) object);
+		if (object instanceof BudgetCategory)
+			return new MutableBudgetCategoryImpl((BudgetCategory) object);
+		if (object instanceof Split)
+			return new MutableSplitImpl((Split) object);
+		//Check for scheduled transactions first, as they are also Transactions
+		if (object instanceof ScheduledTransaction)
+			return new MutableScheduledTransactionImpl((ScheduledTransaction) object);
+		if (object instanceof Transaction)
+			return new MutableTransactionImpl((Transaction) object);
+		if (object instanceof AccountType)
+			return new MutableAccountTypeImpl((AccountType) object);
+		if (object instanceof TransactionSplit)
+			return new MutableTransactionSplitImpl((TransactionSplit) object);
+
+		//Catch all
+		return null;
 	}
 
 //	public static class WrapperBudgetPeriodList extends BuddiWrapperList<BudgetPeriod, BudgetPeriodBean>{
@@ -69,14 +101,9 @@ public class WrapperLists {
 //	}
 //	}
 
-	public static class ImmutableAccountList extends BuddiWrapperList<ImmutableAccount, Account> {
+	public static class ImmutableAccountList extends ImmutableObjectWrapperList<ImmutableAccount, Account> {
 		public ImmutableAccountList(Document model, List<Account> wrappedList) {
-			super(model, wrappedList, true);
-		}
-
-		@Override
-		public Account getWrappedObject(ImmutableAccount object) {
-			return (Account) object.getRaw();
+			super(model, wrappedList);
 		}
 
 		@Override
@@ -85,35 +112,164 @@ public class WrapperLists {
 		}
 	}
 
-	public static class ImmutableObjectWrapperList<T extends ImmutableModelObject, W extends ModelObject> extends BuddiWrapperList<T, W> {
+	/**
+	 * A read only view of a list of model objects, which returns the wrapper for
+	 * each element as it is read.  
+	 * 
+	 * By default the view does not copy the wrapped list, or listen to the document 
+	 * for changes; it always reflects the current contents (and order) of the wrapped 
+	 * list.  The lists given to it should be ones which the document keeps, and keeps
+	 * sorted, for as long as it is open; the document's own lists are updated in 
+	 * place, and filtered lists follow the document.  Lists which are not kept 
+	 * sorted (such as a transaction's splits) can be given to the sorting 
+	 * constructor; each access then sorts a copy of the list, so this is only 
+	 * suitable for short lists.
+	 * 
+	 * The view cannot be modified.  As with the lists which this replaced, add(), 
+	 * set() and remove() throw an UnmodifiableObjectException; so do the same
+	 * methods of its iterators, which used to change a private copy of the list.
+	 */
+	public static class ImmutableObjectWrapperList<T extends ImmutableModelObject, W extends ModelObject> extends AbstractList<T> {
+		private final Document model;
+		private final List<W> wrappedList;
+		private final boolean sorted;
+
+		/**
+		 * Creates a live view of the given list, which must already be sorted.
+		 * @param model
+		 * @param wrappedList
+		 */
 		public ImmutableObjectWrapperList(Document model, List<W> wrappedList) {
-			super(model, wrappedList, true);
+			this(model, wrappedList, false);
+		}
+
+		/**
+		 * Creates a view of the given list.  If sorted is true, the elements are 
+		 * returned in their natural order, rather than the order of the list.
+		 * @param model
+		 * @param wrappedList
+		 * @param sorted
+		 */
+		public ImmutableObjectWrapperList(Document model, List<W> wrappedList, boolean sorted) {
+			this.model = model;
+			this.wrappedList = wrappedList;
+			this.sorted = sorted;
+		}
+
+		private List<W> getElements(){
+			if (!sorted)
+				return wrappedList;
+			List<W> copy = new ArrayList<W>(wrappedList);
+			try {
+				Collections.sort(copy);
+			}
+			catch (ClassCastException cce){}
+			catch (NullPointerException npe){}
+			return copy;
+		}
+
+		public Document getDataModel(){
+			return model;
 		}
 
 		@SuppressWarnings("unchecked")
-		@Override
 		public W getWrappedObject(T object) {
 			return (W) object.getRaw();
 		}
 
-		@SuppressWarnings("unchecked")
-		@Override
 		public T getWrapperObject(W object) {
-			if (object instanceof Account)
-				return (T) new MutableAccountImpl((Account) object);
-			if (object instanceof BudgetCategory)
-				return (T) new MutableBudgetCategoryImpl((BudgetCategory) object);
-			if (object instanceof Transaction)
-				return (T) new MutableTransactionImpl((Transaction) object);
-			if (object instanceof ScheduledTransaction)
-				return (T) new MutableScheduledTransactionImpl((ScheduledTransaction) object);
-			if (object instanceof AccountType)
-				return (T) new MutableAccountTypeImpl((AccountType) object);
-			if (object instanceof TransactionSplit)
-				return (T) new MutableTransactionSplitImpl((TransactionSplit) object);
-
-			//Catch all
-			return null;
+			return WrapperLists.<T>getWrapper(object);
+		}
+
+		@Override
+		public T get(int index) {
+			return getWrapperObject(getElements().get(index));
+		}
+
+		@Override
+		public int size() {
+			return wrappedList.size();
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			//The wrapped lists may be linked or filtered, so we walk them with their 
+			// own iterators rather than by index.
+			final Iterator<W> iterator = getElements().iterator();
+			return new Iterator<T>(){
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+				public T next() {
+					return getWrapperObject(iterator.next());
+				}
+				public void remove() {
+					throw new UnmodifiableObjectException("Cannot modify WrapperList");
+				}
+			};
+		}
+
+		@Override
+		public ListIterator<T> listIterator(int index) {
+			final ListIterator<T> iterator = super.listIterator(index);
+			return new ListIterator<T>(){
+				public boolean hasNext() {
+					return iterator.hasNext();
+				}
+				public T next() {
+					return iterator.next();
+				}
+				public boolean hasPrevious() {
+					return iterator.hasPrevious();
+				}
+				public T previous() {
+					return iterator.previous();
+				}
+				public int nextIndex() {
+					return iterator.nextIndex();
+				}
+				public int previousIndex() {
+					return iterator.previousIndex();
+				}
+				public void remove() {
+					throw new UnmodifiableObjectException("Cannot modify WrapperList");
+				}
+				public void set(T o) {
+					throw new UnmodifiableObjectException("Cannot modify WrapperList");
+				}
+				public void add(T o) {
+					throw new UnmodifiableObjectException("Cannot modify WrapperList");
+				}
+			};
+		}
+
+		@Override
+		public void add(int index, T element) {
+			throw new UnmodifiableObjectException("Cannot modify WrapperList");
+		}
+
+		@Override
+		public T set(int index, T element) {
+			throw new UnmodifiableObjectException("Cannot modify WrapperList");
+		}
+
+		@Override
+		public T remove(int index) {
+			throw new UnmodifiableObjectException("Cannot modify WrapperList");
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			if (o instanceof ImmutableModelObject)
+				return wrappedList.contains(((ImmutableModelObject) o).getRaw());
+			return false;
+		}
+
+		@Override
+		public int indexOf(Object o) {
+			if (o instanceof ImmutableModelObject)
+				return getElements().indexOf(((ImmutableModelObject) o).getRaw());
+			return -1;
 		}
 	}
 }
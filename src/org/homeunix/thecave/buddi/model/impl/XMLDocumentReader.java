@@ -0,0 +1,611 @@
+package org.homeunix.thecave.buddi.model.impl;
+
+import java.beans.Expression;
+import java.beans.Statement;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.homeunix.thecave.buddi.i18n.keys.BudgetCategoryTypes;
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.AccountType;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.BudgetCategoryType;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.ScheduledTransaction;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
+
+import ca.digitalcave.moss.common.DateUtil;
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+
+/**
+ * Reads a Document from the XML written by DocumentImpl.saveToStream() (i.e.
+ * the XMLEncoder format), in a single pass over a StAX stream.
+ *
+ * The XMLDecoder builds the object graph by looking up every constructor,
+ * getter and setter through reflection, and each setter marks the object (and
+ * the document) as changed.  For the model classes, which make up almost all
+ * of a data file, we instead create the objects and set their fields directly,
+ * the same as BinaryDocumentReader does.  The document lists are collected into
+ * plain lists and set once at the end, rather than being inserted one at a time
+ * into the sorted lists.  Anything else (older properties, other classes) is
+ * handled the same way the XMLDecoder would, through java.beans.Statement, so
+ * that all files which the XMLDecoder can read can also be read here.
+ *
+ * As with the other readers, it is up to the calling code (normally ModelFactory)
+ * to refresh the UID map, update balances, etc.
+ */
+public class XMLDocumentReader {
+	private static final Logger logger = Logger.getLogger(XMLDocumentReader.class.getName());
+
+	private static Map<String, BudgetCategoryType> budgetCategoryTypes;
+
+	private final InputStream is;
+	private final Map<String, Object> ids = new HashMap<String, Object>();
+	private final List<Object> results = new ArrayList<Object>();
+	//XMLDecoder sets the modified time of every object to the time it was loaded
+	private final long loadTime = System.currentTimeMillis();
+
+	private DocumentImpl document;
+	private final List<AccountType> accountTypes = new ArrayList<AccountType>();
+	private final List<Account> accounts = new ArrayList<Account>();
+	private final List<BudgetCategory> budgetCategories = new ArrayList<BudgetCategory>();
+	private final List<Transaction> transactions = new ArrayList<Transaction>();
+	private final List<ScheduledTransaction> scheduledTransactions = new ArrayList<ScheduledTransaction>();
+
+	public XMLDocumentReader(InputStream is) {
+		this.is = is;
+	}
+
+	/**
+	 * Reads the document from the input stream.  The stream is not closed.
+	 * @return
+	 * @throws IOException
+	 * @throws IncorrectDocumentFormatException If the stream does not contain
+	 * an XML document, or if the first object in it is not a document.
+	 */
+	public DocumentImpl read() throws IOException, IncorrectDocumentFormatException {
+		try {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+			XMLStreamReader reader = factory.createXMLStreamReader(is);
+
+			Frame frame = null;
+			while (reader.hasNext()){
+				switch (reader.next()){
+				case XMLStreamConstants.START_ELEMENT:
+					frame = startElement(frame, reader);
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (frame != null && frame.text != null)
+						frame.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					endElement(frame);
+					frame = frame.parent;
+					break;
+				}
+			}
+			reader.close();
+		}
+		catch (XMLStreamException xse){
+			if (xse.getNestedException() instanceof IOException)
+				throw (IOException) xse.getNestedException();
+			throw new IncorrectDocumentFormatException("Could not parse the data file XML: " + xse.getMessage());
+		}
+		catch (InvalidValueException ive){
+			throw new IncorrectDocumentFormatException("Invalid value in data file: " + ive.getMessage());
+		}
+		catch (RuntimeException re){
+			//Most likely an element which did not contain the type of value we expected
+			throw new IncorrectDocumentFormatException("Invalid data file XML: " + re);
+		}
+
+		if (results.size() == 0 || !(results.get(0) instanceof DocumentImpl) || results.get(0) != document)
+			throw new IncorrectDocumentFormatException("Could not find a DataModelBean object in the data file!");
+
+		document.setAccountTypes(accountTypes);
+		document.setAccounts(accounts);
+		document.setBudgetCategories(budgetCategories);
+		document.setTransactions(transactions);
+		document.setScheduledTransactions(scheduledTransactions);
+
+		return document;
+	}
+
+	private Frame startElement(Frame parent, XMLStreamReader reader) throws IncorrectDocumentFormatException, InvalidValueException {
+		Frame frame = new Frame(reader.getLocalName(), parent);
+		for (int i = 0; i < reader.getAttributeCount(); i++){
+			String name = reader.getAttributeLocalName(i);
+			String value = reader.getAttributeValue(i);
+			if (name.equals("class")) frame.className = value;
+			else if (name.equals("id")) frame.id = value;
+			else if (name.equals("idref")) frame.idref = value;
+			else if (name.equals("property")) frame.property = value;
+			else if (name.equals("method")) frame.method = value;
+			else if (name.equals("index")) frame.index = value;
+			else if (name.equals("field")) frame.field = value;
+			else if (name.equals("length")) frame.length = value;
+			else if (name.equals("code")) frame.code = value;
+		}
+
+		if (frame.isTextElement())
+			frame.text = new StringBuilder();
+
+		//Statements apply to the value of the enclosing element, so that needs to be
+		// created first (using the arguments which came before this element).
+		if (frame.tag.equals("void") && parent != null && !parent.evaluated)
+			evaluate(parent);
+
+		return frame;
+	}
+
+	private void endElement(Frame frame) throws IncorrectDocumentFormatException, InvalidValueException {
+		//A char element within a string is an escaped character of that string
+		if (frame.tag.equals("char") && frame.parent != null && frame.parent.tag.equals("string")){
+			frame.parent.text.append(getChar(frame));
+			return;
+		}
+
+		if (!frame.evaluated)
+			evaluate(frame);
+
+		if (frame.tag.equals("void") || frame.parent == null)
+			return;
+		if (frame.parent.tag.equals("java"))
+			results.add(frame.value);
+		else
+			frame.parent.addArgument(frame.value);
+	}
+
+	/**
+	 * Creates the value of the given element, or executes it if it is a statement.
+	 */
+	private void evaluate(Frame frame) throws IncorrectDocumentFormatException, InvalidValueException {
+		frame.evaluated = true;
+		String tag = frame.tag;
+		String text = (frame.text == null ? null : frame.text.toString());
+
+		if (tag.equals("object") || tag.equals("void"))
+			frame.value = evaluateExpression(frame);
+		else if (tag.equals("string"))
+			frame.value = text;
+		else if (tag.equals("int"))
+			frame.value = Integer.valueOf(text.trim());
+		else if (tag.equals("long"))
+			frame.value = Long.valueOf(text.trim());
+		else if (tag.equals("boolean"))
+			frame.value = Boolean.valueOf(text.trim());
+		else if (tag.equals("double"))
+			frame.value = Double.valueOf(text.trim());
+		else if (tag.equals("float"))
+			frame.value = Float.valueOf(text.trim());
+		else if (tag.equals("short"))
+			frame.value = Short.valueOf(text.trim());
+		else if (tag.equals("byte"))
+			frame.value = Byte.valueOf(text.trim());
+		else if (tag.equals("char"))
+			frame.value = getChar(frame);
+		else if (tag.equals("null"))
+			frame.value = null;
+		else if (tag.equals("class"))
+			frame.value = getClass(text.trim());
+		else if (tag.equals("array"))
+			frame.value = createArray(frame);
+		else if (tag.equals("java"))
+			frame.value = null;
+		else
+			throw new IncorrectDocumentFormatException("Unknown element " + tag + " in data file");
+
+		if (frame.id != null)
+			ids.put(frame.id, frame.value);
+	}
+
+	/**
+	 * Evaluates an object or void element: either a reference to an earlier object,
+	 * a new object, or a property, index or method of the enclosing value.
+	 */
+	private Object evaluateExpression(Frame frame) throws IncorrectDocumentFormatException, InvalidValueException {
+		if (frame.idref != null){
+			if (!ids.containsKey(frame.idref))
+				throw new IncorrectDocumentFormatException("Unknown object reference " + frame.idref + " in data file");
+			return ids.get(frame.idref);
+		}
+
+		List<Object> args = frame.getArguments();
+		if (frame.className != null){
+			Class<?> type = getClass(frame.className);
+			if (frame.field != null)
+				return getField(type, frame.field);
+			if (frame.method != null)
+				return invokeStatic(type, frame.method, args);
+			if (frame.property != null || frame.index != null)
+				return invokeOn(type, frame, args);
+			return create(type, args);
+		}
+
+		Object target = (frame.parent == null ? null : frame.parent.value);
+		return invokeOn(target, frame, args);
+	}
+
+	private Object invokeOn(Object target, Frame frame, List<Object> args) throws InvalidValueException {
+		if (frame.property != null){
+			if (args.size() == 0)
+				return getProperty(target, frame.property);
+			setProperty(target, frame.property, args.get(0));
+			return null;
+		}
+		if (frame.index != null){
+			Integer index = Integer.valueOf(frame.index);
+			if (args.size() == 0)
+				return invoke(target, "get", index);
+			return invoke(target, "set", index, args.get(0));
+		}
+		if (frame.method != null){
+			if (frame.method.equals("add") && args.size() == 1 && target instanceof Collection<?>){
+				add(target, args.get(0));
+				return null;
+			}
+			if (frame.method.equals("put") && args.size() == 2 && target instanceof Map<?, ?>){
+				put(target, args.get(0), args.get(1));
+				return null;
+			}
+			return invoke(target, frame.method, args.toArray());
+		}
+		return target;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void add(Object collection, Object value){
+		((Collection<Object>) collection).add(value);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void put(Object map, Object key, Object value){
+		((Map<Object, Object>) map).put(key, value);
+	}
+
+	private Object invokeStatic(Class<?> type, String method, List<Object> args){
+		if (type == DateUtil.class && method.equals("getDate") && args.size() == 3)
+			return DateUtil.getDate((Integer) args.get(0), (Integer) args.get(1), (Integer) args.get(2));
+		return invoke(type, method, args.toArray());
+	}
+
+	/**
+	 * Creates a new instance of the given class.  Model objects are created directly;
+	 * anything else goes through reflection.
+	 */
+	private Object create(Class<?> type, List<Object> args){
+		if (args.size() == 0){
+			ModelObjectImpl object = null;
+			if (type == TransactionImpl.class)
+				object = new TransactionImpl();
+			else if (type == TransactionSplitImpl.class)
+				object = new TransactionSplitImpl();
+			else if (type == SplitImpl.class)
+				object = new SplitImpl();
+			else if (type == ScheduledTransactionImpl.class)
+				object = new ScheduledTransactionImpl();
+			else if (type == AccountImpl.class)
+				object = new AccountImpl();
+			else if (type == BudgetCategoryImpl.class)
+				object = new BudgetCategoryImpl();
+			else if (type == AccountTypeImpl.class)
+				object = new AccountTypeImpl();
+			else if (type == DocumentImpl.class){
+				document = new DocumentImpl();
+				return document;
+			}
+			else if (BudgetCategoryType.class.isAssignableFrom(type) && getBudgetCategoryType(type) != null)
+				return getBudgetCategoryType(type);
+
+			if (object != null){
+				object.modifiedTime = new Time(loadTime);
+				return object;
+			}
+		}
+		else if (type == Day.class && args.size() == 3)
+			return new Day((Integer) args.get(0), (Integer) args.get(1), (Integer) args.get(2));
+		else if (type == Time.class && args.size() == 1 && args.get(0) instanceof Long)
+			return new Time((Long) args.get(0));
+
+		return invoke(type, "new", args.toArray());
+	}
+
+	private Object getProperty(Object target, String property){
+		if (target == document){
+			if (property.equals("accountTypes")) return accountTypes;
+			if (property.equals("accounts")) return accounts;
+			if (property.equals("budgetCategories")) return budgetCategories;
+			if (property.equals("transactions")) return transactions;
+			if (property.equals("scheduledTransactions")) return scheduledTransactions;
+		}
+		else if (target instanceof TransactionImpl){
+			TransactionImpl t = (TransactionImpl) target;
+			if (property.equals("toSplits")){
+				if (t.toSplits == null)
+					t.toSplits = new ArrayList<TransactionSplit>();
+				return t.toSplits;
+			}
+			if (property.equals("fromSplits")){
+				if (t.fromSplits == null)
+					t.fromSplits = new ArrayList<TransactionSplit>();
+				return t.fromSplits;
+			}
+		}
+		else if (target instanceof BudgetCategoryImpl && property.equals("amounts"))
+			return ((BudgetCategoryImpl) target).getAmounts();
+
+		String name = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		try {
+			return new Expression(target, "get" + name, new Object[0]).getValue();
+		}
+		catch (NoSuchMethodException nsme){
+			return invoke(target, "is" + name);
+		}
+		catch (Exception e){
+			logger.log(Level.WARNING, "Error reading XML: could not get property " + property + " of " + target, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the given property.  For the model objects, we set the fields directly
+	 * where we can, as the setters mark the object and document as changed.
+	 */
+	@SuppressWarnings("unchecked")
+	private void setProperty(Object target, String property, Object value) throws InvalidValueException {
+		if (target instanceof TransactionImpl && setTransactionProperty((TransactionImpl) target, property, value))
+			return;
+		if (target instanceof AccountImpl && setAccountProperty((AccountImpl) target, property, value))
+			return;
+		if (target instanceof BudgetCategoryImpl && setBudgetCategoryProperty((BudgetCategoryImpl) target, property, value))
+			return;
+		if (target instanceof AccountTypeImpl){
+			AccountTypeImpl type = (AccountTypeImpl) target;
+			if (property.equals("name")) { type.name = (String) value; return; }
+			if (property.equals("credit")) { type.setCredit((Boolean) value); return; }
+			if (property.equals("expanded")) { type.setExpanded((Boolean) value); return; }
+		}
+		if (target instanceof TransactionSplitImpl){
+			TransactionSplitImpl split = (TransactionSplitImpl) target;
+			if (property.equals("amount")) { split.setAmount((Long) value); return; }
+			if (property.equals("source")) { split.setSource((Source) value); return; }
+		}
+		if (target instanceof SourceImpl){
+			SourceImpl source = (SourceImpl) target;
+			if (property.equals("name")) { source.name = (String) value; return; }
+			if (property.equals("notes")) { source.notes = (String) value; return; }
+			if (property.equals("deleted")) { source.deleted = (Boolean) value; return; }
+		}
+		if (target == document && value instanceof List<?>){
+			List<?> list = (List<?>) value;
+			if (property.equals("accountTypes")) { accountTypes.clear(); accountTypes.addAll((List<AccountType>) list); return; }
+			if (property.equals("accounts")) { accounts.clear(); accounts.addAll((List<Account>) list); return; }
+			if (property.equals("budgetCategories")) { budgetCategories.clear(); budgetCategories.addAll((List<BudgetCategory>) list); return; }
+			if (property.equals("transactions")) { transactions.clear(); transactions.addAll((List<Transaction>) list); return; }
+			if (property.equals("scheduledTransactions")) { scheduledTransactions.clear(); scheduledTransactions.addAll((List<ScheduledTransaction>) list); return; }
+		}
+		if (target instanceof ModelObjectImpl){
+			ModelObjectImpl object = (ModelObjectImpl) target;
+			if (property.equals("uid")) { object.uid = (String) value; return; }
+			if (property.equals("document")) { object.document = (Document) value; return; }
+		}
+
+		String name = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		execute(target, "set" + name, value);
+	}
+
+	private boolean setTransactionProperty(TransactionImpl t, String property, Object value) throws InvalidValueException {
+		if (t instanceof ScheduledTransactionImpl){
+			ScheduledTransactionImpl s = (ScheduledTransactionImpl) t;
+			if (property.equals("scheduleName")) { s.setScheduleName((String) value); return true; }
+			if (property.equals("message")) { s.setMessage((String) value); return true; }
+			if (property.equals("frequencyType")) { s.setFrequencyType((String) value); return true; }
+			if (property.equals("scheduleDay")) { s.setScheduleDay((Integer) value); return true; }
+			if (property.equals("scheduleWeek")) { s.setScheduleWeek((Integer) value); return true; }
+			if (property.equals("scheduleMonth")) { s.setScheduleMonth((Integer) value); return true; }
+			if (property.equals("startDate")) { s.setStartDate((Date) value); return true; }
+			if (property.equals("endDate")) { s.setEndDate((Date) value); return true; }
+			if (property.equals("lastDayCreated")) { s.setLastDayCreated((Date) value); return true; }
+		}
+
+		if (property.equals("amount")) t.amount = (Long) value;
+		else if (property.equals("date")) t.date = new Day((Date) value);
+		else if (property.equals("description")) t.description = (String) value;
+		else if (property.equals("number")) t.number = (String) value;
+		else if (property.equals("memo")) t.memo = (String) value;
+		else if (property.equals("from")) {
+			t.from = (Source) value;
+			t.fromSplits = new ArrayList<TransactionSplit>();
+		}
+		else if (property.equals("to")) {
+			t.to = (Source) value;
+			t.toSplits = new ArrayList<TransactionSplit>();
+		}
+		else if (property.equals("clearedFrom")) t.clearedFrom = (Boolean) value;
+		else if (property.equals("clearedTo")) t.clearedTo = (Boolean) value;
+		else if (property.equals("reconciledFrom")) t.reconciledFrom = (Boolean) value;
+		else if (property.equals("reconciledTo")) t.reconciledTo = (Boolean) value;
+		else if (property.equals("deleted")) t.deleted = (Boolean) value;
+		else if (property.equals("scheduled")) t.scheduled = (Boolean) value;
+		else return false;
+		return true;
+	}
+
+	private boolean setAccountProperty(AccountImpl account, String property, Object value) throws InvalidValueException {
+		if (property.equals("accountType")) account.setAccountType((AccountType) value);
+		else if (property.equals("startingBalance")) account.setStartingBalance((Long) value);
+		else if (property.equals("balance")) account.setBalance((Long) value);
+		else if (property.equals("startDate")) account.setStartDate((Date) value);
+		else if (property.equals("overdraftCreditLimit")) account.setOverdraftCreditLimit((Long) value);
+		else if (property.equals("interestRate")) account.setInterestRate((Long) value);
+		else return false;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean setBudgetCategoryProperty(BudgetCategoryImpl category, String property, Object value) throws InvalidValueException {
+		if (property.equals("income")) category.setIncome((Boolean) value);
+		else if (property.equals("expanded")) category.setExpanded((Boolean) value);
+		else if (property.equals("periodType")) category.setPeriodType((BudgetCategoryType) value);
+		else if (property.equals("parent")) category.setParent((BudgetCategory) value);
+		else if (property.equals("amounts")) category.setAmounts((Map<String, Long>) value);
+		else return false;
+		return true;
+	}
+
+	private Object createArray(Frame frame) throws IncorrectDocumentFormatException {
+		Class<?> componentType = (frame.className == null ? Object.class : getClass(frame.className));
+		List<Object> args = frame.getArguments();
+		int length = (frame.length == null ? args.size() : Integer.parseInt(frame.length));
+		Object array = Array.newInstance(componentType, length);
+		for (int i = 0; i < args.size() && i < length; i++)
+			Array.set(array, i, args.get(i));
+		return array;
+	}
+
+	private static char getChar(Frame frame){
+		if (frame.code != null){
+			String code = frame.code.startsWith("#") ? frame.code.substring(1) : frame.code;
+			return (char) Integer.parseInt(code, 16);
+		}
+		return frame.text.charAt(0);
+	}
+
+	/**
+	 * Returns the shared instance of the given budget category type.
+	 */
+	private static synchronized BudgetCategoryType getBudgetCategoryType(Class<?> type){
+		if (budgetCategoryTypes == null){
+			budgetCategoryTypes = new HashMap<String, BudgetCategoryType>();
+			for (BudgetCategoryTypes t : BudgetCategoryTypes.values()) {
+				BudgetCategoryType bct = ModelFactory.getBudgetCategoryType(t);
+				if (bct != null)
+					budgetCategoryTypes.put(bct.getClass().getName(), bct);
+			}
+		}
+		return budgetCategoryTypes.get(type.getName());
+	}
+
+	private static Class<?> getClass(String name) throws IncorrectDocumentFormatException {
+		if (name.equals("int")) return Integer.TYPE;
+		if (name.equals("long")) return Long.TYPE;
+		if (name.equals("boolean")) return Boolean.TYPE;
+		if (name.equals("double")) return Double.TYPE;
+		if (name.equals("float")) return Float.TYPE;
+		if (name.equals("short")) return Short.TYPE;
+		if (name.equals("byte")) return Byte.TYPE;
+		if (name.equals("char")) return Character.TYPE;
+		try {
+			return Class.forName(name, true, XMLDocumentReader.class.getClassLoader());
+		}
+		catch (ClassNotFoundException cnfe){
+			try {
+				return Class.forName(name, true, Thread.currentThread().getContextClassLoader());
+			}
+			catch (ClassNotFoundException cnfe2){
+				throw new IncorrectDocumentFormatException("Unknown class " + name + " in data file");
+			}
+		}
+	}
+
+	private static Object getField(Class<?> type, String field){
+		try {
+			return type.getField(field).get(null);
+		}
+		catch (Exception e){
+			logger.log(Level.WARNING, "Error reading XML: could not get field " + field + " of " + type, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Calls the given method through reflection, in the same way as the XMLDecoder.
+	 * As with the XMLDecoder, problems are logged and the rest of the file is still
+	 * read; the result of a failed call is null.
+	 */
+	private static Object invoke(Object target, String method, Object... args){
+		try {
+			return new Expression(target, method, args).getValue();
+		}
+		catch (Exception e){
+			logger.log(Level.WARNING, "Error reading XML: could not call " + method + " on " + target, e);
+			return null;
+		}
+	}
+
+	private static void execute(Object target, String method, Object... args){
+		try {
+			new Statement(target, method, args).execute();
+		}
+		catch (Exception e){
+			logger.log(Level.WARNING, "Error reading XML: could not call " + method + " on " + target, e);
+		}
+	}
+
+	/**
+	 * The state of a single element while it is being read.
+	 */
+	private static class Frame {
+		private final String tag;
+		private final Frame parent;
+		private String className;
+		private String id;
+		private String idref;
+		private String property;
+		private String method;
+		private String index;
+		private String field;
+		private String length;
+		private String code;
+
+		private List<Object> arguments;
+		private StringBuilder text;
+		private Object value;
+		private boolean evaluated;
+
+		public Frame(String tag, Frame parent) {
+			this.tag = tag;
+			this.parent = parent;
+		}
+
+		private boolean isTextElement(){
+			return tag.equals("string") || tag.equals("int") || tag.equals("long")
+			|| tag.equals("boolean") || tag.equals("double") || tag.equals("float")
+			|| tag.equals("short") || tag.equals("byte") || tag.equals("char")
+			|| tag.equals("class");
+		}
+
+		private void addArgument(Object argument){
+			if (evaluated)
+				return;
+			if (arguments == null)
+				arguments = new ArrayList<Object>(3);
+			arguments.add(argument);
+		}
+
+		private List<Object> getArguments(){
+			return (arguments == null ? Collections.<Object>emptyList() : arguments);
+		}
+	}
+}
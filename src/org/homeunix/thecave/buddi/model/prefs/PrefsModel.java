@@ -645,5 +645,20 @@ public class PrefsModel {
 	public void setBackupLocation(String backupLocation){
 		prefsModel.setBackupLocation(backupLocation);
 	}
+	
+	/**
+	 * Returns the number of years (before the current one) of transactions which
+	 * are kept in memory when a data file is opened; older transactions are kept
+	 * on disk until they are needed.  0 (the default) keeps all transactions in 
+	 * memory.
+	 * @return
+	 */
+	public int getArchiveTransactionYears(){
+		return prefsModel.getArchiveTransactionYears();
+	}
+	
+	public void setArchiveTransactionYears(int archiveTransactionYears){
+		prefsModel.setArchiveTransactionYears(archiveTransactionYears);
+	}
 }
 
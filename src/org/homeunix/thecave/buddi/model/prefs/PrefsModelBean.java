@@ -77,6 +77,7 @@ public class PrefsModelBean {
 	private boolean showPromptAtStartup;
 	private String transactionCellRenderer;
 	private String backupLocation;
+	private int archiveTransactionYears;
 	
 	//Transaction Pane collapsible panes
 	private boolean searchPaneVisible;
@@ -466,4 +467,12 @@ public class PrefsModelBean {
 	public void setBackupLocation(String backupLocation) {
 		this.backupLocation = backupLocation;
 	}
+	
+	public int getArchiveTransactionYears() {
+		return archiveTransactionYears;
+	}
+	
+	public void setArchiveTransactionYears(int archiveTransactionYears) {
+		this.archiveTransactionYears = archiveTransactionYears;
+	}
 }
@@ -0,0 +1,118 @@
+package org.homeunix.thecave.buddi.model.swing;
+
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.Collections;
+import java.util.List;
+
+import javax.swing.AbstractListModel;
+import javax.swing.ComboBoxModel;
+import javax.swing.text.JTextComponent;
+
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.impl.AutoCompleteDictionary;
+
+import ca.digitalcave.moss.swing.MossHintComboBox;
+
+/**
+ * The model for the description field in the transaction editor, which shows the
+ * descriptions starting with what has been typed so far, most frequently used
+ * first.  This works the same way as AutoCompleteMossHintComboBoxModel, but
+ * looks the descriptions up in the document's AutoCompleteDictionary instead of
+ * filtering and sorting the full list on each key press.
+ */
+public class AutoCompleteDescriptionModel extends AbstractListModel implements ComboBoxModel {
+	public static final long serialVersionUID = 0;
+
+	private final AutoCompleteDictionary dictionary;
+	private final JTextComponent editor;
+	private final MossHintComboBox comboBox;
+	private List<String> completions = Collections.emptyList();
+	private String selectedItem;
+
+	public AutoCompleteDescriptionModel(final MossHintComboBox comboBox, Document model) {
+		this.dictionary = AutoCompleteDictionary.getDictionary(model);
+		this.editor = (JTextComponent) comboBox.getEditor().getEditorComponent();
+		this.comboBox = comboBox;
+
+		editor.addFocusListener(new FocusListener(){
+			public void focusGained(FocusEvent e) {
+				String text = comboBox.getText();
+				setSelectedItem(null);
+				updateModel();
+				comboBox.setText(text);
+				comboBox.setPopupVisible(false);
+				comboBox.setPopupVisible(true);
+			}
+			public void focusLost(FocusEvent e) {
+				comboBox.setPopupVisible(false);
+			}
+		});
+
+		editor.addKeyListener(new KeyAdapter(){
+			@Override
+			public void keyPressed(KeyEvent e) {
+				if (e.getKeyCode() == KeyEvent.VK_ENTER){
+					if (comboBox.getSelectedItem() != null)
+						editor.setText(comboBox.getSelectedItem().toString());
+				}
+				super.keyPressed(e);
+			}
+			@Override
+			public void keyReleased(KeyEvent e) {
+				if (e.getKeyCode() != KeyEvent.VK_ESCAPE
+						&& e.getKeyCode() != KeyEvent.VK_LEFT
+						&& e.getKeyCode() != KeyEvent.VK_RIGHT
+						&& e.getKeyCode() != KeyEvent.VK_UP
+						&& e.getKeyCode() != KeyEvent.VK_DOWN
+						&& e.getKeyCode() != KeyEvent.VK_HOME
+						&& e.getKeyCode() != KeyEvent.VK_END
+						&& e.getKeyCode() != KeyEvent.VK_SHIFT
+						&& e.getKeyCode() != KeyEvent.VK_ALT
+						&& e.getKeyCode() != KeyEvent.VK_CONTROL
+						&& e.getKeyCode() != KeyEvent.VK_META
+						&& e.getKeyCode() != KeyEvent.VK_CANCEL) {
+					String text = editor.getText();
+					int caretPosition = editor.getCaretPosition();
+					updateModel();
+					editor.setText(text);
+					editor.setCaretPosition(caretPosition);
+					//Cycle popup to refresh size
+					comboBox.setPopupVisible(false);
+					comboBox.setPopupVisible(true);
+				}
+				else
+					super.keyReleased(e);
+			}
+		});
+	}
+
+	public Object getSelectedItem() {
+		if (selectedItem != null && completions.contains(selectedItem))
+			return selectedItem;
+		return null;
+	}
+
+	public void setSelectedItem(Object item) {
+		completions = dictionary.getCompletions(comboBox.getText());
+		if (item == null || completions.contains(item))
+			selectedItem = (String) item;
+	}
+
+	public Object getElementAt(int index) {
+		if (index < completions.size())
+			return completions.get(index);
+		return null;
+	}
+
+	public int getSize() {
+		return completions.size();
+	}
+
+	private void updateModel(){
+		completions = dictionary.getCompletions(comboBox.getText());
+		fireContentsChanged(this, -1, -1);
+	}
+}
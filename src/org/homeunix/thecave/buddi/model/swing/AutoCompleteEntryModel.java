@@ -3,41 +3,31 @@
  */
 package org.homeunix.thecave.buddi.model.swing;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import org.homeunix.thecave.buddi.model.Document;
 import org.homeunix.thecave.buddi.model.Source;
 import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.impl.AutoCompleteDictionary;
 
-import ca.digitalcave.moss.application.document.DocumentChangeEvent;
-import ca.digitalcave.moss.application.document.DocumentChangeListener;
-
+/**
+ * Gives the amount, from and to sources of the latest transaction with a given
+ * description, to fill in a new transaction with.  This is a view of the 
+ * document's AutoCompleteDictionary, so it is always up to date, and is cheap
+ * to create.
+ * 
+ * @author wyatt
+ */
 public class AutoCompleteEntryModel {
-	private final Document model;
-	private final DocumentChangeListener listener;
-	private final Map<String, AutoCompleteEntry> autoCompleteEntries;
+	private final AutoCompleteDictionary dictionary;
 	
 	public AutoCompleteEntryModel(Document model) {
-		this.model = model;
-		this.autoCompleteEntries = new HashMap<String, AutoCompleteEntry>();
-		updateAutoCompleteList();
-		listener = new DocumentChangeListener(){
-			public void documentChange(DocumentChangeEvent event) {
-				updateAutoCompleteList();
-			}
-		};
-		model.addDocumentChangeListener(listener);
-	}
-
-	private void updateAutoCompleteList(){
-		for (Transaction t : model.getTransactions()) {
-			autoCompleteEntries.put(t.getDescription(), new AutoCompleteEntry(t.getAmount(), t.getFrom(), t.getTo()));
-		}
+		this.dictionary = AutoCompleteDictionary.getDictionary(model);
 	}
 	
 	public AutoCompleteEntry getEntry(String description){
-		return autoCompleteEntries.get(description);
+		Transaction t = dictionary.getLatestTransaction(description);
+		if (t == null)
+			return null;
+		return new AutoCompleteEntry(t.getAmount(), t.getFrom(), t.getTo());
 	}
 	
 	public static class AutoCompleteEntry {
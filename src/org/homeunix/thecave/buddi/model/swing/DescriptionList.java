@@ -4,57 +4,33 @@
 package org.homeunix.thecave.buddi.model.swing;
 
 import java.util.AbstractList;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 
 import org.homeunix.thecave.buddi.model.Document;
-import org.homeunix.thecave.buddi.model.Transaction;
-
-import ca.digitalcave.moss.application.document.DocumentChangeEvent;
-import ca.digitalcave.moss.application.document.DocumentChangeListener;
-
+import org.homeunix.thecave.buddi.model.impl.AutoCompleteDictionary;
+
+/**
+ * A list of all the transaction descriptions in the document, in sorted order.
+ * This is a view of the document's AutoCompleteDictionary, so it is always up
+ * to date, and is cheap to create.
+ * 
+ * @author wyatt
+ */
 public class DescriptionList extends AbstractList<String> {
 	private static final long serialVersionUID = 0; 
 
-	private Document model;
-	private final DocumentChangeListener listener;
-	private final List<String> descriptionList;
-	private final Set<String> descriptions = new HashSet<String>();
+	private final AutoCompleteDictionary dictionary;
 
 	public DescriptionList(Document model) {
-		this.model = model;
-		this.descriptionList = new ArrayList<String>();
-		updateAutoCompleteList();
-
-		listener = new DocumentChangeListener(){
-			public void documentChange(DocumentChangeEvent event) {
-				updateAutoCompleteList();				
-			}
-		};
-		model.addDocumentChangeListener(listener);
+		this.dictionary = AutoCompleteDictionary.getDictionary(model);
 	}
 
 	@Override
 	public String get(int index) {
-		return descriptionList.get(index);
+		return dictionary.getDescriptions().get(index);
 	}
 
 	@Override
 	public int size() {
-		return descriptionList.size();
-	}
-
-	private void updateAutoCompleteList(){
-		descriptions.clear();
-		for (Transaction t : model.getTransactions()) {
-			descriptions.add(t.getDescription());
-		}
-
-		descriptionList.clear();
-		descriptionList.addAll(descriptions);
-		Collections.sort(descriptionList);
+		return dictionary.getDescriptions().size();
 	}
 }
@@ -3,6 +3,7 @@
  */
 package org.homeunix.thecave.buddi.model.swing;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.homeunix.thecave.buddi.i18n.BuddiKeys;
@@ -62,16 +63,17 @@ public class MyAccountTreeTableModel extends AbstractTreeTableModel {
 	public Object getChild(Object parent, int childIndex) {
 		if (parent.equals(root)){
 			if (PrefsModel.getInstance().isShowFlatAccounts()){
-				return new FilteredLists.AccountListFilteredByDeleted(model, model.getAccounts()).get(childIndex);
+				List<Account> accounts = getAccounts(null);
+				return childIndex < accounts.size() ? accounts.get(childIndex) : null;
 			}
 			else{
-				List<AccountType> types = new FilteredLists.TypeListFilteredByAccounts(model);
+				List<AccountType> types = getTypes();
 				if (childIndex < types.size())
 					return types.get(childIndex);
 			}
 		}
 		if (parent instanceof AccountType){
-			List<Account> accounts = new FilteredLists.AccountListFilteredByDeleted(model, new FilteredLists.AccountListFilteredByType(model, model.getAccounts(), (AccountType) parent));
+			List<Account> accounts = getAccounts((AccountType) parent);
 			if (childIndex < accounts.size())
 				return accounts.get(childIndex);
 		}
@@ -81,16 +83,14 @@ public class MyAccountTreeTableModel extends AbstractTreeTableModel {
 	public int getChildCount(Object parent) {
 		if (parent.equals(root)){
 			if (PrefsModel.getInstance().isShowFlatAccounts()){
-				return new FilteredLists.AccountListFilteredByDeleted(model, model.getAccounts()).size();
+				return getAccounts(null).size();
 			}
 			else{
-				List<AccountType> types = new FilteredLists.TypeListFilteredByAccounts(model);
-				return types.size();
+				return getTypes().size();
 			}
 		}
 		if (parent instanceof AccountType){
-			List<Account> accounts = new FilteredLists.AccountListFilteredByDeleted(model, new FilteredLists.AccountListFilteredByType(model, model.getAccounts(), (AccountType) parent));
-			return accounts.size();
+			return getAccounts((AccountType) parent).size();
 		}
 
 		return 0;
@@ -103,20 +103,41 @@ public class MyAccountTreeTableModel extends AbstractTreeTableModel {
 //		if (parent.equals(root) && child instanceof AccountType){
 		if (parent.equals(root)){
 			if (PrefsModel.getInstance().isShowFlatAccounts()){
-				return new FilteredLists.AccountListFilteredByDeleted(model, model.getAccounts()).indexOf(child);
+				return getAccounts(null).indexOf(child);
 			}
 			else{
-				List<AccountType> types = new FilteredLists.TypeListFilteredByAccounts(model);
-				return types.indexOf(child);
+				return getTypes().indexOf(child);
 			}
 		}
 
 		if (parent instanceof AccountType && child instanceof Account){
-			List<Account> accounts = new FilteredLists.AccountListFilteredByDeleted(model, new FilteredLists.AccountListFilteredByType(model, model.getAccounts(), (AccountType) parent));
-			return accounts.indexOf(child);
+			return getAccounts((AccountType) parent).indexOf(child);
 		}
 		return -1;
 	}
+	
+	/**
+	 * Returns a snapshot of the accounts of the given type (or all accounts, if type
+	 * is null), filtered by deleted status.  These are called for every node on every
+	 * repaint, so we dispose of the filtered lists right away instead of leaving them
+	 * registered with the document until they are garbage collected.
+	 */
+	private List<Account> getAccounts(AccountType type){
+		FilteredLists.AccountListFilteredByType accountsByType = (type == null ? null : new FilteredLists.AccountListFilteredByType(model, model.getAccounts(), type));
+		FilteredLists.AccountListFilteredByDeleted accounts = new FilteredLists.AccountListFilteredByDeleted(model, (accountsByType == null ? model.getAccounts() : accountsByType));
+		List<Account> result = new ArrayList<Account>(accounts);
+		accounts.dispose();
+		if (accountsByType != null)
+			accountsByType.dispose();
+		return result;
+	}
+	
+	private List<AccountType> getTypes(){
+		FilteredLists.TypeListFilteredByAccounts types = new FilteredLists.TypeListFilteredByAccounts(model);
+		List<AccountType> result = new ArrayList<AccountType>(types);
+		types.dispose();
+		return result;
+	}
 
 	public void fireStructureChanged(){
 		modelSupport.fireNewRoot();
@@ -14,8 +14,6 @@ import org.homeunix.thecave.buddi.i18n.keys.BudgetCategoryTypes;
 import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.BudgetCategoryType;
 import org.homeunix.thecave.buddi.model.Document;
-import org.homeunix.thecave.buddi.model.Transaction;
-import org.homeunix.thecave.buddi.model.TransactionSplit;
 import org.homeunix.thecave.buddi.model.impl.FilteredLists;
 import org.homeunix.thecave.buddi.model.impl.ModelFactory;
 import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
@@ -136,28 +134,10 @@ public class MyBudgetTreeTableModel extends AbstractTreeTableModel {
 	}
 
 	private long getActual(BudgetCategory bc, Date date, boolean includeChildren) {
-		List<Transaction> transactions = model.getTransactions(bc, date,
-				getSelectedBudgetPeriodType().getEndOfBudgetPeriod(date));
-
-		long actual = 0;
-		for (Transaction transaction : transactions) {
-			if (!transaction.isDeleted()){
-				if (transaction.getTo() instanceof BudgetCategory){
-					actual -= transaction.getAmount();
-				} 
-				else if (transaction.getFrom() instanceof BudgetCategory){
-					actual += transaction.getAmount();
-				}
-				for (TransactionSplit split : transaction.getToSplits()) {
-					if(split.getSource().getFullName().equals(bc.getFullName()))
-						actual -= split.getAmount();
-				}
-				for (TransactionSplit split : transaction.getFromSplits()) {
-					if(split.getSource().getFullName().equals(bc.getFullName()))
-						actual += split.getAmount();
-				}
-			}
-		}
+		//The budget category keeps a running total of its actuals, so this only 
+		// needs a binary search for each end of the period, rather than iterating
+		// over all the transactions in the period each time a cell is painted.
+		long actual = bc.getActual(date, getSelectedBudgetPeriodType().getEndOfBudgetPeriod(date));
 
 		if(includeChildren) {
 			for(BudgetCategory child: bc.getChildren()) {
@@ -3,6 +3,14 @@
  */
 package org.homeunix.thecave.buddi.model.swing;
 
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.List;
+
+import javax.swing.Timer;
+
+import net.java.dev.SwingWorker;
+
 import org.homeunix.thecave.buddi.i18n.keys.TransactionClearedFilterKeys;
 import org.homeunix.thecave.buddi.i18n.keys.TransactionDateFilterKeys;
 import org.homeunix.thecave.buddi.i18n.keys.TransactionReconciledFilterKeys;
@@ -11,6 +19,7 @@ import org.homeunix.thecave.buddi.model.Source;
 import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.impl.FilteredLists;
 import org.homeunix.thecave.buddi.model.impl.FilteredLists.TransactionListFilteredBySearch;
+import org.homeunix.thecave.buddi.model.impl.FilteredLists.TransactionListFilteredBySearch.Search;
 
 import ca.digitalcave.moss.swing.model.BackedListModel;
 
@@ -24,22 +33,106 @@ import ca.digitalcave.moss.swing.model.BackedListModel;
 public class TransactionListModel extends BackedListModel<Transaction> {
 	public static final long serialVersionUID = 0;
 	
+	//How long to wait after the last call to setSearchTextLater() before searching
+	private static final int SEARCH_DELAY = 250;
+	
 	private final FilteredLists.TransactionListFilteredBySearch transactions;
 	
+	private final Timer searchTimer;
+	private String pendingSearchText;
+	private Runnable pendingCallback;
+	private Search search;		//The search which is currently running, if any
+	
 	public TransactionListModel(Document model, Source selectedSource) {
 		super(selectedSource == null ? 
 				FilteredLists.getTransactionsBySearch(model, selectedSource, model.getTransactions()) :
 					FilteredLists.getTransactionsBySearch(model, selectedSource, model.getTransactions(selectedSource)));
 		
 		this.transactions = (TransactionListFilteredBySearch) listModel;
+		
+		searchTimer = new Timer(SEARCH_DELAY, new ActionListener(){
+			public void actionPerformed(ActionEvent e) {
+				startSearch();
+			}
+		});
+		searchTimer.setRepeats(false);
 	}
 	
+	/**
+	 * Sets the search text right away, and filters the list on this thread.  Any 
+	 * search started from setSearchTextLater() is abandoned.
+	 * @param text
+	 */
 	public void setSearchText(String text){
+		cancelSearch();
 		transactions.setSearchText(text);
 		transactions.updateFilteredList();
 		update();
 	}
 	
+	/**
+	 * Sets the search text once it has stopped changing for a moment, and filters 
+	 * the list on a background thread; the list keeps showing the previous results 
+	 * until then.  Each call abandons the previous search, if it is still waiting 
+	 * or running.  This must be called on the event dispatch thread.
+	 * @param text
+	 * @param callback Run on the event dispatch thread once the list shows the 
+	 * results of this search; may be null
+	 */
+	public void setSearchTextLater(String text, Runnable callback){
+		cancelSearch();
+		pendingSearchText = text;
+		pendingCallback = callback;
+		searchTimer.restart();
+	}
+	
+	/**
+	 * Abandons the search started by setSearchTextLater(), if it is still waiting
+	 * or running.  Its callback is not run.
+	 */
+	public void cancelSearch(){
+		searchTimer.stop();
+		if (search != null){
+			search.cancel();
+			search = null;
+		}
+	}
+	
+	private void startSearch(){
+		final String text = pendingSearchText;
+		final Runnable callback = pendingCallback;
+		final Search search = transactions.createSearch(text);
+		if (search == null){
+			setSearchText(text);
+			if (callback != null)
+				callback.run();
+			return;
+		}
+		
+		this.search = search;
+		SwingWorker worker = new SwingWorker(){
+			@Override
+			public Object construct() {
+				return search.run();
+			}
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public void finished() {
+				//A newer search has been started (or the text was set directly)
+				if (search.isCancelled() || TransactionListModel.this.search != search)
+					return;
+				TransactionListModel.this.search = null;
+				
+				transactions.applySearch(search, (List<Transaction>) getValue());
+				fireContentsChanged(TransactionListModel.this, -1, -1);
+				if (callback != null)
+					callback.run();
+			}
+		};
+		worker.start();
+	}
+	
 	public void setDateFilter(TransactionDateFilterKeys key){
 		transactions.setDateFilter(key);
 		transactions.updateFilteredList();
@@ -15,9 +15,9 @@ import org.homeunix.thecave.buddi.i18n.BuddiKeys;
 import org.homeunix.thecave.buddi.i18n.keys.PluginRangeFilters;
 import org.homeunix.thecave.buddi.model.Document;
 import org.homeunix.thecave.buddi.model.impl.BudgetCategoryTypeSemiMonthly;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
 import org.homeunix.thecave.buddi.plugin.api.BuddiReportPlugin;
 import org.homeunix.thecave.buddi.plugin.api.model.ImmutableDocument;
-import org.homeunix.thecave.buddi.plugin.api.model.impl.ImmutableDocumentImpl;
 import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
 import org.homeunix.thecave.buddi.util.BrowserLauncher;
 import org.homeunix.thecave.buddi.view.MainFrame;
@@ -29,7 +29,8 @@ import ca.digitalcave.moss.swing.exception.WindowOpenException;
 public class BuddiPluginHelper {
 	public static void openReport(final MainFrame frame, final BuddiReportPlugin report, final Date startDate, final Date endDate){
 		
-		final ImmutableDocument model = new ImmutableDocumentImpl((Document) frame.getDocument());
+		//Large saved documents are read from a memory mapped copy; see ModelFactory.
+		final ImmutableDocument model = ModelFactory.getReadOnlyDocument((Document) frame.getDocument());
 		
 		//We want to run the GUI in the EventDispatch thread.  If the user has not
 		// cancelled, then we will proceed.
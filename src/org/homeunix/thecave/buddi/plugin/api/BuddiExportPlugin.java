@@ -8,6 +8,7 @@ package org.homeunix.thecave.buddi.plugin.api;
 import java.io.File;
 
 import org.homeunix.thecave.buddi.i18n.BuddiKeys;
+import org.homeunix.thecave.buddi.model.impl.ModelFactory;
 import org.homeunix.thecave.buddi.plugin.api.exception.PluginException;
 import org.homeunix.thecave.buddi.plugin.api.exception.PluginMessage;
 import org.homeunix.thecave.buddi.plugin.api.model.ImmutableDocument;
@@ -45,9 +46,13 @@ public abstract class BuddiExportPlugin extends MenuPlugin implements MossPlugin
 	 */
 	public abstract void exportData(ImmutableDocument model, MossDocumentFrame callingFrame, File file) throws PluginException, PluginMessage;
 	
+	/**
+	 * Calls exportData().  Large saved documents are exported from a memory mapped 
+	 * copy of the data file; see ModelFactory.getReadOnlyDocument().
+	 */
 	@Override
 	public void processData(MutableDocument model, MossDocumentFrame callingFrame, File file) throws PluginException, PluginMessage {
-		exportData(model, callingFrame, file);
+		exportData(ModelFactory.getReadOnlyDocument(model.getModel()), callingFrame, file);
 	}
 	
 	public String getDescription() {
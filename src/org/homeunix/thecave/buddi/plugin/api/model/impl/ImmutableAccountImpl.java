@@ -6,6 +6,7 @@ package org.homeunix.thecave.buddi.plugin.api.model.impl;
 import java.util.Date;
 
 import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.impl.WrapperLists;
 import org.homeunix.thecave.buddi.plugin.api.model.ImmutableAccount;
 import org.homeunix.thecave.buddi.plugin.api.model.ImmutableAccountType;
 
@@ -22,7 +23,7 @@ public class ImmutableAccountImpl extends ImmutableSourceImpl implements Immutab
 		return getAccount().getBalance();
 	}
 	public ImmutableAccountType getAccountType() {
-		return new MutableAccountTypeImpl(getAccount().getAccountType());
+		return WrapperLists.getWrapper(getAccount().getAccountType());
 	}
 	public Account getAccount(){
 		return (Account) getRaw(); 
@@ -22,7 +22,7 @@ public class ImmutableBudgetCategoryImpl extends ImmutableSourceImpl implements
 	}
 	public ImmutableBudgetCategory getParent() {
 		if (getBudgetCategory().getParent() != null)
-			return new MutableBudgetCategoryImpl(getBudgetCategory().getParent());
+			return WrapperLists.getWrapper(getBudgetCategory().getParent());
 		return null;
 	}
 	
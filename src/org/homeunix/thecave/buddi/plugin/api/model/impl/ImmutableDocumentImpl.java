@@ -36,7 +36,7 @@ public class ImmutableDocumentImpl extends ImmutableModelObjectImpl implements I
 	public ImmutableAccount getAccount(String name) {
 		if (getModel().getAccount(name) == null)
 			return null;
-		return new MutableAccountImpl(getModel().getAccount(name));
+		return WrapperLists.getWrapper(getModel().getAccount(name));
 	}
 	
 	public List<ImmutableAccount> getImmutableAccounts(){
@@ -50,7 +50,7 @@ public class ImmutableDocumentImpl extends ImmutableModelObjectImpl implements I
 	public ImmutableBudgetCategory getBudgetCategory(String fullName) {
 		if (getModel().getBudgetCategory(fullName) == null)
 			return null;
-		return new MutableBudgetCategoryImpl(getModel().getBudgetCategory(fullName));
+		return WrapperLists.getWrapper(getModel().getBudgetCategory(fullName));
 	}
 	
 	public Document getModel(){
@@ -76,7 +76,7 @@ public class ImmutableDocumentImpl extends ImmutableModelObjectImpl implements I
 	public ImmutableAccountType getAccountType(String name) {
 		if (getModel().getAccountType(name) == null)
 			return null;
-		return new MutableAccountTypeImpl(getModel().getAccountType(name));
+		return WrapperLists.getWrapper(getModel().getAccountType(name));
 	}
 	
 	public List<ImmutableAccountType> getImmutableAccountTypes(){
@@ -6,8 +6,6 @@ package org.homeunix.thecave.buddi.plugin.api.model.impl;
 import java.util.Date;
 import java.util.List;
 
-import org.homeunix.thecave.buddi.model.Account;
-import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.Split;
 import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.TransactionSplit;
@@ -54,28 +52,22 @@ public class ImmutableTransactionImpl extends ImmutableModelObjectImpl implement
 		return getTransaction().isScheduled();
 	}
 	public List<ImmutableTransactionSplit> getImmutableFromSplits(){
-		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getFromSplits());
+		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getFromSplits(), true);
 	}
 	public List<ImmutableTransactionSplit> getImmutableToSplits(){
-		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getToSplits());
+		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getToSplits(), true);
 	}
 	public ImmutableSource getFrom(){
-		if (getTransaction().getFrom() instanceof Account)
-			return new MutableAccountImpl((Account) getTransaction().getFrom());
-		if (getTransaction().getFrom() instanceof BudgetCategory)
-			return new MutableBudgetCategoryImpl((BudgetCategory) getTransaction().getFrom());
+		//The shared wrapper for a split is mutable; this must stay read only.
 		if (getTransaction().getFrom() instanceof Split)
 			return new ImmutableSplitImpl((Split) getTransaction().getFrom());
-		return null;
+		return WrapperLists.getWrapper(getTransaction().getFrom());
 	}
 	public ImmutableSource getTo(){
-		if (getTransaction().getTo() instanceof Account)
-			return new MutableAccountImpl((Account) getTransaction().getTo());
-		if (getTransaction().getTo() instanceof BudgetCategory)
-			return new MutableBudgetCategoryImpl((BudgetCategory) getTransaction().getTo());
+		//The shared wrapper for a split is mutable; this must stay read only.
 		if (getTransaction().getTo() instanceof Split)
 			return new ImmutableSplitImpl((Split) getTransaction().getTo());
-		return null;
+		return WrapperLists.getWrapper(getTransaction().getTo());
 	}
 	public long getBalance(ImmutableSource source) {
 		return getTransaction().getBalance(source.getUid());
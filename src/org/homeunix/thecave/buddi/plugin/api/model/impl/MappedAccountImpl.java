@@ -0,0 +1,49 @@
+package org.homeunix.thecave.buddi.plugin.api.model.impl;
+
+import java.util.Date;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.impl.ColumnarDocument;
+
+/**
+ * An account in a MappedDocumentImpl.  The account itself has no transactions,
+ * so the balances are worked out from the postings in the columnar document.
+ */
+public class MappedAccountImpl extends ImmutableAccountImpl {
+	private final ColumnarDocument columns;
+	private final int ordinal;
+
+	public MappedAccountImpl(ColumnarDocument columns, int ordinal) {
+		super((Account) columns.getSource(ordinal));
+		this.columns = columns;
+		this.ordinal = ordinal;
+	}
+
+	public int getOrdinal() {
+		return ordinal;
+	}
+
+	@Override
+	public long getBalance() {
+		int count = columns.getPostingCount(ordinal);
+		return getStartingBalance() + (count == 0 ? 0 : columns.getPostingTotal(ordinal, count - 1));
+	}
+
+	@Override
+	public long getBalance(Date d) {
+		return getStartingBalance() + columns.getTotal(ordinal, d.getTime());
+	}
+
+	@Override
+	public Date getStartDate() {
+		//As with AccountImpl, the start date is the earlier of the one set on the
+		// account and the date of the first transaction.
+		Date startDate = getAccount().getStartDate();
+		if (columns.getPostingCount(ordinal) > 0){
+			long first = columns.getDate(columns.getPostingTransaction(ordinal, 0));
+			if (startDate.getTime() > first)
+				return new Date(first);
+		}
+		return startDate;
+	}
+}
@@ -0,0 +1,173 @@
+package org.homeunix.thecave.buddi.plugin.api.model.impl;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.Source;
+import org.homeunix.thecave.buddi.model.impl.ColumnarDocument;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableAccount;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableSource;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableTransaction;
+
+/**
+ * A read only ImmutableDocument backed by a memory mapped ColumnarDocument,
+ * for running reports and exports without loading the data file.  The account
+ * types, accounts, budget categories and scheduled transactions come from a
+ * small document which has no transactions (returned from getModel()); the
+ * transaction lists are views onto the columns, which create a lightweight
+ * MappedTransactionImpl for each element as it is read.
+ *
+ * Account balances are worked out from the columns, so the accounts returned
+ * from here are MappedAccountImpls; calling getBalance(Date) on the raw Account
+ * objects will not include any transactions.
+ *
+ * See ModelFactory.createMappedDocument().
+ */
+public class MappedDocumentImpl extends ImmutableDocumentImpl {
+	private final ColumnarDocument columns;
+	private final ImmutableSource[] sources;
+	private final List<ImmutableAccount> accounts = new ArrayList<ImmutableAccount>();
+
+	public MappedDocumentImpl(ColumnarDocument columns) {
+		super(columns.getSourceDocument());
+		this.columns = columns;
+
+		sources = new ImmutableSource[columns.getSourceCount()];
+		for (int i = 0; i < sources.length; i++){
+			Source source = columns.getSource(i);
+			if (source instanceof Account){
+				sources[i] = new MappedAccountImpl(columns, i);
+				accounts.add((ImmutableAccount) sources[i]);
+			}
+			else if (source instanceof BudgetCategory)
+				sources[i] = new ImmutableBudgetCategoryImpl((BudgetCategory) source);
+		}
+	}
+
+	public ColumnarDocument getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Returns the wrapper for the source with the given ordinal, or null if
+	 * the ordinal is negative.
+	 * @param ordinal
+	 * @return
+	 */
+	public ImmutableSource getSource(int ordinal) {
+		if (ordinal < 0)
+			return null;
+		return sources[ordinal];
+	}
+
+	@Override
+	public ImmutableAccount getAccount(String name) {
+		Account account = getModel().getAccount(name);
+		if (account == null)
+			return null;
+		return (ImmutableAccount) getSource(columns.getOrdinal(account.getUid()));
+	}
+
+	@Override
+	public List<ImmutableAccount> getImmutableAccounts() {
+		return Collections.unmodifiableList(accounts);
+	}
+
+	@Override
+	public List<ImmutableTransaction> getImmutableTransactions() {
+		return new TransactionList(0, columns.getTransactionCount());
+	}
+
+	@Override
+	public List<ImmutableTransaction> getImmutableTransactions(Date startDate, Date endDate) {
+		return new TransactionList(columns.firstIndexAfter(startDate.getTime() - 1), columns.firstIndexAfter(endDate.getTime()));
+	}
+
+	@Override
+	public List<ImmutableTransaction> getImmutableTransactions(ImmutableSource source) {
+		int ordinal = columns.getOrdinal(source.getUid());
+		if (ordinal < 0)
+			return Collections.emptyList();
+		return new SourceTransactionList(ordinal, 0, columns.getPostingCount(ordinal));
+	}
+
+	@Override
+	public List<ImmutableTransaction> getImmutableTransactions(ImmutableSource source, Date startDate, Date endDate) {
+		int ordinal = columns.getOrdinal(source.getUid());
+		if (ordinal < 0)
+			return Collections.emptyList();
+		return new SourceTransactionList(ordinal, columns.firstPostingAfter(ordinal, startDate.getTime() - 1), columns.firstPostingAfter(ordinal, endDate.getTime()));
+	}
+
+	@Override
+	public long getNetWorth(Date date) {
+		long total = 0;
+		for (ImmutableAccount a : accounts) {
+			if (!a.isDeleted()){
+				if (date == null)
+					total += a.getBalance();
+				else
+					total += a.getBalance(date);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * The transactions from index start (inclusive) to end (exclusive).
+	 */
+	private class TransactionList extends AbstractList<ImmutableTransaction> {
+		private final int start;
+		private final int end;
+
+		public TransactionList(int start, int end) {
+			this.start = start;
+			this.end = Math.max(start, end);
+		}
+
+		@Override
+		public ImmutableTransaction get(int index) {
+			if (index < 0 || index >= size())
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			return new MappedTransactionImpl(MappedDocumentImpl.this, start + index);
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+
+	/**
+	 * The transactions referring to a single source, from its posting start
+	 * (inclusive) to end (exclusive).
+	 */
+	private class SourceTransactionList extends AbstractList<ImmutableTransaction> {
+		private final int ordinal;
+		private final int start;
+		private final int end;
+
+		public SourceTransactionList(int ordinal, int start, int end) {
+			this.ordinal = ordinal;
+			this.start = start;
+			this.end = Math.max(start, end);
+		}
+
+		@Override
+		public ImmutableTransaction get(int index) {
+			if (index < 0 || index >= size())
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			return new MappedTransactionImpl(MappedDocumentImpl.this, columns.getPostingTransaction(ordinal, start + index));
+		}
+
+		@Override
+		public int size() {
+			return end - start;
+		}
+	}
+}
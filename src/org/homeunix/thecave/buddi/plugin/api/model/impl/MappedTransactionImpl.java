@@ -0,0 +1,178 @@
+package org.homeunix.thecave.buddi.plugin.api.model.impl;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.homeunix.thecave.buddi.model.BudgetCategory;
+import org.homeunix.thecave.buddi.model.ModelObject;
+import org.homeunix.thecave.buddi.model.Split;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.ColumnarDocument;
+import org.homeunix.thecave.buddi.model.impl.WrapperLists;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableModelObject;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableSource;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableTransaction;
+import org.homeunix.thecave.buddi.plugin.api.model.ImmutableTransactionSplit;
+
+/**
+ * A transaction in a MappedDocumentImpl.  This only holds the index of the
+ * transaction, and reads each field from the columns when asked for it, so
+ * these can be created and thrown away while scanning without any cost.  The
+ * Transaction object (returned from getRaw() and getTransaction()) is only
+ * created if someone asks for it, or for the splits.
+ */
+public class MappedTransactionImpl implements ImmutableTransaction {
+	private final MappedDocumentImpl document;
+	private final ColumnarDocument columns;
+	private final int index;
+	private Transaction transaction;
+
+	public MappedTransactionImpl(MappedDocumentImpl document, int index) {
+		this.document = document;
+		this.columns = document.getColumns();
+		this.index = index;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public ModelObject getRaw() {
+		return getTransaction();
+	}
+
+	public Transaction getTransaction() {
+		if (transaction == null)
+			transaction = columns.getTransaction(index);
+		return transaction;
+	}
+
+	public String getUid() {
+		return columns.getUid(index);
+	}
+
+	public Date getModified() {
+		return new Date(columns.getModified(index));
+	}
+
+	public long getAmount() {
+		return columns.getAmount(index);
+	}
+
+	public Date getDate() {
+		return new Date(columns.getDate(index));
+	}
+
+	public String getDescription() {
+		return columns.getDescription(index);
+	}
+
+	public String getMemo() {
+		return columns.getMemo(index);
+	}
+
+	public String getNumber() {
+		return columns.getNumber(index);
+	}
+
+	public ImmutableSource getFrom() {
+		if (columns.isFromSplit(index))
+			return new ImmutableSplitImpl((Split) getTransaction().getFrom());
+		return document.getSource(columns.getFrom(index));
+	}
+
+	public ImmutableSource getTo() {
+		if (columns.isToSplit(index))
+			return new ImmutableSplitImpl((Split) getTransaction().getTo());
+		return document.getSource(columns.getTo(index));
+	}
+
+	public List<ImmutableTransactionSplit> getImmutableFromSplits() {
+		if (!columns.hasSplits(index) || getTransaction().getFromSplits() == null)
+			return Collections.emptyList();
+		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(document.getModel(), getTransaction().getFromSplits(), true);
+	}
+
+	public List<ImmutableTransactionSplit> getImmutableToSplits() {
+		if (!columns.hasSplits(index) || getTransaction().getToSplits() == null)
+			return Collections.emptyList();
+		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(document.getModel(), getTransaction().getToSplits(), true);
+	}
+
+	/**
+	 * Returns the balance of the given account after this transaction, if it is
+	 * the account this transaction moves money to or from, and 0 otherwise (as
+	 * with Transaction.getBalance()).
+	 */
+	public long getBalance(ImmutableSource source) {
+		int ordinal = columns.getOrdinal(source.getUid());
+		if (ordinal < 0 || (columns.getFrom(index) != ordinal && columns.getTo(index) != ordinal))
+			return 0;
+		ImmutableSource mapped = document.getSource(ordinal);
+		if (!(mapped instanceof MappedAccountImpl))
+			return 0;
+		Long total = columns.getTotalAt(ordinal, index);
+		return ((MappedAccountImpl) mapped).getStartingBalance() + (total == null ? 0 : total);
+	}
+
+	public boolean isInflow() {
+		int from = columns.getFrom(index);
+		if (from >= 0 && columns.getSource(from) instanceof BudgetCategory)
+			return getAmount() >= 0;
+		int to = columns.getTo(index);
+		if (to >= 0 && columns.getSource(to) instanceof BudgetCategory)
+			return getAmount() < 0;
+		return false;
+	}
+
+	public boolean isClearedFrom() {
+		return columns.isClearedFrom(index);
+	}
+
+	public boolean isClearedTo() {
+		return columns.isClearedTo(index);
+	}
+
+	public boolean isReconciledFrom() {
+		return columns.isReconciledFrom(index);
+	}
+
+	public boolean isReconciledTo() {
+		return columns.isReconciledTo(index);
+	}
+
+	public boolean isScheduled() {
+		return columns.isScheduled(index);
+	}
+
+	public boolean isDeleted() {
+		return columns.isDeleted(index);
+	}
+
+	public int compareTo(ImmutableModelObject o) {
+		//Transactions are stored in their sort order, so we only need the full
+		// objects to compare against something from elsewhere.
+		if (o instanceof MappedTransactionImpl && ((MappedTransactionImpl) o).columns == columns)
+			return index - ((MappedTransactionImpl) o).index;
+		return getTransaction().compareTo(o.getRaw());
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof ImmutableTransaction)
+			return getUid().equals(((ImmutableTransaction) obj).getUid());
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return getUid().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return getDescription();
+	}
+}
@@ -7,6 +7,7 @@ import java.util.Date;
 
 import org.homeunix.thecave.buddi.model.Account;
 import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
+import org.homeunix.thecave.buddi.model.impl.WrapperLists;
 import org.homeunix.thecave.buddi.plugin.api.model.MutableAccount;
 import org.homeunix.thecave.buddi.plugin.api.model.MutableAccountType;
 
@@ -42,7 +43,7 @@ public class MutableAccountImpl extends MutableSourceImpl implements MutableAcco
 
 	public MutableAccountType getAccountType() {
 		if (getAccount().getAccountType() != null)
-			return new MutableAccountTypeImpl(getAccount().getAccountType());
+			return WrapperLists.getWrapper(getAccount().getAccountType());
 		return null;
 	}
 	public Date getStartDate() {
@@ -57,7 +57,7 @@ public class MutableBudgetCategoryImpl extends MutableSourceImpl implements Muta
 	
 	public MutableBudgetCategory getParent() {
 		if (getBudgetCategory().getParent() != null)
-			return new MutableBudgetCategoryImpl(getBudgetCategory().getParent());
+			return WrapperLists.getWrapper(getBudgetCategory().getParent());
 		return null;
 	}
 
@@ -87,7 +87,7 @@ public class MutableDocumentImpl extends MutableModelObjectImpl implements Mutab
 	public MutableAccount getAccount(String name) {
 		if (getModel().getAccount(name) == null)
 			return null;
-		return new MutableAccountImpl(getModel().getAccount(name));
+		return WrapperLists.getWrapper(getModel().getAccount(name));
 	}
 	
 	public List<MutableAccount> getMutableAccounts(){
@@ -102,7 +102,7 @@ public class MutableDocumentImpl extends MutableModelObjectImpl implements Mutab
 		BudgetCategory bc = getModel().getBudgetCategory(fullName);
 		if (bc == null)
 			return null;
-		return new MutableBudgetCategoryImpl(bc);
+		return WrapperLists.getWrapper(bc);
 	}
 	
 	public Document getModel(){
@@ -128,7 +128,7 @@ public class MutableDocumentImpl extends MutableModelObjectImpl implements Mutab
 	public MutableAccountType getAccountType(String name) {
 		if (getModel().getAccountType(name) == null)
 			return null;
-		return new MutableAccountTypeImpl(getModel().getAccountType(name));
+		return WrapperLists.getWrapper(getModel().getAccountType(name));
 	}
 	
 	public List<MutableAccountType> getMutableAccountTypes(){
@@ -7,9 +7,6 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.homeunix.thecave.buddi.model.Account;
-import org.homeunix.thecave.buddi.model.BudgetCategory;
-import org.homeunix.thecave.buddi.model.Split;
 import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.TransactionSplit;
 import org.homeunix.thecave.buddi.model.impl.WrapperLists;
@@ -60,28 +57,16 @@ public class MutableTransactionImpl extends MutableModelObjectImpl implements Mu
 		return getTransaction().isScheduled();
 	}
 	public MutableSourceImpl getFrom(){
-		if (getTransaction().getFrom() instanceof Account)
-			return new MutableAccountImpl((Account) getTransaction().getFrom());
-		if (getTransaction().getFrom() instanceof BudgetCategory)
-			return new MutableBudgetCategoryImpl((BudgetCategory) getTransaction().getFrom());
-		if (getTransaction().getFrom() instanceof Split)
-			return new MutableSplitImpl((Split) getTransaction().getFrom());
-		return null;
+		return WrapperLists.getWrapper(getTransaction().getFrom());
 	}
 	public MutableSourceImpl getTo(){
-		if (getTransaction().getTo() instanceof Account)
-			return new MutableAccountImpl((Account) getTransaction().getTo());
-		if (getTransaction().getTo() instanceof BudgetCategory)
-			return new MutableBudgetCategoryImpl((BudgetCategory) getTransaction().getTo());
-		if (getTransaction().getTo() instanceof Split)
-			return new MutableSplitImpl((Split) getTransaction().getTo());
-		return null;
+		return WrapperLists.getWrapper(getTransaction().getTo());
 	}
 	public List<ImmutableTransactionSplit> getImmutableFromSplits(){
-		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getFromSplits());
+		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getFromSplits(), true);
 	}
 	public List<ImmutableTransactionSplit> getImmutableToSplits(){
-		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getToSplits());
+		return new WrapperLists.ImmutableObjectWrapperList<ImmutableTransactionSplit, TransactionSplit>(getRaw().getDocument(), ((Transaction) getRaw()).getToSplits(), true);
 	}
 	public long getBalance(ImmutableSource source) {
 		return getTransaction().getBalance(source.getUid());
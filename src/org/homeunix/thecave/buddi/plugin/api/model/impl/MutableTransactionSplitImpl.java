@@ -3,9 +3,8 @@
  */
 package org.homeunix.thecave.buddi.plugin.api.model.impl;
 
-import org.homeunix.thecave.buddi.model.Account;
-import org.homeunix.thecave.buddi.model.BudgetCategory;
 import org.homeunix.thecave.buddi.model.TransactionSplit;
+import org.homeunix.thecave.buddi.model.impl.WrapperLists;
 import org.homeunix.thecave.buddi.plugin.api.exception.InvalidValueException;
 import org.homeunix.thecave.buddi.plugin.api.model.ImmutableSource;
 import org.homeunix.thecave.buddi.plugin.api.model.MutableSource;
@@ -33,11 +32,7 @@ public class MutableTransactionSplitImpl extends MutableModelObjectImpl implemen
 	}
 	
 	public ImmutableSource getSource(){
-		if (getTransactionSplit().getSource() instanceof Account)
-			return new MutableAccountImpl((Account) getTransactionSplit().getSource());
-		if (getTransactionSplit().getSource() instanceof BudgetCategory)
-			return new MutableBudgetCategoryImpl((BudgetCategory) getTransactionSplit().getSource());
-		return null;
+		return WrapperLists.getWrapper(getTransactionSplit().getSource());
 	}
 	public long getAmount(){
 		return getTransactionSplit().getAmount();
@@ -81,19 +81,19 @@ public class HtmlHelper {
 
 		if (startDate != null && endDate != null){
 			sb.append("<h2>"); 
-			sb.append(TextFormatter.getDateFormat().format(startDate));
+			sb.append(TextFormatter.getFormattedDate(startDate));
 			sb.append(" - ");
-			sb.append(TextFormatter.getDateFormat().format(endDate));
+			sb.append(TextFormatter.getFormattedDate(endDate));
 			sb.append("</h2>\n");
 		}
 		else if (startDate != null){
 			sb.append("<h2>"); 
-			sb.append(TextFormatter.getDateFormat().format(startDate));
+			sb.append(TextFormatter.getFormattedDate(startDate));
 			sb.append("</h2>\n");			
 		}
 		else if (endDate != null){
 			sb.append("<h2>"); 
-			sb.append(TextFormatter.getDateFormat().format(endDate));
+			sb.append(TextFormatter.getFormattedDate(endDate));
 			sb.append("</h2>\n");	
 		}
 
@@ -126,7 +126,7 @@ public class HtmlHelper {
 		StringBuilder sb = new StringBuilder();
 
 		sb.append("<tr><td width='15%'>");
-		sb.append(TextFormatter.getDateFormat().format(t.getDate()));
+		sb.append(TextFormatter.getFormattedDate(t.getDate()));
 
 		sb.append("</td><td width='20%'>");
 		sb.append(TextFormatter.getTranslation(t.getDescription()));
@@ -44,7 +44,7 @@ public class TextFormatter {
 	 * @return
 	 */
 	public static String getFormattedDate(Date date){
-		return getDateFormat().format(date);
+		return Formatter.formatDate(date, PrefsModel.getInstance().getDateFormat());
 	}
 
 	/**
@@ -124,20 +124,12 @@ public class TextFormatter {
 		if (negate)
 			value *= -1;
 
-		boolean symbolAfterAmount = PrefsModel.getInstance().isShowCurrencyAfterAmount();
-		String symbol = PrefsModel.getInstance().getCurrencySign();
-
 		if (PrefsModel.getInstance().isDontShowNegativeSign())
 			value = Math.abs(value);
 
-		String formatted = 
-			(isRed ? "<font color='red'>" : "")
-			+ (symbolAfterAmount ? "" : symbol)
-			+ Formatter.getDecimalFormat().format((double) value / 100.0)  
-			+ (symbolAfterAmount ? " " + symbol : "")
-			+ (isRed ? "</font>" : "");
-
-		return formatted;
+		StringBuilder sb = new StringBuilder(32);
+		appendFormattedCurrency(sb, value, isRed, false);
+		return sb.toString();
 	}
 
 	/**
@@ -174,7 +166,7 @@ public class TextFormatter {
 			sb.append("<font color='red'>");
 		if (!symbolAfterAmount)
 			sb.append(PrefsModel.getInstance().getCurrencySign());
-		sb.append(Formatter.getDecimalFormat().format((double) value / 100.0));  
+		Formatter.appendCents(sb, value);
 		if (symbolAfterAmount)
 			sb.append(" ").append(PrefsModel.getInstance().getCurrencySign());
 		if (isRed)
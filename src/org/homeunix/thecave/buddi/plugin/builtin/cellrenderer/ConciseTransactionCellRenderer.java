@@ -7,7 +7,6 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
@@ -17,13 +16,10 @@ import javax.swing.JLabel;
 import javax.swing.JList;
 
 import org.homeunix.thecave.buddi.i18n.BuddiKeys;
-import org.homeunix.thecave.buddi.model.Account;
 import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
 import org.homeunix.thecave.buddi.plugin.api.BuddiTransactionCellRendererPlugin;
 import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
-import org.homeunix.thecave.buddi.util.Formatter;
-import org.homeunix.thecave.buddi.util.InternalFormatter;
 
 import ca.digitalcave.moss.common.OperatingSystemUtil;
 
@@ -46,7 +42,11 @@ public class ConciseTransactionCellRenderer extends BuddiTransactionCellRenderer
 
 	private int maxDescriptionLength = 50;
 
+	//The text, fonts and widths for each row; see TransactionRenderCache.
+	private TransactionRenderCache cache;
+
 	private static final Color GREEN = new Color(0, 128, 0);
+	private static final Color VOID = new Color(0, 0, 0, 64);
 
 	public ConciseTransactionCellRenderer(){
 		if (OperatingSystemUtil.isMac()){
@@ -75,6 +75,16 @@ public class ConciseTransactionCellRenderer extends BuddiTransactionCellRenderer
 
 		return super.getListCellRendererComponent(list, "", index, isSelected, cellHasFocus);
 	}
+	
+	/**
+	 * Returns the number of rows which have been worked out for painting; rows
+	 * which are painted again without changing are reused.  This is a diagnostic,
+	 * for the unit tests.
+	 * @return
+	 */
+	public long getRowsCreated() {
+		return (cache == null ? 0 : cache.getRowsCreated());
+	}
 
 	@Override
 	protected void paintComponent(Graphics g) {
@@ -93,95 +103,72 @@ public class ConciseTransactionCellRenderer extends BuddiTransactionCellRenderer
 			final int bottomRowYPos = height - 5;
 
 			final Font f = g.getFont();
-			final Font bold = new Font(f.getName(), Font.BOLD, f.getSize());
-			final Font italic = new Font(f.getName(), Font.ITALIC, f.getSize());				
+			if (cache == null)
+				cache = new TransactionRenderCache(this, false, cheques);
+			final TransactionRenderCache.Row row = cache.getRow(transaction, getAccount(), f);
 
 			final int amountXOffset = 180;
 
-			//Get the font metrics for column alignment
-			final FontMetrics fm = this.getGraphics().getFontMetrics();
-
 			//Date
-			g.drawString(TextFormatter.getDateFormat().format(transaction.getDate()), 10, topRowYPos);
+			g.drawString(row.getDate(), 10, topRowYPos);
 
 			//Description
-			g.setFont(bold);
-			g.drawString(
-					Formatter.getStringToLength(
-							transaction.getDescription() + (cheques && transaction.getNumber() != null && transaction.getNumber().trim().length() > 0 ? "     #" + transaction.getNumber(): ""),
-							maxDescriptionLength, fm), 
-							150, 
-							topRowYPos);
+			g.setFont(cache.getBoldFont());
+			g.drawString(row.getDescription(maxDescriptionLength), 150, topRowYPos);
 			g.setFont(f);
 
 			//Memo
-			g.drawString(
-					Formatter.getStringToLength(
-							transaction.getMemo() != null ? transaction.getMemo() : "",
-							width - amountXOffset, fm
-					), 
-					150, 
-					bottomRowYPos);
+			g.drawString(row.getMemo(width - amountXOffset), 150, bottomRowYPos);
 
 			//Cleared and Reconciled
 			if (getAccount() != null){
 				if (showCleared){
 					g.setColor(GREEN);
-					if (getAccount().equals(transaction.getTo()) && transaction.isClearedTo()
-							|| getAccount().equals(transaction.getFrom()) && transaction.isClearedFrom())
-						g.drawString(PrefsModel.getInstance().getTranslator().get(BuddiKeys.SHORT_CLEARED), 20, bottomRowYPos);
+					if (row.isCleared())
+						g.drawString(cache.getClearedLabel(), 20, bottomRowYPos);
 					g.setColor(textColor);
 				}
 				if (showReconciled){
 					g.setColor(GREEN);
-					if (getAccount().equals(transaction.getTo()) && transaction.isReconciledTo()
-							|| getAccount().equals(transaction.getFrom()) && transaction.isReconciledFrom())
-						g.drawString(PrefsModel.getInstance().getTranslator().get(BuddiKeys.SHORT_RECONCILED), 30, bottomRowYPos);
+					if (row.isReconciled())
+						g.drawString(cache.getReconciledLabel(), 30, bottomRowYPos);
 					g.setColor(textColor);
 				}
 			}
 
 			//Amount renderer when account is null
-			int xPos = 0, minXPos = Integer.MAX_VALUE;
+			int xPos = 0;
 			if (getAccount() == null){
-				long value = transaction.getAmount();
-				xPos = width - 20 - fm.stringWidth(TextFormatter.getFormattedCurrency(value, false, false));
-				if (xPos < minXPos) minXPos = xPos;
-				g.setColor(InternalFormatter.isRed(transaction) ? Color.RED : textColor);
-				g.drawString(TextFormatter.getFormattedCurrency(value, false, false), xPos, bottomRowYPos);
+				xPos = width - 20 - row.getAmountWidth();
+				g.setColor(row.isAmountRed() ? Color.RED : textColor);
+				g.drawString(row.getAmount(), xPos, bottomRowYPos);
 				g.setColor(textColor);
 			}
 			else {
 				//Amount
 				xPos = width - amountXOffset;
-				if (xPos < minXPos) minXPos = xPos;
-				g.setColor(InternalFormatter.isRed(transaction, transaction.getTo().equals(getAccount())) ? Color.RED : textColor);
-				g.drawString(TextFormatter.getFormattedCurrency(transaction.getAmount(), false, false), xPos, bottomRowYPos);
+				g.setColor(row.isAmountRed() ? Color.RED : textColor);
+				g.drawString(row.getAmount(), xPos, bottomRowYPos);
 				g.setColor(textColor);
 
 				//Balance - max 150px
-				g.setFont(bold);
-				final long balanceValue = transaction.getBalance(getAccount().getUid());
-
-				xPos = width - 20 - fm.stringWidth(TextFormatter.getFormattedCurrency(balanceValue, false, getAccount().getAccountType().isCredit()));
-				if (xPos < minXPos) minXPos = xPos;
-				g.setColor(InternalFormatter.isRed(getAccount(), balanceValue) ? Color.RED : textColor);
-				g.drawString(TextFormatter.getFormattedCurrency(balanceValue, false, getAccount().getAccountType().isCredit()), xPos, bottomRowYPos);
+				g.setFont(cache.getBoldFont());
+				xPos = width - 20 - row.getBalanceWidth();
+				g.setColor(row.isBalanceRed() ? Color.RED : textColor);
+				g.drawString(row.getBalance(), xPos, bottomRowYPos);
 				g.setColor(textColor);
 			}
 			g.setFont(f);
 
 			//To / From sources
-			g.setFont(italic);
-			final String categoryName = transaction.getFrom() instanceof Account ? transaction.getTo().getFullName() : transaction.getFrom().getFullName();
-			xPos = width - 20 - fm.stringWidth(categoryName);
-			if (xPos < minXPos) minXPos = xPos;
-			g.drawString(categoryName, xPos, topRowYPos);
-
-			if (transaction.isDeleted()){
-				g.setFont(new Font(f.getName(), Font.BOLD, (int) (f.getSize() * 2.5)));
-				g.setColor(new Color(0, 0, 0, 64));
-				g.drawString(TextFormatter.getTranslation(BuddiKeys.VOID_TRANSACTION), maxDescriptionLength / 2, (int) (f.getSize() * 2.5 + 2));
+			g.setFont(cache.getItalicFont());
+			xPos = width - 20 - row.getCategoryNameWidth();
+			g.drawString(row.getCategoryName(), xPos, topRowYPos);
+
+			if (row.isDeleted()){
+				g.setFont(cache.getVoidFont());
+				g.setColor(VOID);
+				g.drawString(cache.getVoidLabel(), maxDescriptionLength / 2, (int) (f.getSize() * 2.5 + 2));
 			}
 		}
 	}
@@ -7,7 +7,6 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Insets;
@@ -21,8 +20,6 @@ import org.homeunix.thecave.buddi.model.Transaction;
 import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
 import org.homeunix.thecave.buddi.plugin.api.BuddiTransactionCellRendererPlugin;
 import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
-import org.homeunix.thecave.buddi.util.Formatter;
-import org.homeunix.thecave.buddi.util.InternalFormatter;
 
 import ca.digitalcave.moss.common.OperatingSystemUtil;
 
@@ -45,11 +42,11 @@ public class DefaultTransactionCellRenderer extends BuddiTransactionCellRenderer
 
 	private int maxDescriptionLength = 50;//, maxToFromLength = 40;
 
-	private static Font f;
-	private static Font bold;
-	private static Font italic;
+	//The text, fonts and widths for each row; see TransactionRenderCache.
+	private TransactionRenderCache cache;
 
 	private static final Color GREEN = new Color(0, 128, 0);
+	private static final Color VOID = new Color(0, 0, 0, 64);
 
 	/**
 	 * Creates a new TransactionCellRenderer object
@@ -81,6 +78,16 @@ public class DefaultTransactionCellRenderer extends BuddiTransactionCellRenderer
 
 		return super.getListCellRendererComponent(list, "", index, isSelected, cellHasFocus);
 	}
+	
+	/**
+	 * Returns the number of rows which have been worked out for painting; rows
+	 * which are painted again without changing are reused.  This is a diagnostic,
+	 * for the unit tests.
+	 * @return
+	 */
+	public long getRowsCreated() {
+		return (cache == null ? 0 : cache.getRowsCreated());
+	}
 
 	@Override
 	protected void paintComponent(Graphics g) {
@@ -95,50 +102,35 @@ public class DefaultTransactionCellRenderer extends BuddiTransactionCellRenderer
 
 		if (transaction != null){
 			Color textColor = g.getColor();
-			FontMetrics fm;
 			int topRowYPos = height / 2 - 5;
 			int bottomRowYPos = height - 5;
 
-			f = g.getFont();
-			if (simple) {
-				bold = f;
-				italic = f;
-			}
-			else {
-				bold = new Font(f.getName(), Font.BOLD, f.getSize());
-				italic = new Font(f.getName(), Font.ITALIC, f.getSize());				
-			}
-			
-			//Get the font metrics for column alignment
-			fm = this.getGraphics().getFontMetrics();
+			Font f = g.getFont();
+			//Subclasses set simple and cheques in their constructors, after ours has run
+			if (cache == null)
+				cache = new TransactionRenderCache(this, simple, cheques);
+			TransactionRenderCache.Row row = cache.getRow(transaction, getAccount(), f);
 			
 			//Date
-			g.drawString(TextFormatter.getDateFormat().format(transaction.getDate()), 10, topRowYPos);
+			g.drawString(row.getDate(), 10, topRowYPos);
 			
 			//Description
-			g.setFont(bold);
-			g.drawString(
-					Formatter.getStringToLength(
-					transaction.getDescription() + (cheques && transaction.getNumber() != null && transaction.getNumber().trim().length() > 0 ? "     #" + transaction.getNumber(): ""),
-					maxDescriptionLength, fm), 
-					150, 
-					topRowYPos);
+			g.setFont(cache.getBoldFont());
+			g.drawString(row.getDescription(maxDescriptionLength), 150, topRowYPos);
 			g.setFont(f);
 
 			//Cleared and Reconciled
 			if (getAccount() != null){
 				if (showCleared){
 					g.setColor(GREEN);
-					if (getAccount().equals(transaction.getTo()) && transaction.isClearedTo()
-							|| getAccount().equals(transaction.getFrom()) && transaction.isClearedFrom())
-						g.drawString(PrefsModel.getInstance().getTranslator().get(BuddiKeys.SHORT_CLEARED), 20, bottomRowYPos);
+					if (row.isCleared())
+						g.drawString(cache.getClearedLabel(), 20, bottomRowYPos);
 					g.setColor(textColor);
 				}
 				if (showReconciled){
 					g.setColor(GREEN);
-					if (getAccount().equals(transaction.getTo()) && transaction.isReconciledTo()
-							|| getAccount().equals(transaction.getFrom()) && transaction.isReconciledFrom())
-						g.drawString(PrefsModel.getInstance().getTranslator().get(BuddiKeys.SHORT_RECONCILED), 30, bottomRowYPos);
+					if (row.isReconciled())
+						g.drawString(cache.getReconciledLabel(), 30, bottomRowYPos);
 					g.setColor(textColor);
 				}
 			}
@@ -146,70 +138,51 @@ public class DefaultTransactionCellRenderer extends BuddiTransactionCellRenderer
 			//Amount renderer when account is null
 			int xPos = 0, minXPos = Integer.MAX_VALUE;
 			if (getAccount() == null){
-				fm = this.getGraphics().getFontMetrics();
-				if (transaction != null){
-
-					long value = transaction.getAmount();
-					xPos = width - 20 - fm.stringWidth(TextFormatter.getFormattedCurrency(value, false, false));
-					if (xPos < minXPos) minXPos = xPos;
-					g.setColor(InternalFormatter.isRed(transaction) ? Color.RED : textColor);
-					g.drawString(TextFormatter.getFormattedCurrency(value, false, false), xPos, bottomRowYPos);
-					g.setColor(textColor);
-				}
+				xPos = width - 20 - row.getAmountWidth();
+				if (xPos < minXPos) minXPos = xPos;
+				g.setColor(row.isAmountRed() ? Color.RED : textColor);
+				g.drawString(row.getAmount(), xPos, bottomRowYPos);
+				g.setColor(textColor);
 			}
 			else {
 				//Left column - max 100 px
-				if (transaction.getFrom() != null
-						&& transaction.getFrom().equals(getAccount())){
-					xPos = width - 220 - fm.stringWidth(TextFormatter.getFormattedCurrency(transaction.getAmount(), false, false)); 
+				if (row.isFrom()){
+					xPos = width - 220 - row.getAmountWidth(); 
 					if (xPos < minXPos) minXPos = xPos;
-					g.setColor(InternalFormatter.isRed(transaction, transaction.getTo().equals(getAccount())) ? Color.RED : textColor);
-					g.drawString(TextFormatter.getFormattedCurrency(transaction.getAmount(), false, false), xPos, bottomRowYPos);
+					g.setColor(row.isAmountRed() ? Color.RED : textColor);
+					g.drawString(row.getAmount(), xPos, bottomRowYPos);
 					g.setColor(textColor);
 				}
 				//Right Column - max 100 px
-				if (transaction.getTo() != null
-						&& transaction.getTo().equals(getAccount())){
-					xPos = width - 120 - fm.stringWidth(TextFormatter.getFormattedCurrency(transaction.getAmount(), false, false));
+				if (row.isTo()){
+					xPos = width - 120 - row.getAmountWidth();
 					if (xPos < minXPos) minXPos = xPos;
-					g.setColor(InternalFormatter.isRed(transaction, transaction.getTo().equals(getAccount())) ? Color.RED : textColor);
-					g.drawString(TextFormatter.getFormattedCurrency(transaction.getAmount(), false, false), xPos, bottomRowYPos);
+					g.setColor(row.isAmountRed() ? Color.RED : textColor);
+					g.drawString(row.getAmount(), xPos, bottomRowYPos);
 					g.setColor(textColor);
 				}
 
 				//Balance - max 150px
-				g.setFont(bold);
-				fm = this.getGraphics().getFontMetrics();
-				if (transaction != null){
-					final long balanceValue = transaction.getBalance(getAccount().getUid());
-
-					xPos = width - 20 - fm.stringWidth(TextFormatter.getFormattedCurrency(balanceValue, false, getAccount().getAccountType().isCredit()));
-					if (xPos < minXPos) minXPos = xPos;
-					g.setColor(InternalFormatter.isRed(getAccount(), balanceValue) ? Color.RED : textColor);
-					g.drawString(TextFormatter.getFormattedCurrency(balanceValue, false, getAccount().getAccountType().isCredit()), xPos, bottomRowYPos);
-					g.setColor(textColor);
-				}
+				g.setFont(cache.getBoldFont());
+				xPos = width - 20 - row.getBalanceWidth();
+				if (xPos < minXPos) minXPos = xPos;
+				g.setColor(row.isBalanceRed() ? Color.RED : textColor);
+				g.drawString(row.getBalance(), xPos, bottomRowYPos);
+				g.setColor(textColor);
 			}
 			g.setFont(f);
 			
 			//To / From sources
-			g.setFont(italic);
-			g.drawString(
-					Formatter.getStringToLength(
-							transaction.getFrom().getFullName() + "       " + transaction.getTo().getFullName(),
-							minXPos - 70,
-							fm), 
-							50, 
-							bottomRowYPos);
-			fm = this.getGraphics().getFontMetrics();
-			int arrowOffset = 50 + fm.stringWidth(transaction.getFrom().getFullName() + " ");
+			g.setFont(cache.getItalicFont());
+			g.drawString(row.getSources(minXPos - 70), 50, bottomRowYPos);
+			int arrowOffset = 50 + row.getFromNameWidth();
 			g.setFont(f);
-			g.drawString(PrefsModel.getInstance().getTranslator().get(BuddiKeys.TO), arrowOffset, bottomRowYPos);
+			g.drawString(cache.getToLabel(), arrowOffset, bottomRowYPos);
 
-			if (transaction.isDeleted()){
-				g.setFont(new Font(f.getName(), Font.BOLD, (int) (f.getSize() * 2.5)));
-				g.setColor(new Color(0, 0, 0, 64));
-				g.drawString(TextFormatter.getTranslation(BuddiKeys.VOID_TRANSACTION), maxDescriptionLength / 2, (int) (f.getSize() * 2.5 + 2));
+			if (row.isDeleted()){
+				g.setFont(cache.getVoidFont());
+				g.setColor(VOID);
+				g.drawString(cache.getVoidLabel(), maxDescriptionLength / 2, (int) (f.getSize() * 2.5 + 2));
 			}
 		}
 	}
@@ -0,0 +1,379 @@
+package org.homeunix.thecave.buddi.plugin.builtin.cellrenderer;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.swing.JComponent;
+
+import org.homeunix.thecave.buddi.i18n.BuddiKeys;
+import org.homeunix.thecave.buddi.model.Account;
+import org.homeunix.thecave.buddi.model.Document;
+import org.homeunix.thecave.buddi.model.Transaction;
+import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
+import org.homeunix.thecave.buddi.plugin.api.util.TextFormatter;
+import org.homeunix.thecave.buddi.util.Formatter;
+import org.homeunix.thecave.buddi.util.InternalFormatter;
+
+/**
+ * The text, colours and widths which the built in transaction cell renderers
+ * draw for each transaction, so that they only need to be worked out once
+ * instead of on every repaint.  Each renderer has its own cache, which keeps
+ * the most recently painted rows.
+ *
+ * A row is thrown away when the transaction's modified time changes.  All rows
+ * are thrown away when anything else in the document changes (an account or
+ * category may have been renamed), or when the font, the selected account, or
+ * any of the formatting preferences change.  Balances are read from the
+ * transaction on each paint, and only formatted again when they change.
+ *
+ * This must only be used from the event dispatch thread.
+ */
+final class TransactionRenderCache {
+	//Enough for all the visible rows, plus a few pages of scrolling.
+	private static final int MAX_ROWS = 1024;
+
+	private final JComponent component;
+	private final boolean simple;
+	private final boolean cheques;
+
+	private final Map<Transaction, Row> rows = new LinkedHashMap<Transaction, Row>(64, 0.75f, true){
+		public static final long serialVersionUID = 0;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Transaction, Row> eldest) {
+			return size() > MAX_ROWS;
+		}
+	};
+
+	//The things which every row depends on
+	private Font font;
+	private Account account;
+	private Date documentModified;
+	private String dateFormat;
+	private String currencySign;
+	private boolean currencyAfterAmount;
+	private boolean dontShowNegativeSign;
+	private String language;
+	private Locale locale;
+
+	private FontMetrics metrics;
+	private Font bold;
+	private Font italic;
+	private Font voidFont;
+	private String clearedLabel;
+	private String reconciledLabel;
+	private String toLabel;
+	private String voidLabel;
+
+	private long rowsCreated;
+
+	/**
+	 * Creates a new cache for the given renderer.
+	 * @param component The renderer, which is used to measure the text.
+	 * @param simple Use the plain font instead of bold and italic.
+	 * @param cheques Show the cheque number after the description.
+	 */
+	TransactionRenderCache(JComponent component, boolean simple, boolean cheques) {
+		this.component = component;
+		this.simple = simple;
+		this.cheques = cheques;
+	}
+
+	/**
+	 * Returns the row for the given transaction, as shown in the given account
+	 * (which may be null) with the given font.
+	 * @param t
+	 * @param account
+	 * @param font
+	 * @return
+	 */
+	Row getRow(Transaction t, Account account, Font font){
+		validate(t, account, font);
+
+		Row row = rows.get(t);
+		if (row == null || row.transaction != t || row.modified == null || row.modified != t.getModified()){
+			row = new Row(t);
+			rows.put(t, row);
+			rowsCreated++;
+		}
+		return row;
+	}
+
+	/**
+	 * Returns the number of rows which have been worked out since this cache was
+	 * created.
+	 */
+	long getRowsCreated() {
+		return rowsCreated;
+	}
+
+	Font getBoldFont() {
+		return bold;
+	}
+
+	Font getItalicFont() {
+		return italic;
+	}
+
+	Font getVoidFont() {
+		return voidFont;
+	}
+
+	FontMetrics getFontMetrics() {
+		return metrics;
+	}
+
+	String getClearedLabel() {
+		return clearedLabel;
+	}
+
+	String getReconciledLabel() {
+		return reconciledLabel;
+	}
+
+	String getToLabel() {
+		return toLabel;
+	}
+
+	String getVoidLabel() {
+		return voidLabel;
+	}
+
+	/**
+	 * Throws away all the rows if anything they depend on has changed.
+	 */
+	private void validate(Transaction t, Account account, Font font){
+		PrefsModel prefs = PrefsModel.getInstance();
+		Document document = t.getDocument();
+		Date documentModified = (document == null ? null : document.getModified());
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+
+		if (font.equals(this.font)
+				&& account == this.account
+				&& documentModified == this.documentModified
+				&& prefs.getDateFormat().equals(dateFormat)
+				&& prefs.getCurrencySign().equals(currencySign)
+				&& prefs.isShowCurrencyAfterAmount() == currencyAfterAmount
+				&& prefs.isDontShowNegativeSign() == dontShowNegativeSign
+				&& prefs.getLanguage().equals(language)
+				&& locale.equals(this.locale))
+			return;
+
+		rows.clear();
+
+		if (!font.equals(this.font)){
+			metrics = component.getFontMetrics(font);
+			bold = (simple ? font : new Font(font.getName(), Font.BOLD, font.getSize()));
+			italic = (simple ? font : new Font(font.getName(), Font.ITALIC, font.getSize()));
+			voidFont = new Font(font.getName(), Font.BOLD, (int) (font.getSize() * 2.5));
+		}
+
+		this.font = font;
+		this.account = account;
+		this.documentModified = documentModified;
+		this.dateFormat = prefs.getDateFormat();
+		this.currencySign = prefs.getCurrencySign();
+		this.currencyAfterAmount = prefs.isShowCurrencyAfterAmount();
+		this.dontShowNegativeSign = prefs.isDontShowNegativeSign();
+		this.language = prefs.getLanguage();
+		this.locale = locale;
+
+		clearedLabel = prefs.getTranslator().get(BuddiKeys.SHORT_CLEARED);
+		reconciledLabel = prefs.getTranslator().get(BuddiKeys.SHORT_RECONCILED);
+		toLabel = prefs.getTranslator().get(BuddiKeys.TO);
+		voidLabel = TextFormatter.getTranslation(BuddiKeys.VOID_TRANSACTION);
+	}
+
+	/**
+	 * What is drawn for a single transaction.
+	 */
+	final class Row {
+		private final Transaction transaction;
+		private final Date modified;
+
+		private final String date;
+		private final String description;
+		private final String memo;
+		private final String amount;
+		private final int amountWidth;
+		private final boolean amountRed;
+		private final boolean from;
+		private final boolean to;
+		private final boolean cleared;
+		private final boolean reconciled;
+		private final String fromName;
+		private final String toName;
+		private final int fromNameWidth;
+		private final String categoryName;
+		private final int categoryNameWidth;
+
+		//The balance is read each time, and only formatted when it changes.
+		private boolean balanceFormatted;
+		private long balance;
+		private String balanceText;
+		private int balanceWidth;
+		private boolean balanceRed;
+
+		//The text which is cut to fit, along with the width it was cut to.
+		private int descriptionMaxWidth = -1;
+		private String descriptionToLength;
+		private int sourcesMaxWidth = -1;
+		private String sourcesToLength;
+		private int memoMaxWidth = -1;
+		private String memoToLength;
+
+		private Row(Transaction t) {
+			this.transaction = t;
+			this.modified = t.getModified();
+
+			date = TextFormatter.getFormattedDate(t.getDate());
+			description = t.getDescription() + (cheques && t.getNumber() != null && t.getNumber().trim().length() > 0 ? "     #" + t.getNumber(): "");
+			memo = (t.getMemo() != null ? t.getMemo() : "");
+			amount = TextFormatter.getFormattedCurrency(t.getAmount(), false, false);
+			amountWidth = metrics.stringWidth(amount);
+
+			from = t.getFrom() != null && t.getFrom().equals(account);
+			to = t.getTo() != null && t.getTo().equals(account);
+			if (account == null)
+				amountRed = InternalFormatter.isRed(t);
+			else
+				amountRed = InternalFormatter.isRed(t, t.getTo().equals(account));
+			cleared = to && t.isClearedTo() || from && t.isClearedFrom();
+			reconciled = to && t.isReconciledTo() || from && t.isReconciledFrom();
+
+			fromName = t.getFrom().getFullName();
+			toName = t.getTo().getFullName();
+			fromNameWidth = metrics.stringWidth(fromName + " ");
+			categoryName = (t.getFrom() instanceof Account ? toName : fromName);
+			categoryNameWidth = metrics.stringWidth(categoryName);
+		}
+
+		String getDate() {
+			return date;
+		}
+
+		/**
+		 * Returns the description (with the cheque number, if shown), cut off
+		 * to fit in the given width.
+		 */
+		String getDescription(int maxWidth) {
+			if (maxWidth != descriptionMaxWidth){
+				descriptionToLength = Formatter.getStringToLength(description, maxWidth, metrics);
+				descriptionMaxWidth = maxWidth;
+			}
+			return descriptionToLength;
+		}
+
+		/**
+		 * Returns the memo, cut off to fit in the given width.
+		 */
+		String getMemo(int maxWidth) {
+			if (maxWidth != memoMaxWidth){
+				memoToLength = Formatter.getStringToLength(memo, maxWidth, metrics);
+				memoMaxWidth = maxWidth;
+			}
+			return memoToLength;
+		}
+
+		/**
+		 * Returns the from and to source names, with room between them for
+		 * the 'to' label, cut off to fit in the given width.
+		 */
+		String getSources(int maxWidth) {
+			if (maxWidth != sourcesMaxWidth){
+				sourcesToLength = Formatter.getStringToLength(fromName + "       " + toName, maxWidth, metrics);
+				sourcesMaxWidth = maxWidth;
+			}
+			return sourcesToLength;
+		}
+
+		String getAmount() {
+			return amount;
+		}
+
+		int getAmountWidth() {
+			return amountWidth;
+		}
+
+		boolean isAmountRed() {
+			return amountRed;
+		}
+
+		/**
+		 * Is the account which this row was created for the source this
+		 * transaction moves money from?
+		 */
+		boolean isFrom() {
+			return from;
+		}
+
+		/**
+		 * Is the account which this row was created for the source this
+		 * transaction moves money to?
+		 */
+		boolean isTo() {
+			return to;
+		}
+
+		boolean isCleared() {
+			return cleared;
+		}
+
+		boolean isReconciled() {
+			return reconciled;
+		}
+
+		int getFromNameWidth() {
+			return fromNameWidth;
+		}
+
+		/**
+		 * Returns the name of the source which is not an account (or the 'to'
+		 * source, if both are accounts).
+		 */
+		String getCategoryName() {
+			return categoryName;
+		}
+
+		int getCategoryNameWidth() {
+			return categoryNameWidth;
+		}
+
+		boolean isDeleted() {
+			return transaction.isDeleted();
+		}
+
+		/**
+		 * Returns the balance of the account after this transaction.  This
+		 * must only be called when there is an account.
+		 */
+		String getBalance() {
+			updateBalance();
+			return balanceText;
+		}
+
+		int getBalanceWidth() {
+			updateBalance();
+			return balanceWidth;
+		}
+
+		boolean isBalanceRed() {
+			updateBalance();
+			return balanceRed;
+		}
+
+		private void updateBalance(){
+			long balance = transaction.getBalance(account.getUid());
+			if (!balanceFormatted || balance != this.balance){
+				this.balance = balance;
+				balanceText = TextFormatter.getFormattedCurrency(balance, false, account.getAccountType().isCredit());
+				balanceWidth = metrics.stringWidth(balanceText);
+				balanceRed = InternalFormatter.isRed(account, balance);
+				balanceFormatted = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package org.homeunix.thecave.buddi.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import ca.digitalcave.moss.crypto.CipherException;
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+
+/**
+ * A small index of the rotating backups of a data file, which is kept up to date
+ * by BackupStore as backups are made.  For each backup we remember the size and
+ * modification time of the file (so that we can tell if it was changed behind our
+ * back), the timestamp from the encrypted file header, and the UID and number of
+ * transactions of the document it contains.  This lets the Backup Manager list
+ * the backups without opening any of them.
+ *
+ * The metadata of the data file itself is recorded after every save, as we cannot
+ * read the document UID or transaction count from the file without decrypting it;
+ * when the data file is backed up, its metadata moves to the new backup.
+ *
+ * The catalog is stored as a tab separated text file, and is replaced atomically
+ * when saved.  A missing or unreadable catalog is treated as empty.
+ */
+public class BackupCatalog {
+	private static final Logger logger = Logger.getLogger(BackupCatalog.class.getName());
+
+	private static final String MAGIC = "BUDDICATALOG";
+	private static final int VERSION = 1;
+	private static final String DATA_FILE_KEY = "data";
+
+	private final File file;
+	private final Map<Integer, Entry> backups = new TreeMap<Integer, Entry>();
+	private Entry dataFile;
+	private boolean changed;
+
+	private BackupCatalog(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads the catalog stored in the given file.  If the file does not exist or
+	 * cannot be read, returns an empty catalog which will be saved to that file.
+	 * @param file
+	 * @return
+	 */
+	public static BackupCatalog load(File file){
+		BackupCatalog catalog = new BackupCatalog(file);
+		if (!file.exists())
+			return catalog;
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String header = reader.readLine();
+				if (header == null || !header.equals(MAGIC + "\t" + VERSION))
+					throw new IOException("Unknown backup catalog format");
+
+				String line;
+				while ((line = reader.readLine()) != null){
+					String[] fields = line.split("\t", -1);
+					if (fields.length != 6)
+						throw new IOException("Corrupt backup catalog entry " + line);
+					Entry entry = new Entry(
+							Long.parseLong(fields[1]),
+							Long.parseLong(fields[2]),
+							Long.parseLong(fields[3]),
+							(fields[4].length() == 0 ? null : fields[4]),
+							Integer.parseInt(fields[5]));
+					if (fields[0].equals(DATA_FILE_KEY))
+						catalog.dataFile = entry;
+					else
+						catalog.backups.put(Integer.parseInt(fields[0]), entry);
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (RuntimeException re){
+			logger.log(Level.WARNING, "Unable to read backup catalog " + file + "; rebuilding it.", re);
+			catalog = new BackupCatalog(file);
+			catalog.changed = true;
+		}
+		catch (IOException ioe){
+			logger.log(Level.WARNING, "Unable to read backup catalog " + file + "; rebuilding it.", ioe);
+			catalog = new BackupCatalog(file);
+			catalog.changed = true;
+		}
+		return catalog;
+	}
+
+	/**
+	 * Saves the catalog, if it has changed since it was loaded.
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+		if (!changed)
+			return;
+
+		File temp = new File(file.getPath() + ".temp");
+		PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try {
+			writer.print(MAGIC + "\t" + VERSION + "\n");
+			if (dataFile != null)
+				writer.print(DATA_FILE_KEY + "\t" + dataFile + "\n");
+			for (Integer number : backups.keySet())
+				writer.print(number + "\t" + backups.get(number) + "\n");
+		}
+		finally {
+			writer.close();
+		}
+		if (writer.checkError()){
+			temp.delete();
+			throw new IOException("Unable to write backup catalog " + file);
+		}
+
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException amnse){
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		changed = false;
+	}
+
+	/**
+	 * Records the metadata of the given data file, which has just been saved with
+	 * the given document UID and number of transactions.
+	 * @param dataFile
+	 * @param documentUid
+	 * @param transactionCount
+	 */
+	public void setDataFile(File dataFile, String documentUid, int transactionCount){
+		this.dataFile = new Entry(dataFile.length(), dataFile.lastModified(), getTimestamp(dataFile), documentUid, transactionCount);
+		changed = true;
+	}
+
+	/**
+	 * Shifts the entries for a rotation of the backups, and records the new backup
+	 * (number 0) as a copy of the given data file.  If the data file was saved by
+	 * Buddi since the catalog last saw it, we know what it contains; otherwise we
+	 * only know its timestamp.
+	 * @param dataFile
+	 * @param backup
+	 * @param numberOfBackups
+	 */
+	void rotate(File dataFile, File backup, int numberOfBackups){
+		Map<Integer, Entry> rotated = new TreeMap<Integer, Entry>();
+		for (Integer number : backups.keySet()){
+			if (number + 1 < numberOfBackups)
+				rotated.put(number + 1, backups.get(number));
+		}
+		backups.clear();
+		backups.putAll(rotated);
+
+		Entry entry;
+		if (this.dataFile != null && this.dataFile.matches(dataFile))
+			entry = new Entry(backup.length(), backup.lastModified(), this.dataFile.timestamp, this.dataFile.documentUid, this.dataFile.transactionCount);
+		else
+			entry = new Entry(backup.length(), backup.lastModified(), getTimestamp(backup), null, -1);
+		backups.put(0, entry);
+		changed = true;
+	}
+
+	/**
+	 * Returns the entry for the given backup file and number.  If the catalog does
+	 * not know about the file, or the file has changed since it was catalogued,
+	 * the file header is read to create a new entry.  Returns null if the file does
+	 * not exist or is not a valid data file.
+	 * @param number
+	 * @param backup
+	 * @return
+	 */
+	Entry getEntry(int number, File backup){
+		Entry entry = backups.get(number);
+		if (entry != null && entry.matches(backup))
+			return entry;
+
+		if (!backup.exists()){
+			if (entry != null){
+				backups.remove(number);
+				changed = true;
+			}
+			return null;
+		}
+
+		long timestamp = getTimestamp(backup);
+		if (timestamp < 0)
+			return null;
+		entry = new Entry(backup.length(), backup.lastModified(), timestamp, null, -1);
+		backups.put(number, entry);
+		changed = true;
+		return entry;
+	}
+
+	/**
+	 * Returns the timestamp stored in the header of the given file, or -1 if it
+	 * could not be read.
+	 */
+	private static long getTimestamp(File file){
+		try {
+			FileInputStream is = new FileInputStream(file);
+			try {
+				Date date = new BuddiCryptoFactory().getTimestamp(is);
+				return (date == null ? -1 : date.getTime());
+			}
+			finally {
+				is.close();
+			}
+		}
+		catch (IOException ioe){
+			logger.log(Level.WARNING, "IOException for file " + file, ioe);
+		}
+		catch (IncorrectDocumentFormatException idfe){
+			logger.log(Level.WARNING, "Incorrect document format for file " + file, idfe);
+		}
+		catch (CipherException ce){
+			logger.log(Level.WARNING, "Cipher Exception", ce);
+		}
+		return -1;
+	}
+
+	/**
+	 * The metadata of a single backup (or of the data file).
+	 */
+	public static class Entry {
+		private final long size;
+		private final long lastModified;
+		private final long timestamp;
+		private final String documentUid;
+		private final int transactionCount;
+
+		private Entry(long size, long lastModified, long timestamp, String documentUid, int transactionCount) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.timestamp = timestamp;
+			this.documentUid = (documentUid == null ? null : documentUid.replaceAll("[\t\r\n]", " "));
+			this.transactionCount = transactionCount;
+		}
+
+		private boolean matches(File file){
+			return file.exists() && file.length() == size && file.lastModified() == lastModified;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * Returns the date on which the backed up file was saved, or null if unknown.
+		 * @return
+		 */
+		public Date getTimestamp() {
+			return (timestamp < 0 ? null : new Date(timestamp));
+		}
+
+		/**
+		 * Returns the UID of the document in the backup, or null if unknown.
+		 * @return
+		 */
+		public String getDocumentUid() {
+			return documentUid;
+		}
+
+		/**
+		 * Returns the number of transactions in the backup, or -1 if unknown.
+		 * @return
+		 */
+		public int getTransactionCount() {
+			return transactionCount;
+		}
+
+		@Override
+		public String toString() {
+			return size + "\t" + lastModified + "\t" + timestamp + "\t" + (documentUid == null ? "" : documentUid) + "\t" + transactionCount;
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package org.homeunix.thecave.buddi.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.homeunix.thecave.buddi.Const;
+
+/**
+ * Maintains the rotating backups of a single data file, of the form
+ * 'Data_X.buddi3bak'.  The one with the smallest number X is the most recent.
+ *
+ * We used to rotate the backups by copying each one to the next number, which
+ * meant that every save read and wrote the entire set of backups.  Now the
+ * backups are rotated by renaming them, so that only the new backup is written.
+ *
+ * The new backup itself is not written directly either: the contents of the
+ * data file are kept in a hidden store folder next to the backups, in a file
+ * named after the SHA-256 hash of its contents, and each backup is a hard link
+ * to one of those files.  If the data file has not changed since it was last
+ * backed up (for instance when a save fails and is retried), the new backup
+ * links to the existing copy and no bytes are duplicated.  Files in the store
+ * which are no longer linked from any backup are removed after each rotation.
+ *
+ * On file systems which do not support hard links, we fall back to a plain
+ * copy of the data file, and the store is not used.
+ *
+ * The backups are also listed in a BackupCatalog next to them, which is updated
+ * as they are rotated, so that they can be listed without opening each one.
+ * The backups and the catalog are only changed while holding a single lock,
+ * which is shared by all stores, since a new store is created for each save
+ * and the save thread may back up while the backups are being listed.
+ */
+public class BackupStore {
+	private static final Logger logger = Logger.getLogger(BackupStore.class.getName());
+
+	private static final Object LOCK = new Object();
+
+	private final String fileBase;
+	private final int numberOfBackups;
+	private final File storeFolder;
+	private final File catalogFile;
+
+	/**
+	 * Creates a new backup store for backups starting with the given path, which
+	 * is the data file path (or the path in the backup location), without the
+	 * data file extension.
+	 * @param fileBase
+	 * @param numberOfBackups
+	 */
+	public BackupStore(String fileBase, int numberOfBackups) {
+		this.fileBase = fileBase;
+		this.numberOfBackups = numberOfBackups;
+		File base = new File(fileBase);
+		this.storeFolder = new File(base.getParentFile(), "." + base.getName() + Const.BACKUP_STORE_EXTENSION);
+		this.catalogFile = new File(base.getParentFile(), "." + base.getName() + Const.BACKUP_CATALOG_EXTENSION);
+	}
+
+	/**
+	 * Returns the backup file with the given number, where 0 is the most recent.
+	 * @param number
+	 * @return
+	 */
+	public File getBackupFile(int number){
+		return new File(fileBase + "_" + number + Const.BACKUP_FILE_EXTENSION);
+	}
+
+	/**
+	 * Returns the folder which contains the hard linked contents of the backups.
+	 * @return
+	 */
+	public File getStoreFolder() {
+		return storeFolder;
+	}
+
+	/**
+	 * Returns the file which contains the catalog of the backups.
+	 * @return
+	 */
+	public File getCatalogFile() {
+		return catalogFile;
+	}
+
+	/**
+	 * Returns all backups of the data file which are in the backup folder (including
+	 * any which are numbered higher than the current number of backups), in order
+	 * from most recent to oldest, along with their catalog entries.  Only the
+	 * backups which are not already in the catalog need to be opened.
+	 * @return
+	 */
+	public Map<File, BackupCatalog.Entry> getBackups(){
+		synchronized (LOCK) {
+			final File base = new File(fileBase);
+			final Pattern pattern = Pattern.compile(Pattern.quote(base.getName()) + "_(\\d+)" + Pattern.quote(Const.BACKUP_FILE_EXTENSION));
+			Map<Integer, File> files = new TreeMap<Integer, File>();
+			String[] names = (base.getParentFile() == null ? null : base.getParentFile().list());
+			if (names != null){
+				for (String name : names) {
+					Matcher matcher = pattern.matcher(name);
+					if (matcher.matches()){
+						try {
+							files.put(Integer.parseInt(matcher.group(1)), new File(base.getParentFile(), name));
+						}
+						catch (NumberFormatException nfe){}
+					}
+				}
+			}
+
+			BackupCatalog catalog = BackupCatalog.load(catalogFile);
+			Map<File, BackupCatalog.Entry> backups = new LinkedHashMap<File, BackupCatalog.Entry>();
+			for (Integer number : files.keySet()) {
+				BackupCatalog.Entry entry = catalog.getEntry(number, files.get(number));
+				if (entry != null)
+					backups.put(files.get(number), entry);
+			}
+			saveCatalog(catalog);
+
+			return backups;
+		}
+	}
+
+	/**
+	 * Records the document UID and number of transactions of the given data file,
+	 * which has just been saved, so that they are known once it is backed up.
+	 * @param dataFile
+	 * @param documentUid
+	 * @param transactionCount
+	 */
+	public void setDataFile(File dataFile, String documentUid, int transactionCount){
+		if (numberOfBackups <= 0)
+			return;
+		synchronized (LOCK) {
+			BackupCatalog catalog = BackupCatalog.load(catalogFile);
+			catalog.setDataFile(dataFile, documentUid, transactionCount);
+			saveCatalog(catalog);
+		}
+	}
+
+	private void saveCatalog(BackupCatalog catalog){
+		try {
+			catalog.save();
+		}
+		catch (IOException ioe){
+			//The catalog is only a cache; the backups themselves are fine.
+			logger.log(Level.WARNING, "Unable to save backup catalog " + catalogFile, ioe);
+		}
+	}
+
+	/**
+	 * Rotates the existing backups, and backs up the given data file as the most
+	 * recent one.  Returns the new backup, or null if backups are turned off.
+	 * @param dataFile
+	 * @return
+	 * @throws IOException
+	 */
+	public File backup(File dataFile) throws IOException {
+		if (numberOfBackups <= 0)
+			return null;
+
+		//Hash the data file before touching any backups, so that a read error
+		// leaves the existing backups alone.
+		String hash = getHash(dataFile);
+
+		synchronized (LOCK) {
+			File oldest = getBackupFile(numberOfBackups - 1);
+			if (oldest.exists() && !oldest.delete())
+				throw new IOException("Could not remove old backup " + oldest);
+			for (int i = numberOfBackups - 2; i >= 0; i--){
+				File source = getBackupFile(i);
+				if (source.exists()){
+					File dest = getBackupFile(i + 1);
+					move(source, dest);
+					logger.finest("Moving " + source + " to " + dest);
+				}
+			}
+
+			File backup = getBackupFile(0);
+			if (!link(dataFile, hash, backup)){
+				FileFunctions.copyFile(dataFile, backup);
+				logger.finest("Copied " + dataFile + " to " + backup);
+			}
+			prune();
+
+			BackupCatalog catalog = BackupCatalog.load(catalogFile);
+			catalog.rotate(dataFile, backup, numberOfBackups);
+			saveCatalog(catalog);
+
+			return backup;
+		}
+	}
+
+	/**
+	 * Links the given backup file to the stored copy of the data file, storing
+	 * it first if needed.  Returns false if hard links are not supported here.
+	 */
+	private boolean link(File dataFile, String hash, File backup) throws IOException {
+		File stored = new File(storeFolder, hash + Const.BACKUP_FILE_EXTENSION);
+		boolean existed = stored.exists();
+		if (!existed){
+			if (!storeFolder.isDirectory() && !storeFolder.mkdirs())
+				return false;
+			//Copy to a temporary file first, so that a partial copy is never
+			// mistaken for a stored file with the given hash.
+			File temp = new File(storeFolder, hash + ".temp");
+			FileFunctions.copyFile(dataFile, temp);
+			move(temp, stored);
+		}
+
+		try {
+			Files.createLink(backup.toPath(), stored.toPath());
+			logger.finest((existed ? "Linked unchanged " : "Linked ") + dataFile + " to " + backup);
+			return true;
+		}
+		catch (UnsupportedOperationException uoe){}
+		catch (FileSystemException fse){}
+
+		if (!existed)
+			stored.delete();
+		return false;
+	}
+
+	/**
+	 * Removes any files in the store which are not linked from one of the backups.
+	 */
+	private void prune(){
+		File[] stored = storeFolder.listFiles();
+		if (stored == null)
+			return;
+
+		for (File file : stored) {
+			boolean used = false;
+			for (int i = 0; i < numberOfBackups && !used; i++){
+				File backup = getBackupFile(i);
+				try {
+					used = backup.exists() && Files.isSameFile(backup.toPath(), file.toPath());
+				}
+				catch (IOException ioe){
+					used = true; //Keep it if we are not sure
+				}
+			}
+			if (!used && file.delete())
+				logger.finest("Removed unused backup contents " + file);
+		}
+		if (storeFolder.list() != null && storeFolder.list().length == 0)
+			storeFolder.delete();
+	}
+
+	private static void move(File source, File dest) throws IOException {
+		try {
+			Files.move(source.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException amnse){
+			Files.move(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 hash of the contents of the given file.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String getHash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException nsae){
+			throw new IOException(nsae);
+		}
+
+		InputStream is = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = is.read(buffer)) > -1)
+				digest.update(buffer, 0, read);
+		}
+		finally {
+			is.close();
+		}
+
+		StringBuilder sb = new StringBuilder(64);
+		for (byte b : digest.digest())
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return sb.toString();
+	}
+}
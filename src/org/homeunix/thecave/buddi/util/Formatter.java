@@ -6,8 +6,13 @@ package org.homeunix.thecave.buddi.util;
 import java.awt.FontMetrics;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 
 /**
@@ -20,6 +25,19 @@ public class Formatter {
 	
 	private static StringLengthFormat lengthFormat = new StringLengthFormat();
 	
+	//Amounts up to this many cents have at most 15 significant digits, so
+	// formatting them as a double gives the exact digits.
+	private static final long MAX_EXACT_CENTS = 1000000000000000l;
+
+	//Number and date formats are expensive to create and are not thread safe,
+	// so each thread keeps its own.
+	private static final ThreadLocal<FormatCache> formatCache = new ThreadLocal<FormatCache>(){
+		@Override
+		protected FormatCache initialValue() {
+			return new FormatCache();
+		}
+	};
+
 	public static NumberFormat getDecimalFormat(){
 		return getDecimalFormat(2);
 	}
@@ -40,6 +58,99 @@ public class Formatter {
 		return new SimpleDateFormat(format);
 	}
 	
+	/**
+	 * Returns the given number formatted with the given number of decimal
+	 * places.  This gives the same result as getDecimalFormat(decimalPlaces).format(value),
+	 * but does not create a new format each time.
+	 * @param value
+	 * @param decimalPlaces
+	 * @return
+	 */
+	public static String formatDecimal(double value, int decimalPlaces){
+		return getCachedDecimalFormat(decimalPlaces).format(value);
+	}
+	
+	/**
+	 * Returns the given date formatted with the given pattern.  This gives the
+	 * same result as getDateFormat(format).format(date), but does not create
+	 * a new format each time.
+	 * @param date
+	 * @param format
+	 * @return
+	 */
+	public static String formatDate(Date date, String format){
+		return getCachedDateFormat(format).format(date);
+	}
+	
+	/**
+	 * Returns the number format which this thread keeps for the given number 
+	 * of decimal places.  It is shared by everything on the thread, so it must
+	 * not be modified or given to anything outside this class.
+	 * @param decimalPlaces
+	 * @return
+	 */
+	static NumberFormat getCachedDecimalFormat(int decimalPlaces){
+		return getFormatCache().getDecimalFormat(decimalPlaces);
+	}
+	
+	/**
+	 * Returns the date format which this thread keeps for the given pattern.
+	 * It is shared by everything on the thread, so it must not be modified or
+	 * given to anything outside this class.
+	 * @param format
+	 * @return
+	 */
+	static DateFormat getCachedDateFormat(String format){
+		return getFormatCache().getDateFormat(format);
+	}
+	
+	/**
+	 * Appends the given number of cents to the string builder, as a decimal with 
+	 * two decimal places.  This gives the same result as 
+	 * getDecimalFormat().format(cents / 100.0), but does not go through a double 
+	 * or create any objects for the usual locales.
+	 * @param sb
+	 * @param cents
+	 */
+	public static void appendCents(StringBuilder sb, long cents){
+		FormatCache cache = getFormatCache();
+		if (cache.negativePrefix == null || cents >= MAX_EXACT_CENTS || cents <= -MAX_EXACT_CENTS){
+			sb.append(cache.getDecimalFormat(2).format((double) cents / 100.0));
+			return;
+		}
+		
+		char[] buffer = cache.buffer;
+		char zero = cache.zeroDigit;
+		int position = buffer.length;
+		long value = Math.abs(cents);
+		
+		buffer[--position] = (char) (zero + value % 10);
+		value /= 10;
+		buffer[--position] = (char) (zero + value % 10);
+		value /= 10;
+		buffer[--position] = cache.decimalSeparator;
+		int digits = 0;
+		do {
+			if (cache.groupingSize > 0 && digits > 0 && digits % cache.groupingSize == 0)
+				buffer[--position] = cache.groupingSeparator;
+			buffer[--position] = (char) (zero + value % 10);
+			value /= 10;
+			digits++;
+		} while (value > 0);
+		
+		if (cents < 0)
+			sb.append(cache.negativePrefix);
+		sb.append(buffer, position, buffer.length - position);
+	}
+	
+	private static FormatCache getFormatCache(){
+		FormatCache cache = formatCache.get();
+		Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+		if (!locale.equals(cache.locale))
+			cache.setLocale(locale);
+		return cache;
+	}
+	
 	public static StringLengthFormat getStringLengthFormat(int length){
 		lengthFormat.setLength(length);
 		return lengthFormat;
@@ -177,6 +288,81 @@ public class Formatter {
 //		return shortDateFormat;
 //	}
 //
+	/**
+	 * The formats for one thread, which are thrown away when the default locale
+	 * changes.
+	 */
+	private static class FormatCache {
+		//Date formats are kept by pattern; there are only ever a few of these.
+		private static final int MAX_DATE_FORMATS = 16;
+
+		private Locale locale;
+		private final NumberFormat[] decimalFormats = new NumberFormat[4];
+		private final Map<String, DateFormat> dateFormats = new HashMap<String, DateFormat>();
+
+		//The symbols used by appendCents(), or a null negativePrefix if the 
+		// locale's number format is not one which it knows how to copy.
+		private String negativePrefix;
+		private char zeroDigit;
+		private char decimalSeparator;
+		private char groupingSeparator;
+		private int groupingSize;
+		private final char[] buffer = new char[48];
+
+		public void setLocale(Locale locale){
+			this.locale = locale;
+			for (int i = 0; i < decimalFormats.length; i++){
+				decimalFormats[i] = null;
+			}
+			dateFormats.clear();
+
+			negativePrefix = null;
+			NumberFormat f = getDecimalFormat(2);
+			if (f instanceof DecimalFormat){
+				DecimalFormat df = (DecimalFormat) f;
+				DecimalFormatSymbols symbols = df.getDecimalFormatSymbols();
+				if (df.getPositivePrefix().length() == 0
+						&& df.getPositiveSuffix().length() == 0
+						&& df.getNegativeSuffix().length() == 0
+						&& df.getMultiplier() == 1
+						&& df.getMinimumIntegerDigits() == 1
+						&& df.getMaximumIntegerDigits() >= 20){
+					negativePrefix = df.getNegativePrefix();
+					zeroDigit = symbols.getZeroDigit();
+					decimalSeparator = symbols.getDecimalSeparator();
+					groupingSeparator = symbols.getGroupingSeparator();
+					groupingSize = (df.isGroupingUsed() ? df.getGroupingSize() : 0);
+				}
+			}
+		}
+
+		public NumberFormat getDecimalFormat(int decimalPlaces){
+			if (decimalPlaces < 0 || decimalPlaces >= decimalFormats.length)
+				return createDecimalFormat(decimalPlaces);
+			if (decimalFormats[decimalPlaces] == null)
+				decimalFormats[decimalPlaces] = createDecimalFormat(decimalPlaces);
+			return decimalFormats[decimalPlaces];
+		}
+
+		public DateFormat getDateFormat(String format){
+			DateFormat f = dateFormats.get(format);
+			if (f == null){
+				f = new SimpleDateFormat(format, locale);
+				if (dateFormats.size() >= MAX_DATE_FORMATS)
+					dateFormats.clear();
+				dateFormats.put(format, f);
+			}
+			return f;
+		}
+
+		private NumberFormat createDecimalFormat(int decimalPlaces){
+			NumberFormat f = DecimalFormat.getInstance(locale);
+			f.setMaximumFractionDigits(decimalPlaces);
+			f.setMinimumFractionDigits(decimalPlaces);
+			return f;
+		}
+	}
+
 	/**
 	 * A formatter-style class which cuts strings off after a given length.
 	 * @author wyatt
@@ -0,0 +1,361 @@
+package org.homeunix.thecave.buddi.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import ca.digitalcave.moss.crypto.CipherException;
+import ca.digitalcave.moss.crypto.IncorrectDocumentFormatException;
+import ca.digitalcave.moss.crypto.IncorrectPasswordException;
+
+/**
+ * Reads a data file in stages, so that the parser does not have to wait for
+ * decryption and decompression (or the other way around).
+ *
+ * The constructor reads only the plain text header of the file, derives the key
+ * from the password, and decrypts the canary at the start of the body.  If the
+ * password is wrong, it throws IncorrectPasswordException right away, having
+ * read just a few bytes of the file, so that the caller can ask for a new
+ * password and try again cheaply.
+ *
+ * Once the password is known to be correct, a producer thread reads the rest of
+ * the file, decrypts and decompresses it, and passes it in chunks through a
+ * bounded buffer to the stream returned from getInputStream(), which is read by
+ * the parser on the calling thread.  The buffer is bounded so that a slow parser
+ * does not cause the whole decompressed document to pile up in memory.
+ *
+ * We keep track of the time spent in each stage, which is returned from
+ * toString() once the pipeline has been closed.
+ *
+ * To use, read the document from getInputStream(), and then call close().  It is
+ * safe to always call close() in a finally block; if the parser stopped early,
+ * this stops the producer thread and closes the file.
+ */
+public class LoadPipeline {
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int BUFFERED_CHUNKS = 16;
+
+	//Marks the end of the document in the buffer.
+	private static final byte[] END = new byte[0];
+
+	private final File file;
+	private final FileStage fileStage;
+	private final InputStream decryptedStream;
+	private final BlockingQueue<byte[]> buffer = new ArrayBlockingQueue<byte[]>(BUFFERED_CHUNKS);
+	private final Thread producer;
+	private final InputStream inputStream;
+	private final long startTime = System.nanoTime();
+	private final long verifyNanos;
+	private final long verifyReadNanos;
+
+	//Written by the producer thread, and only read once it has finished.
+	private volatile Throwable producerException;
+	private volatile long documentBytes;
+	private volatile long producerNanos;
+	private volatile long producerWaitNanos;
+
+	private volatile boolean closed;
+	private long consumerWaitNanos;
+	private long closeTime;
+
+	/**
+	 * Opens the given file, and verifies the given password (which is null for
+	 * unencrypted files) against it.  The same factory should be used when
+	 * trying again with a new password, as it remembers which key lengths it
+	 * has already tried.
+	 * @param file
+	 * @param password
+	 * @param factory
+	 * @throws IOException
+	 * @throws CipherException
+	 * @throws IncorrectPasswordException
+	 * @throws IncorrectDocumentFormatException
+	 */
+	public LoadPipeline(File file, char[] password, BuddiCryptoFactory factory) throws IOException, CipherException, IncorrectPasswordException, IncorrectDocumentFormatException {
+		this.file = file;
+		this.fileStage = new FileStage(new FileInputStream(file));
+		boolean verified = false;
+		try {
+			this.decryptedStream = factory.getDecryptedStream(fileStage, password);
+			verified = true;
+		}
+		finally {
+			//The crypto factory leaves the file open when the password is wrong.
+			if (!verified)
+				fileStage.close();
+		}
+		this.verifyNanos = System.nanoTime() - startTime;
+		this.verifyReadNanos = fileStage.nanos;
+
+		this.inputStream = new BufferInputStream();
+		this.producer = new Thread(new Producer(), "Load " + file.getName());
+		this.producer.setDaemon(true);
+		this.producer.start();
+	}
+
+	/**
+	 * Returns the stream to read the decrypted and decompressed document from.
+	 * @return
+	 */
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	/**
+	 * Stops the producer thread (if it is still running) and closes the file.
+	 */
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		closeTime = System.nanoTime();
+		producer.interrupt();
+		buffer.clear();
+		try {
+			producer.join();
+		}
+		catch (InterruptedException ie){
+			Thread.currentThread().interrupt();
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Returns the number of bytes in the document, after decryption and
+	 * decompression.
+	 * @return
+	 */
+	public long getDocumentBytes() {
+		return documentBytes;
+	}
+
+	/**
+	 * Returns the number of bytes which were read from disk.
+	 * @return
+	 */
+	public long getFileBytes() {
+		return fileStage.bytes;
+	}
+
+	/**
+	 * Returns the time spent reading the header and verifying the password, in
+	 * nanoseconds.
+	 * @return
+	 */
+	public long getVerifyNanos() {
+		return verifyNanos;
+	}
+
+	/**
+	 * Returns the time spent reading the file from disk, in nanoseconds.
+	 * @return
+	 */
+	public long getReadNanos() {
+		return fileStage.nanos;
+	}
+
+	/**
+	 * Returns the time the producer thread spent decrypting and decompressing the
+	 * document, not including reading it from disk or waiting for the parser to
+	 * make room in the buffer, in nanoseconds.
+	 * @return
+	 */
+	public long getDecryptNanos() {
+		return Math.max(0, producerNanos - producerWaitNanos - (fileStage.nanos - verifyReadNanos));
+	}
+
+	/**
+	 * Returns the time the parser spent working, not including waiting for the
+	 * producer thread to fill the buffer, in nanoseconds.
+	 * @return
+	 */
+	public long getParseNanos() {
+		long end = (closed ? closeTime : System.nanoTime());
+		return Math.max(0, end - startTime - verifyNanos - consumerWaitNanos);
+	}
+
+	@Override
+	public String toString() {
+		long total = (closed ? closeTime : System.nanoTime()) - startTime;
+		return "Loaded " + file + " in " + millis(total) + " ms: "
+		+ "verified header and password in " + millis(verifyNanos) + " ms; "
+		+ "read " + fileStage.bytes + " bytes from disk in " + millis(fileStage.nanos) + " ms; "
+		+ "decrypted and decompressed to " + documentBytes + " bytes in " + millis(getDecryptNanos()) + " ms "
+		+ "(waited " + millis(producerWaitNanos) + " ms for the parser); "
+		+ "parsed in " + millis(getParseNanos()) + " ms "
+		+ "(waited " + millis(consumerWaitNanos) + " ms for data).";
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+
+	/**
+	 * Reads, decrypts and decompresses the document into the buffer.
+	 */
+	private class Producer implements Runnable {
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				while (!closed){
+					byte[] chunk = new byte[CHUNK_SIZE];
+					int length = 0;
+					int read;
+					while (length < chunk.length && (read = decryptedStream.read(chunk, length, chunk.length - length)) > -1)
+						length += read;
+
+					if (length > 0){
+						documentBytes += length;
+						put(length < chunk.length ? Arrays.copyOf(chunk, length) : chunk);
+					}
+					if (length < chunk.length)
+						break;
+				}
+			}
+			catch (InterruptedException ie){
+				//The pipeline was closed before the parser finished.
+			}
+			catch (IOException ioe){
+				producerException = ioe;
+			}
+			catch (RuntimeException re){
+				producerException = re;
+			}
+			finally {
+				try {
+					decryptedStream.close();
+				}
+				catch (IOException ioe){}
+				producerNanos = System.nanoTime() - start;
+			}
+
+			try {
+				if (!closed)
+					put(END);
+			}
+			catch (InterruptedException ie){}
+		}
+
+		private void put(byte[] chunk) throws InterruptedException {
+			long start = System.nanoTime();
+			buffer.put(chunk);
+			producerWaitNanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * The stream which the parser reads from, which takes the chunks out of
+	 * the buffer.
+	 */
+	private class BufferInputStream extends InputStream {
+		private byte[] chunk;
+		private int position;
+		private boolean end;
+
+		/**
+		 * Makes sure that there is something left in the current chunk, and
+		 * returns false at the end of the document.
+		 */
+		private boolean fill() throws IOException {
+			while (!end && (chunk == null || position >= chunk.length)){
+				if (closed)
+					throw new IOException("Load pipeline for " + file + " is closed");
+
+				long start = System.nanoTime();
+				try {
+					chunk = buffer.take();
+				}
+				catch (InterruptedException ie){
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while loading " + file);
+				}
+				consumerWaitNanos += System.nanoTime() - start;
+				position = 0;
+
+				if (chunk == END){
+					end = true;
+					if (producerException != null)
+						throw new IOException("Error reading " + file, producerException);
+				}
+			}
+			return !end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!fill())
+				return -1;
+			return chunk[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int count = Math.min(len, chunk.length - position);
+			System.arraycopy(chunk, position, b, off, count);
+			position += count;
+			return count;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (chunk == null || end ? 0 : chunk.length - position);
+		}
+
+		@Override
+		public void close() throws IOException {
+			//The parsers close the stream when they are done; the pipeline itself
+			// is closed by the caller, once it has finished with the document.
+		}
+	}
+
+	/**
+	 * The first stage, which reads from the file and counts the bytes and time.
+	 */
+	private static class FileStage extends FilterInputStream {
+		private volatile long bytes;
+		private volatile long nanos;
+
+		public FileStage(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long start = System.nanoTime();
+			int b = in.read();
+			if (b > -1)
+				bytes++;
+			nanos += System.nanoTime() - start;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			int count = in.read(b, off, len);
+			if (count > 0)
+				bytes += count;
+			nanos += System.nanoTime() - start;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long start = System.nanoTime();
+			long count = in.skip(n);
+			bytes += count;
+			nanos += System.nanoTime() - start;
+			return count;
+		}
+	}
+}
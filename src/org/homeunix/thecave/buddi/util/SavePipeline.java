@@ -0,0 +1,266 @@
+package org.homeunix.thecave.buddi.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import ca.digitalcave.moss.crypto.CipherException;
+
+/**
+ * Writes a data file safely.  Rather than writing directly to the data file
+ * (which would leave a corrupt file behind if Buddi or the computer crashes in
+ * the middle of a save), we write to a new temporary file in the same folder, fsync
+ * it, and then rename it over the data file.  The rename is atomic on all
+ * platforms which support it, so the data file is always either the old
+ * version or the new one.
+ *
+ * The stream returned from getOutputStream() goes through the following stages:
+ * a large buffer, so that the serializer can write small pieces cheaply; the
+ * compression and encryption of BuddiCryptoFactory; and the temporary file.  We
+ * keep track of the number of bytes and the time spent in each stage, which are
+ * returned from toString() once the file has been committed.
+ *
+ * To use, write the document to getOutputStream() and close it, and then call
+ * commit().  If anything goes wrong, call abort() to remove the temporary file;
+ * it is safe to always call abort() in a finally block, as it does nothing after
+ * a successful commit.
+ */
+public class SavePipeline {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final File tempFile;
+	private final FileStage fileStage;
+	private final Stage plainStage;
+	private final OutputStream outputStream;
+	private final long startTime = System.nanoTime();
+
+	private long closeTime;
+	private long renameNanos;
+	private boolean closed;
+	private boolean committed;
+
+	/**
+	 * Creates a new pipeline which will replace the given file, encrypting it with
+	 * the given password (or no password, if it is null).
+	 * @param file
+	 * @param password
+	 * @throws IOException
+	 * @throws CipherException
+	 */
+	public SavePipeline(File file, char[] password) throws IOException, CipherException {
+		this.file = file.getAbsoluteFile();
+		//Each pipeline has its own temporary file, so that an autosave which starts
+		// while another save is running does not truncate the other one's file.
+		this.tempFile = File.createTempFile(this.file.getName() + ".", ".temp", this.file.getParentFile());
+		this.fileStage = new FileStage(new FileOutputStream(tempFile));
+		try {
+			this.plainStage = new Stage(new BuddiCryptoFactory().getEncryptedStream(fileStage, password));
+		}
+		catch (CipherException ce){
+			abort();
+			throw ce;
+		}
+		catch (IOException ioe){
+			abort();
+			throw ioe;
+		}
+		this.outputStream = new BufferedOutputStream(plainStage, BUFFER_SIZE){
+			@Override
+			public void close() throws IOException {
+				//The serializers close the stream when they are done; make sure that
+				// a second close from commit() or abort() does nothing.
+				if (!closed){
+					closed = true;
+					super.close();
+					closeTime = System.nanoTime();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Returns the stream to write the document to.
+	 * @return
+	 */
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+
+	/**
+	 * Closes the stream (if it has not already been closed), which flushes and
+	 * fsyncs the temporary file, and then renames it over the data file.
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		outputStream.close();
+
+		long start = System.nanoTime();
+		try {
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException amnse){
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		syncDirectory(file.getParentFile());
+		renameNanos = System.nanoTime() - start;
+		committed = true;
+	}
+
+	/**
+	 * Closes the stream and removes the temporary file, unless the pipeline has
+	 * already been committed.  The data file is left untouched.
+	 */
+	public void abort() {
+		if (committed)
+			return;
+		try {
+			if (outputStream != null)
+				outputStream.close();
+			else
+				fileStage.close();
+		}
+		catch (IOException ioe){}
+		if (tempFile.exists() && !tempFile.delete())
+			tempFile.deleteOnExit();
+	}
+
+	/**
+	 * Makes sure that the rename is recorded on disk, on platforms where we
+	 * can open a directory.  This is not possible (or needed) on Windows.
+	 */
+	private static void syncDirectory(File directory) {
+		if (directory == null)
+			return;
+		try {
+			FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ);
+			try {
+				channel.force(true);
+			}
+			finally {
+				channel.close();
+			}
+		}
+		catch (IOException ioe){}
+	}
+
+	/**
+	 * Returns the number of bytes which were written by the serializer, before
+	 * compression and encryption.
+	 * @return
+	 */
+	public long getDocumentBytes() {
+		return plainStage.bytes;
+	}
+
+	/**
+	 * Returns the number of bytes which were written to disk.
+	 * @return
+	 */
+	public long getFileBytes() {
+		return fileStage.bytes;
+	}
+
+	@Override
+	public String toString() {
+		long total = (closed ? closeTime : System.nanoTime()) - startTime;
+		long serialize = total - plainStage.nanos;
+		long encrypt = plainStage.nanos - fileStage.nanos;
+		return "Saved " + file + " in " + millis(total + renameNanos) + " ms: "
+		+ "serialized " + plainStage.bytes + " bytes in " + millis(serialize) + " ms (" + rate(plainStage.bytes, serialize) + "); "
+		+ "compressed and encrypted to " + fileStage.bytes + " bytes in " + millis(encrypt) + " ms (" + rate(plainStage.bytes, encrypt) + "); "
+		+ "wrote to disk in " + millis(fileStage.nanos) + " ms (" + rate(fileStage.bytes, fileStage.nanos) + "); "
+		+ "fsync took " + millis(fileStage.syncNanos) + " ms, and rename took " + millis(renameNanos) + " ms.";
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+
+	private static String rate(long bytes, long nanos) {
+		if (nanos <= 0)
+			return "-";
+		return (long) (bytes / (nanos / 1000000000.0) / 1024) + " KB/s";
+	}
+
+	/**
+	 * Counts the bytes written through it, and the time spent in the stages
+	 * below it.
+	 */
+	private static class Stage extends FilterOutputStream {
+		protected long bytes;
+		protected long nanos;
+
+		public Stage(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			long start = System.nanoTime();
+			out.write(b);
+			bytes++;
+			nanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			long start = System.nanoTime();
+			out.write(b, off, len);
+			bytes += len;
+			nanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			long start = System.nanoTime();
+			out.flush();
+			nanos += System.nanoTime() - start;
+		}
+
+		@Override
+		public void close() throws IOException {
+			long start = System.nanoTime();
+			out.close();
+			nanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * The last stage, which writes to the temporary file and fsyncs it when closed.
+	 */
+	private static class FileStage extends Stage {
+		private final FileOutputStream fileOutputStream;
+		private long syncNanos;
+		private boolean fileClosed;
+
+		public FileStage(FileOutputStream out) {
+			super(out);
+			this.fileOutputStream = out;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (fileClosed)
+				return;
+			fileClosed = true;
+			try {
+				flush();
+				long start = System.nanoTime();
+				fileOutputStream.getFD().sync();
+				syncNanos = System.nanoTime() - start;
+			}
+			finally {
+				fileOutputStream.close();
+			}
+		}
+	}
+}
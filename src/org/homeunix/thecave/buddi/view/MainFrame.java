@@ -194,6 +194,7 @@ public class MainFrame extends MossDocumentFrame {
 		PrefsModel.getInstance().save();
 		
 		ModelFactory.getAutoSaveLocation(getDocument().getFile()).delete();
+		ModelFactory.getJournalLocation(getDocument().getFile()).delete();
 		
 		super.closeWindowWithoutPrompting();
 	}
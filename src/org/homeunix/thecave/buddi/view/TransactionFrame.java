@@ -562,9 +562,14 @@ public class TransactionFrame extends MossAssociatedDocumentFrame implements Act
 
 		searchField.addSearchTextChangedEventListener(new SearchTextChangedEventListener(){
 			public void searchTextChangedEventOccurred(SearchTextChangedEvent evt) {
-				listModel.setSearchText(searchField.getText());
-				TransactionFrame.this.updateContent();
-				list.ensureIndexIsVisible(listModel.getSize() - 1);
+				//Searching large files can take a moment, so we wait until the user 
+				// stops typing, and search in the background.
+				listModel.setSearchTextLater(searchField.getText(), new Runnable(){
+					public void run() {
+						TransactionFrame.this.updateContent();
+						list.ensureIndexIsVisible(listModel.getSize() - 1);
+					}
+				});
 			}
 		});
 
@@ -699,6 +704,7 @@ public class TransactionFrame extends MossAssociatedDocumentFrame implements Act
 
 	@Override
 	public void closeWindowWithoutPrompting() {
+		listModel.cancelSearch();
 		PrefsModel.getInstance().setSearchText(searchField.getText());
 		PrefsModel.getInstance().setDateFilter(dateFilterComboBox.getSelectedItem() + "");
 		PrefsModel.getInstance().setReconciledFilter(reconciledFilterComboBox.getSelectedItem() + "");
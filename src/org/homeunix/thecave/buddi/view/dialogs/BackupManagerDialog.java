@@ -92,9 +92,13 @@ public class BackupManagerDialog extends MossDialog implements ActionListener {
 				if (value instanceof File){
 					File f = (File) value;
 					Date date = model.getDate(f);
-					String formattedDate = Formatter.getDateFormat(PrefsModel.getInstance().getDateFormat() + " HH:mm:ss").format(date);
+					String formattedDate = (date == null ? "" : Formatter.getDateFormat(PrefsModel.getInstance().getDateFormat() + " HH:mm:ss").format(date));
 					
-					this.setText(formattedDate + " (" + f.getName() + ")");
+					int transactionCount = model.getTransactionCount(f);
+					
+					this.setText(formattedDate + " (" + f.getName() 
+							+ (transactionCount >= 0 ? ", " + transactionCount + " " + TextFormatter.getTranslation(BuddiKeys.TRANSACTIONS) : "") 
+							+ ")");
 				}
 				
 				return this;
@@ -50,6 +50,7 @@ public class FileRevertToSaved extends MossMenuItem {
 		) == 0) {  //The index of the Yes button.
 			try {
 				ModelFactory.getAutoSaveLocation(((MossDocumentFrame) getFrame()).getDocument().getFile()).delete();
+				ModelFactory.getJournalLocation(((MossDocumentFrame) getFrame()).getDocument().getFile()).delete();
 				Document newDoc = ModelFactory.createDocument(((MossDocumentFrame) getFrame()).getDocument().getFile());
 				
 				MainFrame mainWndow = new MainFrame(newDoc);
@@ -79,6 +79,19 @@ public class FileSaveAs extends MossMenuItem {
 							options[0]
 					) == JOptionPane.YES_OPTION));
 			
+			//Ask if we should use the compact binary format
+			((Document) ((MossDocumentFrame) getFrame()).getDocument()).setFlag(Document.BINARY_FORMAT, 
+					(JOptionPane.showOptionDialog(
+							getFrame(), 
+							TextFormatter.getTranslation(BuddiKeys.MESSAGE_ASK_FOR_BINARY_DATA_FILE_FORMAT),
+							TextFormatter.getTranslation(BuddiKeys.MESSAGE_ASK_FOR_BINARY_DATA_FILE_FORMAT_TITLE),
+							JOptionPane.YES_NO_OPTION,
+							JOptionPane.INFORMATION_MESSAGE,
+							null,
+							options,
+							options[1]
+					) == JOptionPane.YES_OPTION));
+			
 			((MossDocumentFrame) getFrame()).getDocument().saveAs(f);
 			getFrame().updateContent();
 		}
@@ -50,6 +50,7 @@ import org.homeunix.thecave.buddi.model.TransactionSplit;
 import org.homeunix.thecave.buddi.model.impl.ModelFactory;
 import org.homeunix.thecave.buddi.model.impl.SplitImpl;
 import org.homeunix.thecave.buddi.model.prefs.PrefsModel;
+import org.homeunix.thecave.buddi.model.swing.AutoCompleteDescriptionModel;
 import org.homeunix.thecave.buddi.model.swing.AutoCompleteEntryModel;
 import org.homeunix.thecave.buddi.model.swing.DescriptionList;
 import org.homeunix.thecave.buddi.model.swing.SourceComboBoxModel;
@@ -71,7 +72,6 @@ import ca.digitalcave.moss.swing.MossHintTextField;
 import ca.digitalcave.moss.swing.MossPanel;
 import ca.digitalcave.moss.swing.MossScrollingComboBox;
 import ca.digitalcave.moss.swing.exception.WindowOpenException;
-import ca.digitalcave.moss.swing.model.AutoCompleteMossHintComboBoxModel;
 import ca.digitalcave.moss.swing.model.BackedComboBoxModel;
 
 /**
@@ -132,7 +132,7 @@ public class TransactionEditorPanel extends MossPanel {
 		description.setMaximumRowCount(5);
 
 		if (PrefsModel.getInstance().isShowAutoComplete())
-			description.setModel(new AutoCompleteMossHintComboBoxModel<String>(description, new DescriptionList(this.model)));
+			description.setModel(new AutoCompleteDescriptionModel(description, this.model));
 		else
 			description.setModel(new BackedComboBoxModel<String>(new DescriptionList(this.model)));
 		memo = new MossHintTextArea(PrefsModel.getInstance().getTranslator().get(BuddiKeys.HINT_MEMO));
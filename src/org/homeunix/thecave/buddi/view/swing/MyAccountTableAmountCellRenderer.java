@@ -71,7 +71,7 @@ public class MyAccountTableAmountCellRenderer extends DefaultTableCellRenderer {
 					if (interestRate != 0){
 						this.setText(TextFormatter.getHtmlWrapper(
 								TextFormatter.getDeletedWrapper(
-										Formatter.getDecimalFormat(3).format((double) interestRate / 1000.0)
+										Formatter.formatDecimal((double) interestRate / 1000.0, 3)
 										+ "%", 
 										a)));
 					}
@@ -82,10 +82,12 @@ public class MyAccountTableAmountCellRenderer extends DefaultTableCellRenderer {
 			if (column == 1){
 				AccountType t = (AccountType) value;
 				long amount = 0;
-				for (Account a : new FilteredLists.AccountListFilteredByType(document, document.getAccounts(), t)) {
+				FilteredLists.AccountListFilteredByType accounts = new FilteredLists.AccountListFilteredByType(document, document.getAccounts(), t);
+				for (Account a : accounts) {
 					if (!a.isDeleted())
 						amount += a.getBalance();
 				}
+				accounts.dispose();
 				this.setText(TextFormatter.getHtmlWrapper(
 						TextFormatter.getFormattedCurrency(
 								amount, 